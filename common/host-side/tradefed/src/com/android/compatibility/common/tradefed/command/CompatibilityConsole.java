@@ -18,11 +18,11 @@ package com.android.compatibility.common.tradefed.command;
 import com.android.compatibility.SuiteInfo;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
-import com.android.compatibility.common.tradefed.result.IInvocationResultRepo;
-import com.android.compatibility.common.tradefed.result.InvocationResultRepo;
 import com.android.compatibility.common.tradefed.result.SubPlanCreator;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
 import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.InvocationSummary;
+import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.tradefed.command.Console;
 import com.android.tradefed.config.ArgsOptionParser;
@@ -344,18 +344,18 @@ public class CompatibilityConsole extends Console {
     private void listResults() {
         TableFormatter tableFormatter = new TableFormatter();
         List<List<String>> table = new ArrayList<>();
-        IInvocationResultRepo testResultRepo = null;
-        List<IInvocationResult> results = null;
+        List<InvocationSummary> summaries = null;
         try {
-            testResultRepo = new InvocationResultRepo(getBuildHelper().getResultsDir());
-            results = testResultRepo.getResults();
+            // Only the summaries are needed here, so avoid parsing every test result.
+            summaries = ResultHandler.getResultSummaries(getBuildHelper().getResultsDir());
         } catch (FileNotFoundException e) {
             printLine(e.getMessage());
             e.printStackTrace();
         }
-        if (testResultRepo != null && results.size() > 0) {
-            for (int i = 0; i < results.size(); i++) {
-                IInvocationResult result = results.get(i);
+        if (summaries != null && summaries.size() > 0) {
+            for (int i = 0; i < summaries.size(); i++) {
+                InvocationSummary summary = summaries.get(i);
+                IInvocationResult result = summary.getInvocation();
                 Map<String, String> invocationInfo = result.getInvocationInfo();
 
                 // invocation attributes are not always present (e.g. in the case of halted runs)
@@ -367,13 +367,13 @@ public class CompatibilityConsole extends Console {
                 }
 
                 String moduleProgress = String.format("%d of %d",
-                        result.getModuleCompleteCount(), result.getModules().size());
+                        summary.getModuleCompleteCount(), summary.getModuleCount());
 
                 table.add(Arrays.asList(
                         Integer.toString(i),
-                        Integer.toString(result.countResults(TestStatus.PASS)),
-                        Integer.toString(result.countResults(TestStatus.FAIL)),
-                        Integer.toString(result.getNotExecuted()),
+                        Integer.toString(summary.countResults(TestStatus.PASS)),
+                        Integer.toString(summary.countResults(TestStatus.FAIL)),
+                        Integer.toString(summary.getNotExecuted()),
                         moduleProgress,
                         CompatibilityBuildHelper.getDirSuffix(result.getStartTime()),
                         result.getTestPlan(),
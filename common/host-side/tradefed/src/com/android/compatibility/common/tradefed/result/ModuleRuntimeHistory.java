@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.IResultVisitor;
+import com.android.compatibility.common.util.InvocationSummary;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.TimeUtil;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A local store of how long each module took to run in previous sessions, overall and per device
+ * model, used in place of the static runtime hints of the module configs.
+ * <p/>
+ * Runtimes are kept as a moving average over the last few sessions, so that the estimates track
+ * changes to the modules and devices without being thrown off by a single slow run.
+ */
+public class ModuleRuntimeHistory {
+
+    public static final String FILE_NAME = "module_runtimes.txt";
+    public static final String SHARD_REPORT_NAME = "shard_runtimes.txt";
+    public static final String MODEL_KEY = "build_model";
+
+    private static final String MAP_DELIMITER = "->";
+    private static final String MODEL_DELIMITER = "/";
+    // Number of sessions the moving average is taken over
+    private static final int WINDOW = 5;
+
+    private final File mFile;
+    private final Map<String, Estimate> mEstimates = new HashMap<>();
+
+    private ModuleRuntimeHistory(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Loads the runtime history of the Compatibility installation. If there is none yet, it is
+     * built from the sessions in the results directory and saved, so that they are only parsed
+     * once.
+     */
+    public static ModuleRuntimeHistory load(final CompatibilityBuildHelper buildHelper)
+            throws FileNotFoundException {
+        File file = new File(buildHelper.getDir(), FILE_NAME);
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(file);
+        if (file.exists()) {
+            try {
+                history.parse(FileUtil.readStringFromFile(file));
+                return history;
+            } catch (IOException | NumberFormatException e) {
+                CLog.e("Could not read module runtime history %s, rebuilding it",
+                        file.getAbsolutePath());
+                CLog.e(e);
+                history.mEstimates.clear();
+            }
+        }
+        for (File resultDir : ResultHandler.getResultDirectories(buildHelper.getResultsDir())) {
+            history.recordSession(resultDir);
+        }
+        try {
+            history.save();
+        } catch (IOException e) {
+            CLog.e("Exception while writing module runtime history.");
+            CLog.e(e);
+        }
+        return history;
+    }
+
+    /**
+     * @return the expected runtime in ms of the given module on the given device model, or
+     * overall if there is no history for that model. Returns null if the module never completed.
+     */
+    public Long getRuntime(String model, String moduleId) {
+        Estimate estimate = null;
+        if (model != null && !model.isEmpty()) {
+            estimate = mEstimates.get(model + MODEL_DELIMITER + moduleId);
+        }
+        if (estimate == null) {
+            estimate = mEstimates.get(moduleId);
+        }
+        return estimate == null ? null : estimate.mRuntime;
+    }
+
+    /**
+     * Adds the runtime of a completed module to the history.
+     */
+    public void record(String model, String moduleId, long runtime) {
+        if (runtime <= 0) {
+            return;
+        }
+        update(moduleId, runtime);
+        if (model != null && !model.isEmpty()) {
+            update(model + MODEL_DELIMITER + moduleId, runtime);
+        }
+    }
+
+    /**
+     * Adds the runtimes of all completed modules of an invocation to the history.
+     *
+     * @param previouslyDone the ids of the modules which were done in the session being retried.
+     * They are skipped, as a retry only reruns some of their tests. The runtime of a module
+     * completed by the retry includes the time spent on it in the retried session, so covers
+     * the whole module.
+     */
+    public void record(IInvocationResult result, Set<String> previouslyDone) {
+        String model = result.getInvocationInfo().get(MODEL_KEY);
+        for (IModuleResult module : result.getModules()) {
+            if (module.isDone() && !previouslyDone.contains(module.getId())) {
+                record(model, module.getId(), module.getRuntime());
+            }
+        }
+    }
+
+    /**
+     * Writes the history back to the Compatibility installation.
+     */
+    public void save() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Estimate> entry : mEstimates.entrySet()) {
+            Estimate estimate = entry.getValue();
+            sb.append(String.format("%s%s%d%s%d\n", entry.getKey(), MAP_DELIMITER,
+                    estimate.mRuntime, MAP_DELIMITER, estimate.mSamples));
+        }
+        // Write to a temporary file first so that a concurrent reader never sees a partial file
+        synchronized (ModuleRuntimeHistory.class) {
+            File tmp = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+            FileUtil.writeToFile(sb.toString(), tmp);
+            if (!tmp.renameTo(mFile)) {
+                FileUtil.deleteFile(tmp);
+                throw new IOException(
+                        String.format("Could not write %s", mFile.getAbsolutePath()));
+            }
+        }
+    }
+
+    /**
+     * Records the runtimes of a finished invocation in the history of the Compatibility
+     * installation.
+     *
+     * @param previouslyDone see {@link #record(IInvocationResult, Set)}
+     */
+    public static void recordResult(final CompatibilityBuildHelper buildHelper,
+            IInvocationResult result, Set<String> previouslyDone) {
+        try {
+            synchronized (ModuleRuntimeHistory.class) {
+                // A new history is built from all results, including the one just written
+                boolean existed = new File(buildHelper.getDir(), FILE_NAME).exists();
+                ModuleRuntimeHistory history = load(buildHelper);
+                if (existed) {
+                    history.record(result, previouslyDone);
+                    history.save();
+                }
+            }
+        } catch (IOException e) {
+            CLog.e("Exception while writing module runtime history.");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Logs and appends to the report of the current session how long a shard was predicted to
+     * take and how long it actually took.
+     */
+    public static void reportShard(final CompatibilityBuildHelper buildHelper, String serial,
+            int modules, long predicted, long actual) {
+        String line = String.format("%s: %d modules, predicted %s, actual %s (%+d%%)", serial,
+                modules, TimeUtil.formatElapsedTime(predicted),
+                TimeUtil.formatElapsedTime(actual),
+                predicted > 0 ? Math.round(100.0 * (actual - predicted) / predicted) : 0);
+        CLog.logAndDisplay(LogLevel.INFO, "Shard completed %s", line);
+        synchronized (ModuleRuntimeHistory.class) {
+            try (FileWriter writer = new FileWriter(
+                    new File(buildHelper.getResultDir(), SHARD_REPORT_NAME), true)) {
+                writer.write(line);
+                writer.write("\n");
+            } catch (IOException e) {
+                CLog.e("Exception while writing shard runtime report.");
+                CLog.e(e);
+            }
+        }
+    }
+
+    private void update(String key, long runtime) {
+        Estimate estimate = mEstimates.get(key);
+        if (estimate == null) {
+            mEstimates.put(key, new Estimate(runtime, 1));
+            return;
+        }
+        // A plain average until the window is full, then an exponential moving average
+        int samples = Math.min(estimate.mSamples + 1, WINDOW);
+        estimate.mRuntime += (runtime - estimate.mRuntime) / samples;
+        estimate.mSamples = samples;
+    }
+
+    private void parse(String str) {
+        for (String line : str.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(MAP_DELIMITER);
+            mEstimates.put(parts[0],
+                    new Estimate(Long.parseLong(parts[1]), Integer.parseInt(parts[2])));
+        }
+    }
+
+    /**
+     * Streams the module runtimes of a previous session into the history. Retries are skipped,
+     * as their runtimes include those of the sessions they retried, which are recorded already.
+     */
+    private void recordSession(File resultDir) {
+        try {
+            final String[] model = new String[1];
+            ResultHandler.parseResults(resultDir, false, new IResultVisitor() {
+                @Override
+                public boolean visitSummary(InvocationSummary summary) {
+                    model[0] = summary.getInvocation().getInvocationInfo().get(MODEL_KEY);
+                    return summary.getRetrySession() == null;
+                }
+
+                @Override
+                public void visitModule(IModuleResult module) {}
+
+                @Override
+                public void visitCase(IModuleResult module, ICaseResult caseResult) {}
+
+                @Override
+                public void endModule(IModuleResult module) {
+                    if (module.isDone()) {
+                        record(model[0], module.getId(), module.getRuntime());
+                    }
+                }
+            });
+        } catch (IOException | XmlPullParserException e) {
+            CLog.e("Could not read module runtimes of %s", resultDir.getName());
+            CLog.e(e);
+        }
+    }
+
+    private static class Estimate {
+        long mRuntime;
+        int mSamples;
+
+        Estimate(long runtime, int samples) {
+            mRuntime = runtime;
+            mSamples = samples;
+        }
+    }
+}
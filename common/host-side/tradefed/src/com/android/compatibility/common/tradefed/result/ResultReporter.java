@@ -20,6 +20,7 @@ import com.android.compatibility.common.tradefed.result.InvocationFailureHandler
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest.RetryType;
+import com.android.compatibility.common.util.CompactInvocationResult;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
@@ -28,8 +29,10 @@ import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.MetricsStore;
 import com.android.compatibility.common.util.ReportLog;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.ResultUploader;
 import com.android.compatibility.common.util.TestStatus;
+import com.android.compatibility.common.util.ZipArchiveBuilder;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.IBuildInfo;
@@ -51,7 +54,6 @@ import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -103,6 +105,18 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Option(name = "use-log-saver", description = "Also saves generated result with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "compact-results", description = "Keep results in a compact form which uses "
+            + "much less memory for invocations with a very large number of tests.")
+    private boolean mCompactResults = false;
+
+    @Option(name = "journal-results", description = "Record results in a journal while the "
+            + "invocation runs, so that they can be recovered if the host dies before the end.")
+    private boolean mJournalResults = true;
+
+    @Option(name = "reuse-retry-archive", description = "Copy the unchanged files of a retried "
+            + "session from its archive instead of compressing them again.")
+    private boolean mReuseRetryArchive = true;
+
     private CompatibilityBuildHelper mBuildHelper;
     private File mResultDir = null;
     private File mLogDir = null;
@@ -112,6 +126,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private int invocationEndedCount = 0;
 
     private IInvocationResult mResult = new InvocationResult();
+    // Ids of the modules which were done in the session being retried
+    private Set<String> mPreviouslyDone = new HashSet<>();
+    // Only set on the master, shards write to the journal of the master
+    private volatile ResultJournal mJournal = null;
     private IModuleResult mCurrentModuleResult;
     private ICaseResult mCurrentCaseResult;
     private ITestResult mCurrentResult;
@@ -168,6 +186,12 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
 
         if (isShardResultReporter()) {
+            synchronized(this) {
+                if (mCompactResults && !(mResult instanceof CompactInvocationResult)) {
+                    // Shards build their module results locally before merging them
+                    mResult = new CompactInvocationResult();
+                }
+            }
             // Shard ResultReporters forward invocationStarted to the mMasterResultReporter
             mMasterResultReporter.invocationStarted(buildInfo);
             return;
@@ -192,6 +216,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 // invoked twice during the same invocation.
                 initializeResultDirectories();
             }
+            journalInvocationStarted(buildInfo);
         }
     }
 
@@ -204,9 +229,18 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         try {
             // Initialize the result directory. Either a new directory or reusing
             // an existing session.
+            if (mCompactResults) {
+                mResult = new CompactInvocationResult();
+            }
             if (mRetrySessionId != null) {
                 // Overwrite the mResult with the test results of the previous session
-                mResult = ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId);
+                mResult = ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId,
+                        mResult);
+                for (IModuleResult module : mResult.getModules()) {
+                    if (module.isDone()) {
+                        mPreviouslyDone.add(module.getId());
+                    }
+                }
             }
             mResult.setStartTime(mBuildHelper.getStartTime());
             mResultDir = mBuildHelper.getResultDir();
@@ -241,6 +275,41 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             throw new IllegalArgumentException(String.format("Could not create log dir %s",
                     mLogDir.getAbsolutePath()));
         }
+
+        if (mJournalResults) {
+            try {
+                mJournal = ResultJournal.create(mResultDir, mBuildHelper.getSuiteName(),
+                        mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                        mBuildHelper.getSuiteBuild(), mResult.getStartTime(),
+                        mBuildHelper.getCommandLineArgs(),
+                        mRetrySessionId != null ? mResult.getRetryDirectory() : null);
+            } catch (IOException e) {
+                warn("Failed to create result journal in %s", mResultDir.getAbsolutePath());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Record the device and build info of an invocation in the journal.
+     */
+    private void journalInvocationStarted(IBuildInfo buildInfo) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            if (buildInfo.getDeviceSerial() != null) {
+                mJournal.addDeviceSerial(buildInfo.getDeviceSerial());
+            }
+            for (Map.Entry<String, String> entry : buildInfo.getBuildAttributes().entrySet()) {
+                if (entry.getKey().startsWith(BUILD_INFO)) {
+                    mJournal.addInvocationInfo(entry.getKey().substring(CTS_PREFIX.length()),
+                            entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            journalFailed(e);
+        }
     }
 
     /**
@@ -294,6 +363,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     public void testEnded(TestIdentifier test, Map<String, String> metrics) {
         if (mCurrentResult.getResultStatus() == TestStatus.FAIL) {
             // Test has previously failed.
+            journalTestEnded();
             return;
         }
         // device test can have performance results in test metrics
@@ -315,6 +385,45 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // not any other state.
             mCurrentResult.passed(report);
         }
+        journalTestEnded();
+    }
+
+    /**
+     * Record the current test result in the journal of the master ResultReporter.
+     */
+    private void journalTestEnded() {
+        ResultJournal journal = isShardResultReporter()
+                ? mMasterResultReporter.mJournal : mJournal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.testEnded(mCurrentModuleResult.getId(), mCurrentResult);
+        } catch (IOException e) {
+            journalFailed(e);
+        }
+    }
+
+    /**
+     * Record the state of a module in the journal, after a test run has ended.
+     */
+    private void journalTestRunEnded(IModuleResult moduleResult) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.testRunEnded(moduleResult);
+        } catch (IOException e) {
+            journalFailed(e);
+        }
+    }
+
+    /**
+     * The results are still kept in memory, so a failure to write the journal only loses the
+     * ability to recover them after a crash.
+     */
+    private void journalFailed(IOException e) {
+        warn("Failed to write result journal: %s", e.getMessage());
     }
 
     /**
@@ -379,6 +488,8 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // Forward module results to the master.
             mMasterResultReporter.mergeModuleResult(mCurrentModuleResult);
             mCurrentModuleResult.resetTestRuns();
+        } else {
+            journalTestRunEnded(mCurrentModuleResult);
         }
     }
 
@@ -392,6 +503,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         // report from a retry to contain all test results.
         synchronized(this) {
             mResult.mergeModuleResult(moduleResult);
+            journalTestRunEnded(mResult.getOrCreateModule(moduleResult.getId()));
         }
     }
 
@@ -492,16 +604,32 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
             copyFormattingFiles(mResultDir);
 
+            if (mJournal != null) {
+                // Complete the journal, so that it can be recovered if writing the result fails
+                mJournal.close();
+            }
             File resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
                     mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
                     mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
                     elapsedTime + startTime, mReferenceUrl, getLogUrl(),
                     mBuildHelper.getCommandLineArgs());
+            ModuleRuntimeHistory.recordResult(mBuildHelper, mResult, mPreviouslyDone);
+            if (mJournal != null) {
+                // The journal is redundant once the result file is written
+                mJournal.delete();
+                mJournal = null;
+            }
+            File previousZip = null;
             if (mRetrySessionId != null) {
-                copyRetryFiles(ResultHandler.getResultDirectory(
-                        mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+                File previousDir = ResultHandler.getResultDirectory(
+                        mBuildHelper.getResultsDir(), mRetrySessionId);
+                copyRetryFiles(previousDir, mResultDir);
+                if (mReuseRetryArchive) {
+                    previousZip = new File(previousDir.getParent(),
+                            String.format("%s.zip", previousDir.getName()));
+                }
             }
-            File zippedResults = zipResults(mResultDir);
+            File zippedResults = zipResults(mResultDir, previousZip);
 
             // Create failure report after zip file so extra data is not uploaded
             File failureReport = ResultHandler.createFailureReport(resultFile);
@@ -519,6 +647,11 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         } catch (IOException | XmlPullParserException e) {
             CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
             CLog.e(e);
+        } finally {
+            if (mJournal != null) {
+                // Keep the journal so that the results can be recovered later
+                StreamUtil.close(mJournal);
+            }
         }
     }
 
@@ -746,19 +879,25 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     }
 
     /**
-     * Zip the contents of the given results directory.
+     * Zip the contents of the given results directory, compressing files in parallel.
      *
      * @param resultsDir
+     * @param previousZip the archive of the retried session, or null. Files unchanged since
+     * then are copied from it without being compressed again.
      */
-    private static File zipResults(File resultsDir) {
+    private static File zipResults(File resultsDir, File previousZip) {
         File zipResultFile = null;
         try {
             // create a file in parent directory, with same name as resultsDir
             zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
                     resultsDir.getName()));
-            ZipUtil.createZip(resultsDir, zipResultFile);
+            int reused = ZipArchiveBuilder.createZip(resultsDir, zipResultFile, previousZip);
+            if (previousZip != null) {
+                CLog.d("Copied %d entries from %s", reused, previousZip.getName());
+            }
         } catch (IOException e) {
             warn("Failed to create zip for %s", resultsDir.getName());
+            CLog.e(e);
         }
         return zipResultFile;
     }
@@ -23,8 +23,12 @@ import com.android.compatibility.common.tradefed.util.OptionHelper;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.IResultVisitor;
 import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.InvocationSummary;
+import com.android.compatibility.common.util.ModuleResult;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.Log.LogLevel;
@@ -34,6 +38,8 @@ import com.android.tradefed.config.Option;
 import com.android.tradefed.config.Option.Importance;
 import com.android.tradefed.log.LogUtil.CLog;
 
+import org.xmlpull.v1.XmlPullParserException;
+
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -44,6 +50,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -106,6 +113,8 @@ public class SubPlanCreator {
 
     File mSubPlanFile = null;
     IInvocationResult mResult = null;
+    /** The session directory to stream module results from, if no result was set. */
+    File mResultDir = null;
 
     /**
      * Create an empty {@link SubPlanCreator}.
@@ -130,6 +139,17 @@ public class SubPlanCreator {
      */
     public void setResult(IInvocationResult result) {
         mResult = result;
+        mResultDir = null;
+    }
+
+    /**
+     * Set the session from which to derive the subplan. Its module results are read from its
+     * result directory, see {@link ResultHandler#parseResultStatuses}.
+     * @param summary
+     */
+    public void setResultSummary(InvocationSummary summary) {
+        mResult = summary.getInvocation();
+        mResultDir = mResult.getRetryDirectory();
     }
 
     /**
@@ -184,46 +204,110 @@ public class SubPlanCreator {
             subPlan.addIncludeFilter(new TestFilter(mAbiName, mModuleName, mTestName).toString());
         }
         Set<TestStatus> statusesToRun = getStatusesToRun();
-        for (IModuleResult module : mResult.getModules()) {
-            if (shouldRunModule(module)) {
-                TestFilter moduleInclude =
-                            new TestFilter(module.getAbi(), module.getName(), null /*test*/);
-                if (shouldRunEntireModule(module)) {
-                    // include entire module
-                    subPlan.addIncludeFilter(moduleInclude.toString());
-                } else if (mResultTypes.contains(NOT_EXECUTED) && !module.isDone()) {
-                    // add module include and test excludes
-                    subPlan.addIncludeFilter(moduleInclude.toString());
-                    for (ICaseResult caseResult : module.getResults()) {
-                        for (ITestResult testResult : caseResult.getResults()) {
-                            if (!statusesToRun.contains(testResult.getResultStatus())) {
-                                TestFilter testExclude = new TestFilter(module.getAbi(),
-                                        module.getName(), testResult.getFullName());
-                                subPlan.addExcludeFilter(testExclude.toString());
-                            }
+        if (mResultDir != null) {
+            streamModuleFilters(subPlan, statusesToRun);
+        } else {
+            for (IModuleResult module : mResult.getModules()) {
+                addModuleFilters(subPlan, module, statusesToRun);
+            }
+        }
+        return subPlan;
+    }
+
+    /**
+     * Adds the filters for each module of the session in mResultDir, reading the status of its
+     * tests from its index, or the result file one module at a time, rather than loading the
+     * whole session. A session which did not finish has no result file, its results are read
+     * from its journal instead.
+     */
+    private void streamModuleFilters(final ISubPlan subPlan,
+            final Set<TestStatus> statusesToRun) {
+        boolean parsed;
+        try {
+            parsed = ResultHandler.parseResultStatuses(mResultDir, true, new IResultVisitor() {
+                private IModuleResult mModule = null;
+
+                @Override
+                public boolean visitSummary(InvocationSummary summary) {
+                    return true;
+                }
+
+                @Override
+                public void visitModule(IModuleResult module) {
+                    mModule = new ModuleResult(module.getId());
+                }
+
+                @Override
+                public void visitCase(IModuleResult module, ICaseResult caseResult) {
+                    mModule.getOrCreateResult(caseResult.getName()).mergeFrom(caseResult);
+                }
+
+                @Override
+                public void endModule(IModuleResult module) {
+                    mModule.initializeDone(module.isDone());
+                    mModule.setNotExecuted(module.getNotExecuted());
+                    addModuleFilters(subPlan, mModule, statusesToRun);
+                    mModule = null;
+                }
+            });
+        } catch (IOException | XmlPullParserException e) {
+            throw new RuntimeException(e);
+        }
+        if (!parsed) {
+            IInvocationResult journaled = ResultJournal.read(mResultDir);
+            if (journaled == null) {
+                throw new RuntimeException(String.format(
+                        "Could not read results of session %d from %s", mSessionId,
+                        mResultDir.getAbsolutePath()));
+            }
+            for (IModuleResult module : journaled.getModules()) {
+                addModuleFilters(subPlan, module, statusesToRun);
+            }
+        }
+    }
+
+    /**
+     * Adds the include and exclude filters needed to rerun the requested tests of a module.
+     */
+    private void addModuleFilters(ISubPlan subPlan, IModuleResult module,
+            Set<TestStatus> statusesToRun) {
+        if (shouldRunModule(module)) {
+            TestFilter moduleInclude =
+                        new TestFilter(module.getAbi(), module.getName(), null /*test*/);
+            if (shouldRunEntireModule(module)) {
+                // include entire module
+                subPlan.addIncludeFilter(moduleInclude.toString());
+            } else if (mResultTypes.contains(NOT_EXECUTED) && !module.isDone()) {
+                // add module include and test excludes
+                subPlan.addIncludeFilter(moduleInclude.toString());
+                for (ICaseResult caseResult : module.getResults()) {
+                    for (ITestResult testResult : caseResult.getResults()) {
+                        if (!statusesToRun.contains(testResult.getResultStatus())) {
+                            TestFilter testExclude = new TestFilter(module.getAbi(),
+                                    module.getName(), testResult.getFullName());
+                            subPlan.addExcludeFilter(testExclude.toString());
                         }
                     }
-                } else {
-                    // Not-executed tests should not be rerun and/or this module is completed
-                    // In any such case, it suffices to add includes for each test to rerun
-                    for (ICaseResult caseResult : module.getResults()) {
-                        for (ITestResult testResult : caseResult.getResults()) {
-                            if (statusesToRun.contains(testResult.getResultStatus())) {
-                                TestFilter testInclude = new TestFilter(module.getAbi(),
-                                        module.getName(), testResult.getFullName());
-                                subPlan.addIncludeFilter(testInclude.toString());
-                            }
+                }
+            } else {
+                // Not-executed tests should not be rerun and/or this module is completed
+                // In any such case, it suffices to add includes for each test to rerun
+                for (ICaseResult caseResult : module.getResults()) {
+                    for (ITestResult testResult : caseResult.getResults()) {
+                        if (statusesToRun.contains(testResult.getResultStatus())) {
+                            TestFilter testInclude = new TestFilter(module.getAbi(),
+                                    module.getName(), testResult.getFullName());
+                            subPlan.addIncludeFilter(testInclude.toString());
                         }
                     }
                 }
-            } else {
-                // module should not run, exclude entire module
-                TestFilter moduleExclude =
-                        new TestFilter(module.getAbi(), module.getName(), null /*test*/);
-                subPlan.addExcludeFilter(moduleExclude.toString());
             }
+        } else {
+            // module should not run, exclude entire module
+            TestFilter moduleExclude =
+                    new TestFilter(module.getAbi(), module.getName(), null /*test*/);
+            subPlan.addExcludeFilter(moduleExclude.toString());
         }
-        return subPlan;
     }
 
     /**
@@ -295,15 +379,23 @@ public class SubPlanCreator {
             if (mSessionId == null) {
                 throw new ConfigurationException("Missing --session argument");
             }
+            if (mSessionId < 0) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid session id [%d] ", mSessionId));
+            }
+            // Only read the summary here, module results are streamed in createSubPlan.
+            List<InvocationSummary> summaries;
             try {
-                mResult = ResultHandler.findResult(buildHelper.getResultsDir(), mSessionId);
+                summaries = ResultHandler.getResultSummaries(buildHelper.getResultsDir());
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
-            if (mResult == null) {
+            if (mSessionId >= summaries.size()) {
                 throw new IllegalArgumentException(String.format(
                         "Could not find session with id %d", mSessionId));
             }
+            mResult = summaries.get(mSessionId).getInvocation();
+            mResultDir = mResult.getRetryDirectory();
         }
 
         String retryCommandLineArgs = mResult.getCommandLineArgs();
@@ -19,6 +19,7 @@ package com.android.compatibility.common.tradefed.testtype;
 import com.android.compatibility.SuiteInfo;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.result.InvocationFailureHandler;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHistory;
 import com.android.compatibility.common.tradefed.result.SubPlanCreator;
 import com.android.compatibility.common.tradefed.targetprep.NetworkConnectivityChecker;
 import com.android.compatibility.common.tradefed.targetprep.SystemStatusChecker;
@@ -28,6 +29,7 @@ import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.InvocationSummary;
 import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.compatibility.common.util.TestStatus;
@@ -187,6 +189,14 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             description = "split the modules up to run on multiple devices concurrently.")
     private int mShards = 1;
 
+    @Option(name = "dynamic-sharding",
+            description = "when sharding, have each shard take the next longest module as it "
+            + "becomes free, instead of a fixed list of modules up front. Each module is "
+            + "prepared on the device which takes it, just before it runs. A module which fails "
+            + "preparation is given to another device; unlike with fixed lists, shards do not "
+            + "wait for every shard to prepare and a failure does not stop the other shards.")
+    private boolean mDynamicSharding = false;
+
     @Option(name = URL,
             description = "Specify the url for override config")
     private String mURL = "https://androidpartner.googleapis.com/v1/dynamicconfig/"
@@ -342,6 +352,9 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             synchronized (mModuleRepo) {
                 if (!mModuleRepo.isInitialized()) {
                     setupFilters();
+                    // The device info of the build is only collected later, so the model used
+                    // to look up module runtimes is read from the device
+                    mModuleRepo.setDeviceModel(mDevice.getProperty("ro.product.model"));
                     // Initialize the repository, {@link CompatibilityBuildHelper#getTestsDir} can
                     // throw a {@link FileNotFoundException}
                     mModuleRepo.initialize(mTotalShards, mBuildHelper.getTestsDir(), getAbis(),
@@ -358,14 +371,21 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             if (mRetrySessionId != null) {
                 loadRetryCommandLineArgs(mRetrySessionId);
             }
-            // Get the tests to run in this shard
-            List<IModuleDef> modules = mModuleRepo.getModules(getDevice().getSerialNumber());
+            // Get the tests to run in this shard, with dynamic sharding they are taken one at a
+            // time as the shard runs
+            List<IModuleDef> modules = mDynamicSharding ? new ArrayList<IModuleDef>()
+                    : mModuleRepo.getModules(getDevice().getSerialNumber());
 
             listener = new FailureListener(listener, getDevice(), mBugReportOnFailure,
                     mLogcatOnFailure, mScreenshotOnFailure, mRebootOnFailure, mMaxLogcatBytes);
             int moduleCount = modules.size();
-            CLog.logAndDisplay(LogLevel.INFO, "Starting %d module%s on %s", moduleCount,
-                    (moduleCount > 1) ? "s" : "", mDevice.getSerialNumber());
+            if (mDynamicSharding) {
+                CLog.logAndDisplay(LogLevel.INFO, "Starting modules on %s as it becomes free",
+                        mDevice.getSerialNumber());
+            } else {
+                CLog.logAndDisplay(LogLevel.INFO, "Starting %d module%s on %s", moduleCount,
+                        (moduleCount > 1) ? "s" : "", mDevice.getSerialNumber());
+            }
             if (mRebootBeforeTest) {
                 CLog.d("Rebooting device before test starts as requested.");
                 mDevice.reboot();
@@ -391,11 +411,7 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             // Set values and run preconditions
             boolean isPrepared = true; // whether the device has been successfully prepared
             for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
-                module.setBuild(mBuildHelper.getBuildInfo());
-                module.setDevice(mDevice);
-                module.setPreparerWhitelist(mPreparerWhitelist);
-                isPrepared &= (module.prepare(mSkipPreconditions, mPreconditionArgs));
+                isPrepared &= prepareModule(modules.get(i));
             }
             mModuleRepo.setPrepared(isPrepared);
 
@@ -416,9 +432,13 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             }
 
             // Run the tests
-            for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
+            IModuleDef module;
+            int index = 0;
+            long shardStart = System.currentTimeMillis();
+            long shardPredicted = 0;
+            while ((module = nextModule(modules, index++)) != null) {
                 long start = System.currentTimeMillis();
+                shardPredicted += module.getRuntimeHint();
 
                 if (mRebootPerModule) {
                     if ("user".equals(mDevice.getProperty("ro.build.type"))) {
@@ -468,11 +488,52 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                     runPostModuleCheck(module.getName(), checkers, mDevice, listener);
                 }
             }
+            ModuleRuntimeHistory.reportShard(mBuildHelper, mDevice.getSerialNumber(), index - 1,
+                    shardPredicted, System.currentTimeMillis() - shardStart);
         } catch (FileNotFoundException fnfe) {
             throw new RuntimeException("Failed to initialize modules", fnfe);
         }
     }
 
+    /**
+     * Sets up the given module to run on this device and runs its preconditions.
+     *
+     * @return whether the module was prepared successfully.
+     */
+    private boolean prepareModule(IModuleDef module) throws DeviceNotAvailableException {
+        module.setBuild(mBuildHelper.getBuildInfo());
+        module.setDevice(mDevice);
+        module.setPreparerWhitelist(mPreparerWhitelist);
+        return module.prepare(mSkipPreconditions, mPreconditionArgs);
+    }
+
+    /**
+     * Returns the next module for this shard to run. With dynamic sharding the module is taken
+     * from the repo and prepared first. Modules which fail preparation on this device are given
+     * back to the repo for another device to take.
+     *
+     * @return the module, or null if there are no more modules to run.
+     */
+    private IModuleDef nextModule(List<IModuleDef> modules, int index)
+            throws DeviceNotAvailableException {
+        if (!mDynamicSharding) {
+            return index < modules.size() ? modules.get(index) : null;
+        }
+        IModuleDef module;
+        while ((module = mModuleRepo.takeNextModule(mDevice.getSerialNumber())) != null) {
+            if (prepareModule(module)) {
+                return module;
+            }
+            CLog.logAndDisplay(LogLevel.ERROR, "Incorrect preparation detected for %s on %s",
+                    module.getId(), mDevice.getSerialNumber());
+            if (!mModuleRepo.returnModule(module, mDevice.getSerialNumber())) {
+                CLog.logAndDisplay(LogLevel.ERROR,
+                        "%s could not be prepared on any device, skipping it", module.getId());
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets the set of ABIs supported by both Compatibility and the device under test
      *
@@ -601,7 +662,8 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     void loadRetryCommandLineArgs(Integer sessionId) {
         IInvocationResult result = null;
         try {
-            result = ResultHandler.findResult(mBuildHelper.getResultsDir(), sessionId);
+            result = ResultHandler.findResultSummary(mBuildHelper.getResultsDir(), sessionId)
+                    .getInvocation();
         } catch (FileNotFoundException e) {
             // We should never reach this point, because this method should only be called
             // after setupFilters(), so result exists if we've gotten this far
@@ -628,13 +690,16 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             // eventually reset these options with values given in the previous session
             mModuleName = null;
             mTestName = null;
-            // Load the invocation result
-            IInvocationResult result = null;
+            // Load the invocation summary, the tests to retry are read from the index of the
+            // session by the SubPlanCreator
+            InvocationSummary summary = null;
             try {
-                result = ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId);
+                summary = ResultHandler.findResultSummary(mBuildHelper.getResultsDir(),
+                        mRetrySessionId);
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
+            IInvocationResult result = summary.getInvocation();
             if (result == null) {
                 throw new IllegalArgumentException(String.format(
                         "Could not find session with id %d", mRetrySessionId));
@@ -663,7 +728,7 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             }
 
             SubPlanCreator retryPlanCreator = new SubPlanCreator();
-            retryPlanCreator.setResult(result);
+            retryPlanCreator.setResultSummary(summary);
             if (RetryType.FAILED.equals(mRetryType)) {
                 // retry only failed tests
                 retryPlanCreator.addResultType(SubPlanCreator.FAILED);
@@ -52,6 +52,12 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
      */
     Set<String> getTokens();
 
+    /**
+     * Overrides the runtime hint given by the test, eg with the runtime measured in previous
+     * sessions.
+     */
+    void setRuntimeHint(long runtimeHint);
+
     /**
      * @return the {@link IRemoteTest} that runs the tests.
      */
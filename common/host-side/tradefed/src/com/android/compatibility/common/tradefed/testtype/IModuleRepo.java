@@ -39,6 +39,12 @@ public interface IModuleRepo {
      */
     void setPrepared(boolean isPrepared);
 
+    /**
+     * Sets the model of the device the modules run on, used to look up the runtimes measured on
+     * that model in previous sessions. Must be called before {@link #initialize}.
+     */
+    void setDeviceModel(String model);
+
     /**
      * @return true if this repository has been initialized.
      */
@@ -56,6 +62,24 @@ public interface IModuleRepo {
      */
     List<IModuleDef> getModules(String serial);
 
+    /**
+     * Takes the next module to run on the device referenced by the given serial from the modules
+     * shared by all shards, longest first. Unlike {@link #getModules(String)}, a shard which
+     * finishes early keeps taking work until none is left.
+     *
+     * @return the next module, or null if there are no modules left the device can run.
+     */
+    IModuleDef takeNextModule(String serial);
+
+    /**
+     * Gives back a module taken with {@link #takeNextModule(String)} which could not be prepared
+     * on the device referenced by the given serial, so that another device can take it. The
+     * device will not be given the module again.
+     *
+     * @return false if no other device can take the module, in which case it is dropped.
+     */
+    boolean returnModule(IModuleDef module, String serial);
+
     /**
      * @return the number of shards this repo is initialized for.
      */
@@ -67,6 +67,7 @@ public class ModuleDef implements IModuleDef {
     private IBuildInfo mBuild;
     private ITestDevice mDevice;
     private Set<String> mPreparerWhitelist = new HashSet<>();
+    private Long mRuntimeHint = null;
 
     public ModuleDef(String name, IAbi abi, IRemoteTest test,
             List<ITargetPreparer> preparers) {
@@ -161,12 +162,23 @@ public class ModuleDef implements IModuleDef {
      */
     @Override
     public long getRuntimeHint() {
+        if (mRuntimeHint != null) {
+            return mRuntimeHint;
+        }
         if (mTest instanceof IRuntimeHintProvider) {
             return ((IRuntimeHintProvider) mTest).getRuntimeHint();
         }
         return TimeUnit.MINUTES.toMillis(1); // Default 1 minute.
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRuntimeHint(long runtimeHint) {
+        mRuntimeHint = runtimeHint;
+    }
+
     /**
      * {@inheritDoc}
      */
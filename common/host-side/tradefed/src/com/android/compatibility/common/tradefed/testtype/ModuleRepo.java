@@ -16,6 +16,7 @@
 package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHistory;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.compatibility.common.util.TestFilter;
@@ -36,10 +37,12 @@ import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.TimeUtil;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -79,6 +82,9 @@ public class ModuleRepo implements IModuleRepo {
     private Map<String, List<TestFilter>> mIncludeFilters = new HashMap<>();
     private Map<String, List<TestFilter>> mExcludeFilters = new HashMap<>();
     private IConfigurationFactory mConfigFactory = ConfigurationFactory.getInstance();
+    // Runtimes measured in previous sessions, used instead of the runtime hints when known
+    private ModuleRuntimeHistory mRuntimeHistory = null;
+    private String mDeviceModel = null;
 
     private volatile boolean mInitialized = false;
     // Whether the modules in this repo are ready to run on their assigned devices.
@@ -94,6 +100,10 @@ public class ModuleRepo implements IModuleRepo {
     private List<IModuleDef> mLargeModules = new ArrayList<>();
     // Holds all the tests with tokens waiting to be run. Meaning the DUT must have a specific token.
     private List<IModuleDef> mTokenModules = new ArrayList<>();
+    // Whether the waiting modules have been sorted for takeNextModule
+    private boolean mSortedForTaking = false;
+    // The devices which failed to prepare each module, keyed by module id
+    private Map<String, Set<String>> mUnpreparedSerials = new HashMap<>();
 
     /**
      * {@inheritDoc}
@@ -222,6 +232,14 @@ public class ModuleRepo implements IModuleRepo {
         mPreparedLatch.countDown();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setDeviceModel(String model) {
+        mDeviceModel = model;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -267,6 +285,15 @@ public class ModuleRepo implements IModuleRepo {
         addFilters(includeFilters, mIncludeFilters, abis);
         // Exclude all the exclusions
         addFilters(excludeFilters, mExcludeFilters, abis);
+        try {
+            mRuntimeHistory = ModuleRuntimeHistory.load(new CompatibilityBuildHelper(buildInfo));
+            if (mDeviceModel == null) {
+                mDeviceModel = buildInfo.getBuildAttributes().get(
+                        "cts:" + ModuleRuntimeHistory.MODEL_KEY);
+            }
+        } catch (FileNotFoundException e) {
+            CLog.w("No module runtime history, using runtime hints: %s", e.getMessage());
+        }
 
         File[] configFiles = testsDir.listFiles(new ConfigFilter());
         if (configFiles.length == 0) {
@@ -328,7 +355,7 @@ public class ModuleRepo implements IModuleRepo {
                         if (test instanceof IBuildReceiver) {
                             ((IBuildReceiver)test).setBuild(buildInfo);
                         }
-                        addModuleDef(name, abi, test, pathArg);
+                        addModuleDef(name, abi, test, pathArg, shardedTests.size());
                     }
                 }
             } catch (ConfigurationException e) {
@@ -392,24 +419,39 @@ public class ModuleRepo implements IModuleRepo {
     }
 
     private void addModuleDef(String name, IAbi abi, IRemoteTest test,
-            String[] configPaths) throws ConfigurationException {
+            String[] configPaths, int parts) throws ConfigurationException {
         // Invokes parser to process the test module config file
         IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
-        addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers()));
+        IModuleDef moduleDef = new ModuleDef(name, abi, test, config.getTargetPreparers());
+        if (mRuntimeHistory != null) {
+            Long runtime = mRuntimeHistory.getRuntime(mDeviceModel, moduleDef.getId());
+            if (runtime != null) {
+                // The history holds the runtime of the whole module, split evenly between parts
+                moduleDef.setRuntimeHint(runtime / parts);
+            }
+        }
+        addModuleDef(moduleDef);
     }
 
     private void addModuleDef(IModuleDef moduleDef) {
+        getWaitingModules(moduleDef).add(moduleDef);
+        mModuleCount++;
+    }
+
+    /**
+     * @return the list of waiting modules the given module belongs to.
+     */
+    private List<IModuleDef> getWaitingModules(IModuleDef moduleDef) {
         Set<String> tokens = moduleDef.getTokens();
         if (tokens != null && !tokens.isEmpty()) {
-            mTokenModules.add(moduleDef);
+            return mTokenModules;
         } else if (moduleDef.getRuntimeHint() < SMALL_TEST) {
-            mSmallModules.add(moduleDef);
+            return mSmallModules;
         } else if (moduleDef.getRuntimeHint() < MEDIUM_TEST) {
-            mMediumModules.add(moduleDef);
+            return mMediumModules;
         } else {
-            mLargeModules.add(moduleDef);
+            return mLargeModules;
         }
-        mModuleCount++;
     }
 
     private void addFiltersToTest(IRemoteTest test, IAbi abi, String name) {
@@ -549,6 +591,118 @@ public class ModuleRepo implements IModuleRepo {
         return modules;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef takeNextModule(String serial) {
+        mSerials.add(serial);
+        Comparator<IModuleDef> order = new ExecutionOrderComparator();
+        if (!mSortedForTaking) {
+            // Sort in reverse execution order so the next module is at the end of each list
+            Comparator<IModuleDef> reverse = Collections.reverseOrder(order);
+            Collections.sort(mTokenModules, reverse);
+            Collections.sort(mLargeModules, reverse);
+            Collections.sort(mMediumModules, reverse);
+            Collections.sort(mSmallModules, reverse);
+            mSortedForTaking = true;
+        }
+        // Modules which need the tokens of this device go first, as only some devices can run them
+        Set<String> tokens = mDeviceTokens.get(serial);
+        if (tokens != null) {
+            for (int i = mTokenModules.size() - 1; i >= 0; i--) {
+                IModuleDef def = mTokenModules.get(i);
+                if (tokens.containsAll(def.getTokens()) && !isUnprepared(def, serial)) {
+                    return mTokenModules.remove(i);
+                }
+            }
+        }
+        List<IModuleDef> source = null;
+        int index = -1;
+        for (List<IModuleDef> bucket : Arrays.asList(mLargeModules, mMediumModules,
+                mSmallModules)) {
+            // The next module of the bucket which this device has not failed to prepare
+            for (int i = bucket.size() - 1; i >= 0; i--) {
+                if (!isUnprepared(bucket.get(i), serial)) {
+                    if (source == null || order.compare(bucket.get(i), source.get(index)) < 0) {
+                        source = bucket;
+                        index = i;
+                    }
+                    break;
+                }
+            }
+        }
+        // Modules which need tokens no device has can run anywhere
+        for (int i = mTokenModules.size() - 1; i >= 0; i--) {
+            IModuleDef def = mTokenModules.get(i);
+            if (!hasDeviceWithTokens(def.getTokens()) && !isUnprepared(def, serial)
+                    && (source == null || order.compare(def, source.get(index)) < 0)) {
+                source = mTokenModules;
+                index = i;
+            }
+        }
+        if (source == null) {
+            return null;
+        }
+        IModuleDef def = source.remove(index);
+        if (source == mTokenModules) {
+            CLog.logAndDisplay(LogLevel.WARN,
+                    String.format("No devices found with %s, running %s on %s",
+                            def.getTokens(), def.getId(), serial));
+        }
+        return def;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean returnModule(IModuleDef module, String serial) {
+        Set<String> serials = mUnpreparedSerials.get(module.getId());
+        if (serials == null) {
+            serials = new HashSet<>();
+            mUnpreparedSerials.put(module.getId(), serials);
+        }
+        serials.add(serial);
+        // Modules which need tokens can only run on the devices with those tokens, if any
+        int devices = mShards;
+        Set<String> tokens = module.getTokens();
+        if (tokens != null && !tokens.isEmpty() && hasDeviceWithTokens(tokens)) {
+            devices = 0;
+            for (Set<String> deviceTokens : mDeviceTokens.values()) {
+                if (deviceTokens.containsAll(tokens)) {
+                    devices++;
+                }
+            }
+        }
+        if (serials.size() >= devices) {
+            return false;
+        }
+        getWaitingModules(module).add(module);
+        mSortedForTaking = false;
+        return true;
+    }
+
+    /**
+     * @return true if the given module failed to prepare on the device with the given serial.
+     */
+    private boolean isUnprepared(IModuleDef module, String serial) {
+        Set<String> serials = mUnpreparedSerials.get(module.getId());
+        return serials != null && serials.contains(serial);
+    }
+
+    /**
+     * @return true if any device has all the given tokens.
+     */
+    private boolean hasDeviceWithTokens(Set<String> tokens) {
+        for (Set<String> deviceTokens : mDeviceTokens.values()) {
+            if (deviceTokens.containsAll(tokens)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Iterates through the remaining tests that require tokens and if the device has all the
      * required tokens it will queue that module to run on that device, else the module gets put
@@ -20,6 +20,7 @@ import com.android.compatibility.common.tradefed.command.CompatibilityConsoleTes
 import com.android.compatibility.common.tradefed.result.ChecksumReporterTest;
 import com.android.compatibility.common.tradefed.result.ConsoleReporterTest;
 import com.android.compatibility.common.tradefed.result.MetadataReporterTest;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHistoryTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterTest;
 import com.android.compatibility.common.tradefed.result.SubPlanCreatorTest;
 import com.android.compatibility.common.tradefed.targetprep.PropertyCheckTest;
@@ -54,6 +55,7 @@ public class UnitTests extends TestSuite {
         addTestSuite(CollectorUtilTest.class);
         addTestSuite(MetadataReporterTest.class);
         addTestSuite(ModuleDefTest.class);
+        addTestSuite(ModuleRuntimeHistoryTest.class);
         addTestSuite(ModuleRepoTest.class);
         addTestSuite(PropertyCheckTest.class);
         addTestSuite(SettingsPreparerTest.class);
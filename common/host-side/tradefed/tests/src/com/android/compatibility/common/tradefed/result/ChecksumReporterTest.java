@@ -25,17 +25,28 @@ import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
 import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.tradefed.build.BuildInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.util.FileUtil;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ChecksumReporterTest extends TestCase {
 
@@ -139,6 +150,87 @@ public class ChecksumReporterTest extends TestCase {
                 storedChecksum.containsFile(file1, mRoot.getName()));
     }
 
+    public void testFileSerializationManyFiles() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            File directory = new File(mRoot, "dir" + (i % 7) + "/sub" + (i % 3));
+            directory.mkdirs();
+            File file = new File(directory, "file" + i + ".txt");
+            try (FileWriter fileWriter = new FileWriter(file, false)) {
+                fileWriter.append("Content of file ").append(Integer.toString(i));
+            }
+            files.add(file);
+        }
+        mReporter.addDirectory(mRoot);
+        mReporter.saveToFile(mRoot);
+
+        ChecksumReporter storedChecksum = ChecksumReporter.load(mRoot);
+        for (File file : files) {
+            String path = mRoot.getName() + file.getParent().substring(mRoot.getPath().length());
+            assertTrue("Serializing checksum maintains hash of " + file,
+                    storedChecksum.containsFile(file, path));
+            assertFalse("Should not contain file in another directory",
+                    storedChecksum.containsFile(file, mRoot.getName()));
+        }
+        assertFalse("Should not contain non-existent file",
+                storedChecksum.containsFile(new File(mRoot, "fake.txt"), mRoot.getName()));
+    }
+
+    public void testLegacyFileSerialization() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        try (FileWriter fileWriter = new FileWriter(file1, false)) {
+            fileWriter.append("This is a test file");
+        }
+        BloomFilter<CharSequence> resultChecksum =
+                BloomFilter.create(Funnels.unencodedCharsFunnel(), 100, .001);
+        HashMap<String, byte[]> fileChecksum = new HashMap<>();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        fileChecksum.put(mRoot.getName() + "/file1.txt", digest.digest(
+                "This is a test file".getBytes("UTF-8")));
+        // Java serialization, as written by earlier versions
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(
+                new FileOutputStream(new File(mRoot, ChecksumReporter.NAME)))) {
+            objectOutput.writeShort(650);
+            objectOutput.writeShort(1);
+            objectOutput.writeObject(resultChecksum);
+            objectOutput.writeObject(fileChecksum);
+        }
+
+        ChecksumReporter storedChecksum = ChecksumReporter.load(mRoot);
+        assertTrue("Loading legacy checksum maintains file hash",
+                storedChecksum.containsFile(file1, mRoot.getName()));
+    }
+
+    public void testPrecalculatedFileChecksum() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        try (FileWriter fileWriter = new FileWriter(file1, false)) {
+            fileWriter.append("This is a test file");
+        }
+        Map<File, byte[]> fileChecksums = new HashMap<>();
+        fileChecksums.put(file1, MessageDigest.getInstance("SHA-256").digest(
+                "This is a test file".getBytes("UTF-8")));
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, mInvocationResult, fileChecksums));
+        assertTrue("Should contain precalculated file checksum",
+                ChecksumReporter.load(mRoot).containsFile(file1, mRoot.getName()));
+
+        // The precalculated checksum is used instead of reading the file
+        fileChecksums.put(file1, new byte[32]);
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, mInvocationResult, fileChecksums));
+        assertFalse("Should use precalculated file checksum",
+                ChecksumReporter.load(mRoot).containsFile(file1, mRoot.getName()));
+    }
+
+    public void testJournalSkipped() throws Exception {
+        File journal = new File(mRoot, ResultJournal.NAME);
+        try (FileWriter fileWriter = new FileWriter(journal, false)) {
+            fileWriter.append("journal");
+        }
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, mInvocationResult));
+        // The journal is deleted once the result file is written, so it is not checksummed
+        assertFalse("Should not contain the journal",
+                ChecksumReporter.load(mRoot).containsFile(journal, mRoot.getName()));
+    }
+
     public void testFileCRCOperations() throws IOException {
         File subDirectory = new File(mRoot, "child");
         subDirectory.mkdir();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.InvocationResult;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ModuleRuntimeHistoryTest extends TestCase {
+
+    private static final String ROOT_PROPERTY = "TESTS_ROOT";
+    private static final String BUILD_NUMBER = "2";
+    private static final String SUITE_PLAN = "cts";
+    private static final String DYNAMIC_CONFIG_URL = "";
+    private static final String ROOT_DIR_NAME = "root";
+    private static final String BASE_DIR_NAME = "android-tests";
+    private static final String ABI = "mips64";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String MODEL = "Nexus 5";
+    private static final String OTHER_MODEL = "Nexus 6";
+    private static final long START_TIME = 123456L;
+
+    private CompatibilityBuildHelper mBuildHelper;
+    private File mRoot = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mRoot = FileUtil.createTempDir(ROOT_DIR_NAME);
+        new File(mRoot, BASE_DIR_NAME).mkdirs();
+        System.setProperty(ROOT_PROPERTY, mRoot.getAbsolutePath());
+        IBuildInfo buildInfo = new BuildInfo(BUILD_NUMBER, "", "");
+        mBuildHelper = new CompatibilityBuildHelper(buildInfo);
+        mBuildHelper.init(SUITE_PLAN, DYNAMIC_CONFIG_URL, START_TIME);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mRoot);
+    }
+
+    public void testMovingAverage() throws Exception {
+        ModuleRuntimeHistory history = ModuleRuntimeHistory.load(mBuildHelper);
+        assertNull("Unexpected runtime", history.getRuntime(MODEL, ID_A));
+        history.record(MODEL, ID_A, 1000);
+        history.record(MODEL, ID_A, 2000);
+        assertEquals("Incorrect average", 1500L, (long) history.getRuntime(MODEL, ID_A));
+        for (int i = 0; i < 20; i++) {
+            history.record(MODEL, ID_A, 5000);
+        }
+        long runtime = history.getRuntime(MODEL, ID_A);
+        assertTrue("Expected average to converge", runtime > 4900 && runtime <= 5000);
+        // A model without history falls back to the overall runtime
+        history.record(OTHER_MODEL, ID_B, 100);
+        assertEquals("Incorrect fallback", runtime, (long) history.getRuntime(OTHER_MODEL, ID_A));
+        assertNull("Unexpected runtime", history.getRuntime(MODEL, "mips64 ModuleC"));
+    }
+
+    public void testRecordResult() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.addInvocationInfo(ModuleRuntimeHistory.MODEL_KEY, MODEL);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.addRuntime(3000);
+        moduleA.setDone(true);
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        moduleB.addRuntime(100);
+        moduleB.setDone(false);
+        // A previous session in the results directory seeds the history
+        File resultDir = mBuildHelper.getResultDir();
+        resultDir.mkdirs();
+        ResultHandler.writeResults("CTS", "5.0", SUITE_PLAN, BUILD_NUMBER, result, resultDir,
+                START_TIME, START_TIME + 3000, null, null, null);
+        ModuleRuntimeHistory history = ModuleRuntimeHistory.load(mBuildHelper);
+        assertTrue("Expected seeded history to be saved",
+                new File(mBuildHelper.getDir(), ModuleRuntimeHistory.FILE_NAME).exists());
+        // The model is read from the previous session
+        assertEquals("Incorrect runtime", 3000L, (long) history.getRuntime(MODEL, ID_A));
+        history.record(OTHER_MODEL, ID_A, 1000);
+        assertEquals("Incorrect model runtime", 3000L, (long) history.getRuntime(MODEL, ID_A));
+
+        // A retry skips the modules which were done in the retried session, and records the
+        // whole runtime of the modules it completed
+        Set<String> previouslyDone = new HashSet<>();
+        previouslyDone.add(ID_A);
+        moduleA.addRuntime(4000);
+        moduleB.addRuntime(900);
+        moduleB.setDone(true);
+        ModuleRuntimeHistory.recordResult(mBuildHelper, result, previouslyDone);
+        history = ModuleRuntimeHistory.load(mBuildHelper);
+        assertEquals("Incorrect runtime", 3000L, (long) history.getRuntime(MODEL, ID_A));
+        assertEquals("Incorrect runtime", 1000L, (long) history.getRuntime(MODEL, ID_B));
+    }
+
+    public void testSeedSkipsRetries() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.addInvocationInfo(ModuleRuntimeHistory.MODEL_KEY, MODEL);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.addRuntime(3000);
+        moduleA.setDone(true);
+        File resultsDir = mBuildHelper.getResultsDir();
+        File resultDir = new File(resultsDir, "session1");
+        resultDir.mkdirs();
+        ResultHandler.writeResults("CTS", "5.0", SUITE_PLAN, BUILD_NUMBER, result, resultDir,
+                START_TIME, START_TIME + 3000, null, null, null);
+        // A retry of that session, whose runtime includes that of the retried session
+        moduleA.addRuntime(500);
+        result.setRetryDirectory(resultDir);
+        File retryDir = new File(resultsDir, "session2");
+        retryDir.mkdirs();
+        ResultHandler.writeResults("CTS", "5.0", SUITE_PLAN, BUILD_NUMBER, result, retryDir,
+                START_TIME + 5000, START_TIME + 5500, null, null, null);
+        ModuleRuntimeHistory history = ModuleRuntimeHistory.load(mBuildHelper);
+        assertEquals("Incorrect runtime", 3000L, (long) history.getRuntime(MODEL, ID_A));
+    }
+}
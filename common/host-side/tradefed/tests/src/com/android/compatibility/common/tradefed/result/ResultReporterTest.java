@@ -22,6 +22,8 @@ import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.BuildInfo;
@@ -155,6 +157,20 @@ public class ResultReporterTest extends TestCase {
                 result3.getResultStatus());
     }
 
+    public void testResultJournal() throws Exception {
+        mReporter.invocationStarted(mBuildInfo);
+        makeTestRun(new String[] {METHOD_1, METHOD_2}, new boolean[] {true, false});
+        File[] children = mBuildHelper.getResultsDir().listFiles();
+        assertEquals("Expected 1 result dir", 1, children.length);
+        File journal = new File(children[0], ResultJournal.NAME);
+        assertTrue("Expected journal while invocation runs", journal.isFile());
+        assertTrue("Expected journaled results", journal.length() > 0);
+        mReporter.invocationEnded(10);
+        assertFalse("Expected journal to be deleted", journal.exists());
+        assertTrue("Expected result file",
+                new File(children[0], ResultHandler.TEST_RESULT_FILE_NAME).exists());
+    }
+
     private void makeTestRun(String[] methods, boolean[] passes) {
         mReporter.testRunStarted(ID, methods.length);
 
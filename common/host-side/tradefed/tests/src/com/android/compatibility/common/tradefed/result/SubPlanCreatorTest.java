@@ -25,6 +25,7 @@ import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.ITestResult;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.testrunner.TestIdentifier;
@@ -126,7 +127,44 @@ public class SubPlanCreatorTest extends TestCase {
         assertTrue(planIncludes.contains(tf3.toString())); // include failure in executed module
     }
 
+    public void testCreateSubPlanFromJournal() throws Exception {
+        // An invocation which did not finish leaves a journal and no result file
+        IInvocationResult result = createInvocationResult();
+        new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME).delete();
+        ResultJournal journal = ResultJournal.create(mResultDir, SUITE_NAME, SUITE_VERSION,
+                SUITE_PLAN, SUITE_BUILD, START_MS, COMMAND_LINE_ARGS, null);
+        for (IModuleResult module : result.getModules()) {
+            for (ICaseResult caseResult : module.getResults()) {
+                for (ITestResult testResult : caseResult.getResults()) {
+                    journal.testEnded(module.getId(), testResult);
+                }
+            }
+            journal.testRunEnded(module);
+        }
+        journal.close();
+
+        ISubPlan plan = mSubPlanCreator.createSubPlan(mBuildHelper);
+        Set<String> planIncludes = plan.getIncludeFilters();
+        Set<String> planExcludes = plan.getExcludeFilters();
+        TestFilter mf1 = new TestFilter(ABI, NAME_A, null);
+        TestFilter tf1 = new TestFilter(ABI, NAME_A, String.format("%s#%s", CLASS_A, METHOD_1));
+        TestFilter tf3 = new TestFilter(ABI, NAME_B, String.format("%s#%s", CLASS_B, METHOD_3));
+        assertTrue(planIncludes.contains("CtsMyModuleTestCases"));
+        assertTrue(planIncludes.contains(mf1.toString()));
+        assertTrue(planExcludes.contains(tf1.toString()));
+        assertTrue(planIncludes.contains(tf3.toString()));
+        // Only read, the journal is recovered when the session is retried
+        assertFalse(new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME).exists());
+    }
+
     private void populateResults() throws Exception {
+        // Serialize to file
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                createInvocationResult(), mResultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+    }
+
+    private IInvocationResult createInvocationResult() {
         // copied from ResultHandlerTest
         IInvocationResult result = new InvocationResult();
         result.setStartTime(START_MS);
@@ -151,11 +189,7 @@ public class SubPlanCreatorTest extends TestCase {
         moduleBTest3.setResultStatus(TestStatus.FAIL);
         ITestResult moduleBTest4 = moduleBCase.getOrCreateResult(METHOD_4);
         moduleBTest4.setResultStatus(TestStatus.PASS);
-
-        // Serialize to file
-        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
-                result, mResultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
-                COMMAND_LINE_ARGS);
+        return result;
     }
 
     private class SpctMockCompatibilityBuildHelper extends CompatibilityBuildHelper {
@@ -190,6 +190,61 @@ public class ModuleRepoTest extends TestCase {
         assertTrue("Unexpected device serial", serials.containsAll(SERIALS));
     }
 
+    public void testTakeNextModule() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Serial 3 should take the modules with tokens first
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.takeNextModule(SERIAL3).getName());
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.takeNextModule(SERIAL3).getName());
+        // Other devices never take the modules with tokens
+        List<IModuleDef> modules = new ArrayList<>();
+        IModuleDef module;
+        while ((module = mRepo.takeNextModule(SERIAL1)) != null) {
+            assertFalse("Wrong module", MODULE_NAME_C.equals(module.getName()));
+            modules.add(module);
+            if (modules.size() == 2) {
+                break;
+            }
+        }
+        while ((module = mRepo.takeNextModule(SERIAL2)) != null) {
+            assertFalse("Wrong module", MODULE_NAME_C.equals(module.getName()));
+            modules.add(module);
+        }
+        assertEquals("Wrong number of modules", 4, modules.size());
+        assertNull("Expected no modules left", mRepo.takeNextModule(SERIAL3));
+        assertEquals("Wrong number of serials", 3, mRepo.getSerials().size());
+    }
+
+    public void testReturnModule() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, new ArrayList<String>(), TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        IModuleDef module = mRepo.takeNextModule(SERIAL1);
+        assertTrue("Expected module to be given back", mRepo.returnModule(module, SERIAL1));
+        // The device which failed to prepare the module does not take it again
+        IModuleDef next;
+        while ((next = mRepo.takeNextModule(SERIAL1)) != null) {
+            assertFalse("Unexpected module", module.getId().equals(next.getId()));
+        }
+        assertEquals("Wrong module", module.getId(), mRepo.takeNextModule(SERIAL2).getId());
+        // No device is left to prepare it
+        assertFalse("Expected module to be dropped", mRepo.returnModule(module, SERIAL2));
+        assertNull("Expected no modules left", mRepo.takeNextModule(SERIAL2));
+    }
+
+    public void testTakeNextModuleNoDeviceWithTokens() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, new ArrayList<String>(), TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        Set<String> ids = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.takeNextModule(SERIAL1)) != null) {
+            ids.add(module.getId());
+        }
+        // Modules with tokens no device has are still run
+        assertEquals("Wrong number of modules", 6, ids.size());
+        assertTrue("Expected module with tokens", ids.contains(ID_C_32));
+        assertTrue("Expected module with tokens", ids.contains(ID_C_64));
+    }
+
     public void testConfigFilter() throws Exception {
         File[] configFiles = mTestsDir.listFiles(new ConfigFilter());
         assertEquals("Wrong number of config files found.", 3, configFiles.length);
@@ -24,6 +24,9 @@ import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,18 +34,29 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
 
 /***
  * Calculate and store checksum values for files and test results
+ * <p/>
+ * The checksum file holds the raw bits of the result bloom filter followed by a table of file
+ * checksums sorted by path, so that it can be memory mapped when loaded and files looked up
+ * without reading the whole table. Files written in Java serialization by earlier versions are
+ * still read.
  */
 public final class ChecksumReporter implements Serializable {
 
@@ -57,10 +71,20 @@ public final class ChecksumReporter implements Serializable {
     private static final short CURRENT_VERSION = 1;
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
+    // Magic number and version of the binary format
+    static final int BINARY_FORMAT_CODE = 0x4354434b; // "CTCK"
+    static final short BINARY_FORMAT_VERSION = 1;
+    static final String FILE_CHECKSUM_ALGORITHM = "SHA-256";
+    private static final int FILE_CHECKSUM_LENGTH = 32;
+    // Key offset, key length and checksum length, followed by the checksum padded to full length
+    private static final int FILE_ENTRY_LENGTH = 12 + FILE_CHECKSUM_LENGTH;
 
     private final BloomFilter<CharSequence> mResultChecksum;
     private final HashMap<String, byte[]> mFileChecksum;
     private final short mVersion;
+    // Sorted file checksums mapped from a loaded file, or null
+    private final transient ByteBuffer mFileTable;
+    private final int mFileTableCount;
 
     /***
      * Calculate checksum of test results and files in result directory and write to disk
@@ -69,12 +93,26 @@ public final class ChecksumReporter implements Serializable {
      * @return true if successful, false if unable to calculate or store the checksum
      */
     public static boolean tryCreateChecksum(File dir, IInvocationResult result) {
+        return tryCreateChecksum(dir, result, Collections.<File, byte[]>emptyMap());
+    }
+
+    /***
+     * Calculate checksum of test results and files in result directory and write to disk,
+     * reusing the checksums of files which were computed as the files were written
+     * @param dir test results directory
+     * @param result test results
+     * @param fileChecksums checksums of files in the directory, as returned by a
+     * {@link MessageDigest} of {@link #FILE_CHECKSUM_ALGORITHM}
+     * @return true if successful, false if unable to calculate or store the checksum
+     */
+    public static boolean tryCreateChecksum(File dir, IInvocationResult result,
+            Map<File, byte[]> fileChecksums) {
         try {
             int totalCount = countTestResults(result);
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
             checksumReporter.addInvocation(result);
-            checksumReporter.addDirectory(dir);
+            checksumReporter.addDirectory(dir, dir.getName(), fileChecksums);
             checksumReporter.saveToFile(dir);
         } catch (Exception e) {
             return false;
@@ -104,17 +142,39 @@ public final class ChecksumReporter implements Serializable {
     public ChecksumReporter(File directory) throws ChecksumValidationException {
         File file = new File(directory, ChecksumReporter.NAME);
         try (FileInputStream fileStream = new FileInputStream(file);
-            InputStream outputStream = new BufferedInputStream(fileStream);
-            ObjectInput objectInput = new ObjectInputStream(outputStream)) {
-            short magicNumber = objectInput.readShort();
-            switch (magicNumber) {
-                case SERIALIZED_FORMAT_CODE:
-                   mVersion = objectInput.readShort();
-                    mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
-                    mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
-                    break;
-                default:
-                    throw new ChecksumValidationException("Unknown format of serialized data.");
+             FileChannel channel = fileStream.getChannel()) {
+            // The mapping stays valid once the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() >= 4 && buffer.getInt(0) == BINARY_FORMAT_CODE) {
+                buffer.position(4);
+                if (buffer.getShort() != BINARY_FORMAT_VERSION) {
+                    throw new ChecksumValidationException("Unknown version of checksum data.");
+                }
+                mVersion = buffer.getShort();
+                byte[] bloomFilter = new byte[buffer.getInt()];
+                buffer.get(bloomFilter);
+                mResultChecksum = BloomFilter.readFrom(new ByteArrayInputStream(bloomFilter),
+                        Funnels.unencodedCharsFunnel());
+                mFileTableCount = buffer.getInt();
+                mFileTable = buffer.slice();
+                mFileChecksum = new HashMap<>();
+            } else {
+                try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+                     ObjectInput objectInput = new ObjectInputStream(inputStream)) {
+                    short magicNumber = objectInput.readShort();
+                    switch (magicNumber) {
+                        case SERIALIZED_FORMAT_CODE:
+                            mVersion = objectInput.readShort();
+                            mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
+                            mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
+                            mFileTable = null;
+                            mFileTableCount = 0;
+                            break;
+                        default:
+                            throw new ChecksumValidationException(
+                                    "Unknown format of serialized data.");
+                    }
+                }
             }
         } catch (Exception e) {
             throw new ChecksumValidationException("Unable to load checksum from file", e);
@@ -135,6 +195,8 @@ public final class ChecksumReporter implements Serializable {
                 testCount, fpp);
         mFileChecksum = new HashMap<>();
         mVersion = version;
+        mFileTable = null;
+        mFileTableCount = 0;
     }
 
     /***
@@ -164,18 +226,32 @@ public final class ChecksumReporter implements Serializable {
         } catch (ChecksumValidationException e) {
             crc = new byte[0];
         }
+        addFileChecksum(file, path, crc);
+    }
+
+    /***
+     * Store the checksum of a file which was calculated as the file was written
+     * @param file the file the checksum was calculated on
+     * @param path part of the key to identify the files crc
+     * @param checksum the digest of the file by {@link #FILE_CHECKSUM_ALGORITHM}
+     */
+    public void addFileChecksum(File file, String path, byte[] checksum) {
+        if (checksum.length > FILE_CHECKSUM_LENGTH) {
+            throw new IllegalArgumentException("Unexpected checksum length " + checksum.length);
+        }
         String key = path + SEPARATOR + file.getName();
-        mFileChecksum.put(key, crc);
+        mFileChecksum.put(key, checksum);
     }
 
     @VisibleForTesting
     public boolean containsFile(File file, String path) {
         String key = path + SEPARATOR + file.getName();
-        if (mFileChecksum.containsKey(key))
+        byte[] expected = getFileChecksum(key);
+        if (expected != null)
         {
             try {
                 byte[] crc = calculateFileChecksum(file);
-                return Arrays.equals(mFileChecksum.get(key), crc);
+                return Arrays.equals(expected, crc);
             } catch (ChecksumValidationException e) {
                 return false;
             }
@@ -183,24 +259,113 @@ public final class ChecksumReporter implements Serializable {
         return false;
     }
 
+    /***
+     * Look up the checksum of a file, first among the files added, then in the mapped table
+     * @return the checksum, or null if the file is unknown
+     */
+    private byte[] getFileChecksum(String key) {
+        byte[] checksum = mFileChecksum.get(key);
+        if (checksum != null || mFileTable == null) {
+            return checksum;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = mFileTableCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = middle * FILE_ENTRY_LENGTH;
+            int comparison = compareKey(mFileTable, getKeyStart(entry),
+                    mFileTable.getInt(entry + 4), keyBytes);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return readFileChecksum(entry);
+            }
+        }
+        return null;
+    }
+
+    private byte[] readFileChecksum(int entry) {
+        byte[] checksum = new byte[mFileTable.getInt(entry + 8)];
+        for (int i = 0; i < checksum.length; i++) {
+            checksum[i] = mFileTable.get(entry + 12 + i);
+        }
+        return checksum;
+    }
+
+    private int getKeyStart(int entry) {
+        return mFileTableCount * FILE_ENTRY_LENGTH + mFileTable.getInt(entry);
+    }
+
+    /***
+     * Compare a key in the mapped table with the given key by unsigned bytes
+     */
+    private static int compareKey(ByteBuffer table, int start, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (table.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
     /***
      * Adds all child files recursively through all sub directories
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
-        addDirectory(directory, directory.getName());
+        addDirectory(directory, directory.getName(), Collections.<File, byte[]>emptyMap());
     }
 
     /***
+     * Calculates the checksums of the files in parallel on the {@link FileDigester}
+     * @param path the relative path to the directory from the base directory
+     * @param fileChecksums checksums already calculated, which are not calculated again
+     */
+    private void addDirectory(File directory, String path, Map<File, byte[]> fileChecksums) {
+        Map<File, String> files = new LinkedHashMap<>();
+        collectFiles(directory, path, files);
+        Map<File, Future<byte[]>> checksums = new LinkedHashMap<>();
+        for (File file : files.keySet()) {
+            if (!fileChecksums.containsKey(file)) {
+                // The checksums detect files changed after the run, which may keep their
+                // size and modification time, so the files are always read
+                checksums.put(file, FileDigester.getInstance().submit(file,
+                        FILE_CHECKSUM_ALGORITHM, false));
+            }
+        }
+        for (Map.Entry<File, String> entry : files.entrySet()) {
+            File file = entry.getKey();
+            byte[] crc = fileChecksums.get(file);
+            if (crc == null) {
+                try {
+                    crc = FileDigester.getDigest(checksums.get(file));
+                } catch (IOException | NoSuchAlgorithmException e) {
+                    crc = new byte[0];
+                }
+            }
+            addFileChecksum(file, entry.getValue(), crc);
+        }
+    }
+
+    /***
+     * The {@link ResultJournal} is skipped, as it is deleted once the result file is written.
      * @param path the relative path to the current directory from the base directory
+     * @param files receives the files found and the relative paths of their directories
      */
-    private void addDirectory(File directory, String path) {
+    private static void collectFiles(File directory, String path, Map<File, String> files) {
         for(String childName : directory.list()) {
             File child = new File(directory, childName);
-            if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
+            if (childName.equals(ResultJournal.NAME) || childName.equals(ResultJournal.LOCK_NAME)) {
+                continue;
+            } else if (child.isDirectory()) {
+                collectFiles(child, path + SEPARATOR + child.getName(), files);
             } else {
-                addFile(child, path);
+                files.put(child, path);
             }
         }
     }
@@ -253,14 +418,60 @@ public final class ChecksumReporter implements Serializable {
     public void saveToFile(File directory) throws IOException {
         File file = new File(directory, NAME);
 
+        ByteArrayOutputStream bloomFilter = new ByteArrayOutputStream();
+        mResultChecksum.writeTo(bloomFilter);
+        Map<byte[], byte[]> fileChecksums = getSortedFileChecksums();
         try (FileOutputStream fileStream = new FileOutputStream(file, false);
-             OutputStream outputStream = new BufferedOutputStream(fileStream);
-             ObjectOutput objectOutput = new ObjectOutputStream(outputStream)) {
-            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
-            objectOutput.writeShort(mVersion);
-            objectOutput.writeObject(mResultChecksum);
-            objectOutput.writeObject(mFileChecksum);
+             DataOutputStream output = new DataOutputStream(
+                     new BufferedOutputStream(fileStream))) {
+            output.writeInt(BINARY_FORMAT_CODE);
+            output.writeShort(BINARY_FORMAT_VERSION);
+            output.writeShort(mVersion);
+            output.writeInt(bloomFilter.size());
+            bloomFilter.writeTo(output);
+
+            output.writeInt(fileChecksums.size());
+            int keyOffset = 0;
+            byte[] padding = new byte[FILE_CHECKSUM_LENGTH];
+            for (Map.Entry<byte[], byte[]> entry : fileChecksums.entrySet()) {
+                byte[] checksum = entry.getValue();
+                output.writeInt(keyOffset);
+                output.writeInt(entry.getKey().length);
+                output.writeInt(checksum.length);
+                output.write(checksum);
+                output.write(padding, 0, FILE_CHECKSUM_LENGTH - checksum.length);
+                keyOffset += entry.getKey().length;
+            }
+            for (byte[] key : fileChecksums.keySet()) {
+                output.write(key);
+            }
+        }
+    }
+
+    /***
+     * Collect the file checksums of both the mapped table and the files added, keyed by the
+     * UTF-8 bytes of their keys in unsigned order
+     */
+    private Map<byte[], byte[]> getSortedFileChecksums() {
+        Map<byte[], byte[]> checksums = new TreeMap<>(new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] first, byte[] second) {
+                return compareKey(ByteBuffer.wrap(first), 0, first.length, second);
+            }
+        });
+        for (int i = 0; i < mFileTableCount; i++) {
+            int entry = i * FILE_ENTRY_LENGTH;
+            byte[] key = new byte[mFileTable.getInt(entry + 4)];
+            int keyStart = getKeyStart(entry);
+            for (int j = 0; j < key.length; j++) {
+                key[j] = mFileTable.get(keyStart + j);
+            }
+            checksums.put(key, readFileChecksum(entry));
+        }
+        for (Map.Entry<String, byte[]> entry : mFileChecksum.entrySet()) {
+            checksums.put(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
         }
+        return checksums;
     }
 
     @VisibleForTesting
@@ -349,7 +560,7 @@ public final class ChecksumReporter implements Serializable {
 
         try (FileInputStream fis = new FileInputStream(file);
              InputStream inputStream = new BufferedInputStream(fis)) {
-            MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
+            MessageDigest hashSum = MessageDigest.getInstance(FILE_CHECKSUM_ALGORITHM);
             int cnt;
             int bufferSize = 8192;
             byte [] buffer = new byte[bufferSize];
@@ -0,0 +1,679 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link IInvocationResult} for invocations with a very large number of tests.
+ * <p/>
+ * Rather than one object per test case and test, test cases and tests are stored in primitive
+ * arrays indexed by an int, and all names, messages and stack traces are interned in a single
+ * string table, so repeated names and identical stack traces are only stored once. Strings are
+ * reference counted, and the slot of a message or stack trace which is no longer used by any
+ * test is reused, so overwriting results does not grow the table. The
+ * {@link ICaseResult}s and {@link ITestResult}s returned are lightweight views onto this
+ * storage, created on demand; they remain valid for the lifetime of the invocation result.
+ * <p/>
+ * Modules are kept as objects, as there are few of them.
+ */
+public class CompactInvocationResult extends InvocationResult {
+
+    private static final int NONE = -1;
+    private static final byte STATUS_NONE = 0;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, CompactModuleResult> mModules = new LinkedHashMap<>();
+
+    // Interned strings, their reference counts and the slots which are free for reuse
+    private final Map<String, Integer> mStringIds = new HashMap<>();
+    private final List<String> mStrings = new ArrayList<>();
+    private int[] mStringRefs = new int[INITIAL_CAPACITY];
+    private int[] mFreeStrings = new int[INITIAL_CAPACITY];
+    private int mFreeStringCount = 0;
+
+    // Test cases, indexed by case number
+    private int mCaseCount = 0;
+    private int[] mCaseName = new int[INITIAL_CAPACITY];
+    private int[] mCaseFirstTest = new int[INITIAL_CAPACITY];
+    private int[] mCaseLastTest = new int[INITIAL_CAPACITY];
+    private final LongIntMap mCaseIndex = new LongIntMap();
+
+    // Tests, indexed by test number
+    private int mTestCount = 0;
+    private int[] mTestCase = new int[INITIAL_CAPACITY];
+    private int[] mTestName = new int[INITIAL_CAPACITY];
+    private int[] mTestNext = new int[INITIAL_CAPACITY];
+    private byte[] mTestStatus = new byte[INITIAL_CAPACITY];
+    private int[] mTestMessage = new int[INITIAL_CAPACITY];
+    private int[] mTestStackTrace = new int[INITIAL_CAPACITY];
+    private final BitSet mTestRetry = new BitSet();
+    private final LongIntMap mTestIndex = new LongIntMap();
+    // Rarely set attributes, keyed by test number
+    private final Map<Integer, TestAttachments> mTestAttachments = new HashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IModuleResult> getModules() {
+        ArrayList<IModuleResult> modules = new ArrayList<IModuleResult>(mModules.values());
+        Collections.sort(modules);
+        return modules;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countResults(TestStatus result) {
+        byte status = toByte(result);
+        int total = 0;
+        for (int i = 0; i < mTestCount; i++) {
+            if (mTestStatus[i] == status) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNotExecuted() {
+        int numTests = 0;
+        for (IModuleResult module : mModules.values()) {
+            numTests += module.getNotExecuted();
+        }
+        return numTests;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IModuleResult getOrCreateModule(String id) {
+        CompactModuleResult moduleResult = mModules.get(id);
+        if (moduleResult == null) {
+            moduleResult = new CompactModuleResult(id, mModules.size());
+            mModules.put(id, moduleResult);
+        }
+        return moduleResult;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getModuleCompleteCount() {
+        int completeModules = 0;
+        for (IModuleResult module : mModules.values()) {
+            if (module.isDone()) {
+                completeModules++;
+            }
+        }
+        return completeModules;
+    }
+
+    /**
+     * Returns the id of the given string in the string table, adding it if needed, and counts
+     * a reference to it.
+     */
+    private int intern(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer id = mStringIds.get(value);
+        if (id == null) {
+            if (mFreeStringCount > 0) {
+                id = mFreeStrings[--mFreeStringCount];
+                mStrings.set(id, value);
+            } else {
+                id = mStrings.size();
+                mStrings.add(value);
+                if (id == mStringRefs.length) {
+                    mStringRefs = Arrays.copyOf(mStringRefs, id * 2);
+                }
+            }
+            mStringIds.put(value, id);
+        }
+        mStringRefs[id]++;
+        return id;
+    }
+
+    /**
+     * Drops a reference to a string, freeing its slot if it was the last one.
+     */
+    private void release(int id) {
+        if (id == NONE || --mStringRefs[id] > 0) {
+            return;
+        }
+        mStringIds.remove(mStrings.get(id));
+        mStrings.set(id, null);
+        if (mFreeStringCount == mFreeStrings.length) {
+            mFreeStrings = Arrays.copyOf(mFreeStrings, mFreeStringCount * 2);
+        }
+        mFreeStrings[mFreeStringCount++] = id;
+    }
+
+    /**
+     * Returns the number of distinct strings stored.
+     */
+    int getStringCount() {
+        return mStringIds.size();
+    }
+
+    private String getString(int id) {
+        return id == NONE ? null : mStrings.get(id);
+    }
+
+    private int findCase(int module, String caseName) {
+        Integer name = mStringIds.get(caseName);
+        return name == null ? NONE : mCaseIndex.get(((long) module << 32) | name);
+    }
+
+    private int getOrCreateCase(int module, String caseName) {
+        int index = findCase(module, caseName);
+        if (index == NONE) {
+            // Only new cases count a reference to their name
+            int name = intern(caseName);
+            if (mCaseCount == mCaseName.length) {
+                int size = mCaseCount * 2;
+                mCaseName = Arrays.copyOf(mCaseName, size);
+                mCaseFirstTest = Arrays.copyOf(mCaseFirstTest, size);
+                mCaseLastTest = Arrays.copyOf(mCaseLastTest, size);
+            }
+            index = mCaseCount++;
+            mCaseName[index] = name;
+            mCaseFirstTest[index] = NONE;
+            mCaseLastTest[index] = NONE;
+            mCaseIndex.put(((long) module << 32) | name, index);
+        }
+        return index;
+    }
+
+    private int findTest(int testCase, String testName) {
+        Integer name = mStringIds.get(testName);
+        return name == null ? NONE : mTestIndex.get(((long) testCase << 32) | name);
+    }
+
+    private int getOrCreateTest(int testCase, String testName) {
+        int index = findTest(testCase, testName);
+        if (index == NONE) {
+            // Only new tests count a reference to their name
+            int name = intern(testName);
+            if (mTestCount == mTestCase.length) {
+                int size = mTestCount * 2;
+                mTestCase = Arrays.copyOf(mTestCase, size);
+                mTestName = Arrays.copyOf(mTestName, size);
+                mTestNext = Arrays.copyOf(mTestNext, size);
+                mTestStatus = Arrays.copyOf(mTestStatus, size);
+                mTestMessage = Arrays.copyOf(mTestMessage, size);
+                mTestStackTrace = Arrays.copyOf(mTestStackTrace, size);
+            }
+            index = mTestCount++;
+            mTestCase[index] = testCase;
+            mTestName[index] = name;
+            mTestNext[index] = NONE;
+            mTestMessage[index] = NONE;
+            mTestStackTrace[index] = NONE;
+            resetTest(index);
+            // Append to the list of tests of the case
+            if (mCaseLastTest[testCase] == NONE) {
+                mCaseFirstTest[testCase] = index;
+            } else {
+                mTestNext[mCaseLastTest[testCase]] = index;
+            }
+            mCaseLastTest[testCase] = index;
+            mTestIndex.put(((long) testCase << 32) | name, index);
+        }
+        return index;
+    }
+
+    private void resetTest(int test) {
+        mTestStatus[test] = STATUS_NONE;
+        setTestMessage(test, null);
+        setTestStackTrace(test, null);
+        mTestRetry.clear(test);
+        mTestAttachments.remove(test);
+    }
+
+    private void setTestMessage(int test, String message) {
+        int id = intern(message);
+        release(mTestMessage[test]);
+        mTestMessage[test] = id;
+    }
+
+    private void setTestStackTrace(int test, String stackTrace) {
+        int id = intern(stackTrace);
+        release(mTestStackTrace[test]);
+        mTestStackTrace[test] = id;
+    }
+
+    private TestAttachments getAttachments(int test, boolean create) {
+        TestAttachments attachments = mTestAttachments.get(test);
+        if (attachments == null && create) {
+            attachments = new TestAttachments();
+            mTestAttachments.put(test, attachments);
+        }
+        return attachments;
+    }
+
+    private static byte toByte(TestStatus status) {
+        return status == null ? STATUS_NONE : (byte) (status.ordinal() + 1);
+    }
+
+    private static TestStatus toStatus(byte status) {
+        return status == STATUS_NONE ? null : TestStatus.values()[status - 1];
+    }
+
+    /**
+     * A module whose test cases are stored in the enclosing invocation result.
+     */
+    private class CompactModuleResult extends ModuleResult {
+
+        private final int mOrdinal;
+        private int[] mModuleCases = new int[4];
+        private int mModuleCaseCount = 0;
+
+        CompactModuleResult(String id, int ordinal) {
+            super(id);
+            mOrdinal = ordinal;
+        }
+
+        @Override
+        public ICaseResult getOrCreateResult(String caseName) {
+            int previousCount = mCaseCount;
+            int index = getOrCreateCase(mOrdinal, caseName);
+            if (index == previousCount) {
+                // new test case
+                if (mModuleCaseCount == mModuleCases.length) {
+                    mModuleCases = Arrays.copyOf(mModuleCases, mModuleCaseCount * 2);
+                }
+                mModuleCases[mModuleCaseCount++] = index;
+            }
+            return new CompactCaseResult(index);
+        }
+
+        @Override
+        public ICaseResult getResult(String caseName) {
+            int index = findCase(mOrdinal, caseName);
+            return index == NONE ? null : new CompactCaseResult(index);
+        }
+
+        @Override
+        public List<ICaseResult> getResults() {
+            ArrayList<ICaseResult> results = new ArrayList<>(mModuleCaseCount);
+            for (int i = 0; i < mModuleCaseCount; i++) {
+                results.add(new CompactCaseResult(mModuleCases[i]));
+            }
+            Collections.sort(results);
+            return results;
+        }
+
+        @Override
+        public int countResults(TestStatus status) {
+            byte value = toByte(status);
+            int total = 0;
+            for (int i = 0; i < mModuleCaseCount; i++) {
+                int testCase = mModuleCases[i];
+                for (int test = mCaseFirstTest[testCase]; test != NONE; test = mTestNext[test]) {
+                    if (mTestStatus[test] == value) {
+                        total++;
+                    }
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * A view of a test case stored in the enclosing invocation result.
+     */
+    private class CompactCaseResult implements ICaseResult {
+
+        private final int mIndex;
+
+        CompactCaseResult(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public String getName() {
+            return getString(mCaseName[mIndex]);
+        }
+
+        @Override
+        public ITestResult getOrCreateResult(String testName) {
+            return new CompactTestResult(getOrCreateTest(mIndex, testName));
+        }
+
+        @Override
+        public ITestResult getResult(String testName) {
+            int test = findTest(mIndex, testName);
+            return test == NONE ? null : new CompactTestResult(test);
+        }
+
+        @Override
+        public List<ITestResult> getResults() {
+            ArrayList<ITestResult> results = new ArrayList<>();
+            for (int test = mCaseFirstTest[mIndex]; test != NONE; test = mTestNext[test]) {
+                results.add(new CompactTestResult(test));
+            }
+            Collections.sort(results);
+            return results;
+        }
+
+        @Override
+        public List<ITestResult> getResults(TestStatus status) {
+            byte value = toByte(status);
+            List<ITestResult> results = new ArrayList<>();
+            for (int test = mCaseFirstTest[mIndex]; test != NONE; test = mTestNext[test]) {
+                if (mTestStatus[test] == value) {
+                    results.add(new CompactTestResult(test));
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public int countResults(TestStatus status) {
+            byte value = toByte(status);
+            int total = 0;
+            for (int test = mCaseFirstTest[mIndex]; test != NONE; test = mTestNext[test]) {
+                if (mTestStatus[test] == value) {
+                    total++;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public int compareTo(ICaseResult another) {
+            return getName().compareTo(another.getName());
+        }
+
+        @Override
+        public void mergeFrom(ICaseResult otherCaseResult) {
+            if (!otherCaseResult.getName().equals(getName())) {
+                throw new IllegalArgumentException(String.format(
+                    "Cannot merge case result with mismatched name. Expected %s, Found %s",
+                            otherCaseResult.getName(), getName()));
+            }
+
+            // Like CaseResult, the other test results replace any existing ones
+            for (ITestResult otherTestResult : otherCaseResult.getResults()) {
+                int test = getOrCreateTest(mIndex, otherTestResult.getName());
+                ITestResult testResult = new CompactTestResult(test);
+                testResult.setResultStatus(otherTestResult.getResultStatus());
+                testResult.setMessage(otherTestResult.getMessage());
+                // already sanitized by the other test result
+                setTestStackTrace(test, otherTestResult.getStackTrace());
+                testResult.setRetry(otherTestResult.isRetry());
+                testResult.setReportLog(otherTestResult.getReportLog());
+                testResult.setBugReport(otherTestResult.getBugReport());
+                testResult.setLog(otherTestResult.getLog());
+                testResult.setScreenshot(otherTestResult.getScreenshot());
+            }
+        }
+    }
+
+    /**
+     * A view of a test stored in the enclosing invocation result.
+     */
+    private class CompactTestResult implements ITestResult {
+
+        private final int mIndex;
+
+        CompactTestResult(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public String getName() {
+            return getString(mTestName[mIndex]);
+        }
+
+        @Override
+        public String getFullName() {
+            return String.format("%s#%s", getString(mCaseName[mTestCase[mIndex]]), getName());
+        }
+
+        @Override
+        public TestStatus getResultStatus() {
+            return toStatus(mTestStatus[mIndex]);
+        }
+
+        @Override
+        public void setResultStatus(TestStatus status) {
+            mTestStatus[mIndex] = toByte(status);
+        }
+
+        @Override
+        public String getMessage() {
+            return getString(mTestMessage[mIndex]);
+        }
+
+        @Override
+        public void setMessage(String message) {
+            setTestMessage(mIndex, message);
+        }
+
+        @Override
+        public String getStackTrace() {
+            return getString(mTestStackTrace[mIndex]);
+        }
+
+        @Override
+        public void setStackTrace(String stackTrace) {
+            setTestStackTrace(mIndex, TestResult.sanitizeStackTrace(stackTrace));
+        }
+
+        @Override
+        public ReportLog getReportLog() {
+            TestAttachments attachments = getAttachments(mIndex, false);
+            return attachments == null ? null : attachments.mReport;
+        }
+
+        @Override
+        public void setReportLog(ReportLog report) {
+            if (report != null || getAttachments(mIndex, false) != null) {
+                getAttachments(mIndex, true).mReport = report;
+            }
+        }
+
+        @Override
+        public String getBugReport() {
+            TestAttachments attachments = getAttachments(mIndex, false);
+            return attachments == null ? null : attachments.mBugReport;
+        }
+
+        @Override
+        public void setBugReport(String path) {
+            if (path != null || getAttachments(mIndex, false) != null) {
+                getAttachments(mIndex, true).mBugReport = path;
+            }
+        }
+
+        @Override
+        public String getLog() {
+            TestAttachments attachments = getAttachments(mIndex, false);
+            return attachments == null ? null : attachments.mLog;
+        }
+
+        @Override
+        public void setLog(String path) {
+            if (path != null || getAttachments(mIndex, false) != null) {
+                getAttachments(mIndex, true).mLog = path;
+            }
+        }
+
+        @Override
+        public String getScreenshot() {
+            TestAttachments attachments = getAttachments(mIndex, false);
+            return attachments == null ? null : attachments.mScreenshot;
+        }
+
+        @Override
+        public void setScreenshot(String path) {
+            if (path != null || getAttachments(mIndex, false) != null) {
+                getAttachments(mIndex, true).mScreenshot = path;
+            }
+        }
+
+        @Override
+        public void failed(String trace) {
+            setResultStatus(TestStatus.FAIL);
+            int index = trace.indexOf('\n');
+            if (index < 0) {
+                // Trace is a single line, just set the message to be the same as the stacktrace.
+                setMessage(trace);
+            } else {
+                setMessage(trace.substring(0, index));
+            }
+            setStackTrace(trace);
+        }
+
+        @Override
+        public void passed(ReportLog report) {
+            if (getResultStatus() != TestStatus.FAIL) {
+                setResultStatus(TestStatus.PASS);
+                if (report != null) {
+                    setReportLog(report);
+                }
+            }
+        }
+
+        @Override
+        public void skipped() {
+            // TODO(b/28386054): Report SKIPPED as a separate result.
+            // For now, we mark this as PASS.
+            setResultStatus(TestStatus.PASS);
+        }
+
+        @Override
+        public void reset() {
+            resetTest(mIndex);
+        }
+
+        @Override
+        public void setRetry(boolean isRetry) {
+            mTestRetry.set(mIndex, isRetry);
+        }
+
+        @Override
+        public boolean isRetry() {
+            return mTestRetry.get(mIndex);
+        }
+
+        @Override
+        public void removeResult() {
+            setResultStatus(TestStatus.FAIL);
+            setStackTrace("");
+        }
+
+        @Override
+        public int compareTo(ITestResult another) {
+            return getName().compareTo(another.getName());
+        }
+    }
+
+    /**
+     * The attributes of a test which are usually not set.
+     */
+    private static class TestAttachments {
+        ReportLog mReport;
+        String mBugReport;
+        String mLog;
+        String mScreenshot;
+    }
+
+    /**
+     * An open-addressing hash map from long keys to non-negative int values, avoiding the boxed
+     * entries of a {@link HashMap}.
+     */
+    private static class LongIntMap {
+
+        private long[] mKeys = new long[INITIAL_CAPACITY];
+        private int[] mValues = newValues(INITIAL_CAPACITY);
+        private int mSize = 0;
+
+        int get(long key) {
+            int mask = mKeys.length - 1;
+            for (int i = hash(key) & mask; mValues[i] != NONE; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mValues[i];
+                }
+            }
+            return NONE;
+        }
+
+        void put(long key, int value) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                resize(mKeys.length * 2);
+            }
+            if (insert(mKeys, mValues, key, value)) {
+                mSize++;
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] keys = new long[capacity];
+            int[] values = newValues(capacity);
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mValues[i] != NONE) {
+                    insert(keys, values, mKeys[i], mValues[i]);
+                }
+            }
+            mKeys = keys;
+            mValues = values;
+        }
+
+        private static boolean insert(long[] keys, int[] values, long key, int value) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != NONE) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            return true;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, NONE);
+            return values;
+        }
+    }
+}
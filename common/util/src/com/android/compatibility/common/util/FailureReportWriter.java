@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the HTML report of the failed tests of a result file.
+ * <p/>
+ * The result file is read once with a pull parser. Only the failed tests are written, and their
+ * details are buffered in a temporary file while the per module counts shown above them are
+ * collected, so memory use depends on the number of modules and not on the number of tests.
+ */
+class FailureReportWriter {
+
+    private static final String ENCODING = "UTF-8";
+    private static final String TYPE = "org.kxml2.io.KXmlParser,org.kxml2.io.KXmlSerializer";
+    private static final String NS = null;
+    private static final String CENTERED_STYLE =
+            "text-align: center; margin-left:auto; margin-right:auto;";
+
+    // XML constants
+    private static final String ABI_ATTR = "abi";
+    private static final String BUILD_ABIS = "build_abis";
+    private static final String BUILD_FINGERPRINT = "build_fingerprint";
+    private static final String BUILD_TAG = "Build";
+    private static final String BUILD_VERSION_RELEASE = "build_version_release";
+    private static final String BUILD_VERSION_SDK = "build_version_sdk";
+    private static final String BUILD_VERSION_SECURITY_PATCH = "build_version_security_patch";
+    private static final String CASE_TAG = "TestCase";
+    private static final String END_DISPLAY_TIME_ATTR = "end_display";
+    private static final String FAILED_ATTR = "failed";
+    private static final String FAILURE_TAG = "Failure";
+    private static final String HOST_NAME_ATTR = "host_name";
+    private static final String MESSAGE_ATTR = "message";
+    private static final String MODULE_TAG = "Module";
+    private static final String MODULES_DONE_ATTR = "modules_done";
+    private static final String MODULES_TOTAL_ATTR = "modules_total";
+    private static final String NAME_ATTR = "name";
+    private static final String NOT_EXECUTED_ATTR = "not_executed";
+    private static final String OS_NAME_ATTR = "os_name";
+    private static final String OS_VERSION_ATTR = "os_version";
+    private static final String PASS_ATTR = "pass";
+    private static final String RESULT_ATTR = "result";
+    private static final String RESULT_TAG = "Result";
+    private static final String START_DISPLAY_TIME_ATTR = "start_display";
+    private static final String SUITE_BUILD_ATTR = "suite_build_number";
+    private static final String SUITE_NAME_ATTR = "suite_name";
+    private static final String SUITE_PLAN_ATTR = "suite_plan";
+    private static final String SUITE_VERSION_ATTR = "suite_version";
+    private static final String SUMMARY_TAG = "Summary";
+    private static final String TEST_TAG = "Test";
+
+    /**
+     * The counts of a module shown in the summary of the report.
+     */
+    private static class ModuleSummary {
+        final String mTitle;
+        final String mPass;
+        int mFailed = 0;
+        int mNotExecuted = 0;
+
+        ModuleSummary(String title, String pass) {
+            mTitle = title;
+            mPass = pass;
+        }
+    }
+
+    private final List<ModuleSummary> mModules = new ArrayList<>();
+    private final Map<String, String> mResultAttributes = new HashMap<>();
+    private final Map<String, String> mBuildAttributes = new HashMap<>();
+    private final Map<String, String> mSummaryAttributes = new HashMap<>();
+
+    private FailureReportWriter() {
+    }
+
+    /**
+     * Writes the failure report of the given result file.
+     *
+     * @param resultFile the result file to read
+     * @param report the report to write
+     * @throws IOException if the result file could not be read or the report written
+     * @throws XmlPullParserException if the result file is malformed
+     */
+    static void write(File resultFile, File report) throws IOException, XmlPullParserException {
+        File details = File.createTempFile("failures", ".html");
+        try {
+            FailureReportWriter writer = new FailureReportWriter();
+            try (Reader reader = new FileReader(resultFile);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(details))) {
+                writer.parse(reader, out);
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(report));
+                 InputStream in = new BufferedInputStream(new FileInputStream(details))) {
+                writer.writeReport(out, in);
+            }
+        } finally {
+            details.delete();
+        }
+    }
+
+    /**
+     * Reads the result file, collecting the summaries and writing the details of failed tests.
+     */
+    private void parse(Reader reader, OutputStream details)
+            throws IOException, XmlPullParserException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(reader);
+        XmlSerializer serializer = newSerializer(details);
+        serializer.startTag(NS, "div");
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+        readAttributes(parser, mResultAttributes);
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (BUILD_TAG.equals(parser.getName())) {
+                readAttributes(parser, mBuildAttributes);
+                skip(parser);
+            } else if (SUMMARY_TAG.equals(parser.getName())) {
+                readAttributes(parser, mSummaryAttributes);
+                skip(parser);
+            } else if (MODULE_TAG.equals(parser.getName())) {
+                parseModule(parser, serializer);
+            } else {
+                skip(parser);
+            }
+        }
+        parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+
+        serializer.endTag(NS, "div");
+        serializer.endDocument();
+    }
+
+    /**
+     * Reads a &lt;Module&gt; element, writing a table of its failed tests if there are any.
+     */
+    private void parseModule(XmlPullParser parser, XmlSerializer serializer)
+            throws IOException, XmlPullParserException {
+        ModuleSummary module = new ModuleSummary(String.format("%s - %s",
+                parser.getAttributeValue(NS, NAME_ATTR), parser.getAttributeValue(NS, ABI_ATTR)),
+                nullToEmpty(parser.getAttributeValue(NS, PASS_ATTR)));
+        mModules.add(module);
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (!CASE_TAG.equals(parser.getName())) {
+                skip(parser);
+                continue;
+            }
+            String caseName = parser.getAttributeValue(NS, NAME_ATTR);
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                if (!TEST_TAG.equals(parser.getName())) {
+                    skip(parser);
+                    continue;
+                }
+                String result = parser.getAttributeValue(NS, RESULT_ATTR);
+                if (TestStatus.FAIL.getValue().equals(result)) {
+                    if (module.mFailed++ == 0) {
+                        startModuleTable(serializer, module);
+                    }
+                    writeFailure(serializer, String.format("%s#%s", caseName,
+                            parser.getAttributeValue(NS, NAME_ATTR)), readMessage(parser));
+                } else {
+                    if (NOT_EXECUTED_ATTR.equals(result)) {
+                        module.mNotExecuted++;
+                    }
+                    skip(parser);
+                }
+            }
+            parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+        }
+        parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+        if (module.mFailed > 0) {
+            serializer.endTag(NS, "table");
+        }
+    }
+
+    /**
+     * Returns the failure message of a &lt;Test&gt; element, leaving the parser on its end tag.
+     */
+    private static String readMessage(XmlPullParser parser)
+            throws IOException, XmlPullParserException {
+        String message = null;
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (FAILURE_TAG.equals(parser.getName())) {
+                message = parser.getAttributeValue(NS, MESSAGE_ATTR);
+            }
+            skip(parser);
+        }
+        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+        return nullToEmpty(message);
+    }
+
+    private static void startModuleTable(XmlSerializer serializer, ModuleSummary module)
+            throws IOException {
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "testdetails");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "class", "module");
+        serializer.attribute(NS, "colspan", "3");
+        serializer.startTag(NS, "a");
+        serializer.attribute(NS, "name", module.mTitle);
+        serializer.text(module.mTitle);
+        serializer.endTag(NS, "a");
+        serializer.endTag(NS, "td");
+        serializer.endTag(NS, "tr");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "th");
+        serializer.attribute(NS, "width", "30%");
+        serializer.text("Test");
+        serializer.endTag(NS, "th");
+        serializer.startTag(NS, "th");
+        serializer.attribute(NS, "width", "5%");
+        serializer.text("Result");
+        serializer.endTag(NS, "th");
+        serializer.startTag(NS, "th");
+        serializer.text("Details");
+        serializer.endTag(NS, "th");
+        serializer.endTag(NS, "tr");
+    }
+
+    private static void writeFailure(XmlSerializer serializer, String testName, String message)
+            throws IOException {
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "class", "testname");
+        serializer.text(testName);
+        serializer.endTag(NS, "td");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "class", "failed");
+        serializer.startTag(NS, "div");
+        serializer.attribute(NS, "style", CENTERED_STYLE);
+        serializer.text(TestStatus.FAIL.getValue());
+        serializer.endTag(NS, "div");
+        serializer.endTag(NS, "td");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "class", "failuredetails");
+        serializer.startTag(NS, "div");
+        serializer.attribute(NS, "class", "details");
+        serializer.text(message);
+        serializer.endTag(NS, "div");
+        serializer.endTag(NS, "td");
+        serializer.endTag(NS, "tr");
+    }
+
+    /**
+     * Writes the report, copying the details of failed tests after the summaries.
+     */
+    private void writeReport(OutputStream out, InputStream details) throws IOException {
+        XmlSerializer serializer = newSerializer(out);
+        serializer.startTag(NS, "html");
+        serializer.startTag(NS, "head");
+        serializer.startTag(NS, "meta");
+        serializer.attribute(NS, "http-equiv", "Content-Type");
+        serializer.attribute(NS, "content", "text/html; charset=UTF-8");
+        serializer.endTag(NS, "meta");
+        writeElement(serializer, "title", "Test Report");
+        // A link rather than an @import, which the serializer would escape in the style element
+        serializer.startTag(NS, "link");
+        serializer.attribute(NS, "rel", "stylesheet");
+        serializer.attribute(NS, "type", "text/css");
+        serializer.attribute(NS, "href", "compatibility_result.css");
+        serializer.endTag(NS, "link");
+        serializer.endTag(NS, "head");
+        serializer.startTag(NS, "body");
+
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "title");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "align", "left");
+        serializer.startTag(NS, "img");
+        serializer.attribute(NS, "src", "logo.png");
+        serializer.endTag(NS, "img");
+        serializer.endTag(NS, "td");
+        serializer.endTag(NS, "tr");
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "summary");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "th");
+        serializer.attribute(NS, "colspan", "2");
+        serializer.text("Summary");
+        serializer.endTag(NS, "th");
+        serializer.endTag(NS, "tr");
+        writeSummaryRow(serializer, "Suite / Plan", String.format("%s / %s",
+                result(SUITE_NAME_ATTR), result(SUITE_PLAN_ATTR)));
+        writeSummaryRow(serializer, "Suite / Build", String.format("%s / %s",
+                result(SUITE_VERSION_ATTR), result(SUITE_BUILD_ATTR)));
+        writeSummaryRow(serializer, "Host Info", String.format("%s (%s - %s)",
+                result(HOST_NAME_ATTR), result(OS_NAME_ATTR), result(OS_VERSION_ATTR)));
+        writeSummaryRow(serializer, "Start time / End Time", String.format("%s / %s",
+                result(START_DISPLAY_TIME_ATTR), result(END_DISPLAY_TIME_ATTR)));
+        writeSummaryRow(serializer, "Tests Passed", summary(PASS_ATTR));
+        writeSummaryRow(serializer, "Tests Failed", summary(FAILED_ATTR));
+        writeSummaryRow(serializer, "Tests Not Executed", summary(NOT_EXECUTED_ATTR));
+        writeSummaryRow(serializer, "Modules Done", summary(MODULES_DONE_ATTR));
+        writeSummaryRow(serializer, "Modules Total", summary(MODULES_TOTAL_ATTR));
+        writeSummaryRow(serializer, "Fingerprint", build(BUILD_FINGERPRINT));
+        writeSummaryRow(serializer, "Security Patch", build(BUILD_VERSION_SECURITY_PATCH));
+        writeSummaryRow(serializer, "Release (SDK)", String.format("%s (%s)",
+                build(BUILD_VERSION_RELEASE), build(BUILD_VERSION_SDK)));
+        writeSummaryRow(serializer, "ABIs", build(BUILD_ABIS));
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+
+        // High level summary of test execution
+        serializer.startTag(NS, "br");
+        serializer.endTag(NS, "br");
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "testsummary");
+        serializer.startTag(NS, "tr");
+        writeElement(serializer, "th", "Module");
+        writeElement(serializer, "th", "Passed");
+        writeElement(serializer, "th", "Failed");
+        writeElement(serializer, "th", "Not Executed");
+        writeElement(serializer, "th", "Total Tests");
+        serializer.endTag(NS, "tr");
+        for (ModuleSummary module : mModules) {
+            serializer.startTag(NS, "tr");
+            serializer.startTag(NS, "td");
+            if (module.mFailed > 0) {
+                serializer.startTag(NS, "a");
+                serializer.attribute(NS, "href", "#" + module.mTitle);
+                serializer.text(module.mTitle);
+                serializer.endTag(NS, "a");
+            } else {
+                serializer.text(module.mTitle);
+            }
+            serializer.endTag(NS, "td");
+            writeElement(serializer, "td", module.mPass);
+            writeElement(serializer, "td", Integer.toString(module.mFailed));
+            writeElement(serializer, "td", Integer.toString(module.mNotExecuted));
+            writeElement(serializer, "td", getTotal(module));
+            serializer.endTag(NS, "tr");
+        }
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+        serializer.startTag(NS, "br");
+        serializer.endTag(NS, "br");
+
+        // The details are a complete element, so they can be copied between the tags
+        serializer.flush();
+        StreamUtil.copyStreams(details, out);
+
+        serializer.endTag(NS, "body");
+        serializer.endTag(NS, "html");
+        serializer.endDocument();
+    }
+
+    private static void writeSummaryRow(XmlSerializer serializer, String title, String value)
+            throws IOException {
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "class", "rowtitle");
+        serializer.text(title);
+        serializer.endTag(NS, "td");
+        writeElement(serializer, "td", value);
+        serializer.endTag(NS, "tr");
+    }
+
+    private static void writeElement(XmlSerializer serializer, String tag, String text)
+            throws IOException {
+        serializer.startTag(NS, tag);
+        serializer.text(text);
+        serializer.endTag(NS, tag);
+    }
+
+    private static String getTotal(ModuleSummary module) {
+        try {
+            return Integer.toString(
+                    Integer.parseInt(module.mPass) + module.mFailed + module.mNotExecuted);
+        } catch (NumberFormatException e) {
+            return "";
+        }
+    }
+
+    private String result(String name) {
+        return nullToEmpty(mResultAttributes.get(name));
+    }
+
+    private String build(String name) {
+        return nullToEmpty(mBuildAttributes.get(name));
+    }
+
+    private String summary(String name) {
+        return nullToEmpty(mSummaryAttributes.get(name));
+    }
+
+    private static XmlSerializer newSerializer(OutputStream out)
+            throws IOException {
+        try {
+            XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null)
+                    .newSerializer();
+            serializer.setOutput(out, ENCODING);
+            serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            return serializer;
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void readAttributes(XmlPullParser parser, Map<String, String> attributes) {
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+        }
+    }
+
+    /**
+     * Skips the element the parser is on, leaving the parser on its end tag.
+     */
+    private static void skip(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document");
+            }
+        }
+    }
+
+    private static String nullToEmpty(String nullable) {
+        return nullable == null ? "" : nullable;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Calculates digests of files on a shared pool of threads.
+ * <p/>
+ * Files are read through a large direct buffer per thread. Digests are cached by path, size and
+ * modification time, so files which have not changed since they were last read, such as the
+ * test packages of a repository loaded by each invocation, are not read again. Callers which
+ * digest files to detect tampering, which may keep both, bypass the cache.
+ */
+public class FileDigester {
+
+    private static final int MAX_THREADS = 8;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // The cache is dropped when full, which only happens for very large repositories
+    private static final int MAX_CACHE_ENTRIES = 16 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final FileDigester INSTANCE = new FileDigester(
+            Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * A digest along with the size and modification time of the file it was calculated on.
+     */
+    private static class CachedDigest {
+        final long mLength;
+        final long mLastModified;
+        final byte[] mDigest;
+
+        CachedDigest(long length, long lastModified, byte[] digest) {
+            mLength = length;
+            mLastModified = lastModified;
+            mDigest = digest;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    // Digests keyed by algorithm and absolute path
+    private final Map<String, CachedDigest> mCache = new ConcurrentHashMap<>();
+    private final ThreadLocal<ByteBuffer> mBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    FileDigester(int threads) {
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FileDigester");
+                // Idle digest threads should not keep the process alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the {@link FileDigester} shared by all callers
+     */
+    public static FileDigester getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts calculating the digest of a file in the background, unless it is cached.
+     *
+     * @see #submit(File, String, boolean)
+     */
+    public Future<byte[]> submit(File file, String algorithm) {
+        return submit(file, algorithm, true);
+    }
+
+    /**
+     * Starts calculating the digest of a file in the background.
+     *
+     * @param file the file to digest
+     * @param algorithm the {@link MessageDigest} algorithm
+     * @param useCache whether a cached digest may be used if the size and modification time of
+     * the file have not changed, otherwise the file is always read
+     * @return a {@link Future} of the digest, which fails with an {@link IOException} if the file
+     * could not be read, or a {@link NoSuchAlgorithmException}. A digest found in the cache is
+     * already done.
+     */
+    public Future<byte[]> submit(final File file, final String algorithm,
+            final boolean useCache) {
+        Callable<byte[]> task = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException, NoSuchAlgorithmException {
+                return digest(file, algorithm, useCache);
+            }
+        };
+        if (useCache && getCachedDigest(file, algorithm) != null) {
+            FutureTask<byte[]> cached = new FutureTask<>(task);
+            cached.run();
+            return cached;
+        }
+        return mExecutor.submit(task);
+    }
+
+    /**
+     * Calculates the digest of a file on the calling thread, unless it is cached.
+     *
+     * @param file the file to digest
+     * @param algorithm the {@link MessageDigest} algorithm
+     * @return the digest
+     * @throws IOException if the file could not be read
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     */
+    public byte[] digest(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return digest(file, algorithm, true);
+    }
+
+    private byte[] digest(File file, String algorithm, boolean useCache)
+            throws IOException, NoSuchAlgorithmException {
+        if (useCache) {
+            byte[] cached = getCachedDigest(file, algorithm);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+        ByteBuffer buffer = mBuffers.get();
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                messageDigest.update(buffer);
+                buffer.clear();
+            }
+        }
+        byte[] digest = messageDigest.digest();
+        // A file changed while it was read may have a digest matching neither version
+        if (file.length() == length && file.lastModified() == lastModified) {
+            if (mCache.size() >= MAX_CACHE_ENTRIES) {
+                mCache.clear();
+            }
+            mCache.put(getCacheKey(file, algorithm),
+                    new CachedDigest(length, lastModified, digest.clone()));
+        }
+        return digest;
+    }
+
+    /**
+     * Stops the threads of this {@link FileDigester}. Digests which did not complete yet fail.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Waits for a digest started by {@link #submit(File, String)}.
+     *
+     * @throws IOException if the file could not be read, or the wait was interrupted
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     */
+    public static byte[] getDigest(Future<byte[]> digest)
+            throws IOException, NoSuchAlgorithmException {
+        try {
+            return digest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for digest", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Converts the given digest into a lowercase hex string.
+     */
+    public static String toHexString(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private byte[] getCachedDigest(File file, String algorithm) {
+        CachedDigest cached = mCache.get(getCacheKey(file, algorithm));
+        if (cached != null && cached.mLength == file.length()
+                && cached.mLastModified == file.lastModified()) {
+            return cached.mDigest.clone();
+        }
+        return null;
+    }
+
+    private static String getCacheKey(File file, String algorithm) {
+        return algorithm + ":" + file.getAbsolutePath();
+    }
+}
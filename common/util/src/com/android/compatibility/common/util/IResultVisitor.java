@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.File;
+
+/**
+ * Receives the contents of a result file as it is streamed by
+ * {@link ResultHandler#parseResults(File, boolean, IResultVisitor)}.
+ * <p/>
+ * Callbacks are made in document order. The parser creates new objects for every module and
+ * test case and does not retain them, so a visitor that keeps nothing uses a constant amount of
+ * memory regardless of the result size.
+ */
+public interface IResultVisitor {
+
+    /**
+     * Called once the invocation attributes, build info and summary have been read.
+     *
+     * @param summary the summary of the invocation. {@link InvocationSummary#getInvocation()}
+     * contains no modules, and may be retained and populated by the visitor.
+     * @return true to continue with the module results, false to stop parsing.
+     */
+    boolean visitSummary(InvocationSummary summary);
+
+    /**
+     * Called when a module starts, with its id, done status, not-executed count and runtime set.
+     */
+    void visitModule(IModuleResult module);
+
+    /**
+     * Called when a test case of the current module has been fully read.
+     *
+     * @param module the module passed to {@link #visitModule(IModuleResult)}
+     * @param caseResult the test case, containing all of its test results
+     */
+    void visitCase(IModuleResult module, ICaseResult caseResult);
+
+    /**
+     * Called when a module ends. {@link IModuleResult#countResults(TestStatus)} reflects every
+     * test in the module, and the done status accounts for checksum validation, if enabled.
+     * {@link IModuleResult#getResults()} is always empty.
+     */
+    void endModule(IModuleResult module);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * The invocation attributes and summary counts of a result file, available without reading
+ * any of the module results.
+ */
+public class InvocationSummary {
+
+    private final IInvocationResult mInvocation;
+    private final int mPassed;
+    private final int mFailed;
+    private final int mNotExecuted;
+    private final int mModulesDone;
+    private final int mModulesTotal;
+    private final String mRetrySession;
+
+    /**
+     * Creates an {@link InvocationSummary} of a session which is not a retry.
+     *
+     * @param invocation the invocation attributes, without any module results
+     */
+    public InvocationSummary(IInvocationResult invocation, int passed, int failed,
+            int notExecuted, int modulesDone, int modulesTotal) {
+        this(invocation, passed, failed, notExecuted, modulesDone, modulesTotal, null);
+    }
+
+    /**
+     * Creates an {@link InvocationSummary}.
+     *
+     * @param invocation the invocation attributes, without any module results
+     * @param retrySession the name of the result directory of the session retried by this one,
+     * or <code>null</code> if it is not a retry
+     */
+    public InvocationSummary(IInvocationResult invocation, int passed, int failed,
+            int notExecuted, int modulesDone, int modulesTotal, String retrySession) {
+        mInvocation = invocation;
+        mPassed = passed;
+        mFailed = failed;
+        mNotExecuted = notExecuted;
+        mModulesDone = modulesDone;
+        mModulesTotal = modulesTotal;
+        mRetrySession = retrySession;
+    }
+
+    /**
+     * @return the invocation attributes, such as start time, plan, devices and build info.
+     */
+    public IInvocationResult getInvocation() {
+        return mInvocation;
+    }
+
+    /**
+     * Count the number of results with given status.
+     */
+    public int countResults(TestStatus status) {
+        switch (status) {
+            case PASS:
+                return mPassed;
+            case FAIL:
+                return mFailed;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the number of tests that have not been executed.
+     */
+    public int getNotExecuted() {
+        return mNotExecuted;
+    }
+
+    /**
+     * @return the number of completed modules.
+     */
+    public int getModuleCompleteCount() {
+        return mModulesDone;
+    }
+
+    /**
+     * @return the total number of modules.
+     */
+    public int getModuleCount() {
+        return mModulesTotal;
+    }
+
+    /**
+     * @return the name of the result directory of the session retried by this one, or
+     * <code>null</code> if it is not a retry. The results of a retry include those of the
+     * sessions it retried.
+     */
+    public String getRetrySession() {
+        return mRetrySession;
+    }
+}
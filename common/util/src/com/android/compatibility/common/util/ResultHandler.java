@@ -18,12 +18,14 @@ package com.android.compatibility.common.util;
 import com.android.compatibility.common.util.ChecksumReporter.ChecksumValidationException;
 
 import com.google.common.base.Strings;
+import com.google.common.io.CountingOutputStream;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -32,22 +34,29 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Handles conversion of results to/from files.
@@ -60,7 +69,19 @@ public class ResultHandler {
     private static final String RESULT_FILE_VERSION = "5.0";
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
     private static final String FAILURE_REPORT_NAME = "test_result_failures.html";
-    private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
+
+    // Upper bound on the threads used to load sessions in parallel
+    private static final int MAX_LOADER_THREADS = 8;
+    // Upper bound on the sessions whose summaries are cached
+    private static final int MAX_CACHED_SUMMARIES = 256;
+    // Summaries of sessions already read, keyed by result file, least recently used first
+    private static final Map<File, CachedSummary> SUMMARY_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<File, CachedSummary>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Entry<File, CachedSummary> eldest) {
+                    return size() > MAX_CACHED_SUMMARIES;
+                }
+            });
 
     public static final String[] RESULT_RESOURCES = {
         "compatibility_result.css",
@@ -74,6 +95,7 @@ public class ResultHandler {
     private static final String BUGREPORT_TAG = "BugReport";
     private static final String BUILD_FINGERPRINT = "build_fingerprint";
     private static final String BUILD_ID = "build_id";
+    private static final String BUILD_MODEL = "build_model";
     private static final String BUILD_PRODUCT = "build_product";
     private static final String BUILD_TAG = "Build";
     private static final String CASE_TAG = "TestCase";
@@ -103,6 +125,7 @@ public class ResultHandler {
     private static final String REFERENCE_URL_ATTR = "reference_url";
     private static final String RESULT_ATTR = "result";
     private static final String RESULT_TAG = "Result";
+    private static final String RETRY_SESSION_ATTR = "retry_session";
     private static final String RUNTIME_ATTR = "runtime";
     private static final String SCREENSHOT_TAG = "Screenshot";
     private static final String STACK_TAG = "StackTrace";
@@ -123,148 +146,450 @@ public class ResultHandler {
     }
 
     /**
+     * Sessions whose result file cannot be read to the end are still listed, with the modules
+     * read before the error, as long as their summary can be read, so that the list agrees
+     * with {@link #getResultSummaries(File)} on session ids.
+     *
      * @param resultsDir
      * @param useChecksum
      */
     public static List<IInvocationResult> getResults(
-            File resultsDir, Boolean useChecksum) {
-        List<IInvocationResult> results = new ArrayList<>();
-        List<File> files = getResultDirectories(resultsDir);
-        for (File resultDir : files) {
-            if (!resultDir.isDirectory()) {
-                continue;
+            File resultsDir, final Boolean useChecksum) {
+        pruneSummaryCache();
+        List<IInvocationResult> results = loadInParallel(getResultDirectories(resultsDir),
+                new SessionLoader<IInvocationResult>() {
+                    @Override
+                    public IInvocationResult load(File resultDir)
+                            throws IOException, XmlPullParserException {
+                        // Skip the same sessions as getResultSummaries, so that both lists
+                        // agree on session ids.
+                        InvocationSummary summary = getCachedResultSummary(resultDir);
+                        if (summary == null) {
+                            return null;
+                        }
+                        InvocationResultBuilder builder = new InvocationResultBuilder();
+                        try {
+                            parseResults(resultDir, useChecksum, builder);
+                        } catch (IOException | XmlPullParserException e) {
+                            // Keep the session, with the modules read before the error
+                            e.printStackTrace();
+                        }
+                        return builder.getResult() != null
+                                ? builder.getResult() : summary.getInvocation();
+                    }
+                });
+        // Sort the table entries on each entry's timestamp.
+        Collections.sort(results, new Comparator<IInvocationResult>() {
+            public int compare(IInvocationResult result1, IInvocationResult result2) {
+                return Long.compare(result1.getStartTime(), result2.getStartTime());
             }
-            try {
-                File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-                if (!resultFile.exists()) {
-                    continue;
-                }
-                Boolean invocationUseChecksum = useChecksum;
-                IInvocationResult invocation = new InvocationResult();
-                invocation.setRetryDirectory(resultDir);
-                ChecksumReporter checksumReporter = null;
-                if (invocationUseChecksum) {
-                    try {
-                        checksumReporter = ChecksumReporter.load(resultDir);
-                        invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
-                    } catch (ChecksumValidationException e) {
-                        // Unable to read checksum form previous execution
-                        invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithoutChecksum);
-                        invocationUseChecksum = false;
+        });
+        return results;
+    }
+
+    /**
+     * Reads only the invocation attributes and summary of each session in the results
+     * directory, without parsing any module results.
+     *
+     * @param resultsDir the root test result directory
+     * @return the {@link InvocationSummary}s, sorted by start time like
+     * {@link #getResults(File)}, so that list indices are session ids.
+     */
+    public static List<InvocationSummary> getResultSummaries(File resultsDir) {
+        pruneSummaryCache();
+        List<InvocationSummary> summaries = loadInParallel(getResultDirectories(resultsDir),
+                new SessionLoader<InvocationSummary>() {
+                    @Override
+                    public InvocationSummary load(File resultDir)
+                            throws IOException, XmlPullParserException {
+                        return getCachedResultSummary(resultDir);
                     }
+                });
+        Collections.sort(summaries, new Comparator<InvocationSummary>() {
+            public int compare(InvocationSummary summary1, InvocationSummary summary2) {
+                return Long.compare(summary1.getInvocation().getStartTime(),
+                        summary2.getInvocation().getStartTime());
+            }
+        });
+        return summaries;
+    }
+
+    /**
+     * Returns the summary of a session, reusing the one read previously if the result file has
+     * not changed since, as identified by its size and modification time.
+     */
+    private static InvocationSummary getCachedResultSummary(File resultDir)
+            throws IOException, XmlPullParserException {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            SUMMARY_CACHE.remove(resultFile);
+            // Read the journal of an invocation which did not finish, without recovering it
+            IInvocationResult journaled = ResultJournal.read(resultDir);
+            return journaled == null ? null : new InvocationSummary(journaled,
+                    journaled.countResults(TestStatus.PASS),
+                    journaled.countResults(TestStatus.FAIL), journaled.getNotExecuted(),
+                    journaled.getModuleCompleteCount(), journaled.getModules().size());
+        }
+        long length = resultFile.length();
+        long lastModified = resultFile.lastModified();
+        CachedSummary cached = SUMMARY_CACHE.get(resultFile);
+        if (cached != null && cached.mLength == length && cached.mLastModified == lastModified) {
+            return cached.mSummary;
+        }
+        InvocationSummary summary = getResultSummary(resultDir);
+        if (summary != null) {
+            SUMMARY_CACHE.put(resultFile, new CachedSummary(summary, length, lastModified));
+        }
+        return summary;
+    }
+
+    /**
+     * Discards the cached summaries of sessions whose result file no longer exists.
+     */
+    private static void pruneSummaryCache() {
+        synchronized (SUMMARY_CACHE) {
+            Iterator<File> files = SUMMARY_CACHE.keySet().iterator();
+            while (files.hasNext()) {
+                if (!files.next().exists()) {
+                    files.remove();
                 }
-                XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-                XmlPullParser parser = factory.newPullParser();
-                parser.setInput(new FileReader(resultFile));
-
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
-                invocation.setStartTime(Long.valueOf(
-                        parser.getAttributeValue(NS, START_TIME_ATTR)));
-                invocation.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
-                invocation.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
-                String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
-                for (String device : deviceList.split(",")) {
-                    invocation.addDeviceSerial(device);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached session summaries.
+     */
+    static int getSummaryCacheSize() {
+        return SUMMARY_CACHE.size();
+    }
+
+    /**
+     * Discards all cached session summaries, see {@link #getResultSummaries(File)}.
+     */
+    public static void clearSummaryCache() {
+        SUMMARY_CACHE.clear();
+    }
+
+    /**
+     * Loads each session directory on a bounded pool of threads.
+     *
+     * @return the non-null loaded values, in the order of the given directories. Sessions which
+     * fail to load are logged and skipped.
+     */
+    private static <T> List<T> loadInParallel(List<File> resultDirs,
+            final SessionLoader<T> loader) {
+        List<T> values = new ArrayList<>();
+        if (resultDirs.isEmpty()) {
+            return values;
+        }
+        int threads = Math.min(resultDirs.size(),
+                Math.min(MAX_LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<>(resultDirs.size());
+            for (final File resultDir : resultDirs) {
+                futures.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        return loader.load(resultDir);
+                    }
+                }));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    T value = future.get();
+                    if (value != null) {
+                        values.add(value);
+                    }
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading results", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return values;
+    }
 
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
-                invocation.addInvocationInfo(BUILD_ID, parser.getAttributeValue(NS, BUILD_ID));
-                invocation.addInvocationInfo(BUILD_PRODUCT, parser.getAttributeValue(NS,
-                        BUILD_PRODUCT));
-                invocation.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
-
-                // TODO(stuartscott): may want to reload these incase the retry was done with
-                // --skip-device-info flag
-                parser.nextTag();
-                parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
-                parser.nextTag();
-                parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+    /**
+     * Reads the invocation attributes and summary of a single session from its
+     * {@link ResultIndex}, or if it has none, from the result file, stopping before the module
+     * results.
+     *
+     * @param resultDir the directory containing the result file
+     * @return the {@link InvocationSummary} or <code>null</code> if there is no result file
+     */
+    public static InvocationSummary getResultSummary(File resultDir)
+            throws IOException, XmlPullParserException {
+        ResultIndex index = getResultIndex(resultDir);
+        if (index != null) {
+            try {
+                return index.getSummary();
+            } catch (RuntimeException e) {
+                // Corrupt index, fall back to the result file
+            }
+        }
+        final InvocationSummary[] summary = new InvocationSummary[1];
+        parseResults(resultDir, false, new IResultVisitor() {
+            @Override
+            public boolean visitSummary(InvocationSummary invocationSummary) {
+                summary[0] = invocationSummary;
+                return false;
+            }
+
+            @Override
+            public void visitModule(IModuleResult module) {}
+
+            @Override
+            public void visitCase(IModuleResult module, ICaseResult caseResult) {}
+
+            @Override
+            public void endModule(IModuleResult module) {}
+        });
+        return summary[0];
+    }
+
+    /**
+     * Streams the result file of a session to the given {@link IResultVisitor}, one test case at
+     * a time. Nothing is retained between callbacks, so arbitrarily large results can be read in
+     * constant memory.
+     *
+     * @param resultDir the directory containing the result file
+     * @param useChecksum whether to validate results against the checksum of the session. Tests
+     * that fail validation are reported as failed, and modules as not done.
+     * @param visitor the {@link IResultVisitor} receiving the results
+     * @return true if the result file exists and was read, false if there is no result file
+     */
+    public static boolean parseResults(File resultDir, boolean useChecksum,
+            IResultVisitor visitor) throws IOException, XmlPullParserException {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            return false;
+        }
+        IInvocationResult invocation = new InvocationResult();
+        invocation.setRetryDirectory(resultDir);
+        ChecksumReporter checksumReporter = null;
+        if (useChecksum) {
+            try {
+                checksumReporter = ChecksumReporter.load(resultDir);
+                invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
+            } catch (ChecksumValidationException e) {
+                // Unable to read checksum form previous execution
+                invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithoutChecksum);
+            }
+        }
+        try (Reader reader = new FileReader(resultFile)) {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            XmlPullParser parser = factory.newPullParser();
+            parser.setInput(reader);
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            invocation.setStartTime(Long.valueOf(
+                    parser.getAttributeValue(NS, START_TIME_ATTR)));
+            invocation.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
+            invocation.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+            String retrySession = parser.getAttributeValue(NS, RETRY_SESSION_ATTR);
+            String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
+            for (String device : deviceList.split(",")) {
+                invocation.addDeviceSerial(device);
+            }
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            invocation.addInvocationInfo(BUILD_ID, parser.getAttributeValue(NS, BUILD_ID));
+            invocation.addInvocationInfo(BUILD_PRODUCT, parser.getAttributeValue(NS,
+                    BUILD_PRODUCT));
+            String buildModel = parser.getAttributeValue(NS, BUILD_MODEL);
+            if (buildModel != null) {
+                invocation.addInvocationInfo(BUILD_MODEL, buildModel);
+            }
+            invocation.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
+
+            // TODO(stuartscott): may want to reload these incase the retry was done with
+            // --skip-device-info flag
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
+            InvocationSummary summary = new InvocationSummary(invocation,
+                    parseIntAttribute(parser, PASS_ATTR),
+                    parseIntAttribute(parser, FAILED_ATTR),
+                    parseIntAttribute(parser, NOT_EXECUTED_ATTR),
+                    parseIntAttribute(parser, MODULES_DONE_ATTR),
+                    parseIntAttribute(parser, MODULES_TOTAL_ATTR),
+                    retrySession);
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+            if (!visitor.visitSummary(summary)) {
+                return true;
+            }
+            String buildFingerprint = invocation.getBuildFingerprint();
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+                String name = parser.getAttributeValue(NS, NAME_ATTR);
+                String abi = parser.getAttributeValue(NS, ABI_ATTR);
+                StreamedModuleResult module =
+                        new StreamedModuleResult(AbiUtils.createId(abi, name));
+                module.initializeDone(
+                        Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR)));
+                module.setNotExecuted(
+                        Integer.parseInt(parser.getAttributeValue(NS, NOT_EXECUTED_ATTR)));
+                module.addRuntime(Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR)));
+                visitor.visitModule(module);
                 while (parser.nextTag() == XmlPullParser.START_TAG) {
-                    parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
-                    String name = parser.getAttributeValue(NS, NAME_ATTR);
-                    String abi = parser.getAttributeValue(NS, ABI_ATTR);
-                    String moduleId = AbiUtils.createId(abi, name);
-                    boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
-                    IModuleResult module = invocation.getOrCreateModule(moduleId);
-                    module.initializeDone(done);
-                    int notExecuted = Integer.parseInt(
-                            parser.getAttributeValue(NS, NOT_EXECUTED_ATTR));
-                    module.setNotExecuted(notExecuted);
-                    long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
-                    module.addRuntime(runtime);
+                    parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+                    ICaseResult testCase = new CaseResult(parser.getAttributeValue(NS, NAME_ATTR));
                     while (parser.nextTag() == XmlPullParser.START_TAG) {
-                        parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
-                        String caseName = parser.getAttributeValue(NS, NAME_ATTR);
-                        ICaseResult testCase = module.getOrCreateResult(caseName);
-                        while (parser.nextTag() == XmlPullParser.START_TAG) {
-                            parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
-                            String testName = parser.getAttributeValue(NS, NAME_ATTR);
-                            ITestResult test = testCase.getOrCreateResult(testName);
-                            String result = parser.getAttributeValue(NS, RESULT_ATTR);
-                            test.setResultStatus(TestStatus.getStatus(result));
-                            test.setRetry(true);
-                            while (parser.nextTag() == XmlPullParser.START_TAG) {
-                                if (parser.getName().equals(FAILURE_TAG)) {
-                                    test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
-                                    if (parser.nextTag() == XmlPullParser.START_TAG) {
-                                        parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
-                                        test.setStackTrace(parser.nextText());
-                                        parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
-                                        parser.nextTag();
-                                    }
-                                    parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
-                                } else if (parser.getName().equals(BUGREPORT_TAG)) {
-                                    test.setBugReport(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
-                                } else if (parser.getName().equals(LOGCAT_TAG)) {
-                                    test.setLog(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
-                                } else if (parser.getName().equals(SCREENSHOT_TAG)) {
-                                    test.setScreenshot(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
-                                } else {
-                                    test.setReportLog(ReportLog.parse(parser));
-                                }
-                            }
-                            parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
-                            Boolean checksumMismatch = invocationUseChecksum
-                                    && !checksumReporter.containsTestResult(
-                                    test, module, invocation.getBuildFingerprint());
-                            if (checksumMismatch) {
-                                test.removeResult();
-                            }
+                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                        ITestResult test = parseTest(parser, testCase);
+                        if (checksumReporter != null && !checksumReporter.containsTestResult(
+                                test, module, buildFingerprint)) {
+                            test.removeResult();
                         }
-                        parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+                        module.count(test.getResultStatus());
                     }
-                    parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
-                    Boolean checksumMismatch = invocationUseChecksum
-                            && !checksumReporter.containsModuleResult(
-                            module, invocation.getBuildFingerprint());
-                    if (checksumMismatch) {
-                        module.initializeDone(false);
+                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+                    visitor.visitCase(module, testCase);
+                }
+                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+                if (checksumReporter != null
+                        && !checksumReporter.containsModuleResult(module, buildFingerprint)) {
+                    module.initializeDone(false);
+                }
+                visitor.endModule(module);
+            }
+            parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+        }
+        return true;
+    }
+
+    /**
+     * Streams the status of every test of a session to the given {@link IResultVisitor}, like
+     * {@link #parseResults(File, boolean, IResultVisitor)}, but from the {@link ResultIndex} of the
+     * session if it has a usable one. The stack traces of failed tests are then only read from
+     * the result file to validate them against the checksum, and no other details of the tests
+     * are read. Test cases without any executed test are not visited.
+     *
+     * @return true if the session was read, false if there is no result file
+     */
+    public static boolean parseResultStatuses(File resultDir, boolean useChecksum,
+            IResultVisitor visitor) throws IOException, XmlPullParserException {
+        ResultIndex index = getResultIndex(resultDir);
+        if (index == null) {
+            return parseResults(resultDir, useChecksum, visitor);
+        }
+        InvocationSummary summary;
+        try {
+            summary = index.getSummary();
+        } catch (RuntimeException e) {
+            // Corrupt index, fall back to the result file
+            return parseResults(resultDir, useChecksum, visitor);
+        }
+        IInvocationResult invocation = summary.getInvocation();
+        ChecksumReporter checksumReporter = null;
+        if (useChecksum) {
+            try {
+                checksumReporter = ChecksumReporter.load(resultDir);
+                invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
+            } catch (ChecksumValidationException e) {
+                // Unable to read checksum form previous execution
+                invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithoutChecksum);
+            }
+        }
+        if (!visitor.visitSummary(summary)) {
+            return true;
+        }
+        String buildFingerprint = invocation.getBuildFingerprint();
+        try {
+            for (int m = 0; m < index.getModuleCount(); m++) {
+                StreamedModuleResult module = new StreamedModuleResult(index.getModuleId(m));
+                module.initializeDone(index.isDone(m));
+                module.setNotExecuted(index.getNotExecuted(m));
+                module.addRuntime(index.getRuntime(m));
+                visitor.visitModule(module);
+                ICaseResult testCase = null;
+                int end = index.getFirstTest(m) + index.getTestCount(m);
+                for (int t = index.getFirstTest(m); t < end; t++) {
+                    String caseName = index.getCaseName(t);
+                    if (testCase == null || !testCase.getName().equals(caseName)) {
+                        if (testCase != null) {
+                            visitor.visitCase(module, testCase);
+                        }
+                        testCase = new CaseResult(caseName);
+                    }
+                    ITestResult test = testCase.getOrCreateResult(index.getTestName(t));
+                    test.setResultStatus(index.getStatus(t));
+                    test.setRetry(true);
+                    if (checksumReporter != null) {
+                        test.setStackTrace(index.getStackTrace(t));
+                        if (!checksumReporter.containsTestResult(
+                                test, module, buildFingerprint)) {
+                            test.removeResult();
+                        }
                     }
+                    module.count(test.getResultStatus());
+                }
+                if (testCase != null) {
+                    visitor.visitCase(module, testCase);
                 }
-                parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
-                results.add(invocation);
-            } catch (XmlPullParserException e) {
-                e.printStackTrace();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+                if (checksumReporter != null
+                        && !checksumReporter.containsModuleResult(module, buildFingerprint)) {
+                    module.initializeDone(false);
+                }
+                visitor.endModule(module);
             }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt result index in " + resultDir.getAbsolutePath(), e);
         }
-        // Sort the table entries on each entry's timestamp.
-        Collections.sort(results, new Comparator<IInvocationResult>() {
-            public int compare(IInvocationResult result1, IInvocationResult result2) {
-                return Long.compare(result1.getStartTime(), result2.getStartTime());
+        return true;
+    }
+
+    /**
+     * Parses a single &lt;Test&gt; element into the given test case, leaving the parser on its
+     * end tag.
+     */
+    private static ITestResult parseTest(XmlPullParser parser, ICaseResult testCase)
+            throws XmlPullParserException, IOException {
+        String testName = parser.getAttributeValue(NS, NAME_ATTR);
+        ITestResult test = testCase.getOrCreateResult(testName);
+        String result = parser.getAttributeValue(NS, RESULT_ATTR);
+        test.setResultStatus(TestStatus.getStatus(result));
+        test.setRetry(true);
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (parser.getName().equals(FAILURE_TAG)) {
+                test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
+                if (parser.nextTag() == XmlPullParser.START_TAG) {
+                    parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
+                    test.setStackTrace(parser.nextText());
+                    parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
+                    parser.nextTag();
+                }
+                parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
+            } else if (parser.getName().equals(BUGREPORT_TAG)) {
+                test.setBugReport(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
+            } else if (parser.getName().equals(LOGCAT_TAG)) {
+                test.setLog(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
+            } else if (parser.getName().equals(SCREENSHOT_TAG)) {
+                test.setScreenshot(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
+            } else {
+                test.setReportLog(ReportLog.parse(parser));
             }
-        });
-        return results;
+        }
+        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+        return test;
+    }
+
+    private static int parseIntAttribute(XmlPullParser parser, String name) {
+        String value = parser.getAttributeValue(NS, name);
+        return value == null ? 0 : Integer.parseInt(value);
     }
 
     /**
@@ -287,7 +612,19 @@ public class ResultHandler {
         int failed = result.countResults(TestStatus.FAIL);
         int notExecuted = result.getNotExecuted();
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-        OutputStream stream = new FileOutputStream(resultFile);
+        // The checksum of the result file is calculated while it is written, rather than by
+        // reading it again afterwards
+        MessageDigest resultDigest = null;
+        OutputStream fileStream = new FileOutputStream(resultFile);
+        try {
+            resultDigest = MessageDigest.getInstance(ChecksumReporter.FILE_CHECKSUM_ALGORITHM);
+            fileStream = new DigestOutputStream(fileStream, resultDigest);
+        } catch (NoSuchAlgorithmException e) {
+            // The checksum is calculated from the file instead
+        }
+        CountingOutputStream stream = new CountingOutputStream(
+                new BufferedOutputStream(fileStream));
+        ResultIndex.Builder index = new ResultIndex.Builder();
         XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
         serializer.setOutput(stream, ENCODING);
         serializer.startDocument(ENCODING, false);
@@ -306,6 +643,10 @@ public class ResultHandler {
         serializer.attribute(NS, SUITE_BUILD_ATTR, suiteBuild);
         serializer.attribute(NS, REPORT_VERSION_ATTR, RESULT_FILE_VERSION);
         serializer.attribute(NS, COMMAND_LINE_ARGS, nullToEmpty(commandLineArgs));
+        String retrySession = getRetrySession(result, resultDir);
+        if (retrySession != null) {
+            serializer.attribute(NS, RETRY_SESSION_ATTR, retrySession);
+        }
 
         if (referenceUrl != null) {
             serializer.attribute(NS, REFERENCE_URL_ATTR, referenceUrl);
@@ -366,6 +707,7 @@ public class ResultHandler {
 
         // Results
         for (IModuleResult module : result.getModules()) {
+            index.addModule(module);
             serializer.startTag(NS, MODULE_TAG);
             serializer.attribute(NS, NAME_ATTR, module.getName());
             serializer.attribute(NS, ABI_ATTR, module.getAbi());
@@ -382,6 +724,7 @@ public class ResultHandler {
                     if (status == null) {
                         continue; // test was not executed, don't report
                     }
+                    index.addTest(cr.getName(), r.getName(), status);
                     serializer.startTag(NS, TEST_TAG);
                     serializer.attribute(NS, RESULT_ATTR, status.getValue());
                     serializer.attribute(NS, NAME_ATTR, r.getName());
@@ -392,7 +735,12 @@ public class ResultHandler {
                         String stackTrace = r.getStackTrace();
                         if (stackTrace != null) {
                             serializer.startTag(NS, STACK_TAG);
+                            // Flush to find the offset of the stack trace in the file
+                            serializer.flush();
+                            long offset = stream.getCount();
                             serializer.text(stackTrace);
+                            serializer.flush();
+                            index.setStackTrace(offset, (int) (stream.getCount() - offset));
                             serializer.endTag(NS, STACK_TAG);
                         }
                         serializer.endTag(NS, FAILURE_TAG);
@@ -426,29 +774,76 @@ public class ResultHandler {
             serializer.endTag(NS, MODULE_TAG);
         }
         serializer.endDocument();
-        createChecksum(resultDir, result);
+        stream.close();
+        try {
+            index.write(resultFile, startTime, suitePlan, nullToEmpty(commandLineArgs),
+                    new InvocationSummary(result, passed, failed, notExecuted,
+                            result.getModuleCompleteCount(), result.getModules().size(),
+                            retrySession));
+        } catch (IOException e) {
+            // The index is optional, readers fall back to parsing the result file.
+            new File(resultDir, ResultIndex.NAME).delete();
+        }
+        Map<File, byte[]> fileChecksums = new HashMap<>();
+        if (resultDigest != null) {
+            fileChecksums.put(resultFile, resultDigest.digest());
+        }
+        createChecksum(resultDir, result, fileChecksums);
         return resultFile;
     }
 
+    /**
+     * @return the name of the result directory the given result was loaded from, if it is
+     * written to another directory, ie if the session being written is a retry.
+     */
+    private static String getRetrySession(IInvocationResult result, File resultDir) {
+        File retryDir = result.getRetryDirectory();
+        if (retryDir == null || retryDir.getAbsoluteFile().equals(resultDir.getAbsoluteFile())) {
+            return null;
+        }
+        return retryDir.getName();
+    }
+
+    /**
+     * Loads the {@link ResultIndex} written alongside the result file of a session.
+     *
+     * @param resultDir the directory containing the result file
+     * @return the {@link ResultIndex}, or <code>null</code> if there is no usable index, in which
+     * case the result file should be parsed instead.
+     */
+    public static ResultIndex getResultIndex(File resultDir) {
+        try {
+            return ResultIndex.load(resultDir);
+        } catch (IOException | RuntimeException e) {
+            // Missing, truncated or corrupt index
+            return null;
+        }
+    }
+
+    /**
+     * Writes an HTML report of the failed tests of a result file, next to the result file.
+     *
+     * @param inputXml the result file
+     * @return the report, which does not exist if it could not be written
+     */
     public static File createFailureReport(File inputXml) {
         File failureReport = new File(inputXml.getParentFile(), FAILURE_REPORT_NAME);
-        try (InputStream xslStream = ResultHandler.class.getResourceAsStream(
-                String.format("/report/%s", FAILURE_XSL_FILE_NAME));
-             OutputStream outputStream = new FileOutputStream(failureReport)) {
-
-            Transformer transformer = TransformerFactory.newInstance().newTransformer(
-                    new StreamSource(xslStream));
-            transformer.transform(new StreamSource(inputXml), new StreamResult(outputStream));
-        } catch (IOException | TransformerException ignored) { }
+        try {
+            FailureReportWriter.write(inputXml, failureReport);
+        } catch (IOException | XmlPullParserException e) {
+            e.printStackTrace();
+            failureReport.delete();
+        }
         return failureReport;
     }
 
-    private static void createChecksum(File resultDir, IInvocationResult invocationResult) {
+    private static void createChecksum(File resultDir, IInvocationResult invocationResult,
+            Map<File, byte[]> fileChecksums) {
         RetryChecksumStatus retryStatus = invocationResult.getRetryChecksumStatus();
         switch (retryStatus) {
             case NotRetry: case RetryWithChecksum:
                 // Do not disrupt the process if there is a problem generating checksum.
-                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult);
+                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult, fileChecksums);
                 break;
             case RetryWithoutChecksum:
                 // If the previous run has an invalid checksum file,
@@ -482,24 +877,69 @@ public class ResultHandler {
      */
     public static IInvocationResult findResult(File resultsDir, Integer sessionId)
             throws FileNotFoundException {
-        return findResult(resultsDir, sessionId, true);
+        return findResult(resultsDir, sessionId, new InvocationResult());
     }
 
     /**
-     * Find the IInvocationResult for the given sessionId.
+     * Find the IInvocationResult for the given sessionId, loading it into the given empty
+     * result, eg a {@link CompactInvocationResult}. Only the result file of that session is
+     * parsed.
+     */
+    public static IInvocationResult findResult(File resultsDir, Integer sessionId,
+            IInvocationResult result) throws FileNotFoundException {
+        if (sessionId < 0) {
+            throw new IllegalArgumentException(
+                String.format("Invalid session id [%d] ", sessionId));
+        }
+
+        List<InvocationSummary> summaries = getResultSummaries(resultsDir);
+        if (sessionId >= summaries.size()) {
+            throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
+        }
+        File resultDir = summaries.get(sessionId).getInvocation().getRetryDirectory();
+        // Write the result file of an invocation which did not finish, so it can be retried
+        ResultJournal.recover(resultDir);
+        try {
+            if (!parseResults(resultDir, true, new InvocationResultBuilder(result))) {
+                throw new FileNotFoundException(String.format(
+                        "Could not find result file for session [%d]", sessionId));
+            }
+        } catch (XmlPullParserException | IOException e) {
+            throw new RuntimeException(String.format("Could not read session [%d]", sessionId), e);
+        }
+        return result;
+    }
+
+    /**
+     * Find the summary of the given sessionId, without parsing its module results. Use
+     * {@link #parseResultStatuses} on the directory of the session, see
+     * {@link IInvocationResult#getRetryDirectory()}, to select the tests to retry.
      */
-    private static IInvocationResult findResult(
-            File resultsDir, Integer sessionId, Boolean useChecksum) throws FileNotFoundException {
+    public static InvocationSummary findResultSummary(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
         if (sessionId < 0) {
             throw new IllegalArgumentException(
                 String.format("Invalid session id [%d] ", sessionId));
         }
 
-        List<IInvocationResult> results = getResults(resultsDir, useChecksum);
-        if (results == null || sessionId >= results.size()) {
+        List<InvocationSummary> summaries = getResultSummaries(resultsDir);
+        if (sessionId >= summaries.size()) {
             throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
         }
-        return results.get(sessionId);
+        File resultDir = summaries.get(sessionId).getInvocation().getRetryDirectory();
+        // Write the result file of an invocation which did not finish, so it can be retried
+        ResultJournal.recover(resultDir);
+        InvocationSummary summary;
+        try {
+            summary = getResultSummary(resultDir);
+        } catch (XmlPullParserException | IOException e) {
+            throw new RuntimeException(String.format("Could not read session [%d]", sessionId), e);
+        }
+        if (summary == null) {
+            throw new FileNotFoundException(String.format(
+                    "Could not find result file for session [%d]", sessionId));
+        }
+        return summary;
     }
 
     /**
@@ -534,9 +974,11 @@ public class ResultHandler {
             if (!resultDir.isDirectory()) {
                 continue;
             }
-            // Only include if it contain results file
+            // Only include if it contain results file, or the journal of an invocation which
+            // did not finish, from which the results file can be recovered on retry
             File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-            if (!resultFile.exists()) {
+            if (!resultFile.exists() && (!new File(resultDir, ResultJournal.NAME).isFile()
+                    || ResultJournal.isActive(resultDir))) {
                 continue;
             }
             directoryList.add(resultDir);
@@ -563,4 +1005,117 @@ public class ResultHandler {
     private static String nullToEmpty(String nullable) {
         return nullable == null ? "" : nullable;
     }
+
+    /**
+     * Loads the value for a single session directory, or returns <code>null</code> to skip it.
+     */
+    private interface SessionLoader<T> {
+        T load(File resultDir) throws IOException, XmlPullParserException;
+    }
+
+    /**
+     * A session summary along with the size and modification time of its result file.
+     */
+    private static class CachedSummary {
+        final InvocationSummary mSummary;
+        final long mLength;
+        final long mLastModified;
+
+        CachedSummary(InvocationSummary summary, long length, long lastModified) {
+            mSummary = summary;
+            mLength = length;
+            mLastModified = lastModified;
+        }
+    }
+
+    /**
+     * Builds the full {@link IInvocationResult} tree from a streamed result file.
+     */
+    static class InvocationResultBuilder implements IResultVisitor {
+
+        private IInvocationResult mResult;
+
+        /**
+         * Creates a builder which populates the invocation of the summary.
+         */
+        InvocationResultBuilder() {
+            this(null);
+        }
+
+        /**
+         * Creates a builder which populates the given empty result.
+         */
+        InvocationResultBuilder(IInvocationResult result) {
+            mResult = result;
+        }
+
+        IInvocationResult getResult() {
+            return mResult;
+        }
+
+        @Override
+        public boolean visitSummary(InvocationSummary summary) {
+            IInvocationResult invocation = summary.getInvocation();
+            if (mResult == null) {
+                mResult = invocation;
+                return true;
+            }
+            mResult.setStartTime(invocation.getStartTime());
+            mResult.setTestPlan(invocation.getTestPlan());
+            mResult.setCommandLineArgs(invocation.getCommandLineArgs());
+            for (String serial : invocation.getDeviceSerials()) {
+                mResult.addDeviceSerial(serial);
+            }
+            for (Entry<String, String> entry : invocation.getInvocationInfo().entrySet()) {
+                mResult.addInvocationInfo(entry.getKey(), entry.getValue());
+            }
+            mResult.setBuildFingerprint(invocation.getBuildFingerprint());
+            mResult.setRetryDirectory(invocation.getRetryDirectory());
+            mResult.setRetryChecksumStatus(invocation.getRetryChecksumStatus());
+            return true;
+        }
+
+        @Override
+        public void visitModule(IModuleResult module) {
+            mResult.getOrCreateModule(module.getId());
+        }
+
+        @Override
+        public void visitCase(IModuleResult module, ICaseResult caseResult) {
+            mResult.getOrCreateModule(module.getId())
+                    .getOrCreateResult(caseResult.getName()).mergeFrom(caseResult);
+        }
+
+        @Override
+        public void endModule(IModuleResult module) {
+            IModuleResult result = mResult.getOrCreateModule(module.getId());
+            result.initializeDone(module.isDone());
+            result.setNotExecuted(module.getNotExecuted());
+            result.addRuntime(module.getRuntime());
+        }
+    }
+
+    /**
+     * A {@link ModuleResult} which does not keep its test cases, only the number of tests seen
+     * with each status.
+     */
+    private static class StreamedModuleResult extends ModuleResult {
+
+        private final int[] mCounts = new int[TestStatus.values().length];
+
+        StreamedModuleResult(String id) {
+            super(id);
+        }
+
+        void count(TestStatus status) {
+            if (status != null) {
+                mCounts[status.ordinal()]++;
+            }
+        }
+
+        @Override
+        public int countResults(TestStatus status) {
+            return mCounts[status.ordinal()];
+        }
+    }
 }
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary index of a result file, written next to it by
+ * {@link ResultHandler#writeResults}.
+ * <p/>
+ * The index holds the invocation summary, an interned table of module, class and test names,
+ * the status of every test as a primitive array and the location of each stack trace in the
+ * result file. It is memory-mapped on load and decoded lazily, so counts and the set of tests
+ * with a given status can be read without parsing the XML. Failure messages, report logs, bug
+ * reports, logcats and screenshots are not indexed; use {@link ResultHandler} for those.
+ */
+public class ResultIndex {
+
+    public static final String NAME = "test_result.index";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Format Id (ie magic number) used to identify the index, "CTRI"
+    private static final int FORMAT_CODE = 0x43545249;
+    private static final short CURRENT_VERSION = 4;
+    private static final String BUILD_ID = "build_id";
+    private static final String BUILD_PRODUCT = "build_product";
+    private static final int NO_STRING = -1;
+    private static final byte STATUS_NONE = 0;
+
+    private static final int MODULE_RECORD_SIZE = 28;
+    private static final int STACK_RECORD_SIZE = 16;
+
+    private final File mResultFile;
+    private final ByteBuffer mBuffer;
+    private final long mStartTime;
+    private final int[] mSummary;
+    private final int[] mHeaderStrings;
+    private final int mStringCount;
+    private final int mStringOffsetsPos;
+    private final int mStringDataPos;
+    private final int mModuleCount;
+    private final int mModulesPos;
+    private final int mTestCount;
+    private final int mCasesPos;
+    private final int mNamesPos;
+    private final int mStatusesPos;
+    private final int mStackCount;
+    private final int mStacksPos;
+    private String[] mStrings;
+
+    private ResultIndex(File resultFile, ByteBuffer buffer) {
+        mResultFile = resultFile;
+        mBuffer = buffer;
+        int pos = 6; // magic number and version
+        pos += 16; // length and modification time of the result file
+        mStartTime = buffer.getLong(pos);
+        pos += 8;
+        mSummary = new int[5];
+        for (int i = 0; i < mSummary.length; i++, pos += 4) {
+            mSummary[i] = buffer.getInt(pos);
+        }
+        mHeaderStrings = new int[7];
+        for (int i = 0; i < mHeaderStrings.length; i++, pos += 4) {
+            mHeaderStrings[i] = buffer.getInt(pos);
+        }
+        mStringCount = buffer.getInt(pos);
+        mStringOffsetsPos = pos + 4;
+        mStringDataPos = mStringOffsetsPos + 4 * (mStringCount + 1);
+        pos = mStringDataPos + buffer.getInt(mStringOffsetsPos + 4 * mStringCount);
+        mModuleCount = buffer.getInt(pos);
+        mModulesPos = pos + 4;
+        pos = mModulesPos + MODULE_RECORD_SIZE * mModuleCount;
+        mTestCount = buffer.getInt(pos);
+        mCasesPos = pos + 4;
+        mNamesPos = mCasesPos + 4 * mTestCount;
+        mStatusesPos = mNamesPos + 4 * mTestCount;
+        pos = mStatusesPos + mTestCount;
+        mStackCount = buffer.getInt(pos);
+        mStacksPos = pos + 4;
+        if (mStacksPos + (long) STACK_RECORD_SIZE * mStackCount != buffer.limit()) {
+            throw new IndexOutOfBoundsException("Index does not match its length");
+        }
+    }
+
+    /**
+     * Loads the index of the result file in the given directory.
+     *
+     * @param resultDir the directory containing the result file
+     * @return the {@link ResultIndex}, or <code>null</code> if there is no index, it is of an
+     * unknown version, or the result file has changed since it was written.
+     * @throws IOException if the index could not be read
+     */
+    public static ResultIndex load(File resultDir) throws IOException {
+        File indexFile = new File(resultDir, NAME);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        if (!indexFile.exists() || !resultFile.exists()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+                FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < 22 || buffer.getInt(0) != FORMAT_CODE
+                || buffer.getShort(4) != CURRENT_VERSION
+                || buffer.getLong(6) != resultFile.length()
+                || buffer.getLong(14) != resultFile.lastModified()) {
+            return null;
+        }
+        return new ResultIndex(resultFile, buffer);
+    }
+
+    /**
+     * @return the summary of the invocation, whose invocation contains no modules.
+     */
+    public InvocationSummary getSummary() {
+        IInvocationResult invocation = new InvocationResult();
+        invocation.setRetryDirectory(mResultFile.getParentFile());
+        invocation.setStartTime(mStartTime);
+        invocation.setTestPlan(getString(mHeaderStrings[0]));
+        invocation.setCommandLineArgs(getString(mHeaderStrings[1]));
+        String devices = getString(mHeaderStrings[2]);
+        if (devices != null) {
+            for (String device : devices.split(",")) {
+                invocation.addDeviceSerial(device);
+            }
+        }
+        invocation.setBuildFingerprint(getString(mHeaderStrings[3]));
+        invocation.addInvocationInfo(BUILD_ID, getString(mHeaderStrings[4]));
+        invocation.addInvocationInfo(BUILD_PRODUCT, getString(mHeaderStrings[5]));
+        return new InvocationSummary(invocation, mSummary[0], mSummary[1], mSummary[2],
+                mSummary[3], mSummary[4], getString(mHeaderStrings[6]));
+    }
+
+    /**
+     * @return the number of modules in the index.
+     */
+    public int getModuleCount() {
+        return mModuleCount;
+    }
+
+    /**
+     * @return the id of the given module, created with {@link AbiUtils#createId(String, String)}
+     */
+    public String getModuleId(int module) {
+        return getString(mBuffer.getInt(modulePos(module)));
+    }
+
+    /**
+     * @return the index of the first test of the given module.
+     */
+    public int getFirstTest(int module) {
+        return mBuffer.getInt(modulePos(module) + 4);
+    }
+
+    /**
+     * @return the number of tests in the given module.
+     */
+    public int getTestCount(int module) {
+        return mBuffer.getInt(modulePos(module) + 8);
+    }
+
+    /**
+     * @return the number of tests not executed in the given module.
+     */
+    public int getNotExecuted(int module) {
+        return mBuffer.getInt(modulePos(module) + 12);
+    }
+
+    /**
+     * @return the runtime of the given module.
+     */
+    public long getRuntime(int module) {
+        return mBuffer.getLong(modulePos(module) + 16);
+    }
+
+    /**
+     * @return whether the given module is done.
+     */
+    public boolean isDone(int module) {
+        return mBuffer.getInt(modulePos(module) + 24) != 0;
+    }
+
+    /**
+     * @return the total number of tests in the index.
+     */
+    public int getTestCount() {
+        return mTestCount;
+    }
+
+    /**
+     * @return the test case name of the given test, eg &lt;package-name&gt;.&lt;class-name&gt;
+     */
+    public String getCaseName(int test) {
+        return getString(mBuffer.getInt(mCasesPos + 4 * checkTest(test)));
+    }
+
+    /**
+     * @return the name of the given test, eg &lt;method-name&gt;
+     */
+    public String getTestName(int test) {
+        return getString(mBuffer.getInt(mNamesPos + 4 * checkTest(test)));
+    }
+
+    /**
+     * @return the full name of the given test, as in {@link ITestResult#getFullName()}
+     */
+    public String getFullName(int test) {
+        return String.format("%s#%s", getCaseName(test), getTestName(test));
+    }
+
+    /**
+     * @return the {@link TestStatus} of the given test, or <code>null</code> if it has none.
+     */
+    public TestStatus getStatus(int test) {
+        byte status = mBuffer.get(mStatusesPos + checkTest(test));
+        return status == STATUS_NONE ? null : TestStatus.values()[status - 1];
+    }
+
+    /**
+     * Count the number of results with given status, without decoding any names.
+     */
+    public int countResults(TestStatus status) {
+        byte value = toByte(status);
+        int count = 0;
+        for (int i = 0; i < mTestCount; i++) {
+            if (mBuffer.get(mStatusesPos + i) == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the indices of all tests with the given status, in result file order.
+     */
+    public int[] getTests(TestStatus status) {
+        byte value = toByte(status);
+        int[] tests = new int[mTestCount];
+        int count = 0;
+        for (int i = 0; i < mTestCount; i++) {
+            if (mBuffer.get(mStatusesPos + i) == value) {
+                tests[count++] = i;
+            }
+        }
+        return Arrays.copyOf(tests, count);
+    }
+
+    /**
+     * Reads the stack trace of the given test from the result file.
+     *
+     * @return the stack trace, or <code>null</code> if the test has none.
+     * @throws IOException if the result file could not be read
+     */
+    public String getStackTrace(int test) throws IOException {
+        checkTest(test);
+        int low = 0;
+        int high = mStackCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = mStacksPos + STACK_RECORD_SIZE * mid;
+            int midTest = mBuffer.getInt(pos);
+            if (midTest < test) {
+                low = mid + 1;
+            } else if (midTest > test) {
+                high = mid - 1;
+            } else {
+                return readText(mBuffer.getLong(pos + 4), mBuffer.getInt(pos + 12));
+            }
+        }
+        return null;
+    }
+
+    private int modulePos(int module) {
+        if (module < 0 || module >= mModuleCount) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Invalid module %d, index contains %d modules", module, mModuleCount));
+        }
+        return mModulesPos + MODULE_RECORD_SIZE * module;
+    }
+
+    private int checkTest(int test) {
+        if (test < 0 || test >= mTestCount) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Invalid test %d, index contains %d tests", test, mTestCount));
+        }
+        return test;
+    }
+
+    private String getString(int index) {
+        if (index == NO_STRING) {
+            return null;
+        }
+        if (mStrings == null) {
+            mStrings = new String[mStringCount];
+        }
+        String value = mStrings[index];
+        if (value == null) {
+            int start = mBuffer.getInt(mStringOffsetsPos + 4 * index);
+            int end = mBuffer.getInt(mStringOffsetsPos + 4 * (index + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer data = mBuffer.duplicate();
+            data.position(mStringDataPos + start);
+            data.get(bytes);
+            value = new String(bytes, UTF_8);
+            mStrings[index] = value;
+        }
+        return value;
+    }
+
+    private String readText(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (RandomAccessFile file = new RandomAccessFile(mResultFile, "r")) {
+            file.seek(offset);
+            file.readFully(bytes);
+        }
+        return unescape(new String(bytes, UTF_8));
+    }
+
+    /**
+     * Replaces the XML entity and character references in the given text.
+     */
+    static String unescape(String text) {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        int start = 0;
+        while (amp >= 0) {
+            int semi = text.indexOf(';', amp);
+            if (semi < 0) {
+                break;
+            }
+            sb.append(text, start, amp);
+            String entity = text.substring(amp + 1, semi);
+            if (entity.equals("amp")) {
+                sb.append('&');
+            } else if (entity.equals("lt")) {
+                sb.append('<');
+            } else if (entity.equals("gt")) {
+                sb.append('>');
+            } else if (entity.equals("quot")) {
+                sb.append('"');
+            } else if (entity.equals("apos")) {
+                sb.append('\'');
+            } else if (entity.startsWith("#x")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            } else {
+                sb.append(text, amp, semi + 1);
+            }
+            start = semi + 1;
+            amp = text.indexOf('&', start);
+        }
+        sb.append(text, start, text.length());
+        return sb.toString();
+    }
+
+    private static byte toByte(TestStatus status) {
+        return status == null ? STATUS_NONE : (byte) (status.ordinal() + 1);
+    }
+
+    /**
+     * Collects the contents of an index while a result file is written.
+     */
+    static class Builder {
+
+        private final Map<String, Integer> mStringIds = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+        private final List<IModuleResult> mModules = new ArrayList<>();
+        private int[] mModuleFirstTests = new int[16];
+        private int[] mCases = new int[1024];
+        private int[] mNames = new int[1024];
+        private byte[] mStatuses = new byte[1024];
+        private int mTestCount = 0;
+        private int[] mStackTests = new int[16];
+        private long[] mStackOffsets = new long[16];
+        private int[] mStackLengths = new int[16];
+        private int mStackCount = 0;
+
+        /**
+         * Starts a new module, to which subsequent tests are added.
+         */
+        void addModule(IModuleResult module) {
+            if (mModules.size() == mModuleFirstTests.length) {
+                mModuleFirstTests = Arrays.copyOf(mModuleFirstTests, mModules.size() * 2);
+            }
+            mModuleFirstTests[mModules.size()] = mTestCount;
+            mModules.add(module);
+        }
+
+        /**
+         * Adds a test to the current module.
+         */
+        void addTest(String caseName, String testName, TestStatus status) {
+            if (mTestCount == mStatuses.length) {
+                int size = mTestCount * 2;
+                mCases = Arrays.copyOf(mCases, size);
+                mNames = Arrays.copyOf(mNames, size);
+                mStatuses = Arrays.copyOf(mStatuses, size);
+            }
+            mCases[mTestCount] = intern(caseName);
+            mNames[mTestCount] = intern(testName);
+            mStatuses[mTestCount] = toByte(status);
+            mTestCount++;
+        }
+
+        /**
+         * Records the location in the result file of the stack trace of the last test added.
+         */
+        void setStackTrace(long offset, int length) {
+            if (mStackCount == mStackTests.length) {
+                int size = mStackCount * 2;
+                mStackTests = Arrays.copyOf(mStackTests, size);
+                mStackOffsets = Arrays.copyOf(mStackOffsets, size);
+                mStackLengths = Arrays.copyOf(mStackLengths, size);
+            }
+            mStackTests[mStackCount] = mTestCount - 1;
+            mStackOffsets[mStackCount] = offset;
+            mStackLengths[mStackCount] = length;
+            mStackCount++;
+        }
+
+        /**
+         * Writes the index for the given result file.
+         *
+         * @param resultFile the result file, which must be complete
+         * @param startTime the start time written to the result file
+         * @param suitePlan the plan written to the result file
+         * @param commandLineArgs the command line arguments written to the result file
+         * @param summary the summary of the result file
+         */
+        void write(File resultFile, long startTime, String suitePlan, String commandLineArgs,
+                InvocationSummary summary)
+                throws IOException {
+            IInvocationResult result = summary.getInvocation();
+            StringBuilder devices = new StringBuilder();
+            for (String device : result.getDeviceSerials()) {
+                if (devices.length() > 0) {
+                    devices.append(",");
+                }
+                devices.append(device);
+            }
+            int[] header = {
+                intern(suitePlan),
+                intern(commandLineArgs),
+                intern(devices.toString()),
+                intern(result.getBuildFingerprint()),
+                intern(result.getInvocationInfo().get(BUILD_ID)),
+                intern(result.getInvocationInfo().get(BUILD_PRODUCT)),
+                intern(summary.getRetrySession())
+            };
+            int[] counts = {
+                summary.countResults(TestStatus.PASS),
+                summary.countResults(TestStatus.FAIL),
+                summary.getNotExecuted(),
+                summary.getModuleCompleteCount(),
+                summary.getModuleCount()
+            };
+            int[] moduleIds = new int[mModules.size()];
+            for (int i = 0; i < moduleIds.length; i++) {
+                moduleIds[i] = intern(mModules.get(i).getId());
+            }
+            File indexFile = new File(resultFile.getParentFile(), NAME);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile)))) {
+                out.writeInt(FORMAT_CODE);
+                out.writeShort(CURRENT_VERSION);
+                out.writeLong(resultFile.length());
+                out.writeLong(resultFile.lastModified());
+                out.writeLong(startTime);
+                for (int value : counts) {
+                    out.writeInt(value);
+                }
+                for (int value : header) {
+                    out.writeInt(value);
+                }
+                // String table: offsets, then the UTF-8 data
+                List<byte[]> encoded = new ArrayList<>(mStrings.size());
+                out.writeInt(mStrings.size());
+                int offset = 0;
+                for (String value : mStrings) {
+                    byte[] bytes = value.getBytes(UTF_8);
+                    encoded.add(bytes);
+                    out.writeInt(offset);
+                    offset += bytes.length;
+                }
+                out.writeInt(offset);
+                for (byte[] bytes : encoded) {
+                    out.write(bytes);
+                }
+                out.writeInt(mModules.size());
+                for (int i = 0; i < moduleIds.length; i++) {
+                    IModuleResult module = mModules.get(i);
+                    int nextFirstTest = (i + 1 < moduleIds.length)
+                            ? mModuleFirstTests[i + 1] : mTestCount;
+                    out.writeInt(moduleIds[i]);
+                    out.writeInt(mModuleFirstTests[i]);
+                    out.writeInt(nextFirstTest - mModuleFirstTests[i]);
+                    out.writeInt(module.getNotExecuted());
+                    out.writeLong(module.getRuntime());
+                    out.writeInt(module.isDone() ? 1 : 0);
+                }
+                out.writeInt(mTestCount);
+                for (int i = 0; i < mTestCount; i++) {
+                    out.writeInt(mCases[i]);
+                }
+                for (int i = 0; i < mTestCount; i++) {
+                    out.writeInt(mNames[i]);
+                }
+                out.write(mStatuses, 0, mTestCount);
+                out.writeInt(mStackCount);
+                for (int i = 0; i < mStackCount; i++) {
+                    out.writeInt(mStackTests[i]);
+                    out.writeLong(mStackOffsets[i]);
+                    out.writeInt(mStackLengths[i]);
+                }
+            }
+        }
+
+        private int intern(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer id = mStringIds.get(value);
+            if (id == null) {
+                id = mStrings.size();
+                mStrings.add(value);
+                mStringIds.put(value, id);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of the results of an invocation, written while the invocation runs.
+ * <p/>
+ * Each test and each completed test run appends one record. Records are buffered and flushed
+ * in batches, so the cost of persisting results is spread across the run, and the journal is
+ * synced to the disk at the end of each test run, so that completed modules survive a crash of
+ * the host. When the invocation ends the results are written to the result file as usual and
+ * the journal is deleted. If the host dies first, the session is still listed from the
+ * journal, see {@link #read(File)}, and {@link #recover(File)} replays the journal into a
+ * result file when the session is retried.
+ * <p/>
+ * While the journal is written its writer holds a lock on a lock file next to it. The lock is
+ * released by the operating system if the host dies, so a journal whose lock can be acquired
+ * belongs to an invocation which did not finish. Closing any channel on a file releases all
+ * locks the process holds on it, so the journals written by this process are tracked in memory
+ * and their lock files are never opened again while they are written.
+ * <p/>
+ * Every record is prefixed with its length and CRC32, and replay stops at the first record
+ * which is truncated or corrupt, so a record being written during a crash is simply dropped.
+ */
+public class ResultJournal implements Closeable {
+
+    public static final String NAME = "test_result.journal";
+    public static final String LOCK_NAME = "test_result.journal.lock";
+
+    private static final int MAGIC = 0x43544a4c; // "CTJL"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Number of test records buffered before the journal is flushed
+    private static final int FLUSH_RECORDS = 100;
+
+    private static final byte INVOCATION_RECORD = 1;
+    private static final byte DEVICE_RECORD = 2;
+    private static final byte INFO_RECORD = 3;
+    private static final byte TEST_RECORD = 4;
+    private static final byte MODULE_RECORD = 5;
+
+    // The result directories of the journals written by this process
+    private static final Set<File> sActiveDirs = new HashSet<>();
+
+    private final File mDir;
+    private final File mFile;
+    private final File mLockFile;
+    private final FileChannel mLockChannel;
+    private final FileLock mLock;
+    private final FileOutputStream mFileOut;
+    private final DataOutputStream mOut;
+    private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mRecord = new DataOutputStream(mRecordBytes);
+    private final CRC32 mCrc = new CRC32();
+    private int mPendingRecords = 0;
+    private boolean mClosed = false;
+
+    private ResultJournal(File resultDir) throws IOException {
+        mDir = resultDir.getAbsoluteFile();
+        mFile = new File(resultDir, NAME);
+        mLockFile = new File(resultDir, LOCK_NAME);
+        synchronized (sActiveDirs) {
+            if (!sActiveDirs.add(mDir)) {
+                throw new IOException("Journal is in use: " + mFile.getAbsolutePath());
+            }
+        }
+        FileChannel lockChannel = null;
+        FileOutputStream fileOut = null;
+        try {
+            lockChannel = new RandomAccessFile(mLockFile, "rw").getChannel();
+            FileLock lock = tryLock(lockChannel);
+            if (lock == null) {
+                throw new IOException("Journal is in use: " + mFile.getAbsolutePath());
+            }
+            fileOut = new FileOutputStream(mFile);
+            mOut = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+            mLockChannel = lockChannel;
+            mLock = lock;
+            mFileOut = fileOut;
+        } catch (IOException e) {
+            closeQuietly(fileOut);
+            closeQuietly(lockChannel);
+            synchronized (sActiveDirs) {
+                sActiveDirs.remove(mDir);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a new journal in the given result directory.
+     *
+     * @param resultDir the directory the result file will eventually be written to
+     * @param retryDir the result directory of the session being retried, or <code>null</code>.
+     * Its results are loaded before the journal when recovering.
+     */
+    public static ResultJournal create(File resultDir, String suiteName, String suiteVersion,
+            String suitePlan, String suiteBuild, long startTime, String commandLineArgs,
+            File retryDir) throws IOException {
+        ResultJournal journal = new ResultJournal(resultDir);
+        synchronized (journal) {
+            journal.mRecord.writeByte(INVOCATION_RECORD);
+            writeString(journal.mRecord, suiteName);
+            writeString(journal.mRecord, suiteVersion);
+            writeString(journal.mRecord, suitePlan);
+            writeString(journal.mRecord, suiteBuild);
+            journal.mRecord.writeLong(startTime);
+            writeString(journal.mRecord, commandLineArgs);
+            writeString(journal.mRecord, retryDir == null ? null : retryDir.getAbsolutePath());
+            journal.append(true);
+        }
+        return journal;
+    }
+
+    /**
+     * Records a device used by the invocation.
+     */
+    public synchronized void addDeviceSerial(String serial) throws IOException {
+        mRecord.writeByte(DEVICE_RECORD);
+        writeString(mRecord, serial);
+        append(false);
+    }
+
+    /**
+     * Records an invocation info entry, eg build attributes of the device.
+     */
+    public synchronized void addInvocationInfo(String key, String value) throws IOException {
+        mRecord.writeByte(INFO_RECORD);
+        writeString(mRecord, key);
+        writeString(mRecord, value);
+        append(false);
+    }
+
+    /**
+     * Records the current state of a test. A later record for the same test replaces it.
+     */
+    public synchronized void testEnded(String moduleId, ITestResult test) throws IOException {
+        mRecord.writeByte(TEST_RECORD);
+        writeString(mRecord, moduleId);
+        writeString(mRecord, test.getFullName());
+        writeString(mRecord, test.getName());
+        TestStatus status = test.getResultStatus();
+        writeString(mRecord, status == null ? null : status.getValue());
+        writeString(mRecord, test.getMessage());
+        writeString(mRecord, test.getStackTrace());
+        ReportLog report = test.getReportLog();
+        String serializedReport = null;
+        if (report != null) {
+            try {
+                serializedReport = ReportLog.serialize(report);
+            } catch (XmlPullParserException e) {
+                e.printStackTrace();
+            }
+        }
+        writeString(mRecord, serializedReport);
+        writeString(mRecord, test.getBugReport());
+        writeString(mRecord, test.getLog());
+        writeString(mRecord, test.getScreenshot());
+        append(false);
+    }
+
+    /**
+     * Records the current state of a module at the end of a test run, and flushes the journal
+     * and syncs it to the disk.
+     */
+    public synchronized void testRunEnded(IModuleResult module) throws IOException {
+        mRecord.writeByte(MODULE_RECORD);
+        writeString(mRecord, module.getId());
+        mRecord.writeLong(module.getRuntime());
+        mRecord.writeInt(module.getNotExecuted());
+        mRecord.writeBoolean(module.isDone());
+        append(true);
+        mFileOut.getFD().sync();
+    }
+
+    /**
+     * Flushes, syncs and closes the journal. Does nothing if it is closed already.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            mOut.flush();
+            mFileOut.getFD().sync();
+        } finally {
+            try {
+                mOut.close();
+            } finally {
+                if (mLock.isValid()) {
+                    mLock.release();
+                    mLockChannel.close();
+                    mLockFile.delete();
+                }
+                synchronized (sActiveDirs) {
+                    sActiveDirs.remove(mDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the journal and deletes it, once its results have been written to the result file.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        mFile.delete();
+    }
+
+    private void append(boolean flush) throws IOException {
+        mRecord.flush();
+        byte[] bytes = mRecordBytes.toByteArray();
+        mRecordBytes.reset();
+        mCrc.reset();
+        mCrc.update(bytes, 0, bytes.length);
+        mOut.writeInt(bytes.length);
+        mOut.writeInt((int) mCrc.getValue());
+        mOut.write(bytes);
+        if (flush || ++mPendingRecords >= FLUSH_RECORDS) {
+            mOut.flush();
+            mPendingRecords = 0;
+        }
+    }
+
+    /**
+     * Whether the given directory holds the journal of an invocation which is still running, in
+     * this or another process.
+     */
+    public static boolean isActive(File resultDir) {
+        File lockFile = new File(resultDir, LOCK_NAME);
+        // Held while probing the lock, so that this process does not start a journal in the
+        // directory meanwhile, whose lock would be released when the probe is closed
+        synchronized (sActiveDirs) {
+            if (sActiveDirs.contains(resultDir.getAbsoluteFile())) {
+                return true;
+            }
+            if (!lockFile.exists()) {
+                return false;
+            }
+            try (FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel()) {
+                FileLock lock = tryLock(channel);
+                if (lock == null) {
+                    return true;
+                }
+                lock.release();
+                return false;
+            } catch (IOException e) {
+                // Cannot tell, treat the invocation as finished
+                return false;
+            }
+        }
+    }
+
+    /**
+     * If the given directory holds the journal of an invocation which did not finish, and no
+     * result file, replays the journal into a result in memory. Nothing is written.
+     *
+     * @return the replayed result, with the given directory as its retry directory, or
+     * <code>null</code> if there is nothing to read.
+     */
+    public static IInvocationResult read(File resultDir) {
+        Replay replay = replayUnfinished(resultDir);
+        if (replay == null) {
+            return null;
+        }
+        replay.mResult.setRetryDirectory(resultDir);
+        return replay.mResult;
+    }
+
+    /**
+     * If the given directory holds the journal of an invocation which did not finish, and no
+     * result file, replays the journal into a result file and deletes the journal.
+     *
+     * @return the result file written, or <code>null</code> if there was nothing to recover.
+     */
+    public static File recover(File resultDir) {
+        File journalFile = new File(resultDir, NAME);
+        Replay replay = replayUnfinished(resultDir);
+        if (replay == null) {
+            return null;
+        }
+        try {
+            File written = ResultHandler.writeResults(replay.mSuiteName, replay.mSuiteVersion,
+                    replay.mSuitePlan, replay.mSuiteBuild, replay.mResult, resultDir,
+                    replay.mResult.getStartTime(), journalFile.lastModified(), null, null,
+                    replay.mResult.getCommandLineArgs());
+            journalFile.delete();
+            new File(resultDir, LOCK_NAME).delete();
+            return written;
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Replay replayUnfinished(File resultDir) {
+        File journalFile = new File(resultDir, NAME);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        if (!journalFile.isFile() || resultFile.exists() || isActive(resultDir)) {
+            return null;
+        }
+        try {
+            Replay replay = replay(journalFile, new InvocationResult());
+            if (replay == null || replay.mSuiteName == null) {
+                // Not a journal, or the invocation record was not completely written
+                return null;
+            }
+            return replay;
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Already failing
+            }
+        }
+    }
+
+    /**
+     * Locks the given channel without blocking.
+     *
+     * @return the lock, or <code>null</code> if it is held by this or another process.
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replays the journal into the given result, after loading the results of the session being
+     * retried, if any.
+     *
+     * @return the replayed journal, or <code>null</code> if the file is not a journal.
+     */
+    static Replay replay(File journalFile, IInvocationResult result)
+            throws IOException, XmlPullParserException {
+        Replay replay = new Replay(result);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    crc.reset();
+                    crc.update(bytes, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // The last record was not completely written
+                    break;
+                }
+                replay.apply(new DataInputStream(new ByteArrayInputStream(bytes)));
+            }
+        } catch (EOFException e) {
+            // Header not completely written
+            return null;
+        }
+        return replay;
+    }
+
+    /**
+     * The state rebuilt from a journal.
+     */
+    static class Replay {
+        final IInvocationResult mResult;
+        String mSuiteName;
+        String mSuiteVersion;
+        String mSuitePlan;
+        String mSuiteBuild;
+
+        Replay(IInvocationResult result) {
+            mResult = result;
+        }
+
+        private void apply(DataInputStream in) throws IOException, XmlPullParserException {
+            switch (in.readByte()) {
+                case INVOCATION_RECORD:
+                    mSuiteName = readString(in);
+                    mSuiteVersion = readString(in);
+                    mSuitePlan = readString(in);
+                    mSuiteBuild = readString(in);
+                    long startTime = in.readLong();
+                    String commandLineArgs = readString(in);
+                    String retryDir = readString(in);
+                    if (retryDir != null) {
+                        ResultHandler.parseResults(new File(retryDir), false,
+                                new ResultHandler.InvocationResultBuilder(mResult));
+                    }
+                    mResult.setStartTime(startTime);
+                    mResult.setTestPlan(mSuitePlan);
+                    mResult.setCommandLineArgs(commandLineArgs);
+                    break;
+                case DEVICE_RECORD:
+                    mResult.addDeviceSerial(readString(in));
+                    break;
+                case INFO_RECORD:
+                    mResult.addInvocationInfo(readString(in), readString(in));
+                    break;
+                case TEST_RECORD:
+                    applyTest(in);
+                    break;
+                case MODULE_RECORD:
+                    IModuleResult module = mResult.getOrCreateModule(readString(in));
+                    long runtime = in.readLong();
+                    module.addRuntime(runtime - module.getRuntime());
+                    module.setNotExecuted(in.readInt());
+                    module.initializeDone(in.readBoolean());
+                    break;
+                default:
+                    // Unknown record from a newer version, skip it
+                    break;
+            }
+        }
+
+        private void applyTest(DataInputStream in) throws IOException, XmlPullParserException {
+            IModuleResult module = mResult.getOrCreateModule(readString(in));
+            String fullName = readString(in);
+            String testName = readString(in);
+            String caseName = fullName.substring(0, fullName.length() - testName.length() - 1);
+            ITestResult test = module.getOrCreateResult(caseName).getOrCreateResult(testName);
+            test.reset();
+            String status = readString(in);
+            test.setResultStatus(status == null ? null : TestStatus.getStatus(status));
+            test.setMessage(readString(in));
+            test.setStackTrace(readString(in));
+            String report = readString(in);
+            test.setReportLog(report == null ? null : ReportLog.parse(report));
+            test.setBugReport(readString(in));
+            test.setLog(readString(in));
+            test.setScreenshot(readString(in));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
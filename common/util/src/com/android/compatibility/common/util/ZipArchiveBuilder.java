@@ -0,0 +1,715 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates a zip file of a directory, like {@link ZipUtil#createZip(File, File)}, compressing the
+ * entries in parallel.
+ * <p/>
+ * Each file is compressed on a pool of worker threads, into memory or into a temporary file for
+ * large files, while a single thread writes the finished entries to the archive in order with
+ * {@link FileChannel} transfers. Files which are already compressed, like screenshots and
+ * gzipped logs, are stored without being deflated again. Zip64 records are written only when
+ * the archive needs them.
+ * <p/>
+ * When given the archive of a previous session, files which are identical to an entry of that
+ * archive at the same path are copied from it still compressed, so that a retry session only
+ * compresses the files which are new or have changed.
+ */
+public class ZipArchiveBuilder {
+
+    private static final int MAX_THREADS = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Files up to this size are compressed into memory, larger ones into a temporary file
+    private static final long IN_MEMORY_LIMIT = 1024 * 1024;
+    private static final String[] STORED_EXTENSIONS = {".png", ".jpg", ".jpeg", ".gz", ".zip"};
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final short VERSION = 20;
+    private static final short ZIP64_VERSION = 45;
+    // Entry names are encoded in UTF-8
+    private static final short UTF8_FLAG = 0x0800;
+    private static final long ZIP64_LIMIT = 0xffffffffL;
+    private static final int ZIP64_COUNT_LIMIT = 0xffff;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_END_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+
+    /**
+     * An entry of the archive, a directory if it has no file.
+     */
+    private static class Entry {
+        final String mName;
+        final File mFile;
+
+        Entry(String name, File file) {
+            mName = name;
+            mFile = file;
+        }
+    }
+
+    /**
+     * The compressed data of an entry, either held in memory or a range of a file. For an entry of
+     * a previous archive which has not been resolved yet, the range starts at the local header.
+     */
+    private static class Data {
+        int mMethod = ZipEntry.STORED;
+        long mCrc = 0;
+        long mSize = 0;
+        long mCompressedSize = 0;
+        byte[] mBytes = null;
+        File mFile = null;
+        long mOffset = 0;
+        boolean mTemporary = false;
+    }
+
+    /**
+     * An entry already written, to be listed in the central directory.
+     */
+    private static class WrittenEntry {
+        final byte[] mName;
+        final long mTime;
+        final Data mData;
+        final long mOffset;
+
+        WrittenEntry(byte[] name, long time, Data data, long offset) {
+            mName = name;
+            mTime = time;
+            mData = data;
+            mOffset = offset;
+        }
+    }
+
+    private final File mTempDir;
+    private final FileChannel mChannel;
+    // Entries of the previous archive by path relative to its top directory
+    private final Map<String, Data> mPreviousEntries;
+    private final List<WrittenEntry> mWritten = new ArrayList<>();
+    // Number of entries copied from the previous archive
+    private final AtomicInteger mReused = new AtomicInteger();
+
+    private ZipArchiveBuilder(FileChannel channel, File tempDir,
+            Map<String, Data> previousEntries) {
+        mChannel = channel;
+        mTempDir = tempDir;
+        mPreviousEntries = previousEntries;
+    }
+
+    /**
+     * Creates a zip file containing the given directory and all its contents, using up to as
+     * many threads as there are processors.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(File dir, File zipFile) throws IOException {
+        createZip(dir, zipFile, null);
+    }
+
+    /**
+     * Creates a zip file containing the given directory and all its contents, reusing the
+     * compressed entries of a previous archive for unchanged files and using up to as many threads
+     * as there are processors.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param previousZip the archive of a previous session, or null
+     * @return the number of entries copied from the previous archive
+     * @throws IOException if failed to create zip file
+     */
+    public static int createZip(File dir, File zipFile, File previousZip) throws IOException {
+        return createZip(dir, zipFile, previousZip,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a zip file containing the given directory and all its contents.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param threads the number of threads compressing files
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(File dir, File zipFile, int threads) throws IOException {
+        createZip(dir, zipFile, null, threads);
+    }
+
+    /**
+     * Creates a zip file containing the given directory and all its contents, reusing the
+     * compressed entries of a previous archive of the same layout for unchanged files.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param previousZip the archive of a previous session, or null. If it cannot be read, all
+     * files are compressed, and so is any file whose entry in it cannot be read.
+     * @param threads the number of threads compressing files
+     * @return the number of entries copied from the previous archive
+     * @throws IOException if failed to create zip file
+     */
+    public static int createZip(File dir, File zipFile, File previousZip, int threads)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        collectEntries(dir, "", entries);
+        Map<String, Data> previousEntries = Collections.emptyMap();
+        if (previousZip != null && previousZip.isFile()) {
+            try {
+                previousEntries = readEntries(previousZip);
+            } catch (IOException | RuntimeException e) {
+                // Fall back to compressing everything, the caller sees that nothing was reused
+            }
+        }
+
+        File tempDir = File.createTempFile(zipFile.getName(), ".tmp", zipFile.getParentFile());
+        if (!tempDir.delete() || !tempDir.mkdir()) {
+            throw new IOException(String.format("Could not create temporary directory for %s",
+                    zipFile.getAbsolutePath()));
+        }
+        boolean success = false;
+        try {
+            ZipArchiveBuilder builder;
+            try (FileOutputStream out = new FileOutputStream(zipFile)) {
+                builder = new ZipArchiveBuilder(out.getChannel(), tempDir, previousEntries);
+                builder.writeEntries(entries, Math.max(1, threads));
+                builder.writeCentralDirectory();
+            }
+            success = true;
+            return builder.mReused.get();
+        } finally {
+            FileUtil.recursiveDelete(tempDir);
+            if (!success) {
+                zipFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Lists the given file and its contents in the same order as {@link ZipUtil#addToZip}.
+     */
+    private static void collectEntries(File file, String parentPath, List<Entry> entries)
+            throws IOException {
+        if (file.isDirectory()) {
+            String path = parentPath + file.getName() + "/";
+            entries.add(new Entry(path, null));
+            File[] subFiles = file.listFiles();
+            if (subFiles == null) {
+                throw new IOException(String.format("Could not read directory %s",
+                        file.getAbsolutePath()));
+            }
+            for (File subFile : subFiles) {
+                collectEntries(subFile, path, entries);
+            }
+        } else {
+            entries.add(new Entry(parentPath + file.getName(), file));
+        }
+    }
+
+    /**
+     * Compresses the entries on a pool of threads and writes them in order. At most a few entries
+     * per thread are compressed ahead of the writer, to bound memory and temporary disk use.
+     */
+    private void writeEntries(List<Entry> entries, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<Data>> pending = new ArrayDeque<>();
+        int window = threads * 2;
+        int next = 0;
+        try {
+            for (Entry entry : entries) {
+                while (next < entries.size() && pending.size() < window) {
+                    final Entry toPrepare = entries.get(next++);
+                    pending.add(executor.submit(new Callable<Data>() {
+                        @Override
+                        public Data call() throws IOException {
+                            return prepare(toPrepare);
+                        }
+                    }));
+                }
+                Data data = getData(pending.poll());
+                try {
+                    writeEntry(entry, data);
+                } finally {
+                    if (data.mTemporary) {
+                        data.mFile.delete();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Data getData(Future<Data> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Computes the data of an entry. Runs on a worker thread.
+     */
+    private Data prepare(Entry entry) throws IOException {
+        if (entry.mFile == null) {
+            return new Data();
+        }
+        Data previous = mPreviousEntries.get(getRelativeName(entry.mName));
+        if (previous != null && previous.mSize == entry.mFile.length()) {
+            // Reading the file for its checksum is much cheaper than compressing it
+            Data stored = store(entry.mFile);
+            if (stored.mCrc == previous.mCrc && stored.mSize == previous.mSize) {
+                try {
+                    Data data = resolve(previous);
+                    mReused.incrementAndGet();
+                    return data;
+                } catch (IOException | RuntimeException e) {
+                    // The entry of the previous archive is unreadable, compress the file instead
+                }
+            }
+            if (isCompressed(entry.mName)) {
+                return stored;
+            }
+        } else if (isCompressed(entry.mName)) {
+            return store(entry.mFile);
+        }
+        return deflate(entry.mFile);
+    }
+
+    /**
+     * Returns the name of an entry without its top directory, which is named after the session.
+     */
+    private static String getRelativeName(String name) {
+        return name.substring(name.indexOf('/') + 1);
+    }
+
+    private static boolean isCompressed(String name) {
+        String lowerName = name.toLowerCase(Locale.US);
+        for (String extension : STORED_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the file once to compute its checksum. The writer copies it unchanged.
+     */
+    private static Data store(File file) throws IOException {
+        Data data = new Data();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        data.mCrc = crc.getValue();
+        data.mSize = size;
+        data.mCompressedSize = size;
+        data.mFile = file;
+        return data;
+    }
+
+    private Data deflate(File file) throws IOException {
+        Data data = new Data();
+        data.mMethod = ZipEntry.DEFLATED;
+        ByteArrayOutputStream bytes = null;
+        OutputStream sink;
+        if (file.length() <= IN_MEMORY_LIMIT) {
+            bytes = new ByteArrayOutputStream((int) file.length() / 2 + 64);
+            sink = bytes;
+        } else {
+            data.mFile = File.createTempFile("entry", ".deflate", mTempDir);
+            data.mTemporary = true;
+            sink = new FileOutputStream(data.mFile);
+        }
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            try (InputStream in = new FileInputStream(file);
+                    DeflaterOutputStream out =
+                            new DeflaterOutputStream(sink, deflater, BUFFER_SIZE)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+                out.finish();
+                data.mCompressedSize = deflater.getBytesWritten();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (data.mTemporary) {
+                data.mFile.delete();
+            }
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        data.mCrc = crc.getValue();
+        data.mSize = size;
+        if (bytes != null) {
+            data.mBytes = bytes.toByteArray();
+        }
+        return data;
+    }
+
+    /**
+     * Reads the entries of an archive from its central directory.
+     */
+    private static Map<String, Data> readEntries(File zip) throws IOException {
+        Map<String, Data> entries = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(zip, "r")) {
+            // The end record is followed by a comment of up to 64k
+            long length = file.length();
+            int tailLength = (int) Math.min(length, ZIP64_LOCATOR_LENGTH + END_LENGTH + 0xffff);
+            ByteBuffer tail = read(file, length - tailLength, tailLength);
+            int end = tailLength - END_LENGTH;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+                --end;
+            }
+            if (end < 0) {
+                throw new IOException(String.format("%s is not a zip file", zip.getName()));
+            }
+            long count = tail.getShort(end + 10) & 0xffff;
+            long size = tail.getInt(end + 12) & ZIP64_LIMIT;
+            long start = tail.getInt(end + 16) & ZIP64_LIMIT;
+            int locator = end - ZIP64_LOCATOR_LENGTH;
+            if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer record = read(file, tail.getLong(locator + 8), ZIP64_END_LENGTH);
+                if (record.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException(String.format("Invalid zip64 record in %s",
+                            zip.getName()));
+                }
+                count = record.getLong(32);
+                size = record.getLong(40);
+                start = record.getLong(48);
+            }
+
+            ByteBuffer directory = read(file, start, (int) size);
+            int position = 0;
+            for (long i = 0; i < count; i++) {
+                if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("Invalid central directory in %s",
+                            zip.getName()));
+                }
+                int flags = directory.getShort(position + 8) & 0xffff;
+                Data data = new Data();
+                data.mMethod = directory.getShort(position + 10) & 0xffff;
+                data.mCrc = directory.getInt(position + 16) & ZIP64_LIMIT;
+                data.mCompressedSize = directory.getInt(position + 20) & ZIP64_LIMIT;
+                data.mSize = directory.getInt(position + 24) & ZIP64_LIMIT;
+                int nameLength = directory.getShort(position + 28) & 0xffff;
+                int extraLength = directory.getShort(position + 30) & 0xffff;
+                int commentLength = directory.getShort(position + 32) & 0xffff;
+                data.mOffset = directory.getInt(position + 42) & ZIP64_LIMIT;
+                String name = new String(directory.array(), position + CENTRAL_HEADER_LENGTH,
+                        nameLength, StandardCharsets.UTF_8);
+
+                int extra = position + CENTRAL_HEADER_LENGTH + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xffff;
+                    int fieldsLength = directory.getShort(extra + 2) & 0xffff;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (data.mSize == ZIP64_LIMIT) {
+                            data.mSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (data.mCompressedSize == ZIP64_LIMIT) {
+                            data.mCompressedSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (data.mOffset == ZIP64_LIMIT) {
+                            data.mOffset = directory.getLong(field);
+                        }
+                    }
+                    extra += 4 + fieldsLength;
+                }
+                position = extraEnd + commentLength;
+
+                if (name.endsWith("/") || (flags & ENCRYPTED_FLAG) != 0
+                        || (data.mMethod != ZipEntry.STORED
+                                && data.mMethod != ZipEntry.DEFLATED)) {
+                    continue;
+                }
+                data.mFile = zip;
+                entries.put(getRelativeName(name), data);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the data of an entry of the previous archive, starting after its local header.
+     */
+    private static Data resolve(Data previous) throws IOException {
+        Data data = new Data();
+        data.mMethod = previous.mMethod;
+        data.mCrc = previous.mCrc;
+        data.mSize = previous.mSize;
+        data.mCompressedSize = previous.mCompressedSize;
+        data.mFile = previous.mFile;
+        try (RandomAccessFile file = new RandomAccessFile(previous.mFile, "r")) {
+            ByteBuffer header = read(file, previous.mOffset, LOCAL_HEADER_LENGTH);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException(String.format("Invalid local header in %s",
+                        previous.mFile.getName()));
+            }
+            data.mOffset = previous.mOffset + LOCAL_HEADER_LENGTH
+                    + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        }
+        return data;
+    }
+
+    private static ByteBuffer read(RandomAccessFile file, long offset, int length)
+            throws IOException {
+        byte[] bytes = new byte[length];
+        file.seek(offset);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeEntry(Entry entry, Data data) throws IOException {
+        byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+        long time = entry.mFile != null ? entry.mFile.lastModified() : System.currentTimeMillis();
+        long offset = mChannel.position();
+        boolean zip64 = data.mSize >= ZIP64_LIMIT || data.mCompressedSize >= ZIP64_LIMIT;
+
+        ByteBuffer header = allocate(30 + name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(zip64 ? ZIP64_VERSION : VERSION);
+        header.putShort(UTF8_FLAG);
+        header.putShort((short) data.mMethod);
+        header.putInt(toDosTime(time));
+        header.putInt((int) data.mCrc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : data.mCompressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : data.mSize));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(data.mSize);
+            header.putLong(data.mCompressedSize);
+        }
+        header.flip();
+        write(header);
+
+        if (data.mBytes != null) {
+            write(ByteBuffer.wrap(data.mBytes));
+        } else if (data.mFile != null) {
+            transfer(data.mFile, data.mOffset, data.mCompressedSize);
+        }
+        // Only the metadata is kept for the central directory
+        data.mBytes = null;
+        mWritten.add(new WrittenEntry(name, time, data, offset));
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = mChannel.position();
+        for (WrittenEntry entry : mWritten) {
+            Data data = entry.mData;
+            boolean sizeZip64 = data.mSize >= ZIP64_LIMIT;
+            boolean compressedSizeZip64 = data.mCompressedSize >= ZIP64_LIMIT;
+            boolean offsetZip64 = entry.mOffset >= ZIP64_LIMIT;
+            int extraLength = (sizeZip64 ? 8 : 0) + (compressedSizeZip64 ? 8 : 0)
+                    + (offsetZip64 ? 8 : 0);
+            if (extraLength > 0) {
+                extraLength += 4;
+            }
+            short version = extraLength > 0 ? ZIP64_VERSION : VERSION;
+
+            ByteBuffer header = allocate(46 + entry.mName.length + extraLength);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort(version);
+            header.putShort(version);
+            header.putShort(UTF8_FLAG);
+            header.putShort((short) data.mMethod);
+            header.putInt(toDosTime(entry.mTime));
+            header.putInt((int) data.mCrc);
+            header.putInt((int) (compressedSizeZip64 ? ZIP64_LIMIT : data.mCompressedSize));
+            header.putInt((int) (sizeZip64 ? ZIP64_LIMIT : data.mSize));
+            header.putShort((short) entry.mName.length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0); // comment length
+            header.putShort((short) 0); // disk number
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0); // external attributes
+            header.putInt((int) (offsetZip64 ? ZIP64_LIMIT : entry.mOffset));
+            header.put(entry.mName);
+            if (extraLength > 0) {
+                header.putShort(ZIP64_EXTRA_ID);
+                header.putShort((short) (extraLength - 4));
+                if (sizeZip64) {
+                    header.putLong(data.mSize);
+                }
+                if (compressedSizeZip64) {
+                    header.putLong(data.mCompressedSize);
+                }
+                if (offsetZip64) {
+                    header.putLong(entry.mOffset);
+                }
+            }
+            header.flip();
+            write(header);
+        }
+        long end = mChannel.position();
+        long size = end - start;
+        int count = mWritten.size();
+
+        boolean zip64 = count >= ZIP64_COUNT_LIMIT || size >= ZIP64_LIMIT || start >= ZIP64_LIMIT;
+        if (zip64) {
+            ByteBuffer record = allocate(56 + 20);
+            record.putInt(ZIP64_END_SIGNATURE);
+            record.putLong(44); // size of the remaining record
+            record.putShort(ZIP64_VERSION);
+            record.putShort(ZIP64_VERSION);
+            record.putInt(0); // disk number
+            record.putInt(0); // disk of the central directory
+            record.putLong(count);
+            record.putLong(count);
+            record.putLong(size);
+            record.putLong(start);
+            record.putInt(ZIP64_LOCATOR_SIGNATURE);
+            record.putInt(0); // disk of the zip64 end record
+            record.putLong(end);
+            record.putInt(1); // number of disks
+            record.flip();
+            write(record);
+        }
+
+        ByteBuffer record = allocate(22);
+        record.putInt(END_SIGNATURE);
+        record.putShort((short) 0); // disk number
+        record.putShort((short) 0); // disk of the central directory
+        record.putShort((short) (count >= ZIP64_COUNT_LIMIT ? ZIP64_COUNT_LIMIT : count));
+        record.putShort((short) (count >= ZIP64_COUNT_LIMIT ? ZIP64_COUNT_LIMIT : count));
+        record.putInt((int) (size >= ZIP64_LIMIT ? ZIP64_LIMIT : size));
+        record.putInt((int) (start >= ZIP64_LIMIT ? ZIP64_LIMIT : start));
+        record.putShort((short) 0); // comment length
+        record.flip();
+        write(record);
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void transfer(File file, long offset, long length) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel source = in.getChannel();
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = source.transferTo(position, remaining, mChannel);
+                if (transferred <= 0) {
+                    throw new IOException(String.format("%s changed while being archived",
+                            file.getAbsolutePath()));
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    /**
+     * Converts a time in ms to the MS-DOS date and time format of zip entries.
+     */
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
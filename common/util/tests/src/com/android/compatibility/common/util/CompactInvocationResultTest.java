@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Unit tests for {@link CompactInvocationResult}
+ */
+public class CompactInvocationResultTest extends TestCase {
+
+    private static final String ABI = "arm64-v8a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS_A = "android.test.Foo";
+    private static final String CLASS_B = "android.test.Bar";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String LOGCAT = "logcat.gz";
+
+    private IInvocationResult mResult;
+
+    @Override
+    public void setUp() throws Exception {
+        mResult = new CompactInvocationResult();
+    }
+
+    public void testAccumulate() throws Exception {
+        IModuleResult module = mResult.getOrCreateModule(ID_A);
+        ICaseResult caseA = module.getOrCreateResult(CLASS_A);
+        ITestResult test1 = caseA.getOrCreateResult(METHOD_1);
+        test1.passed(null);
+        ITestResult test2 = caseA.getOrCreateResult(METHOD_2);
+        test2.failed(STACK_TRACE);
+        test2.setLog(LOGCAT);
+        module.getOrCreateResult(CLASS_B).getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        mResult.getOrCreateModule(ID_B).getOrCreateResult(CLASS_A)
+                .getOrCreateResult(METHOD_1).passed(null);
+
+        assertSame("Expected same module", module, mResult.getOrCreateModule(ID_A));
+        assertEquals("Expected 2 modules", 2, mResult.getModules().size());
+        assertEquals("Expected 2 passes", 2, mResult.countResults(TestStatus.PASS));
+        assertEquals("Expected 2 failures", 2, mResult.countResults(TestStatus.FAIL));
+        assertEquals("Expected 1 pass", 1, module.countResults(TestStatus.PASS));
+        assertEquals("Expected 2 failures", 2, module.countResults(TestStatus.FAIL));
+
+        List<ICaseResult> cases = module.getResults();
+        assertEquals("Expected 2 cases", 2, cases.size());
+        assertEquals("Incorrect order", CLASS_B, cases.get(0).getName());
+        ICaseResult caseResult = module.getResult(CLASS_A);
+        assertEquals("Incorrect name", CLASS_A, caseResult.getName());
+        assertNull("Unexpected case", module.getResult("android.test.Missing"));
+        assertEquals("Expected 1 failure", 1, caseResult.getResults(TestStatus.FAIL).size());
+
+        ITestResult test = caseResult.getResult(METHOD_2);
+        assertEquals("Incorrect full name", CLASS_A + "#" + METHOD_2, test.getFullName());
+        assertEquals("Incorrect status", TestStatus.FAIL, test.getResultStatus());
+        assertEquals("Incorrect message", "Something small is not alright", test.getMessage());
+        assertEquals("Incorrect stack trace", STACK_TRACE, test.getStackTrace());
+        assertEquals("Incorrect log", LOGCAT, test.getLog());
+        assertNull("Unexpected bugreport", test.getBugReport());
+        // Subsequent passes do not override a failure
+        test.passed(null);
+        assertEquals("Incorrect status", TestStatus.FAIL, test.getResultStatus());
+        test.reset();
+        assertNull("Expected reset status", test.getResultStatus());
+        assertNull("Expected reset log", test.getLog());
+        assertNull("Expected reset stack trace", test.getStackTrace());
+    }
+
+    public void testMergeModuleResult() throws Exception {
+        IModuleResult existing = mResult.getOrCreateModule(ID_A);
+        existing.getOrCreateResult(CLASS_A).getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+
+        ModuleResult other = new ModuleResult(ID_A);
+        other.addRuntime(10);
+        other.setDone(true);
+        ITestResult otherTest = other.getOrCreateResult(CLASS_A).getOrCreateResult(METHOD_1);
+        otherTest.passed(null);
+        otherTest.setRetry(true);
+        other.getOrCreateResult(CLASS_A).getOrCreateResult(METHOD_2).passed(null);
+        mResult.mergeModuleResult(other);
+
+        IModuleResult module = mResult.getOrCreateModule(ID_A);
+        assertEquals("Incorrect runtime", 10, module.getRuntime());
+        assertTrue("Expected done", module.isDone());
+        assertEquals("Expected 2 passes", 2, module.countResults(TestStatus.PASS));
+        ITestResult test = module.getResult(CLASS_A).getResult(METHOD_1);
+        assertEquals("Incorrect status", TestStatus.PASS, test.getResultStatus());
+        assertNull("Expected replaced stack trace", test.getStackTrace());
+        assertTrue("Expected retry", test.isRetry());
+    }
+
+    public void testStringsReleased() throws Exception {
+        CompactInvocationResult result = (CompactInvocationResult) mResult;
+        ICaseResult caseResult = result.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A);
+        ITestResult test1 = caseResult.getOrCreateResult(METHOD_1);
+        ITestResult test2 = caseResult.getOrCreateResult(METHOD_2);
+        test2.failed(STACK_TRACE);
+        int strings = result.getStringCount();
+        // Overwriting results reuses the slots of the strings no longer used
+        for (int i = 0; i < 100; i++) {
+            test1.failed("Failure " + i + "\n at Foo.bar(Foo.java:" + i + ")");
+        }
+        test1.reset();
+        caseResult.getOrCreateResult(METHOD_1);
+        assertEquals("Expected strings to be released", strings, result.getStringCount());
+        // Strings still used by another test are kept
+        test1.failed(STACK_TRACE);
+        test1.setMessage(null);
+        test1.setStackTrace(null);
+        assertEquals("Incorrect stack trace", STACK_TRACE, test2.getStackTrace());
+        assertEquals("Incorrect name", METHOD_1, test1.getName());
+        assertEquals("Incorrect message", "Something small is not alright", test2.getMessage());
+    }
+
+    public void testFindResult() throws Exception {
+        File resultsDir = FileUtil.createTempDir("results");
+        try {
+            File resultDir = FileUtil.createTempDir("12345", resultsDir);
+            IInvocationResult result = new InvocationResult();
+            result.addDeviceSerial("device123");
+            IModuleResult module = result.getOrCreateModule(ID_A);
+            module.setDone(true);
+            ICaseResult caseResult = module.getOrCreateResult(CLASS_A);
+            caseResult.getOrCreateResult(METHOD_1).passed(null);
+            caseResult.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+            ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, resultDir,
+                    1000L, 2000L, null, null, null);
+
+            IInvocationResult loaded = ResultHandler.findResult(resultsDir, 0, mResult);
+            assertSame("Expected given result", mResult, loaded);
+            assertEquals("Incorrect start time", 1000L, loaded.getStartTime());
+            assertEquals("Incorrect directory", resultDir, loaded.getRetryDirectory());
+            assertEquals("Expected 1 pass", 1, loaded.countResults(TestStatus.PASS));
+            assertEquals("Expected 1 failure", 1, loaded.countResults(TestStatus.FAIL));
+            ITestResult test = loaded.getModules().get(0).getResult(CLASS_A).getResult(METHOD_2);
+            assertEquals("Incorrect stack trace", STACK_TRACE, test.getStackTrace());
+            assertTrue("Expected retry", test.isRetry());
+        } finally {
+            FileUtil.recursiveDelete(resultsDir);
+        }
+    }
+}
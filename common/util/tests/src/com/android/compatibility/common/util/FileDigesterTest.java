@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for {@link FileDigester}
+ */
+public class FileDigesterTest extends TestCase {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private File mTempDir = null;
+    private FileDigester mDigester = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("digest");
+        mDigester = new FileDigester(3);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mDigester != null) {
+            mDigester.shutdown();
+        }
+        if (mTempDir != null) {
+            FileUtil.recursiveDelete(mTempDir);
+        }
+    }
+
+    public void testDigest() throws Exception {
+        // Larger than the read buffer
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(0).nextBytes(content);
+        File file = write("large.bin", content);
+        assertTrue("Incorrect digest", Arrays.equals(
+                MessageDigest.getInstance(ALGORITHM).digest(content),
+                mDigester.digest(file, ALGORITHM)));
+        File empty = write("empty.bin", new byte[0]);
+        assertTrue("Incorrect digest of empty file", Arrays.equals(
+                MessageDigest.getInstance(ALGORITHM).digest(), mDigester.digest(empty, ALGORITHM)));
+    }
+
+    public void testSubmit() throws Exception {
+        List<byte[]> contents = new ArrayList<>();
+        List<Future<byte[]>> digests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] content = ("file " + i).getBytes("UTF-8");
+            contents.add(content);
+            digests.add(mDigester.submit(write("file" + i, content), ALGORITHM));
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            assertTrue("Incorrect digest", Arrays.equals(
+                    MessageDigest.getInstance(ALGORITHM).digest(contents.get(i)),
+                    FileDigester.getDigest(digests.get(i))));
+        }
+    }
+
+    public void testDigestChangedFile() throws Exception {
+        File file = write("file", "first".getBytes("UTF-8"));
+        byte[] first = mDigester.digest(file, ALGORITHM);
+        assertTrue("Expected cached digest", mDigester.submit(file, ALGORITHM).isDone());
+        // Changing the size invalidates the cached digest
+        write("file", "second".getBytes("UTF-8"));
+        byte[] second = mDigester.digest(file, ALGORITHM);
+        assertFalse("Expected new digest", Arrays.equals(first, second));
+        assertTrue("Incorrect digest", Arrays.equals(
+                MessageDigest.getInstance(ALGORITHM).digest("second".getBytes("UTF-8")), second));
+        // The cache is not affected by changes to a returned digest
+        second[0]++;
+        assertFalse(Arrays.equals(second, mDigester.digest(file, ALGORITHM)));
+    }
+
+    public void testDigestUncached() throws Exception {
+        File file = write("file", "first".getBytes("UTF-8"));
+        long lastModified = file.lastModified();
+        mDigester.digest(file, ALGORITHM);
+        // Same size and modification time, but different content
+        write("file", "other".getBytes("UTF-8"));
+        assertTrue(file.setLastModified(lastModified));
+        assertTrue("Incorrect digest", Arrays.equals(
+                MessageDigest.getInstance(ALGORITHM).digest("other".getBytes("UTF-8")),
+                FileDigester.getDigest(mDigester.submit(file, ALGORITHM, false))));
+    }
+
+    public void testDigestMissingFile() throws Exception {
+        try {
+            FileDigester.getDigest(mDigester.submit(new File(mTempDir, "missing"), ALGORITHM));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testDigestUnknownAlgorithm() throws Exception {
+        File file = write("file", "content".getBytes("UTF-8"));
+        try {
+            FileDigester.getDigest(mDigester.submit(file, "unknown"));
+            fail("Expected NoSuchAlgorithmException");
+        } catch (NoSuchAlgorithmException e) {
+            // expected
+        }
+    }
+
+    public void testToHexString() {
+        assertEquals("00017f80ff", FileDigester.toHexString(
+                new byte[] {0x00, 0x01, 0x7f, (byte) 0x80, (byte) 0xff}));
+        assertEquals("", FileDigester.toHexString(new byte[0]));
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(mTempDir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -196,12 +197,179 @@ public class ResultHandlerTest extends TestCase {
         checkResult(ResultHandler.getResults(resultsDir), resultDir);
     }
 
+    public void testResultFileChecksum() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.addDeviceSerial(DEVICE_A);
+        result.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A)
+                .getOrCreateResult(METHOD_1).setResultStatus(TestStatus.PASS);
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, null, null, null);
+        // The checksum calculated while writing matches the result file
+        assertTrue("Incorrect result file checksum", ChecksumReporter.load(resultDir).containsFile(
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME), resultDir.getName()));
+    }
+
     public void testParsing() throws Exception {
-        File resultsDir = null;
+        writeResultFile();
+        // Parse the results and assert correctness
+        checkResult(ResultHandler.getResults(resultsDir), resultDir);
+    }
+
+    public void testSummaryOnly() throws Exception {
+        writeResultFile();
+        List<InvocationSummary> summaries = ResultHandler.getResultSummaries(resultsDir);
+        assertEquals("Expected 1 summary", 1, summaries.size());
+        InvocationSummary summary = summaries.get(0);
+        assertEquals("Expected 2 passes", 2, summary.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 failure", 1, summary.countResults(TestStatus.FAIL));
+        assertEquals("Expected 1 not executed", 1, summary.getNotExecuted());
+        assertEquals("Expected 1 module done", 1, summary.getModuleCompleteCount());
+        assertEquals("Expected 1 module", 1, summary.getModuleCount());
+        IInvocationResult invocation = summary.getInvocation();
+        assertEquals("Incorrect start time", START_MS, invocation.getStartTime());
+        assertEquals("Incorrect test plan", SUITE_PLAN, invocation.getTestPlan());
+        assertEquals("Incorrect Build ID",
+                EXAMPLE_BUILD_ID, invocation.getInvocationInfo().get(BUILD_ID));
+        assertEquals("Expected 2 devices", 2, invocation.getDeviceSerials().size());
+        assertEquals("Incorrect directory", resultDir, invocation.getRetryDirectory());
+        assertTrue("Unexpected modules", invocation.getModules().isEmpty());
+    }
+
+    public void testSummaryCache() throws Exception {
+        writeResultFile();
+        ResultHandler.clearSummaryCache();
+        InvocationSummary summary = ResultHandler.getResultSummaries(resultsDir).get(0);
+        assertSame("Expected cached summary",
+                summary, ResultHandler.getResultSummaries(resultsDir).get(0));
+        // Changing the result file invalidates the cached summary
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        try (FileWriter writer = new FileWriter(resultFile, true)) {
+            writer.write("\n");
+        }
+        assertNotSame("Expected new summary",
+                summary, ResultHandler.getResultSummaries(resultsDir).get(0));
+        assertEquals("Expected 1 cached summary", 1, ResultHandler.getSummaryCacheSize());
+        // Deleting the session drops its cached summary
+        FileUtil.recursiveDelete(resultDir);
+        assertTrue("Expected no summaries", ResultHandler.getResultSummaries(resultsDir).isEmpty());
+        assertEquals("Expected no cached summaries", 0, ResultHandler.getSummaryCacheSize());
+    }
+
+    public void testParallelLoading() throws Exception {
+        // Sessions are sorted by start time, regardless of directory name or load order.
+        int sessions = 20;
+        for (int i = 0; i < sessions; i++) {
+            IInvocationResult result = new InvocationResult();
+            result.addDeviceSerial(DEVICE_A);
+            result.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A)
+                    .getOrCreateResult(METHOD_1).setResultStatus(TestStatus.PASS);
+            File sessionDir = FileUtil.createTempDir("session", resultsDir);
+            long startTime = START_MS + (i * 7919) % sessions;
+            ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                    result, sessionDir, startTime, END_MS, null, null, null);
+        }
+        List<IInvocationResult> results = ResultHandler.getResults(resultsDir);
+        List<InvocationSummary> summaries = ResultHandler.getResultSummaries(resultsDir);
+        assertEquals("Expected all sessions", sessions, results.size());
+        assertEquals("Expected all sessions", sessions, summaries.size());
+        for (int i = 0; i < sessions; i++) {
+            assertEquals("Incorrect order", START_MS + i, results.get(i).getStartTime());
+            assertEquals("Incorrect order",
+                    START_MS + i, summaries.get(i).getInvocation().getStartTime());
+            assertEquals("Expected 1 pass", 1, results.get(i).countResults(TestStatus.PASS));
+        }
+    }
+
+    public void testCorruptModules() throws Exception {
+        writeResultFile();
+        // Truncate the result file in the middle of the second module
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        String xml = FileUtil.readStringFromFile(resultFile);
+        FileUtil.writeToFile(xml.substring(0, xml.indexOf(METHOD_3)), resultFile);
+        ResultHandler.clearSummaryCache();
+        // Both lists contain the session, so that they agree on session ids
+        List<IInvocationResult> results = ResultHandler.getResults(resultsDir);
+        assertEquals("Expected 1 summary", 1, ResultHandler.getResultSummaries(resultsDir).size());
+        assertEquals("Expected 1 result", 1, results.size());
+        assertEquals("Incorrect start time", START_MS, results.get(0).getStartTime());
+        assertEquals("Expected the module read before the error",
+                ID_A, results.get(0).getModules().get(0).getId());
+    }
+
+    public void testStreaming() throws Exception {
+        writeResultFile();
+        final List<String> events = new ArrayList<>();
+        assertTrue(ResultHandler.parseResults(resultDir, false, new IResultVisitor() {
+            @Override
+            public boolean visitSummary(InvocationSummary summary) {
+                events.add("summary");
+                return true;
+            }
+
+            @Override
+            public void visitModule(IModuleResult module) {
+                events.add("module " + module.getId());
+            }
+
+            @Override
+            public void visitCase(IModuleResult module, ICaseResult caseResult) {
+                events.add(String.format("case %s %d", caseResult.getName(),
+                        caseResult.getResults().size()));
+            }
+
+            @Override
+            public void endModule(IModuleResult module) {
+                events.add(String.format("end %s %d %d %b", module.getId(),
+                        module.countResults(TestStatus.PASS),
+                        module.countResults(TestStatus.FAIL), module.isDone()));
+                assertTrue("Unexpected cases", module.getResults().isEmpty());
+            }
+        }));
+        assertEquals(Arrays.asList("summary",
+                "module " + ID_A, "case " + CLASS_A + " 1", "end " + ID_A + " 1 0 false",
+                "module " + ID_B, "case " + CLASS_B + " 2", "end " + ID_B + " 1 1 true"),
+                events);
+        assertFalse(ResultHandler.parseResults(resultsDir, false, null));
+    }
+
+    public void testFailureReport() throws Exception {
+        writeResultFile();
+        File report = ResultHandler.createFailureReport(
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME));
+        assertTrue("Expected a failure report", report.exists());
+        String html = FileUtil.readStringFromFile(report);
+        String titleA = String.format("%s - %s", NAME_A, ABI);
+        String titleB = String.format("%s - %s", NAME_B, ABI);
+        // Only the module with failures links to its details
+        assertTrue("Expected summary of " + NAME_A, html.contains(String.format(">%s<", titleA)));
+        assertFalse("Unexpected link to " + NAME_A, html.contains("#" + titleA));
+        assertTrue("Expected link to " + NAME_B, html.contains(
+                String.format("<a href=\"#%s\">%s</a>", titleB, titleB)));
+        assertTrue("Expected details of " + NAME_B, html.contains(
+                String.format("<a name=\"%s\">%s</a>", titleB, titleB)));
+        assertTrue("Expected failed test",
+                html.contains(String.format("%s#%s", CLASS_B, METHOD_3)));
+        assertTrue("Expected failure message", html.contains(MESSAGE));
+        assertFalse("Unexpected passed test", html.contains(METHOD_1));
+        assertFalse("Unexpected passed test", html.contains(METHOD_4));
+        assertFalse("Unexpected stack trace", html.contains(STACK_TRACE));
+        assertTrue("Expected build fingerprint", html.contains(DEVICE_A));
+        assertTrue("Expected complete document", html.trim().endsWith("</html>"));
+    }
+
+    public void testFailureReportInvalidResult() throws Exception {
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        FileUtil.writeToFile("<Result>", resultFile);
+        assertFalse("Unexpected failure report",
+                ResultHandler.createFailureReport(resultFile).exists());
+    }
+
+    /**
+     * Writes a result file into resultDir, equivalent to the one serialized by testSerialization.
+     */
+    private void writeResultFile() throws Exception {
         FileWriter writer = null;
         try {
-            resultsDir = FileUtil.createTempDir("results");
-            File resultDir = FileUtil.createTempDir("12345", resultsDir);
             // Create the result file
             File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
             writer = new FileWriter(resultFile);
@@ -235,9 +403,6 @@ public class ResultHandlerTest extends TestCase {
                     buildInfo, summary, modules);
             writer.write(output);
             writer.flush();
-
-            // Parse the results and assert correctness
-            checkResult(ResultHandler.getResults(resultsDir), resultDir);
         } finally {
             if (writer != null) {
                 writer.close();
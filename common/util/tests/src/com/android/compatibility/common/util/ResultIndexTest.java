@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link ResultIndex}
+ */
+public class ResultIndexTest extends TestCase {
+
+    private static final String ABI = "armeabi-v7a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS_A = "android.test.Foo";
+    private static final String CLASS_B = "android.test.Bar";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String METHOD_3 = "testBlah3";
+    private static final String DEVICE = "device123";
+    private static final String BUILD_ID = "build_id";
+    private static final String EXAMPLE_BUILD_ID = "XYZ";
+    private static final String STACK_TRACE = "junit.framework.AssertionFailedError: <a> & @b\n" +
+            "\tat four.big.insects.Marley.sing(Marley.java:10)";
+    private static final long START_MS = 1431586801000L;
+    private static final long END_MS = 1431673199000L;
+
+    private File mResultsDir = null;
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultsDir = FileUtil.createTempDir("results");
+        mResultDir = FileUtil.createTempDir("12345", mResultsDir);
+
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.setTestPlan("cts");
+        result.addDeviceSerial(DEVICE);
+        result.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.setDone(true);
+        moduleA.addRuntime(100);
+        ICaseResult caseA = moduleA.getOrCreateResult(CLASS_A);
+        caseA.getOrCreateResult(METHOD_1).setResultStatus(TestStatus.PASS);
+        caseA.getOrCreateResult(METHOD_2).setResultStatus(null); // not executed test
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        moduleB.setDone(false);
+        moduleB.setNotExecuted(3);
+        ICaseResult caseB = moduleB.getOrCreateResult(CLASS_B);
+        caseB.getOrCreateResult(METHOD_1).setResultStatus(TestStatus.PASS);
+        caseB.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        caseB.getOrCreateResult(METHOD_3).setResultStatus(TestStatus.PASS);
+        ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, mResultDir,
+                START_MS, END_MS, null, null, null);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mResultsDir != null) {
+            FileUtil.recursiveDelete(mResultsDir);
+        }
+    }
+
+    public void testSummary() throws Exception {
+        ResultIndex index = ResultIndex.load(mResultDir);
+        assertNotNull("Expected index", index);
+        InvocationSummary summary = index.getSummary();
+        assertEquals("Expected 3 passes", 3, summary.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 failure", 1, summary.countResults(TestStatus.FAIL));
+        assertEquals("Expected 3 not executed", 3, summary.getNotExecuted());
+        assertEquals("Expected 1 module done", 1, summary.getModuleCompleteCount());
+        assertEquals("Expected 2 modules", 2, summary.getModuleCount());
+        IInvocationResult invocation = summary.getInvocation();
+        assertEquals("Incorrect start time", START_MS, invocation.getStartTime());
+        assertEquals("Incorrect test plan", "cts", invocation.getTestPlan());
+        assertEquals("Incorrect command line", "", invocation.getCommandLineArgs());
+        assertEquals("Incorrect devices", DEVICE,
+                invocation.getDeviceSerials().iterator().next());
+        assertEquals("Incorrect Build ID",
+                EXAMPLE_BUILD_ID, invocation.getInvocationInfo().get(BUILD_ID));
+        assertEquals("Incorrect directory", mResultDir, invocation.getRetryDirectory());
+    }
+
+    public void testRetrySession() throws Exception {
+        assertNull("Expected no retry", ResultIndex.load(mResultDir).getSummary()
+                .getRetrySession());
+        // A retry writes the result loaded from the retried session to a new directory
+        IInvocationResult result = new InvocationResult();
+        result.setRetryDirectory(mResultDir);
+        File retryDir = FileUtil.createTempDir("12346", mResultsDir);
+        ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, retryDir,
+                START_MS, END_MS, null, null, null);
+        assertEquals("Incorrect retry session", mResultDir.getName(),
+                ResultIndex.load(retryDir).getSummary().getRetrySession());
+        new File(retryDir, ResultIndex.NAME).delete();
+        assertEquals("Incorrect retry session", mResultDir.getName(),
+                ResultHandler.getResultSummary(retryDir).getRetrySession());
+    }
+
+    public void testTests() throws Exception {
+        ResultIndex index = ResultIndex.load(mResultDir);
+        assertEquals("Expected 2 modules", 2, index.getModuleCount());
+        assertEquals("Incorrect id", ID_A, index.getModuleId(0));
+        assertTrue("Expected done", index.isDone(0));
+        assertEquals("Incorrect runtime", 100, index.getRuntime(0));
+        assertEquals("Incorrect first test", 0, index.getFirstTest(0));
+        // Not executed tests are not reported
+        assertEquals("Expected 1 test", 1, index.getTestCount(0));
+        assertEquals("Incorrect id", ID_B, index.getModuleId(1));
+        assertFalse("Expected not done", index.isDone(1));
+        assertEquals("Incorrect not executed", 3, index.getNotExecuted(1));
+        assertEquals("Incorrect first test", 1, index.getFirstTest(1));
+        assertEquals("Expected 3 tests", 3, index.getTestCount(1));
+
+        assertEquals("Expected 4 tests", 4, index.getTestCount());
+        assertEquals("Expected 3 passes", 3, index.countResults(TestStatus.PASS));
+        int[] failed = index.getTests(TestStatus.FAIL);
+        assertTrue("Incorrect failures", Arrays.equals(new int[] {2}, failed));
+        assertEquals("Incorrect name", CLASS_B + "#" + METHOD_2, index.getFullName(failed[0]));
+        assertEquals("Incorrect status", TestStatus.FAIL, index.getStatus(failed[0]));
+        assertEquals("Incorrect stack trace", STACK_TRACE, index.getStackTrace(failed[0]));
+        assertEquals("Incorrect status", TestStatus.PASS, index.getStatus(0));
+        assertNull("Unexpected stack trace", index.getStackTrace(0));
+    }
+
+    public void testUnescape() throws Exception {
+        assertEquals("a<b>&\"'@\n", ResultIndex.unescape("a&lt;b&gt;&amp;&quot;&apos;&#64;&#xa;"));
+        assertEquals("no entities", ResultIndex.unescape("no entities"));
+        assertEquals("&unknown; &", ResultIndex.unescape("&unknown; &"));
+    }
+
+    public void testParseResultStatuses() throws Exception {
+        // The index gives the same modules and test statuses as the result file, including
+        // the checksum validation which needs the stack traces
+        final StringBuilder fromIndex = new StringBuilder();
+        assertTrue(ResultHandler.parseResultStatuses(mResultDir, true,
+                new StatusRecorder(fromIndex)));
+        new File(mResultDir, ResultIndex.NAME).delete();
+        final StringBuilder fromResultFile = new StringBuilder();
+        assertTrue(ResultHandler.parseResultStatuses(mResultDir, true,
+                new StatusRecorder(fromResultFile)));
+        assertEquals("Incorrect statuses", fromResultFile.toString(), fromIndex.toString());
+        assertTrue("Expected failure", fromIndex.toString().contains(
+                CLASS_B + "#" + METHOD_2 + "=FAIL"));
+    }
+
+    public void testStale() throws Exception {
+        File resultFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        try (FileWriter writer = new FileWriter(resultFile, true)) {
+            writer.write("\n");
+        }
+        assertNull("Expected stale index to be ignored", ResultIndex.load(mResultDir));
+    }
+
+    public void testModified() throws Exception {
+        // A result file rewritten with the same length is detected by its modification time
+        File resultFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        assertTrue(resultFile.setLastModified(resultFile.lastModified() - 10000));
+        assertNull("Expected stale index to be ignored", ResultIndex.load(mResultDir));
+    }
+
+    public void testCorrupt() throws Exception {
+        // A corrupt index falls back to parsing the result file
+        File indexFile = new File(mResultDir, ResultIndex.NAME);
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.setLength(40);
+        }
+        InvocationSummary summary = ResultHandler.getResultSummary(mResultDir);
+        assertNotNull("Expected summary", summary);
+        assertEquals("Expected 3 passes", 3, summary.countResults(TestStatus.PASS));
+    }
+
+    /**
+     * Records the modules and the status of each test visited.
+     */
+    private static class StatusRecorder implements IResultVisitor {
+        private final StringBuilder mOut;
+
+        StatusRecorder(StringBuilder out) {
+            mOut = out;
+        }
+
+        @Override
+        public boolean visitSummary(InvocationSummary summary) {
+            return true;
+        }
+
+        @Override
+        public void visitModule(IModuleResult module) {
+            mOut.append(module.getId()).append(" ").append(module.getRuntime()).append("\n");
+        }
+
+        @Override
+        public void visitCase(IModuleResult module, ICaseResult caseResult) {
+            for (ITestResult test : caseResult.getResults()) {
+                mOut.append(test.getFullName()).append("=").append(test.getResultStatus())
+                        .append("\n");
+            }
+        }
+
+        @Override
+        public void endModule(IModuleResult module) {
+            mOut.append(module.isDone()).append(" ").append(module.getNotExecuted()).append(" ")
+                    .append(module.countResults(TestStatus.PASS)).append(" ")
+                    .append(module.countResults(TestStatus.FAIL)).append("\n");
+        }
+    }
+}
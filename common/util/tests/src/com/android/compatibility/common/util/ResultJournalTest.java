@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ResultJournal}
+ */
+public class ResultJournalTest extends TestCase {
+
+    private static final String ABI = "armeabi-v7a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS_A = "android.test.Foo";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String DEVICE = "device123";
+    private static final String BUILD_ID = "build_id";
+    private static final String EXAMPLE_BUILD_ID = "XYZ";
+    private static final long START_MS = 1431586801000L;
+
+    private File mResultsDir = null;
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultsDir = FileUtil.createTempDir("results");
+        mResultDir = FileUtil.createTempDir("12345", mResultsDir);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mResultsDir != null) {
+            FileUtil.recursiveDelete(mResultsDir);
+        }
+    }
+
+    public void testRecover() throws Exception {
+        writeJournal();
+        File journalFile = new File(mResultDir, ResultJournal.NAME);
+        // Simulate a crash in the middle of writing a record
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[] {0, 0, 0, 50, 1, 2});
+        }
+        assertTrue("Expected journal", journalFile.exists());
+
+        // Listing reads the journal without recovering it
+        List<IInvocationResult> results = ResultHandler.getResults(mResultsDir);
+        assertEquals("Expected 1 journaled result", 1, results.size());
+        assertEquals("Expected 1 journaled summary", 1,
+                ResultHandler.getResultSummaries(mResultsDir).size());
+        assertTrue("Expected journal to be kept", journalFile.exists());
+        assertFalse("Unexpected result file",
+                new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME).exists());
+        assertEquals("Expected 2 modules", 2, results.get(0).getModules().size());
+
+        // Retrying the session recovers it
+        IInvocationResult result = ResultHandler.findResult(mResultsDir, 0);
+        assertFalse("Expected journal to be deleted", journalFile.exists());
+        assertTrue("Expected result file",
+                new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME).exists());
+        assertEquals("Incorrect start time", START_MS, result.getStartTime());
+        assertEquals("Incorrect test plan", "cts", result.getTestPlan());
+        assertEquals("Incorrect devices", DEVICE, result.getDeviceSerials().iterator().next());
+        assertEquals("Incorrect Build ID",
+                EXAMPLE_BUILD_ID, result.getInvocationInfo().get(BUILD_ID));
+        assertEquals("Expected 1 pass", 1, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 failure", 1, result.countResults(TestStatus.FAIL));
+        assertEquals("Expected 2 modules", 2, result.getModules().size());
+        IModuleResult moduleA = result.getModules().get(0);
+        assertEquals("Incorrect id", ID_A, moduleA.getId());
+        assertTrue("Expected done", moduleA.isDone());
+        assertEquals("Incorrect runtime", 150, moduleA.getRuntime());
+        ITestResult failed = moduleA.getResult(CLASS_A).getResult(METHOD_2);
+        assertEquals("Incorrect stack trace", STACK_TRACE, failed.getStackTrace());
+        IModuleResult moduleB = result.getModules().get(1);
+        assertFalse("Expected not done", moduleB.isDone());
+        assertEquals("Incorrect not executed", 4, moduleB.getNotExecuted());
+    }
+
+    public void testActiveJournalNotRecovered() throws Exception {
+        ResultJournal journal = ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345",
+                START_MS, "", null);
+        try {
+            assertTrue("Expected active journal", ResultJournal.isActive(mResultDir));
+            assertNull("Unexpected recovery", ResultJournal.recover(mResultDir));
+            assertTrue("Expected no results", ResultHandler.getResults(mResultsDir).isEmpty());
+            // Checking must not release the lock of the journal
+            assertTrue("Expected active journal", ResultJournal.isActive(mResultDir));
+        } finally {
+            journal.close();
+        }
+        // Closing twice is harmless
+        journal.close();
+        assertFalse("Expected lock file to be deleted",
+                new File(mResultDir, ResultJournal.LOCK_NAME).exists());
+        assertFalse("Unexpected active journal", ResultJournal.isActive(mResultDir));
+        assertNotNull("Expected recovery", ResultJournal.recover(mResultDir));
+    }
+
+    public void testJournalInUse() throws Exception {
+        ResultJournal journal = ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345",
+                START_MS, "", null);
+        try {
+            ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345", START_MS, "", null);
+            fail("Expected journal to be in use");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            journal.close();
+        }
+        ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345", START_MS, "", null)
+                .delete();
+    }
+
+    public void testModuleWrittenAtRunEnd() throws Exception {
+        ResultJournal journal = ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345",
+                START_MS, "", null);
+        File journalFile = new File(mResultDir, ResultJournal.NAME);
+        try {
+            long written = journalFile.length();
+            IInvocationResult result = new InvocationResult();
+            IModuleResult module = result.getOrCreateModule(ID_A);
+            module.addRuntime(10);
+            module.setDone(true);
+            journal.testRunEnded(module);
+            assertTrue("Expected module record on disk", journalFile.length() > written);
+        } finally {
+            journal.close();
+        }
+        IInvocationResult journaled = ResultJournal.read(mResultDir);
+        assertNotNull("Expected journaled result", journaled);
+        assertEquals("Expected 1 module", 1, journaled.getModules().size());
+        assertTrue("Expected module done", journaled.getModules().get(0).isDone());
+    }
+
+    public void testStaleLockFile() throws Exception {
+        writeJournal();
+        // Left behind by a host which died, but no longer locked
+        assertTrue(new File(mResultDir, ResultJournal.LOCK_NAME).createNewFile());
+        assertFalse("Unexpected active journal", ResultJournal.isActive(mResultDir));
+        assertEquals("Expected 1 journaled result", 1,
+                ResultHandler.getResults(mResultsDir).size());
+    }
+
+    public void testTruncatedJournal() throws Exception {
+        // Only the header was written, there is no invocation record
+        File journalFile = new File(mResultDir, ResultJournal.NAME);
+        try (FileOutputStream out = new FileOutputStream(journalFile)) {
+            out.write(new byte[] {0x43, 0x54, 0x4a, 0x4c, 0, 0, 0, 1});
+        }
+        assertNull("Unexpected result", ResultJournal.read(mResultDir));
+        assertNull("Unexpected recovery", ResultJournal.recover(mResultDir));
+        assertTrue("Expected no results", ResultHandler.getResults(mResultsDir).isEmpty());
+    }
+
+    public void testDelete() throws Exception {
+        ResultJournal journal = ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345",
+                START_MS, "", null);
+        journal.delete();
+        assertFalse("Expected journal to be deleted",
+                new File(mResultDir, ResultJournal.NAME).exists());
+        assertNull("Unexpected recovery", ResultJournal.recover(mResultDir));
+    }
+
+    private void writeJournal() throws Exception {
+        ResultJournal journal = ResultJournal.create(mResultDir, "CTS", "5.0", "cts", "12345",
+                START_MS, "", null);
+        journal.addDeviceSerial(DEVICE);
+        journal.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+
+        IInvocationResult result = new InvocationResult();
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        ICaseResult caseA = moduleA.getOrCreateResult(CLASS_A);
+        ITestResult test1 = caseA.getOrCreateResult(METHOD_1);
+        test1.passed(null);
+        journal.testEnded(ID_A, test1);
+        ITestResult test2 = caseA.getOrCreateResult(METHOD_2);
+        test2.failed(STACK_TRACE);
+        journal.testEnded(ID_A, test2);
+        moduleA.addRuntime(100);
+        journal.testRunEnded(moduleA);
+        // A later record for the same module replaces the earlier one
+        moduleA.addRuntime(50);
+        moduleA.setDone(true);
+        journal.testRunEnded(moduleA);
+
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        moduleB.setNotExecuted(4);
+        journal.testRunEnded(moduleB);
+        journal.close();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the retained heap and garbage collection cost of {@link InvocationResult} and
+ * {@link CompactInvocationResult} when accumulating a large invocation.
+ *
+ * <p>Not part of {@link UnitTests}; run with
+ * {@code java -Xmx4g com.android.compatibility.common.util.ResultMemoryBenchmark [tests]}.
+ */
+public class ResultMemoryBenchmark {
+
+    private static final int DEFAULT_TESTS = 1000000;
+    private static final int MODULES = 200;
+    private static final int TESTS_PER_CASE = 25;
+    private static final int FAILURE_PERIOD = 50;
+    private static final String STACK_TRACE = "junit.framework.AssertionFailedError: expected\n" +
+            "\tat android.test.Foo.testBlah(Foo.java:10)";
+
+    public static void main(String[] args) {
+        int tests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TESTS;
+        // Warm up both paths so class loading and JIT do not skew the first measurement
+        populate(new InvocationResult(), tests / 100);
+        populate(new CompactInvocationResult(), tests / 100);
+        measure("InvocationResult", new InvocationResult(), tests);
+        measure("CompactInvocationResult", new CompactInvocationResult(), tests);
+    }
+
+    private static void measure(String name, IInvocationResult result, int tests) {
+        long before = usedHeap();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long start = System.nanoTime();
+        populate(result, tests);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        long retained = usedHeap() - before;
+        System.out.printf("%-24s %d tests: %d ms, retained %d MB, %d GCs (%d ms)%n", name,
+                result.countResults(TestStatus.PASS) + result.countResults(TestStatus.FAIL),
+                elapsed, retained / (1024 * 1024), gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    private static void populate(IInvocationResult result, int tests) {
+        int testsPerModule = Math.max(1, tests / MODULES);
+        for (int i = 0; i < tests; i++) {
+            IModuleResult module = result.getOrCreateModule(
+                    AbiUtils.createId("arm64-v8a", "CtsModule" + (i / testsPerModule)));
+            ICaseResult caseResult = module.getOrCreateResult(
+                    "android.test.cts.Case" + (i / TESTS_PER_CASE));
+            ITestResult test = caseResult.getOrCreateResult("testMethod" + (i % TESTS_PER_CASE));
+            if (i % FAILURE_PERIOD == 0) {
+                // The same few stack traces recur across a real run
+                test.failed(STACK_TRACE);
+            } else {
+                test.passed(null);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -29,15 +29,20 @@ public class UnitTests extends TestSuite {
         super();
         addTestSuite(AbiUtilsTest.class);
         addTestSuite(CaseResultTest.class);
+        addTestSuite(CompactInvocationResultTest.class);
         addTestSuite(DynamicConfigTest.class);
+        addTestSuite(FileDigesterTest.class);
         addTestSuite(MetricsXmlSerializerTest.class);
         addTestSuite(ModuleResultTest.class);
         addTestSuite(MultipartFormTest.class);
         addTestSuite(ReportLogTest.class);
         addTestSuite(ResultHandlerTest.class);
+        addTestSuite(ResultIndexTest.class);
+        addTestSuite(ResultJournalTest.class);
         addTestSuite(StatTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestResultTest.class);
+        addTestSuite(ZipArchiveBuilderTest.class);
     }
 
     public static Test suite() {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Compares {@link ZipUtil#createZip(File, File)} and {@link ZipArchiveBuilder} on a synthetic
+ * result directory of logcats, bugreports and screenshots.
+ *
+ * <p>Not part of {@link UnitTests}; run with
+ * {@code java com.android.compatibility.common.util.ZipArchiveBenchmark [size in MB] [dir]}.
+ * The default size is 5 GB, written to a temporary directory which is deleted afterwards.
+ */
+public class ZipArchiveBenchmark {
+
+    private static final long DEFAULT_SIZE_MB = 5 * 1024;
+    private static final int MODULES = 100;
+    private static final int LOG_LINE_VARIANTS = 64;
+
+    public static void main(String[] args) throws IOException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SIZE_MB) * 1024 * 1024;
+        File parent = args.length > 1 ? new File(args[1]) : null;
+        File root = File.createTempFile("zip-benchmark", "", parent);
+        root.delete();
+        root.mkdirs();
+        try {
+            File resultDir = new File(root, "2016.01.01_12.00.00");
+            generate(resultDir, size);
+            measure("ZipUtil", resultDir, new File(root, "zip-util.zip"), 0);
+            measure("ZipArchiveBuilder", resultDir, new File(root, "builder.zip"), -1);
+        } finally {
+            FileUtil.recursiveDelete(root);
+        }
+    }
+
+    private static void measure(String name, File resultDir, File zipFile, int threads)
+            throws IOException {
+        long start = System.nanoTime();
+        if (threads == 0) {
+            ZipUtil.createZip(resultDir, zipFile);
+        } else {
+            ZipArchiveBuilder.createZip(resultDir, zipFile);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        System.out.printf("%-18s %d ms, %d MB archive%n", name, elapsed,
+                zipFile.length() / (1024 * 1024));
+        zipFile.delete();
+    }
+
+    /**
+     * Writes a result directory of about the given size: half logcats, a quarter bugreports as
+     * text and a quarter already compressed files.
+     */
+    private static void generate(File resultDir, long size) throws IOException {
+        Random random = new Random(0);
+        String[] lines = new String[LOG_LINE_VARIANTS];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = String.format("01-01 12:00:%02d.%03d  %4d  %4d I CtsTest: event %d value %d\n",
+                    i % 60, random.nextInt(1000), 1000 + i, 1000 + i, i, random.nextInt());
+        }
+        long perModule = size / MODULES;
+        for (int module = 0; module < MODULES; module++) {
+            File logs = new File(resultDir, "logs/CtsModule" + module);
+            File screenshots = new File(resultDir, "screenshots/CtsModule" + module);
+            logs.mkdirs();
+            screenshots.mkdirs();
+            writeText(new File(logs, "logcat.txt"), perModule / 2, lines, random);
+            writeText(new File(logs, "bugreport.txt"), perModule / 4, lines, random);
+            long remaining = perModule / 4;
+            for (int i = 0; remaining > 0; i++) {
+                long fileSize = Math.min(remaining, 512 * 1024);
+                writeRandom(new File(screenshots, (i % 2 == 0 ? "shot" + i + ".png"
+                        : "log" + i + ".gz")), fileSize, random);
+                remaining -= fileSize;
+            }
+        }
+    }
+
+    private static void writeText(File file, long size, String[] lines, Random random)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            long written = 0;
+            while (written < size) {
+                byte[] line = lines[random.nextInt(lines.length)].getBytes("UTF-8");
+                out.write(line);
+                written += line.length;
+            }
+        }
+    }
+
+    private static void writeRandom(File file, long size, Random random) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
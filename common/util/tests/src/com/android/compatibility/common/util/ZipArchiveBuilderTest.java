@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ZipArchiveBuilder}
+ */
+public class ZipArchiveBuilderTest extends TestCase {
+
+    private File mTempDir = null;
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("zip");
+        mResultDir = new File(mTempDir, "2016.01.01_12.00.00");
+        File logs = new File(mResultDir, "logs");
+        File screenshots = new File(mResultDir, "screenshots");
+        assertTrue(logs.mkdirs());
+        assertTrue(screenshots.mkdirs());
+        assertTrue(new File(mResultDir, "empty").mkdir());
+
+        StringBuilder result = new StringBuilder("<Result>");
+        for (int i = 0; i < 1000; i++) {
+            result.append("<Test result=\"pass\" name=\"testCase").append(i).append("\" />");
+        }
+        result.append("</Result>");
+        write(new File(mResultDir, "test_result.xml"), result.toString().getBytes("UTF-8"));
+        // Large enough to be compressed through a temporary file
+        StringBuilder logcat = new StringBuilder();
+        for (int i = 0; logcat.length() < 3 * 1024 * 1024; i++) {
+            logcat.append("01-01 12:00:00.000  1234  1234 I Test: line ").append(i).append('\n');
+        }
+        write(new File(logs, "logcat.txt"), logcat.toString().getBytes("UTF-8"));
+        write(new File(logs, "empty.txt"), new byte[0]);
+        byte[] image = new byte[100 * 1024];
+        new Random(0).nextBytes(image);
+        write(new File(screenshots, "screenshot.png"), image);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mTempDir != null) {
+            FileUtil.recursiveDelete(mTempDir);
+        }
+    }
+
+    public void testCreateZip() throws Exception {
+        File expected = new File(mTempDir, "expected.zip");
+        ZipUtil.createZip(mResultDir, expected);
+        File actual = new File(mTempDir, "actual.zip");
+        ZipArchiveBuilder.createZip(mResultDir, actual, 3);
+
+        try (ZipFile expectedZip = new ZipFile(expected); ZipFile actualZip = new ZipFile(actual)) {
+            List<String> expectedNames = getNames(expectedZip);
+            assertEquals("Incorrect entries", expectedNames, getNames(actualZip));
+            for (String name : expectedNames) {
+                assertTrue("Incorrect content of " + name, Arrays.equals(
+                        read(expectedZip, expectedZip.getEntry(name)),
+                        read(actualZip, actualZip.getEntry(name))));
+            }
+            assertEquals("Expected screenshot to be stored", ZipEntry.STORED, actualZip.getEntry(
+                    "2016.01.01_12.00.00/screenshots/screenshot.png").getMethod());
+            ZipEntry logcat = actualZip.getEntry("2016.01.01_12.00.00/logs/logcat.txt");
+            assertEquals("Expected logcat to be deflated", ZipEntry.DEFLATED, logcat.getMethod());
+            assertTrue("Expected logcat to be compressed",
+                    logcat.getCompressedSize() < logcat.getSize() / 2);
+        }
+        assertEquals("Expected temporary files to be deleted", 3, mTempDir.list().length);
+    }
+
+    public void testCreateZipSingleThread() throws Exception {
+        File actual = new File(mTempDir, "actual.zip");
+        ZipArchiveBuilder.createZip(mResultDir, actual, 1);
+        try (ZipFile actualZip = new ZipFile(actual)) {
+            assertEquals("Incorrect entry count", 8, actualZip.size());
+        }
+    }
+
+    public void testCreateZipFromPrevious() throws Exception {
+        // Unlike ZipArchiveBuilder, ZipUtil deflates screenshots, which shows whether an entry was
+        // copied from the previous archive
+        File previous = new File(mTempDir, "previous.zip");
+        ZipUtil.createZip(mResultDir, previous);
+
+        // A retry session of the same layout, with one file changed and one added
+        File retryDir = new File(mTempDir, "2016.01.02_12.00.00");
+        assertTrue(mResultDir.renameTo(retryDir));
+        write(new File(retryDir, "test_result.xml"), "<Result />".getBytes("UTF-8"));
+        write(new File(retryDir, "logs/retry.txt"), "retry".getBytes("UTF-8"));
+        File expected = new File(mTempDir, "expected.zip");
+        ZipArchiveBuilder.createZip(retryDir, expected, 2);
+        File actual = new File(mTempDir, "actual.zip");
+        assertTrue("Expected entries to be copied",
+                ZipArchiveBuilder.createZip(retryDir, actual, previous, 2) > 0);
+
+        try (ZipFile expectedZip = new ZipFile(expected); ZipFile actualZip = new ZipFile(actual)) {
+            List<String> expectedNames = getNames(expectedZip);
+            assertEquals("Incorrect entries", expectedNames, getNames(actualZip));
+            for (String name : expectedNames) {
+                assertTrue("Incorrect content of " + name, Arrays.equals(
+                        read(expectedZip, expectedZip.getEntry(name)),
+                        read(actualZip, actualZip.getEntry(name))));
+            }
+            assertEquals("Expected screenshot to be copied", ZipEntry.DEFLATED, actualZip.getEntry(
+                    "2016.01.02_12.00.00/screenshots/screenshot.png").getMethod());
+            ZipEntry result = actualZip.getEntry("2016.01.02_12.00.00/test_result.xml");
+            assertEquals("Expected changed result to be compressed again",
+                    expectedZip.getEntry("2016.01.02_12.00.00/test_result.xml")
+                            .getCompressedSize(), result.getCompressedSize());
+        }
+    }
+
+    public void testCreateZipFromInvalidPrevious() throws Exception {
+        File previous = new File(mTempDir, "previous.zip");
+        write(previous, "not a zip".getBytes("UTF-8"));
+        File actual = new File(mTempDir, "actual.zip");
+        assertEquals("Unexpected entries copied", 0,
+                ZipArchiveBuilder.createZip(mResultDir, actual, previous, 2));
+        try (ZipFile actualZip = new ZipFile(actual)) {
+            assertEquals("Incorrect entry count", 8, actualZip.size());
+        }
+    }
+
+    public void testCreateZipFromCorruptPrevious() throws Exception {
+        // An end record whose central directory size cannot be read
+        File previous = new File(mTempDir, "previous.zip");
+        byte[] end = new byte[22];
+        ByteBuffer.wrap(end).order(ByteOrder.LITTLE_ENDIAN).putInt(0x06054b50)
+                .putInt(12, 0xffffffff);
+        write(previous, end);
+        File actual = new File(mTempDir, "actual.zip");
+        assertEquals("Unexpected entries copied", 0,
+                ZipArchiveBuilder.createZip(mResultDir, actual, previous, 2));
+        try (ZipFile actualZip = new ZipFile(actual)) {
+            assertEquals("Incorrect entry count", 8, actualZip.size());
+        }
+    }
+
+    public void testCreateZipFromCorruptPreviousEntry() throws Exception {
+        File previous = new File(mTempDir, "previous.zip");
+        ZipUtil.createZip(mResultDir, previous);
+        // Break the local header of every entry, the central directory is still valid
+        byte[] bytes = Files.readAllBytes(previous.toPath());
+        for (int i = 0; i + 4 <= bytes.length; i++) {
+            if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 3 && bytes[i + 3] == 4) {
+                bytes[i + 2] = 0;
+            }
+        }
+        write(previous, bytes);
+        File expected = new File(mTempDir, "expected.zip");
+        ZipArchiveBuilder.createZip(mResultDir, expected, 2);
+        File actual = new File(mTempDir, "actual.zip");
+        assertEquals("Unexpected entries copied", 0,
+                ZipArchiveBuilder.createZip(mResultDir, actual, previous, 2));
+        try (ZipFile expectedZip = new ZipFile(expected); ZipFile actualZip = new ZipFile(actual)) {
+            List<String> expectedNames = getNames(expectedZip);
+            assertEquals("Incorrect entries", expectedNames, getNames(actualZip));
+            for (String name : expectedNames) {
+                assertTrue("Incorrect content of " + name, Arrays.equals(
+                        read(expectedZip, expectedZip.getEntry(name)),
+                        read(actualZip, actualZip.getEntry(name))));
+            }
+        }
+    }
+
+    public void testCreateZipMissingDirectory() throws Exception {
+        File actual = new File(mTempDir, "actual.zip");
+        try {
+            ZipArchiveBuilder.createZip(new File(mTempDir, "missing"), actual);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse("Expected no zip file", actual.exists());
+    }
+
+    private static List<String> getNames(ZipFile zip) {
+        List<String> names = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            names.add(entries.nextElement().getName());
+        }
+        return names;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(entry)) {
+            StreamUtil.copyStreams(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+}
@@ -19,7 +19,9 @@ package com.android.cts.apicoverage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Representation of a class in the API with constructors and methods. */
 class ApiClass implements Comparable<ApiClass>, HasCoverage {
@@ -36,6 +38,14 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private final List<ApiMethod> mApiMethods = new ArrayList<ApiMethod>();
 
+    // Constructors bucketed by number of parameters, in the order they were added
+    private final Map<Integer, List<ApiConstructor>> mConstructorIndex =
+            new HashMap<Integer, List<ApiConstructor>>();
+
+    // Methods bucketed by name and number of parameters, in the order they were added
+    private final Map<String, List<ApiMethod>> mMethodIndex =
+            new HashMap<String, List<ApiMethod>>();
+
     private final String mSuperClassName;
 
     private ApiClass mSuperClass;
@@ -83,6 +93,13 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addConstructor(ApiConstructor constructor) {
         mApiConstructors.add(constructor);
+        int arity = constructor.getParameterTypes().size();
+        List<ApiConstructor> bucket = mConstructorIndex.get(arity);
+        if (bucket == null) {
+            bucket = new ArrayList<ApiConstructor>(1);
+            mConstructorIndex.put(arity, bucket);
+        }
+        bucket.add(constructor);
     }
 
 
@@ -92,6 +109,13 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addMethod(ApiMethod method) {
         mApiMethods.add(method);
+        String key = getMethodKey(method.getName(), method.getParameterTypes().size());
+        List<ApiMethod> bucket = mMethodIndex.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<ApiMethod>(1);
+            mMethodIndex.put(key, bucket);
+        }
+        bucket.add(method);
     }
 
     /** Look for a matching constructor and mark it as covered */
@@ -157,19 +181,30 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
         return getTotalMethods();
     }
 
+    /**
+     * Only methods with the same name and number of parameters can match, so just the bucket of
+     * those is compared, which keeps generic and var arg parameters matching as before.
+     */
     private ApiMethod getMethod(String name, List<String> parameterTypes, String returnType) {
-        for (ApiMethod method : mApiMethods) {
-            boolean methodNameMatch = name.equals(method.getName());
+        List<ApiMethod> bucket = mMethodIndex.get(getMethodKey(name, parameterTypes.size()));
+        if (bucket == null) {
+            return null;
+        }
+        for (ApiMethod method : bucket) {
             boolean parameterTypeMatch =
                     compareParameterTypes(method.getParameterTypes(), parameterTypes);
             boolean returnTypeMatch = compareType(method.getReturnType(), returnType);
-            if (methodNameMatch && parameterTypeMatch && returnTypeMatch) {
+            if (parameterTypeMatch && returnTypeMatch) {
                 return method;
             }
         }
         return null;
     }
 
+    private static String getMethodKey(String name, int arity) {
+        return name + "/" + arity;
+    }
+
     /**
      * The method compares two lists of parameters. If the {@code apiParameterTypeList} contains
      * generic types, test parameter types are ignored.
@@ -243,7 +278,11 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiConstructor getConstructor(List<String> parameterTypes) {
-        for (ApiConstructor constructor : mApiConstructors) {
+        List<ApiConstructor> bucket = mConstructorIndex.get(parameterTypes.size());
+        if (bucket == null) {
+            return null;
+        }
+        for (ApiConstructor constructor : bucket) {
             if (compareParameterTypes(constructor.getParameterTypes(), parameterTypes)) {
                 return constructor;
             }
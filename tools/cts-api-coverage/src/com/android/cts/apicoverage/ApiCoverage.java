@@ -46,4 +46,12 @@ class ApiCoverage {
             pkg.resolveSuperClasses(mPackages);
         }
     }
+
+    /**
+     * Marks the constructors and methods referenced by a test APK as covered. Safe to call from
+     * several threads once the API has been loaded and its superclasses resolved.
+     */
+    public synchronized void markCovered(ApiReferences references) {
+        references.markCovered(this);
+    }
 }
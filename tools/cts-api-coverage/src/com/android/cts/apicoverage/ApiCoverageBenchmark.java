@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long it takes to mark the coverage found in saved dexdeps output.
+ * <p/>
+ * The output of {@code dexdeps --format=xml} for each test APK is replayed against the API
+ * several times. The time spent parsing the XML is reported apart from the time spent looking
+ * up and marking the referenced constructors and methods.
+ * <p/>
+ * Usage: {@code java -cp cts-api-coverage.jar com.android.cts.apicoverage.ApiCoverageBenchmark
+ * API_XML DEXDEPS_XML...}
+ */
+public class ApiCoverageBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ApiCoverageBenchmark API_XML DEXDEPS_XML...");
+            System.exit(1);
+        }
+        List<byte[]> dexDeps = new ArrayList<byte[]>();
+        for (int i = 1; i < args.length; i++) {
+            dexDeps.add(readFile(new File(args[i])));
+        }
+
+        long parseNanos = Long.MAX_VALUE;
+        long markNanos = Long.MAX_VALUE;
+        int references = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            // A fresh API each time, so each iteration marks coverage from scratch
+            ApiCoverage apiCoverage = loadApi(new File(args[0]));
+            apiCoverage.resolveSuperClasses();
+
+            long start = System.nanoTime();
+            List<ApiReferences> apkReferences = new ArrayList<ApiReferences>();
+            for (int j = 0; j < dexDeps.size(); j++) {
+                ApiReferences apiReferences = new ApiReferences(args[j + 1]);
+                parse(dexDeps.get(j), new DexDepsXmlHandler(apiReferences));
+                apkReferences.add(apiReferences);
+            }
+            parseNanos = Math.min(parseNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            references = 0;
+            for (ApiReferences apiReferences : apkReferences) {
+                apiCoverage.markCovered(apiReferences);
+                references += apiReferences.size();
+            }
+            markNanos = Math.min(markNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%d dexdeps files, %d references, best of %d iterations%n",
+                dexDeps.size(), references, ITERATIONS);
+        System.out.printf("parsing:          %d ms%n", parseNanos / 1000000);
+        System.out.printf("marking coverage: %d ms%n", markNanos / 1000000);
+    }
+
+    private static ApiCoverage loadApi(File apiXml) throws SAXException, IOException {
+        XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+        CurrentXmlHandler currentXmlHandler = new CurrentXmlHandler();
+        xmlReader.setContentHandler(currentXmlHandler);
+        try (FileReader fileReader = new FileReader(apiXml)) {
+            xmlReader.parse(new InputSource(fileReader));
+        }
+        return currentXmlHandler.getApi();
+    }
+
+    private static void parse(byte[] xml, DefaultHandler handler)
+            throws SAXException, IOException {
+        XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+        xmlReader.setContentHandler(handler);
+        xmlReader.parse(new InputSource(new ByteArrayInputStream(xml)));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < content.length
+                    && (read = in.read(content, offset, content.length - offset)) != -1) {
+                offset += read;
+            }
+        }
+        return content;
+    }
+}
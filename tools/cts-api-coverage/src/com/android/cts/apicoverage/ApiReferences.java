@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The constructors and methods referenced by a single test APK.
+ * <p/>
+ * References are collected without touching the {@link ApiCoverage}, so that several APKs can
+ * be scanned at the same time, and are then added to it with
+ * {@link ApiCoverage#markCovered(ApiReferences)}.
+ */
+class ApiReferences {
+
+    /** A reference to a constructor, which has no name, or to a method. */
+    private static class Reference {
+        final String mPackageName;
+        final String mClassName;
+        final String mMethodName;
+        final List<String> mParameterTypes;
+        final String mReturnType;
+
+        Reference(String packageName, String className, String methodName,
+                List<String> parameterTypes, String returnType) {
+            mPackageName = packageName;
+            mClassName = className;
+            mMethodName = methodName;
+            mParameterTypes = parameterTypes;
+            mReturnType = returnType;
+        }
+    }
+
+    private final String mTestApkName;
+
+    private final List<Reference> mReferences = new ArrayList<Reference>();
+
+    /**
+     * @param testApkName The name of the APK the references were found in
+     */
+    ApiReferences(String testApkName) {
+        mTestApkName = testApkName;
+    }
+
+    public String getTestApkName() {
+        return mTestApkName;
+    }
+
+    public int size() {
+        return mReferences.size();
+    }
+
+    public void addConstructor(String packageName, String className,
+            List<String> parameterTypes) {
+        mReferences.add(new Reference(packageName, className, null,
+                new ArrayList<String>(parameterTypes), null));
+    }
+
+    public void addMethod(String packageName, String className, String methodName,
+            List<String> parameterTypes, String returnType) {
+        mReferences.add(new Reference(packageName, className, methodName,
+                new ArrayList<String>(parameterTypes), returnType));
+    }
+
+    /** Marks every referenced constructor and method found in the API as covered. */
+    void markCovered(ApiCoverage apiCoverage) {
+        for (Reference reference : mReferences) {
+            ApiPackage apiPackage = apiCoverage.getPackage(reference.mPackageName);
+            if (apiPackage == null) {
+                continue;
+            }
+            ApiClass apiClass = apiPackage.getClass(reference.mClassName);
+            if (apiClass == null) {
+                continue;
+            }
+            if (reference.mMethodName == null) {
+                apiClass.markConstructorCovered(reference.mParameterTypes, mTestApkName);
+            } else {
+                apiClass.markMethodCovered(reference.mMethodName, reference.mParameterTypes,
+                        reference.mReturnType, mTestApkName);
+            }
+        }
+    }
+}
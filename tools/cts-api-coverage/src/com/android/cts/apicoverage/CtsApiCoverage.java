@@ -45,6 +45,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.TransformerException;
 
@@ -80,16 +85,18 @@ public class CtsApiCoverage {
         System.out.println("Use the Makefiles rules in CtsTestCoverage.mk to generate the report ");
         System.out.println("rather than executing this directly. If you still want to run this ");
         System.out.println("directly, then this must be used from the $ANDROID_BUILD_TOP ");
-        System.out.println("directory and dexdeps must be built via \"make dexdeps\".");
+        System.out.println("directory.");
         System.out.println();
         System.out.println("Options:");
         System.out.println("  -o FILE                output file or standard out if not given");
         System.out.println("  -f [txt|xml|html]      format of output");
-        System.out.println("  -d PATH                path to dexdeps or expected to be in $PATH");
+        System.out.println("  -d PATH                scan the APKs with dexdeps at PATH instead of");
+        System.out.println("                         reading their dex files directly");
         System.out.println("  -a PATH                path to the API XML file");
         System.out.println("  -p PACKAGENAMEPREFIX   report coverage only for package that start with");
         System.out.println("  -t TITLE               report title");
         System.out.println("  -a API                 the Android API Level");
+        System.out.println("  -j THREADS             number of APKs to scan at the same time");
         System.out.println();
         System.exit(1);
     }
@@ -98,11 +105,12 @@ public class CtsApiCoverage {
         List<File> testApks = new ArrayList<File>();
         File outputFile = null;
         int format = FORMAT_TXT;
-        String dexDeps = "dexDeps";
+        String dexDeps = null;
         String apiXmlPath = "";
         PackageFilter packageFilter = new PackageFilter();
         String reportTitle = "CTS API Coverage";
         int apiLevel = Integer.MAX_VALUE;
+        int threads = Runtime.getRuntime().availableProcessors();
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].startsWith("-")) {
@@ -129,6 +137,8 @@ public class CtsApiCoverage {
                     reportTitle = getExpectedArg(args, ++i);
                 } else if ("-a".equals(args[i])) {
                     apiLevel = Integer.parseInt(getExpectedArg(args, ++i));
+                } else if ("-j".equals(args[i])) {
+                    threads = Math.max(1, Integer.parseInt(getExpectedArg(args, ++i)));
                 } else {
                     printUsage();
                 }
@@ -147,8 +157,10 @@ public class CtsApiCoverage {
          *    in current.xml. The object will have no information about the coverage for each
          *    constructor or method yet.
          *
-         * 2. For each provided APK, scan it using dexdeps, parse the output of dexdeps, and
-         *    call methods on the ApiCoverage object to cumulatively add coverage stats.
+         * 2. For each provided APK, collect the constructors and methods referenced by its dex
+         *    files, or by the output of dexdeps if given, and call methods on the ApiCoverage
+         *    object to cumulatively add coverage stats.
+         *    Several APKs are scanned at the same time, while CDD coverage is collected.
          *
          * 3. Output a report based on the coverage stats in the ApiCoverage object.
          */
@@ -157,9 +169,22 @@ public class CtsApiCoverage {
         CddCoverage cddCoverage = getEmptyCddCoverage();
         // Add superclass information into api coverage.
         apiCoverage.resolveSuperClasses();
-        for (File testApk : testApks) {
-            addApiCoverage(apiCoverage, testApk, dexDeps);
-            addCddCoverage(cddCoverage, testApk, apiLevel);
+        DexReferenceExtractor extractor = new DexReferenceExtractor(Opcodes.forApi(apiLevel));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> scans = new ArrayList<Future<Void>>();
+            for (File testApk : testApks) {
+                scans.add(executor.submit(
+                        new ApiCoverageScan(apiCoverage, testApk, dexDeps, extractor)));
+            }
+            for (File testApk : testApks) {
+                addCddCoverage(cddCoverage, testApk, apiLevel);
+            }
+            for (Future<Void> scan : scans) {
+                waitForScan(scan);
+            }
+        } finally {
+            executor.shutdownNow();
         }
 
         outputCoverageReport(apiCoverage, cddCoverage, testApks, outputFile,
@@ -204,9 +229,55 @@ public class CtsApiCoverage {
         return currentXmlHandler.getApi();
     }
 
+    /** Scans a single APK on a worker thread, with dexdeps if its path is given. */
+    private static class ApiCoverageScan implements Callable<Void> {
+
+        private final ApiCoverage mApiCoverage;
+
+        private final File mTestApk;
+
+        private final String mDexDeps;
+
+        private final DexReferenceExtractor mExtractor;
+
+        ApiCoverageScan(ApiCoverage apiCoverage, File testApk, String dexDeps,
+                DexReferenceExtractor extractor) {
+            mApiCoverage = apiCoverage;
+            mTestApk = testApk;
+            mDexDeps = dexDeps;
+            mExtractor = extractor;
+        }
+
+        @Override
+        public Void call() throws SAXException, IOException {
+            if (mDexDeps != null) {
+                addApiCoverage(mApiCoverage, mTestApk, mDexDeps);
+            } else {
+                addApiCoverage(mApiCoverage, mTestApk, mExtractor);
+            }
+            return null;
+        }
+    }
+
+    /** Waits for an {@link ApiCoverageScan} and rethrows whatever it failed with. */
+    private static void waitForScan(Future<Void> scan) throws Exception {
+        try {
+            scan.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     /**
      * Adds coverage information gleamed from running dexdeps on the APK to the
      * {@link ApiCoverage} object.
+     * <p/>
+     * The output of dexdeps is collected into {@link ApiReferences} first, and only added to
+     * the {@link ApiCoverage} once parsed, so this can run for several APKs at the same time.
      *
      * @param apiCoverage object to which the coverage statistics will be added to
      * @param testApk containing the tests that will be scanned by dexdeps
@@ -214,8 +285,8 @@ public class CtsApiCoverage {
     private static void addApiCoverage(ApiCoverage apiCoverage, File testApk, String dexdeps)
             throws SAXException, IOException {
         XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-        String testApkName = testApk.getName();
-        DexDepsXmlHandler dexDepsXmlHandler = new DexDepsXmlHandler(apiCoverage, testApkName);
+        ApiReferences apiReferences = new ApiReferences(testApk.getName());
+        DexDepsXmlHandler dexDepsXmlHandler = new DexDepsXmlHandler(apiReferences);
         xmlReader.setContentHandler(dexDepsXmlHandler);
 
         String apkPath = testApk.getPath();
@@ -227,6 +298,32 @@ public class CtsApiCoverage {
           // where the apk does not contain a classes.dex and therefore parsing won't work.
           System.err.println("warning: dexdeps failed for: " + apkPath);
         }
+        apiCoverage.markCovered(apiReferences);
+    }
+
+    /**
+     * Adds coverage information read directly from the dex files of the APK to the
+     * {@link ApiCoverage} object.
+     *
+     * @param apiCoverage object to which the coverage statistics will be added to
+     * @param testApk containing the tests that will be scanned
+     * @param extractor used to read the references of the dex files
+     */
+    private static void addApiCoverage(ApiCoverage apiCoverage, File testApk,
+            DexReferenceExtractor extractor) {
+        ApiReferences apiReferences = new ApiReferences(testApk.getName());
+        String apkPath = testApk.getPath();
+        try {
+            if (!extractor.addReferences(testApk, apiReferences)) {
+                // Same as dexdeps, an apk without any dex file is not an error.
+                System.err.println("warning: no dex file found in: " + apkPath);
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("warning: unable to read dex files of: " + apkPath);
+            return;
+        }
+        apiCoverage.markCovered(apiReferences);
     }
 
     private static void addCddCoverage(CddCoverage cddCoverage, File testSource, int api)
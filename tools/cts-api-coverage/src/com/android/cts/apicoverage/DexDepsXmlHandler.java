@@ -24,14 +24,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * {@link DefaultHander} that parses the output of dexdeps and adds the coverage information to
- * an {@link ApiCoverage} object.
+ * {@link DefaultHander} that parses the output of dexdeps and collects the referenced
+ * constructors and methods into an {@link ApiReferences} object.
  */
 class DexDepsXmlHandler extends DefaultHandler {
 
-    private final ApiCoverage mPackageMap;
-
-    private final String mTestApkName;
+    private final ApiReferences mReferences;
 
     private String mCurrentPackageName;
 
@@ -43,9 +41,8 @@ class DexDepsXmlHandler extends DefaultHandler {
 
     private List<String> mCurrentParameterTypes = new ArrayList<String>();
 
-    DexDepsXmlHandler(ApiCoverage packageMap, String testApkName) {
-        this.mPackageMap = packageMap;
-        this.mTestApkName = testApkName;
+    DexDepsXmlHandler(ApiReferences references) {
+        this.mReferences = references;
     }
 
     @Override
@@ -72,23 +69,11 @@ class DexDepsXmlHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String name) throws SAXException {
         super.endElement(uri, localName, name);
         if ("constructor".equalsIgnoreCase(localName)) {
-            ApiPackage apiPackage = mPackageMap.getPackage(mCurrentPackageName);
-            if (apiPackage != null) {
-                ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
-                if (apiClass != null) {
-                    apiClass.markConstructorCovered(mCurrentParameterTypes, mTestApkName);
-                }
-            }
+            mReferences.addConstructor(
+                    mCurrentPackageName, mCurrentClassName, mCurrentParameterTypes);
         }  else if ("method".equalsIgnoreCase(localName)) {
-            ApiPackage apiPackage = mPackageMap.getPackage(mCurrentPackageName);
-            if (apiPackage != null) {
-                ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
-                if (apiClass != null) {
-                    apiClass.markMethodCovered(
-                            mCurrentMethodName, mCurrentParameterTypes, mCurrentMethodReturnType,
-                                    mTestApkName);
-                }
-            }
+            mReferences.addMethod(mCurrentPackageName, mCurrentClassName, mCurrentMethodName,
+                    mCurrentParameterTypes, mCurrentMethodReturnType);
         }
     }
 }
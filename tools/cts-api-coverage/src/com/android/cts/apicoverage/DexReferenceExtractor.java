@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.reference.DexBackedMethodReference;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Collects the constructors and methods a test APK references from outside of itself, in the
+ * same form as the output of {@code dexdeps --format=xml}, without running dexdeps.
+ * <p/>
+ * The dex files are read straight out of the APK into memory, and only the method ids are
+ * looked at, so the code of the APK is never parsed.
+ */
+class DexReferenceExtractor {
+
+    // classes.dex, classes2.dex and so on of a multidex APK
+    private static final Pattern DEX_ENTRY_NAME = Pattern.compile("classes\\d*\\.dex");
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    private static final String STATIC_INITIALIZER_NAME = "<clinit>";
+
+    private final Opcodes mOpcodes;
+
+    /**
+     * @param opcodes The {@link Opcodes} of the API level the APKs are built for
+     */
+    DexReferenceExtractor(Opcodes opcodes) {
+        mOpcodes = opcodes;
+    }
+
+    /**
+     * Adds the external constructors and methods referenced by the dex files of an APK.
+     *
+     * @param testApk The APK or jar to read
+     * @param references The {@link ApiReferences} to add to
+     * @return false if the file does not contain any dex file
+     * @throws IOException if the file could not be read or is not a valid dex file
+     */
+    public boolean addReferences(File testApk, ApiReferences references) throws IOException {
+        List<DexBackedDexFile> dexFiles = new ArrayList<DexBackedDexFile>();
+        try (ZipFile zipFile = new ZipFile(testApk)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (DEX_ENTRY_NAME.matcher(entry.getName()).matches()) {
+                    // The dex file header is checked with mark and reset
+                    try (InputStream in =
+                            new BufferedInputStream(zipFile.getInputStream(entry))) {
+                        dexFiles.add(DexBackedDexFile.fromInputStream(mOpcodes, in));
+                    } catch (RuntimeException e) {
+                        throw new IOException("Invalid dex file " + entry.getName(), e);
+                    }
+                }
+            }
+        }
+        if (dexFiles.isEmpty()) {
+            return false;
+        }
+
+        // References between the dex files of a multidex APK are not external either
+        Set<String> definedTypes = new HashSet<String>();
+        for (DexBackedDexFile dexFile : dexFiles) {
+            for (DexBackedClassDef classDef : dexFile.getClasses()) {
+                definedTypes.add(classDef.getType());
+            }
+        }
+        for (DexBackedDexFile dexFile : dexFiles) {
+            addReferences(dexFile, definedTypes, references);
+        }
+        return true;
+    }
+
+    private static void addReferences(DexBackedDexFile dexFile, Set<String> definedTypes,
+            ApiReferences references) {
+        List<String> parameterTypes = new ArrayList<String>();
+        for (int i = 0; i < dexFile.getMethodCount(); i++) {
+            DexBackedMethodReference method =
+                    new DexBackedMethodReference(dexFile, dexFile.getMethodIdItemOffset(i));
+            String definingClass = method.getDefiningClass();
+            // Methods of arrays, such as clone(), are not part of any API class
+            if (definedTypes.contains(definingClass) || !definingClass.startsWith("L")) {
+                continue;
+            }
+            String name = method.getName();
+            if (STATIC_INITIALIZER_NAME.equals(name)) {
+                continue;
+            }
+            String packageName = getPackageName(definingClass);
+            String className = getClassName(definingClass);
+            parameterTypes.clear();
+            for (CharSequence parameterType : method.getParameterTypes()) {
+                parameterTypes.add(toJavaType(parameterType.toString()));
+            }
+            if (CONSTRUCTOR_NAME.equals(name)) {
+                references.addConstructor(packageName, className, parameterTypes);
+            } else {
+                references.addMethod(packageName, className, name, parameterTypes,
+                        toJavaType(method.getReturnType()));
+            }
+        }
+    }
+
+    /**
+     * Given a class descriptor like Landroid/app/Notification$Builder;
+     * return android.app.
+     */
+    static String getPackageName(String descriptor) {
+        int end = descriptor.lastIndexOf('/');
+        return end < 0 ? "" : descriptor.substring(1, end).replace('/', '.');
+    }
+
+    /**
+     * Given a class descriptor like Landroid/app/Notification$Builder;
+     * return Notification.Builder.
+     */
+    static String getClassName(String descriptor) {
+        int start = descriptor.lastIndexOf('/') + 1;
+        if (start == 0) {
+            start = 1;
+        }
+        return descriptor.substring(start, descriptor.length() - 1).replace('$', '.');
+    }
+
+    /**
+     * Given a type descriptor like [Ljava/lang/String; or I
+     * return java.lang.String[] or int.
+     */
+    static String toJavaType(String descriptor) {
+        int dimensions = 0;
+        while (descriptor.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String type;
+        char first = descriptor.charAt(dimensions);
+        switch (first) {
+            case 'V': type = "void"; break;
+            case 'Z': type = "boolean"; break;
+            case 'B': type = "byte"; break;
+            case 'S': type = "short"; break;
+            case 'C': type = "char"; break;
+            case 'I': type = "int"; break;
+            case 'J': type = "long"; break;
+            case 'F': type = "float"; break;
+            case 'D': type = "double"; break;
+            default:
+                type = descriptor.substring(dimensions + 1, descriptor.length() - 1)
+                        .replace('/', '.').replace('$', '.');
+                break;
+        }
+        StringBuilder javaType = new StringBuilder(type);
+        for (int i = 0; i < dimensions; i++) {
+            javaType.append("[]");
+        }
+        return javaType.toString();
+    }
+}
@@ -45,20 +45,31 @@ import com.android.dx.dex.code.form.Form3rc;
 import com.android.dx.dex.code.form.Form51l;
 import com.android.dx.io.Opcodes;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 
 /**
  * Holds information about Dalvik opcodes and its parameters.
+ * <p>
+ * Instances are immutable, and the table of all opcodes is not modified once
+ * the class is initialized, so it is shared by all assemblers, including those
+ * running concurrently, without locking.
  */
 class DopInfo {
 
     // maps instruction name -> DopInfo object
-    static Hashtable<String, DopInfo> dopsTable;
+    private static final HashMap<String, DopInfo> dopsTable =
+            new HashMap<String, DopInfo>();
 
     // information maintained about each instruction:
-    public String name; // opcode name
-    public Dop opcode; // its opcode
-    public String args; // the argument code
+    public final String name; // opcode name
+    public final Dop opcode; // its opcode
+    public final String args; // the argument code
+
+    private DopInfo(String name, Dop opcode, String args) {
+        this.name = name;
+        this.opcode = opcode;
+        this.args = args;
+    }
 
     public final static String ARG_REGISTER = "R";
     public final static String ARG_TYPE = "T";
@@ -102,7 +113,7 @@ class DopInfo {
             + ARG_INTFMETHOD;
 
     public static DopInfo get(String name) {
-        return (DopInfo) dopsTable.get(name);
+        return dopsTable.get(name);
     }
 
     public static boolean contains(String name) {
@@ -113,11 +124,7 @@ class DopInfo {
      * Adds new opcode to table
      */
     static private void add(String name, Dop opcode, String args) {
-        DopInfo info = new DopInfo();
-        info.name = name;
-        info.opcode = opcode;
-        info.args = args;
-        dopsTable.put(name, info);
+        dopsTable.put(name, new DopInfo(name, opcode, args));
     }
 
     static private String getArgsFormat(Dop dop) {
@@ -226,8 +233,6 @@ class DopInfo {
      * dopsTable initialization
      */
     static {
-        dopsTable = new Hashtable<String, DopInfo>();
-
         for (int i = 0; i < Opcodes.MAX_VALUE - Opcodes.MIN_VALUE + 1; i++) {
             try {
                 Dop dop = Dops.get(i);
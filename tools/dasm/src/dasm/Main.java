@@ -25,6 +25,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * DAsm entry point
@@ -57,6 +65,16 @@ public class Main {
      */
     private static boolean generateLineNumbers = false;
 
+    /**
+     * number of files assembled concurrently
+     */
+    private static int threads = 1;
+
+    /**
+     * print how long each file took to assemble
+     */
+    private static boolean printTimes = false;
+
     private static void incompleteOption(String opt) {
         System.err.println("Command line option " + opt
                 + " required argument missed");
@@ -78,8 +96,10 @@ public class Main {
      * 
      * @param fname
      *            is the name of the file containing the DAsm source code.
+     * @return true if the file was assembled, false if it failed and an
+     *         error was printed
      */
-    public static void assemble(String fname) {
+    public static boolean assemble(String fname) {
         DAsm dAsm = new DAsm();
 
         // read and parse .d file
@@ -91,11 +111,12 @@ public class Main {
         } catch (DasmError e) {
             if (DEBUG) e.printStackTrace();
             System.err.println("DASM Error: " + e.getMessage());
+            return false;
         } catch (Exception e) {
             if (DEBUG) e.printStackTrace();
             System.err.println("Exception <" + e.getClass().getName() + ">"
                     + e.getMessage() + " while reading and parsing " + fname);
-            return;
+            return false;
 
         } finally {
             close(inp);
@@ -104,7 +125,7 @@ public class Main {
         if (dAsm.errorCount() > 0) {
             System.err.println("Found " + dAsm.errorCount() + " errors "
                     + " while reading and parsing " + fname);
-            return;
+            return false;
         }
 
         String class_path[] = Utils
@@ -141,7 +162,7 @@ public class Main {
 
             if (!dest.isDirectory()) {
                 System.err.println("Cannot create directory " + dest_dir);
-                return;
+                return false;
             }
         }
 
@@ -164,13 +185,120 @@ public class Main {
             hr_file.delete();
             out_file.delete();
 
-            return;
+            return false;
         } finally {
             close(hr_outp);
             close(outp);
         }
 
         System.out.println("Generated: " + out_file.getPath());
+        return true;
+    }
+
+    /**
+     * Assembles the given files on {@link #threads} threads, with one DAsm
+     * instance and parser per file. The opcode and reserved word tables are
+     * shared, as they are not modified once initialized.
+     *
+     * @param fnames
+     *            are the names of the files containing the DAsm source code.
+     * @return true if all files were assembled
+     */
+    private static boolean assembleAll(List<String> fnames) {
+        long start = System.nanoTime();
+        long times[] = new long[fnames.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+            for (final String fname : fnames) {
+                tasks.add(new Callable<Long>() {
+                    public Long call() {
+                        long fileStart = System.nanoTime();
+                        if (!assemble(fname)) {
+                            return -1L;
+                        }
+                        return System.nanoTime() - fileStart;
+                    }
+                });
+            }
+            List<Future<Long>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < times.length; i++) {
+                try {
+                    times[i] = results.get(i).get();
+                } catch (ExecutionException e) {
+                    if (DEBUG) e.getCause().printStackTrace();
+                    System.err.println("Exception <"
+                            + e.getCause().getClass().getName() + ">"
+                            + e.getCause().getMessage() + " while assembling "
+                            + fnames.get(i));
+                    times[i] = -1;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (printTimes) {
+            printTimes(fnames, times, System.nanoTime() - start);
+        }
+
+        for (long time : times) {
+            if (time < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prints the time each file took to assemble, and the number of bytes
+     * of DAsm source code assembled per second.
+     */
+    private static void printTimes(List<String> fnames, long times[],
+            long total_time) {
+        long total_bytes = 0;
+        for (int i = 0; i < times.length; i++) {
+            long bytes = new File(fnames.get(i)).length();
+            total_bytes += bytes;
+            if (times[i] < 0) {
+                System.out.println("Failed: " + fnames.get(i));
+            } else {
+                System.out.println("Assembled: " + fnames.get(i) + " "
+                        + formatThroughput(bytes, times[i]));
+            }
+        }
+        System.out.println("Total: " + times.length + " files on " + threads
+                + " threads " + formatThroughput(total_bytes, total_time));
+    }
+
+    private static String formatThroughput(long bytes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format("(%d bytes in %.1f ms, %.1f KB/s)", bytes,
+                seconds * 1000, bytes / 1024.0 / seconds);
+    }
+
+    /**
+     * Adds the .d files in the given directory and its subdirectories, in
+     * the order of their names.
+     */
+    private static void addSourceFiles(File dir, List<String> fnames) {
+        File files[] = dir.listFiles();
+        if (files == null) {
+            System.err.println("Cannot read directory " + dir.getPath());
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addSourceFiles(file, fnames);
+            } else if (file.getName().endsWith(".d")) {
+                fnames.add(file.getPath());
+            }
+        }
     }
 
     private static void close(Closeable c) {
@@ -212,6 +340,13 @@ public class Main {
                     destPath = args[i];
             } else if (args[i].equals("-h")) {
                 humanHeadable = true;
+            } else if (args[i].equals("-t")) {
+                printTimes = true;
+            } else if (args[i].equals("-j")) {
+                if (++i >= args.length)
+                    incompleteOption("-j");
+                else
+                    threads = parseThreads(args[i]);
             } else if (args[i].equals("-e")) {
                 if (++i >= args.length)
                     incompleteOption("-e");
@@ -222,20 +357,45 @@ public class Main {
             }
         }
 
+        List<String> fnames = new ArrayList<String>();
         for (i = 0; i < num_files; i++) {
-            assemble(files[i]);
+            File file = new File(files[i]);
+            if (file.isDirectory()) {
+                addSourceFiles(file, fnames);
+            } else {
+                fnames.add(files[i]);
+            }
+        }
+        if (!assembleAll(fnames)) {
+            System.exit(1);
+        }
+    }
+
+    private static int parseThreads(String arg) {
+        int n = 0;
+        try {
+            n = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+        }
+        if (n < 1) {
+            System.err.println("Command line option -j requires a positive"
+                    + " number of threads: " + arg);
+            System.exit(-1);
         }
+        return n;
     }
 
     static void printUsage() {
         System.err
-                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>] <file>"
-                        + "[<file> ...]\n\n"
+                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>] "
+                        + "[-j <threads>] [-t] <file>[<file> ...]\n\n"
                         + "  -g - autogenerate linenumbers\n"
                         + "  -e - codepage for inputfile encoding\n"
                         + "  -d - path for generated classfiles\n"
                         + "  -h - generate human-readable output\n"
-                        + "  file  - sourcefile\n"
+                        + "  -j - number of files to assemble concurrently\n"
+                        + "  -t - print the time and throughput of each file\n"
+                        + "  file  - sourcefile, or directory of .d files\n"
                         + "or: dasm -version\n"
                         + "or: dasm -help");
     }
@@ -16,15 +16,26 @@
 
 package dasm;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 
 import java_cup.runtime.token;
 
+/**
+ * The table of reserved words. It is not modified once the class is
+ * initialized, so it is shared by all scanners, including those running
+ * concurrently, without locking.
+ */
 class ReservedWords {
-    static Hashtable<String, token> reserved_words;
+    private static final HashMap<String, token> reserved_words =
+            new HashMap<String, token>();
 
+    /**
+     * Returns a new token for a reserved word, as the parser stores its state
+     * in the tokens it is given.
+     */
     public static token get(String name) {
-        return (token) reserved_words.get(name);
+        token t = reserved_words.get(name);
+        return t == null ? null : new token(t.sym);
     }
 
     public static boolean contains(String name) {
@@ -32,8 +43,6 @@ class ReservedWords {
     }
 
     static {
-        reserved_words = new Hashtable<String, token>();
-
         // Dasm directives
         reserved_words.put(".annotation", new token(sym.DANNOTATION));
         reserved_words.put(".attribute", new token(sym.DATTRIBUTE));
@@ -28,7 +28,7 @@ import java.util.List;
     private int offset;
     private DexBuffer buffer;
     private int[] typeIds;
-    private String[] stringPool;
+    private DexStringPool stringPool;
     private Visibility visibility;
     private DexEncodedAnnotationImpl encodedAnnotation;
 
@@ -36,7 +36,7 @@ import java.util.List;
     private final FieldIdItem[] fieldIdItems;
 
     public DexAnnotationImpl(DexBuffer buffer, int offset, int[] typeIds,
-            String[] stringPool, FieldIdItem[] fieldIdItems) {
+            DexStringPool stringPool, FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.offset = offset;
         this.typeIds = typeIds;
@@ -16,33 +16,27 @@
 
 package dex.reader;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public final class DexBuffer {
 
     private ByteBuffer b;
 
+    /**
+     * Maps the given file into memory. Pages are only read when they are
+     * accessed, and the mapping stays valid after the file is closed.
+     */
     public DexBuffer(String fileName) throws IOException {
-
-        // FIXME channel? allocate fix size?
         FileInputStream fis = null;
         try {
             fis = new FileInputStream(fileName);
-
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buf = new byte[1024];
-            int len;
-            while ((len = bis.read(buf)) > 0) {
-                bos.write(buf, 0, len);
-            }
-            byte[] bytes = bos.toByteArray();
-            initialize(ByteBuffer.wrap(bytes));
+            FileChannel channel = fis.getChannel();
+            initialize(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
         } finally {
             if (fis != null) {
                 fis.close();
@@ -68,6 +62,22 @@ public final class DexBuffer {
         b.position(offset);
     }
 
+    /**
+     * Returns the int at the given offset without moving the position, so it
+     * can be called on a shared buffer.
+     */
+    public int getUInt(int offset) {
+        return b.getInt(offset);
+    }
+
+    /**
+     * Returns the byte at the given offset without moving the position, so it
+     * can be called on a shared buffer.
+     */
+    public byte getUByte(int offset) {
+        return b.get(offset);
+    }
+
     public void readBytes(byte[] dst) {
         b.get(dst, 0, dst.length);
     }
@@ -24,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import dex.reader.DexFileReader.ClassDefItem;
 import dex.reader.DexFileReader.FieldIdItem;
@@ -42,15 +43,18 @@ import dex.structure.DexMethod;
     // allready parsed
     private final ClassDefItem classDefItem;
     private final int[] typeIds;
-    private final String[] stringPool;
+    private final DexStringPool stringPool;
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
 
-    //
-    private List<DexField> fields;
-    private List<DexMethod> methods;
-    private List<String> interfaces;
+    // decoded on first access, without locking
+    private final AtomicReference<List<DexField>> fields =
+            new AtomicReference<List<DexField>>();
+    private final AtomicReference<List<DexMethod>> methods =
+            new AtomicReference<List<DexMethod>>();
+    private final AtomicReference<List<String>> interfaces =
+            new AtomicReference<List<String>>();
     private ClassDataItem classDataItem;
     private AnnotationsDirectoryItem annotationDir;
     private Map<Integer, FieldAnnotation> idToFieldAnnotation =
@@ -67,7 +71,7 @@ import dex.structure.DexMethod;
 
 
     public DexClassImpl(DexBuffer buffer, ClassDefItem classDefItem,
-            String[] stringPool, int[] typeIds, ProtIdItem[] protoIdItems,
+            DexStringPool stringPool, int[] typeIds, ProtIdItem[] protoIdItems,
             FieldIdItem[] fieldIdItems, MethodsIdItem[] methodIdItems) {
         this.buffer = buffer;
         this.classDefItem = classDefItem;
@@ -245,15 +249,20 @@ import dex.structure.DexMethod;
         }
     }
 
-    public synchronized List<DexField> getFields() {
-        if (fields == null) {
-            fields = new ArrayList<DexField>();
+    public List<DexField> getFields() {
+        List<DexField> dexFields = fields.get();
+        if (dexFields == null) {
+            dexFields = new ArrayList<DexField>();
             if (hasClassData) {
-                fields.addAll(getDexFields(classDataItem.staticFields));
-                fields.addAll(getDexFields(classDataItem.instanceFields));
+                dexFields.addAll(getDexFields(classDataItem.staticFields));
+                dexFields.addAll(getDexFields(classDataItem.instanceFields));
+            }
+            // another thread may have decoded them at the same time
+            if (!fields.compareAndSet(null, dexFields)) {
+                dexFields = fields.get();
             }
         }
-        return fields;
+        return dexFields;
     }
 
     private List<DexField> getDexFields(EncodedField[] fields) {
@@ -273,18 +282,27 @@ import dex.structure.DexMethod;
         return dexFields;
     }
 
-    public synchronized List<DexMethod> getMethods() {
-        if (methods == null) {
-            methods = new ArrayList<DexMethod>();
+    public List<DexMethod> getMethods() {
+        List<DexMethod> dexMethods = methods.get();
+        if (dexMethods == null) {
+            dexMethods = new ArrayList<DexMethod>();
             if (hasClassData) {
-                methods.addAll(getDexMethods(classDataItem.directMethods));
-                methods.addAll(getDexMethods(classDataItem.virtualMethods));
+                // the methods read their annotations from this copy
+                DexBuffer methodBuffer = buffer.createCopy();
+                dexMethods.addAll(getDexMethods(methodBuffer,
+                        classDataItem.directMethods));
+                dexMethods.addAll(getDexMethods(methodBuffer,
+                        classDataItem.virtualMethods));
+            }
+            if (!methods.compareAndSet(null, dexMethods)) {
+                dexMethods = methods.get();
             }
         }
-        return methods;
+        return dexMethods;
     }
 
-    private List<DexMethod> getDexMethods(EncodedMethod[] methods) {
+    private List<DexMethod> getDexMethods(DexBuffer methodBuffer,
+            EncodedMethod[] methods) {
         List<DexMethod> dexMethods = new ArrayList<DexMethod>(methods.length);
         if (methods.length != 0) {
             int methodIdIdx = 0;
@@ -293,7 +311,7 @@ import dex.structure.DexMethod;
                 method = methods[i];
                 methodIdIdx = (i == 0) ? method.method_idx_diff : methodIdIdx
                         + method.method_idx_diff;
-                dexMethods.add(new DexMethodImpl(buffer, this,
+                dexMethods.add(new DexMethodImpl(methodBuffer, this,
                         methodIdItems[methodIdIdx],
                         protoIdItems[methodIdItems[methodIdIdx].proto_idx],
                         method.access_flags, idToMethodAnnotation
@@ -307,24 +325,30 @@ import dex.structure.DexMethod;
 
 
 
-    public synchronized List<String> getInterfaces() {
-        if (interfaces == null) {
-            interfaces = new LinkedList<String>();
+    public List<String> getInterfaces() {
+        List<String> interfaceNames = interfaces.get();
+        if (interfaceNames == null) {
+            interfaceNames = new LinkedList<String>();
             if (classDefItem.interfaces_off != 0) {
-                buffer.setPosition(classDefItem.interfaces_off);
-                int size = buffer.readUInt();
+                DexBuffer interfaceBuffer = buffer.createCopy();
+                interfaceBuffer.setPosition(classDefItem.interfaces_off);
+                int size = interfaceBuffer.readUInt();
                 for (int i = 0; i < size; i++) {
-                    interfaces.add(stringPool[typeIds[buffer.readUShort()]]);
+                    interfaceNames.add(stringPool.get(
+                            typeIds[interfaceBuffer.readUShort()]));
                 }
             }
+            if (!interfaces.compareAndSet(null, interfaceNames)) {
+                interfaceNames = interfaces.get();
+            }
         }
-        return interfaces;
+        return interfaceNames;
     }
 
     // returns null if no super class is present
     public String getSuperClass() {
         return classDefItem.superclass_idx == NO_INDEX ? null
-                : stringPool[typeIds[classDefItem.superclass_idx]];
+                : stringPool.get(typeIds[classDefItem.superclass_idx]);
     }
 
     public Set<DexAnnotation> getAnnotations() {
@@ -332,7 +356,7 @@ import dex.structure.DexMethod;
     }
 
     public String getName() {
-        return stringPool[typeIds[classDefItem.class_idx]];
+        return stringPool.get(typeIds[classDefItem.class_idx]);
     }
 
     public int getModifiers() {
@@ -29,7 +29,7 @@ import java.util.Set;
 /* package */final class DexFieldImpl implements DexField {
 
     private DexBuffer buffer;
-    private String[] stringPool;
+    private DexStringPool stringPool;
     private FieldIdItem fieldIdItem;
     private int[] typeIds;
     private final int accessFlags;
@@ -41,7 +41,7 @@ import java.util.Set;
 
     public DexFieldImpl(DexBuffer buffer, DexClass declaringClass,
             FieldIdItem fieldIdItem, int accessFlags,
-            FieldAnnotation fieldAnnotation, String[] stringPool,
+            FieldAnnotation fieldAnnotation, DexStringPool stringPool,
             int[] typeIds, FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.declaringClass = declaringClass;
@@ -67,18 +67,18 @@ import java.util.Set;
     }
 
     public String getName() {
-        return stringPool[fieldIdItem.name_idx];
+        return stringPool.get(fieldIdItem.name_idx);
     }
 
     public String getType() {
-        return stringPool[typeIds[fieldIdItem.type_idx]];
+        return stringPool.get(typeIds[fieldIdItem.type_idx]);
     }
 
     public int getModifiers() {
         return accessFlags;
     }
 
-    public synchronized Set<DexAnnotation> getAnnotations() {
+    public Set<DexAnnotation> getAnnotations() {
         return annotations;
     }
 
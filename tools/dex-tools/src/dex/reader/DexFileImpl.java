@@ -21,15 +21,20 @@ import dex.reader.DexFileReader.FieldIdItem;
 import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
+import dex.structure.DexClassVisitor;
 import dex.structure.DexFile;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /* package */final class DexFileImpl implements DexFile {
 
-    private final String[] stringPool;
+    private final DexStringPool stringPool;
     private final int[] typeIds;
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
@@ -37,10 +42,15 @@ import java.util.List;
     private ClassDefItem[] classDefItems;
     private final DexBuffer buffer;
 
-    private List<DexClass> classes = null;
+    // classes are created the first time they are accessed
+    private final AtomicReferenceArray<DexClass> classes;
+    private final List<DexClass> definedClasses = new DefinedClasses();
 
-    public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
-            ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
+    // number of classes visited by a single forEachClass task
+    private static final int CLASSES_PER_TASK = 16;
+
+    public DexFileImpl(DexBuffer buffer, DexStringPool stringPool,
+            int[] typeIds, ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
             MethodsIdItem[] methodIdItems, ClassDefItem[] classDefItems) {
         this.buffer = buffer;
         this.stringPool = stringPool;
@@ -49,6 +59,8 @@ import java.util.List;
         this.fieldIdItems = fieldIdItems;
         this.methodIdItems = methodIdItems;
         this.classDefItems = classDefItems;
+        this.classes = new AtomicReferenceArray<DexClass>(
+                classDefItems.length);
     }
 
     /*
@@ -56,25 +68,87 @@ import java.util.List;
      * 
      * @see dex.reader.DexFile#getDefinedClasses()
      */
-    public synchronized List<DexClass> getDefinedClasses() {
-        if (classes == null) {
-            classes = new ArrayList<DexClass>(classDefItems.length);
-            for (int i = 0; i < classDefItems.length; i++) {
-                classes.add(new DexClassImpl(buffer.createCopy(),
-                        classDefItems[i], stringPool, typeIds, protoIdItems,
-                        fieldIdItems, methodIdItems));
+    public List<DexClass> getDefinedClasses() {
+        return definedClasses;
+    }
+
+    public void forEachClass(DexClassVisitor visitor) {
+        ForkJoinPool.commonPool().invoke(
+                new VisitClasses(visitor, 0, classDefItems.length));
+    }
+
+    /**
+     * Returns the class with the given index, creating it if this is the
+     * first access. Threads creating the same class at the same time all get
+     * the instance which was stored first.
+     */
+    private DexClass getDefinedClass(int index) {
+        DexClass dexClass = classes.get(index);
+        if (dexClass == null) {
+            dexClass = new DexClassImpl(buffer.createCopy(),
+                    classDefItems[index], stringPool, typeIds, protoIdItems,
+                    fieldIdItems, methodIdItems);
+            if (!classes.compareAndSet(index, null, dexClass)) {
+                dexClass = classes.get(index);
+            }
+        }
+        return dexClass;
+    }
+
+    /**
+     * Unmodifiable view of the classes, which creates them on access.
+     */
+    private final class DefinedClasses extends AbstractList<DexClass>
+            implements RandomAccess {
+
+        @Override
+        public DexClass get(int index) {
+            return getDefinedClass(index);
+        }
+
+        @Override
+        public int size() {
+            return classDefItems.length;
+        }
+    }
+
+    /**
+     * Visits a range of classes, splitting it in halves until it is small.
+     */
+    private final class VisitClasses extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final DexClassVisitor visitor;
+        private final int start;
+        private final int end;
+
+        VisitClasses(DexClassVisitor visitor, int start, int end) {
+            this.visitor = visitor;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CLASSES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    visitor.visit(getDefinedClass(i));
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new VisitClasses(visitor, start, middle),
+                        new VisitClasses(visitor, middle, end));
             }
         }
-        return classes;
     }
 
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
-        b.append("StringPool:\n").append(Arrays.toString(stringPool));
+        b.append("StringPool:\n").append(stringPool);
         b.append("\nTypes:\n");
         for (int i = 0; i < typeIds.length; i++) {
-            b.append(stringPool[typeIds[i]] + "\n");
+            b.append(stringPool.get(typeIds[i]) + "\n");
         }
         b.append("\nProtos:\n").append(Arrays.toString(protoIdItems));
         b.append("\nFields:\n").append(Arrays.toString(fieldIdItems));
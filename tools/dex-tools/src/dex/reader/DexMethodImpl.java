@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import dex.reader.DexClassImpl.MethodAnnotation;
 import dex.reader.DexClassImpl.ParameterAnnotation;
@@ -38,10 +39,12 @@ import dex.structure.DexParameter;
 
     private DexBuffer buffer;
     private MethodsIdItem methodsIdItem;
-    private String[] stringPool;
+    private DexStringPool stringPool;
     private int[] typeIds;
     private ProtIdItem protoIdItem;
-    private List<DexParameter> parameters;
+    // decoded on first access, without locking
+    private final AtomicReference<List<DexParameter>> parameters =
+            new AtomicReference<List<DexParameter>>();
     private final int accessFlags;
     private final MethodAnnotation methodAnnotation;
     private Set<DexAnnotation> annotations;
@@ -54,7 +57,7 @@ import dex.structure.DexParameter;
     public DexMethodImpl(DexBuffer buffer, DexClass declaringClass,
             MethodsIdItem methodsIdItem, ProtIdItem protoIdItem,
             int accessFlags, MethodAnnotation methodAnnotation,
-            ParameterAnnotation parameterAnnotation, String[] stringPool,
+            ParameterAnnotation parameterAnnotation, DexStringPool stringPool,
             int[] typeIds, FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.declaringClass = declaringClass;
@@ -94,34 +97,40 @@ import dex.structure.DexParameter;
     }
 
     public String getName() {
-        return stringPool[methodsIdItem.name_idx];
+        return stringPool.get(methodsIdItem.name_idx);
     }
 
     public String getReturnType() {
-        return stringPool[typeIds[protoIdItem.return_type_idx]];
+        return stringPool.get(typeIds[protoIdItem.return_type_idx]);
     }
 
-    public synchronized List<DexParameter> getParameters() {
-        if (parameters == null) {
-            parameters = new LinkedList<DexParameter>();
+    public List<DexParameter> getParameters() {
+        List<DexParameter> dexParameters = parameters.get();
+        if (dexParameters == null) {
+            dexParameters = new LinkedList<DexParameter>();
             if (protoIdItem.parameter_off != 0) {
-
-                buffer.setPosition(protoIdItem.parameter_off);
-                int size = buffer.readUInt();
+                // the buffer is shared with the other methods of the class
+                DexBuffer parameterBuffer = buffer.createCopy();
+                parameterBuffer.setPosition(protoIdItem.parameter_off);
+                int size = parameterBuffer.readUInt();
 
                 int[] paramTypeIdx = new int[size];
                 for (int i = 0; i < size; i++) {
-                    paramTypeIdx[i] = buffer.readUShort();
+                    paramTypeIdx[i] = parameterBuffer.readUShort();
                 }
                 for (int i = 0; i < paramTypeIdx.length; i++) {
-                    parameters.add(new DexParameterImpl(buffer.createCopy(),
-                            stringPool[typeIds[paramTypeIdx[i]]],
+                    dexParameters.add(new DexParameterImpl(
+                            parameterBuffer.createCopy(),
+                            stringPool.get(typeIds[paramTypeIdx[i]]),
                             parameterIdToIndex.get(i), typeIds, stringPool,
                             fieldIdItems));
                 }
             }
+            if (!parameters.compareAndSet(null, dexParameters)) {
+                dexParameters = parameters.get();
+            }
         }
-        return parameters;
+        return dexParameters;
     }
 
     public int getModifiers() {
@@ -30,11 +30,11 @@ public class DexParameterImpl implements DexParameter {
     private Set<DexAnnotation> annotations;
     private final DexBuffer buffer;
     private final int[] typeIds;
-    private final String[] stringPool;
+    private final DexStringPool stringPool;
     private final FieldIdItem[] fieldIdItems;
 
     public DexParameterImpl(DexBuffer buffer, String typeName,
-            Integer annotationOffset, int[] typeIds, String[] stringPool,
+            Integer annotationOffset, int[] typeIds, DexStringPool stringPool,
             FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.typeName = typeName;
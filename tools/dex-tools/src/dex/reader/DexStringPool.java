@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+/**
+ * The string pool of a dex file. Strings are decoded from their MUTF-8
+ * encoding the first time they are requested, so strings which are never used
+ * are never decoded.
+ * <p>
+ * Decoded strings are cached without locking. Two threads asking for the same
+ * string at the same time may both decode it, which is harmless as strings are
+ * immutable.
+ */
+/* package */final class DexStringPool {
+
+    private final DexBuffer buffer;
+    private final int stringIdsOffset;
+    private final String[] strings;
+
+    /**
+     * @param buffer the dex file, which is only read at absolute positions
+     * @param stringIdsOffset the offset of the string_ids section
+     * @param size the number of strings
+     */
+    public DexStringPool(DexBuffer buffer, int stringIdsOffset, int size) {
+        this.buffer = buffer;
+        this.stringIdsOffset = stringIdsOffset;
+        this.strings = new String[size];
+    }
+
+    public int size() {
+        return strings.length;
+    }
+
+    public String get(int index) {
+        String string = strings[index];
+        if (string == null) {
+            string = decode(buffer.getUInt(stringIdsOffset + index * 4));
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    // string_data_item: uleb128 utf16_size, then MUTF-8 bytes ending with 0
+    private String decode(int offset) {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.getUByte(offset++) & 0xFF;
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        // Surrogate pairs are encoded as two 3 byte sequences, so every
+        // sequence decodes to exactly one UTF-16 char.
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int a = buffer.getUByte(offset++) & 0xFF;
+            if (a < 0x80) {
+                chars[i] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                int b1 = buffer.getUByte(offset++) & 0x3F;
+                chars[i] = (char) (((a & 0x1F) << 6) | b1);
+            } else if ((a & 0xF0) == 0xE0) {
+                int b1 = buffer.getUByte(offset++) & 0x3F;
+                int b2 = buffer.getUByte(offset++) & 0x3F;
+                chars[i] = (char) (((a & 0x0F) << 12) | (b1 << 6) | b2);
+            } else {
+                throw new IllegalStateException("Bad MUTF-8 byte 0x"
+                        + Integer.toHexString(a) + " at offset " + (offset - 1));
+            }
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(get(i));
+        }
+        return b.append("]").toString();
+    }
+}
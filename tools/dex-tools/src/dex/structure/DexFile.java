@@ -33,4 +33,15 @@ public interface DexFile extends NamedElement {
      */
     public List<DexClass> getDefinedClasses();
 
+    /**
+     * Calls the visitor for every class that is part of this {@code DexFile}.
+     * The classes are split between the threads of the common fork-join
+     * pool, which decode them, so the visitor must be thread safe. Returns
+     * when all classes have been visited.
+     * 
+     * @param visitor
+     *            the visitor to call for each class
+     */
+    public void forEachClass(DexClassVisitor visitor);
+
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+import dex.structure.DexClass;
+import dex.structure.DexClassVisitor;
+import dex.structure.DexField;
+import dex.structure.DexFile;
+import dex.structure.DexMethod;
+import dex.structure.DexParameter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures walking every field, method and parameter of dex files, one class
+ * after the other and with {@link DexFile#forEachClass(DexClassVisitor)}.
+ * <p>
+ * Not a JUnit test; run with
+ * {@code java dex.reader.DexFileBenchmark [dex file]...}, by default on
+ * {@code dex/classes0.dex}, which holds the core libraries.
+ */
+public class DexFileBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String[] files = args.length > 0 ? args
+                : new String[] {"dex/classes0.dex"};
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        int members = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            // read the files again each time, as decoded classes are cached
+            long start = System.nanoTime();
+            for (String file : files) {
+                DexFile dexFile = new DexFileReader().read(new DexBuffer(file));
+                for (DexClass dexClass : dexFile.getDefinedClasses()) {
+                    walk(dexClass);
+                }
+            }
+            sequential = Math.min(sequential, System.nanoTime() - start);
+
+            final AtomicInteger count = new AtomicInteger();
+            start = System.nanoTime();
+            for (String file : files) {
+                DexFile dexFile = new DexFileReader().read(new DexBuffer(file));
+                dexFile.forEachClass(new DexClassVisitor() {
+                    public void visit(DexClass dexClass) {
+                        count.addAndGet(walk(dexClass));
+                    }
+                });
+            }
+            parallel = Math.min(parallel, System.nanoTime() - start);
+            members = count.get();
+        }
+        System.out.printf("%d files, %d members, best of %d iterations%n",
+                files.length, members, ITERATIONS);
+        System.out.printf("sequential:   %d ms%n", sequential / 1000000);
+        System.out.printf("forEachClass: %d ms%n", parallel / 1000000);
+    }
+
+    /**
+     * Decodes the names and types of all members of the class and returns how
+     * many there are.
+     */
+    private static int walk(DexClass dexClass) {
+        int members = 0;
+        dexClass.getName();
+        dexClass.getSuperClass();
+        dexClass.getInterfaces();
+        for (DexField field : dexClass.getFields()) {
+            field.getName();
+            field.getType();
+            members++;
+        }
+        for (DexMethod method : dexClass.getMethods()) {
+            method.getName();
+            method.getReturnType();
+            for (DexParameter parameter : method.getParameters()) {
+                parameter.getTypeName();
+            }
+            members++;
+        }
+        return members;
+    }
+}
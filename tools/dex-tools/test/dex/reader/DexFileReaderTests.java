@@ -26,7 +26,9 @@ import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 
@@ -34,6 +36,7 @@ import dex.reader.util.JavaSource;
 import dex.structure.DexAnnotation;
 import dex.structure.DexAnnotationAttribute;
 import dex.structure.DexClass;
+import dex.structure.DexClassVisitor;
 import dex.structure.DexEncodedValue;
 import dex.structure.DexField;
 import dex.structure.DexFile;
@@ -378,5 +381,28 @@ public class DexFileReaderTests extends DexTestsCommon {
         w.close();
         assertTrue(true);
     }
+
+    /**
+     * Tests visiting every class of a huge dex file from several threads.
+     * @throws IOException
+     */
+    @Test
+    public void testForEachClass() throws IOException {
+        DexFile dexFile = new DexFileReader().read(
+                new DexBuffer("dex/classes0.dex"));
+        final Map<String, Integer> visited =
+                new ConcurrentHashMap<String, Integer>();
+        dexFile.forEachClass(new DexClassVisitor() {
+            public void visit(DexClass dexClass) {
+                visited.put(dexClass.getName(), dexClass.getMethods().size());
+            }
+        });
+        List<DexClass> classes = dexFile.getDefinedClasses();
+        assertEquals(classes.size(), visited.size());
+        for (DexClass dexClass : classes) {
+            assertEquals(Integer.valueOf(dexClass.getMethods().size()),
+                    visited.get(dexClass.getName()));
+        }
+    }
     
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+public class DexStringPoolTests {
+
+    /**
+     * Tests decoding of strings which are encoded differently in MUTF-8 and
+     * in standard UTF-8.
+     */
+    @Test
+    public void testModifiedUtf8() {
+        DexStringPool pool = createPool(
+                new byte[] {'L', 'A', ';'},
+                new byte[] {(byte) 0xC3, (byte) 0xA9},
+                // U+0000 is encoded in two bytes
+                new byte[] {'a', (byte) 0xC0, (byte) 0x80, 'b'},
+                // U+1F600 is encoded as two 3 byte surrogates
+                new byte[] {(byte) 0xED, (byte) 0xA0, (byte) 0xBD,
+                        (byte) 0xED, (byte) 0xB8, (byte) 0x80},
+                new byte[0]);
+        assertEquals(5, pool.size());
+        assertEquals("LA;", pool.get(0));
+        assertEquals("\u00e9", pool.get(1));
+        assertEquals("a\u0000b", pool.get(2));
+        assertEquals("\ud83d\ude00", pool.get(3));
+        assertEquals("", pool.get(4));
+    }
+
+    @Test
+    public void testStringsAreCached() {
+        DexStringPool pool = createPool(new byte[] {'x'});
+        assertSame(pool.get(0), pool.get(0));
+    }
+
+    /**
+     * Creates a pool whose string_ids section is at the start of the buffer,
+     * followed by the given MUTF-8 encoded strings.
+     */
+    private static DexStringPool createPool(byte[]... strings) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        int dataOffset = strings.length * 4;
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = dataOffset + data.size();
+            data.write(utf16Length(strings[i]));
+            data.write(strings[i], 0, strings[i].length);
+            data.write(0);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int offset : offsets) {
+            bytes.write(offset);
+            bytes.write(offset >> 8);
+            bytes.write(offset >> 16);
+            bytes.write(offset >> 24);
+        }
+        byte[] dataBytes = data.toByteArray();
+        bytes.write(dataBytes, 0, dataBytes.length);
+        return new DexStringPool(new DexBuffer(bytes.toByteArray()), 0,
+                strings.length);
+    }
+
+    // Number of UTF-16 chars, which is what string_data_item stores
+    private static int utf16Length(byte[] mutf8) {
+        int length = 0;
+        for (byte b : mutf8) {
+            if ((b & 0xC0) != 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
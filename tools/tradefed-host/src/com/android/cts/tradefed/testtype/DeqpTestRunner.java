@@ -28,15 +28,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +72,13 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     private final Map<TestIdentifier, Set<BatchRunConfiguration>> mTestInstances;
     private final TestInstanceResultListener mInstanceListerner = new TestInstanceResultListener();
     private final Map<TestIdentifier, Integer> mTestInstabilityRatings;
+    // Position of each test in the test list, and the tests by position
+    private final Map<TestIdentifier, Integer> mTestPositions;
+    private final List<TestIdentifier> mTestsByPosition;
+    // Positions of the tests with a pending instance, by run configuration and instability rating
+    private final Map<BatchRunConfiguration, Map<Integer, BitSet>> mPendingInstances;
+    private final TestCaseTrie mTestCaseTrie;
+    private int mNumRemainingInstances = 0;
     private IAbi mAbi;
     private CtsBuildHelper mCtsBuild;
     private boolean mLogData = false;
@@ -88,9 +96,19 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             Map<TestIdentifier, List<Map<String,String>>> testInstances) {
         mPackageName = packageName;
         mName = name;
-        mRemainingTests = new LinkedList<>(tests); // avoid modifying arguments
+        mRemainingTests = new LinkedHashSet<>(tests); // avoid modifying arguments
         mTestInstances = parseTestInstances(tests, testInstances);
         mTestInstabilityRatings = new HashMap<>();
+        mTestPositions = new HashMap<>();
+        mTestsByPosition = new ArrayList<>(mRemainingTests);
+        mPendingInstances = new HashMap<>();
+        mTestCaseTrie = new TestCaseTrie(mTestsByPosition);
+        for (TestIdentifier test : mTestsByPosition) {
+            mTestPositions.put(test, mTestPositions.size());
+            for (BatchRunConfiguration config : getTestRunConfigs(test)) {
+                setPendingInstance(test, config, true);
+            }
+        }
     }
 
     /**
@@ -233,13 +251,13 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     /**
      * dEQP test instance listerer and invocation result forwarded
      */
-    private class TestInstanceResultListener {
+    private class TestInstanceResultListener implements IInstrumentationStatusListener {
         private ITestInvocationListener mSink;
         private BatchRunConfiguration mRunConfig;
 
         private TestIdentifier mCurrentTestId;
         private boolean mGotTestResult;
-        private String mCurrentTestLog;
+        private final StringBuilder mCurrentTestLog = new StringBuilder();
 
         private class PendingResult {
             boolean allInstancesPassed;
@@ -353,6 +371,15 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             }
         }
 
+        /**
+         * Mark the instance with current config as executed
+         */
+        private void markExecuted(TestIdentifier testId, PendingResult result) {
+            if (result.remainingConfigs.remove(mRunConfig)) {
+                setPendingInstance(testId, mRunConfig, false);
+            }
+        }
+
         /**
          * Fake execution of an instance with current config
          */
@@ -360,7 +387,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             final PendingResult result = mPendingResults.get(testId);
 
             result.errorMessages.put(mRunConfig, SKIPPED_INSTANCE_LOG_MESSAGE);
-            result.remainingConfigs.remove(mRunConfig);
+            markExecuted(testId, result);
 
             // Pending result finished, report result
             if (result.remainingConfigs.isEmpty()) {
@@ -379,7 +406,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             // Mark as executed
             result.allInstancesPassed = false;
             result.errorMessages.put(mRunConfig, errorMessage);
-            result.remainingConfigs.remove(mRunConfig);
+            markExecuted(testId, result);
 
             // Pending result finished, report result
             if (result.remainingConfigs.isEmpty()) {
@@ -427,7 +454,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                     mCurrentTestId = null;
             }
 
-            mCurrentTestLog = "";
+            mCurrentTestLog.setLength(0);
             mGotTestResult = false;
 
             if (casePath == null) {
@@ -456,10 +483,10 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                     result.errorMessages.put(mRunConfig, INCOMPLETE_LOG_MESSAGE);
                     CLog.i("Test %s failed as it ended before receiving result.", mCurrentTestId);
                 }
-                result.remainingConfigs.remove(mRunConfig);
+                markExecuted(mCurrentTestId, result);
 
-                if (mLogData && mCurrentTestLog != null && mCurrentTestLog.length() > 0) {
-                    result.testLogs.put(mRunConfig, mCurrentTestLog);
+                if (mLogData && mCurrentTestLog.length() > 0) {
+                    result.testLogs.put(mRunConfig, mCurrentTestLog.toString());
                 }
 
                 // Pending result finished, report result
@@ -527,7 +554,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                 mPendingResults.get(mCurrentTestId).allInstancesPassed = false;
                 mPendingResults.get(mCurrentTestId)
                         .errorMessages.put(mRunConfig, "Terminated: " + reason);
-                result.remainingConfigs.remove(mRunConfig);
+                markExecuted(mCurrentTestId, result);
 
                 // Pending result finished, report result
                 if (result.remainingConfigs.isEmpty()) {
@@ -550,14 +577,14 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             if (newLog == null) {
                 return false;
             }
-            mCurrentTestLog = mCurrentTestLog + newLog;
+            mCurrentTestLog.append(newLog);
             return true;
         }
 
         /**
-         * Handles new instrumentation status message.
-         * @return true if handled correctly, false if missing values.
+         * {@inheritDoc}
          */
+        @Override
         public boolean handleStatus(Map<String, String> values) {
             String eventType = values.get("dEQP-EventType");
 
@@ -597,7 +624,9 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                 // started. Mark current instance as pending.
                 CLog.i("Batch ended with test '%s' current", mCurrentTestId);
                 if (mPendingResults.get(mCurrentTestId) != null) {
-                    mPendingResults.get(mCurrentTestId).remainingConfigs.add(mRunConfig);
+                    if (mPendingResults.get(mCurrentTestId).remainingConfigs.add(mRunConfig)) {
+                        setPendingInstance(mCurrentTestId, mRunConfig, true);
+                    }
                 } else {
                     CLog.w("Got unexpected internal state of %s", mCurrentTestId);
                 }
@@ -606,21 +635,55 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         }
     }
 
+    /**
+     * Receiver of the status blocks of the dEQP instrumentation.
+     *
+     * Exposed for unit testing
+     */
+    static interface IInstrumentationStatusListener {
+        /**
+         * Handles one status block. The map is only valid for the duration of the call.
+         *
+         * @return true if handled correctly, false if missing values.
+         */
+        public boolean handleStatus(Map<String, String> values);
+    }
+
     /**
      * dEQP instrumentation parser
+     *
+     * Splits the output into lines at the byte level. Lines are parsed in place in the received
+     * buffer unless they span several calls to addOutput, multi-line values are accumulated in a
+     * reused StringBuilder and the few distinct status keys are decoded only once.
+     *
+     * Exposed for unit testing
      */
-    private static class InstrumentationParser extends MultiLineReceiver {
-        private TestInstanceResultListener mListener;
+    static class InstrumentationParser implements IShellOutputReceiver {
+        private static final byte[] STATUS_CODE_PREFIX = toBytes("INSTRUMENTATION_STATUS_CODE: ");
+        private static final byte[] STATUS_PREFIX = toBytes("INSTRUMENTATION_STATUS: ");
+        private static final byte[] DEQP_STATUS_PREFIX = toBytes("INSTRUMENTATION_STATUS: dEQP-");
+        private static final byte[] CODE_PREFIX = toBytes("INSTRUMENTATION_CODE: ");
+        private static final int MAX_CACHED_KEYS = 64;
+
+        private final IInstrumentationStatusListener mListener;
 
-        private Map<String, String> mValues;
+        private final Map<String, String> mValues = new HashMap<>();
+        private boolean mInStatus = false;
         private String mCurrentName;
-        private String mCurrentValue;
+        private final StringBuilder mCurrentValue = new StringBuilder();
         private int mResultCode;
         private boolean mGotExitValue = false;
         private boolean mParseSuccessful = true;
 
+        // Start of a line that continues in the next call to addOutput
+        private byte[] mLineBuffer = new byte[256];
+        private int mLineLength = 0;
 
-        public InstrumentationParser(TestInstanceResultListener listener) {
+        // Keys seen so far, and their encoded form for comparing without decoding
+        private final List<byte[]> mKeyBytes = new ArrayList<>();
+        private final List<String> mKeys = new ArrayList<>();
+
+        public InstrumentationParser(IInstrumentationStatusListener listener) {
             mListener = listener;
         }
 
@@ -628,75 +691,166 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
          * {@inheritDoc}
          */
         @Override
-        public void processNewLines(String[] lines) {
-            for (String line : lines) {
-                if (mValues == null) mValues = new HashMap<String, String>();
+        public void addOutput(byte[] data, int offset, int length) {
+            final int end = offset + length;
+            int lineStart = offset;
 
-                if (line.startsWith("INSTRUMENTATION_STATUS_CODE: ")) {
-                    if (mCurrentName != null) {
-                        mValues.put(mCurrentName, mCurrentValue);
-
-                        mCurrentName = null;
-                        mCurrentValue = null;
-                    }
-
-                    mParseSuccessful &= mListener.handleStatus(mValues);
-                    mValues = null;
-                } else if (line.startsWith("INSTRUMENTATION_STATUS: dEQP-")) {
-                    if (mCurrentName != null) {
-                        mValues.put(mCurrentName, mCurrentValue);
-
-                        mCurrentValue = null;
-                        mCurrentName = null;
-                    }
-
-                    String prefix = "INSTRUMENTATION_STATUS: ";
-                    int nameBegin = prefix.length();
-                    int nameEnd = line.indexOf('=');
-                    if (nameEnd < 0) {
-                        CLog.e("Line does not contain value. Logcat interrupted? (%s)", line);
-                        mCurrentValue = null;
-                        mCurrentName = null;
-                        mParseSuccessful = false;
-                        return;
-                    } else {
-                        int valueBegin = nameEnd + 1;
-                        mCurrentName = line.substring(nameBegin, nameEnd);
-                        mCurrentValue = line.substring(valueBegin);
-                    }
-                } else if (line.startsWith("INSTRUMENTATION_CODE: ")) {
-                    try {
-                        mResultCode = Integer.parseInt(line.substring(22));
-                        mGotExitValue = true;
-                    } catch (NumberFormatException ex) {
-                        CLog.e("Instrumentation code format unexpected");
-                        mParseSuccessful = false;
-                        return;
-                    }
-                } else if (mCurrentValue != null) {
-                    mCurrentValue = mCurrentValue + line;
+            for (int ndx = offset; ndx < end; ++ndx) {
+                if (data[ndx] != '\n') {
+                    continue;
+                }
+                // Lines are terminated by \r\n, a lone \n is part of the line
+                final boolean afterCarriageReturn = (ndx > lineStart)
+                        ? (data[ndx - 1] == '\r')
+                        : (mLineLength > 0 && mLineBuffer[mLineLength - 1] == '\r');
+                if (!afterCarriageReturn) {
+                    continue;
+                }
+                if (mLineLength == 0) {
+                    processLine(data, lineStart, ndx - 1);
+                } else {
+                    appendToLineBuffer(data, lineStart, ndx + 1 - lineStart);
+                    processLine(mLineBuffer, 0, mLineLength - 2);
+                    mLineLength = 0;
                 }
+                lineStart = ndx + 1;
             }
+            appendToLineBuffer(data, lineStart, end - lineStart);
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public void done() {
-            if (mCurrentName != null) {
-                mValues.put(mCurrentName, mCurrentValue);
+        public void flush() {
+            if (mLineLength > 0) {
+                processLine(mLineBuffer, 0, mLineLength);
+                mLineLength = 0;
+            }
+            done();
+        }
 
+        private void done() {
+            if (mCurrentName != null) {
+                mValues.put(mCurrentName, mCurrentValue.toString());
                 mCurrentName = null;
-                mCurrentValue = null;
             }
 
-            if (mValues != null) {
+            if (mInStatus) {
+                mParseSuccessful &= mListener.handleStatus(mValues);
+                mValues.clear();
+                mInStatus = false;
+            }
+        }
+
+        private void appendToLineBuffer(byte[] data, int offset, int length) {
+            if (mLineLength + length > mLineBuffer.length) {
+                mLineBuffer = Arrays.copyOf(mLineBuffer,
+                        Math.max(mLineBuffer.length * 2, mLineLength + length));
+            }
+            System.arraycopy(data, offset, mLineBuffer, mLineLength, length);
+            mLineLength += length;
+        }
+
+        private void processLine(byte[] line, int start, int end) {
+            // trim whitespace
+            while (start < end && (line[start] & 0xff) <= ' ') {
+                ++start;
+            }
+            while (end > start && (line[end - 1] & 0xff) <= ' ') {
+                --end;
+            }
+
+            mInStatus = true;
+
+            if (startsWith(line, start, end, STATUS_CODE_PREFIX)) {
+                if (mCurrentName != null) {
+                    mValues.put(mCurrentName, mCurrentValue.toString());
+                    mCurrentName = null;
+                }
+
                 mParseSuccessful &= mListener.handleStatus(mValues);
-                mValues = null;
+                mValues.clear();
+                mInStatus = false;
+            } else if (startsWith(line, start, end, DEQP_STATUS_PREFIX)) {
+                if (mCurrentName != null) {
+                    mValues.put(mCurrentName, mCurrentValue.toString());
+                    mCurrentName = null;
+                }
+
+                final int nameBegin = start + STATUS_PREFIX.length;
+                final int nameEnd = indexOf(line, nameBegin, end, (byte)'=');
+                if (nameEnd < 0) {
+                    CLog.e("Line does not contain value. Logcat interrupted? (%s)",
+                            decode(line, start, end));
+                    mParseSuccessful = false;
+                } else {
+                    mCurrentName = getKey(line, nameBegin, nameEnd);
+                    mCurrentValue.setLength(0);
+                    mCurrentValue.append(decode(line, nameEnd + 1, end));
+                }
+            } else if (startsWith(line, start, end, CODE_PREFIX)) {
+                try {
+                    mResultCode = Integer.parseInt(
+                            decode(line, start + CODE_PREFIX.length, end));
+                    mGotExitValue = true;
+                } catch (NumberFormatException ex) {
+                    CLog.e("Instrumentation code format unexpected");
+                    mParseSuccessful = false;
+                }
+            } else if (mCurrentName != null) {
+                mCurrentValue.append(decode(line, start, end));
             }
         }
 
+        /**
+         * Returns the key of the given bytes, decoding it only the first time it is seen.
+         */
+        private String getKey(byte[] line, int start, int end) {
+            final int length = end - start;
+            for (int keyNdx = 0; keyNdx < mKeyBytes.size(); ++keyNdx) {
+                final byte[] key = mKeyBytes.get(keyNdx);
+                if (key.length == length && startsWith(line, start, end, key)) {
+                    return mKeys.get(keyNdx);
+                }
+            }
+            final String key = decode(line, start, end);
+            if (mKeys.size() < MAX_CACHED_KEYS) {
+                mKeyBytes.add(Arrays.copyOfRange(line, start, end));
+                mKeys.add(key);
+            }
+            return key;
+        }
+
+        private static boolean startsWith(byte[] line, int start, int end, byte[] prefix) {
+            if (end - start < prefix.length) {
+                return false;
+            }
+            for (int ndx = 0; ndx < prefix.length; ++ndx) {
+                if (line[start + ndx] != prefix[ndx]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(byte[] line, int start, int end, byte value) {
+            for (int ndx = start; ndx < end; ++ndx) {
+                if (line[ndx] == value) {
+                    return ndx;
+                }
+            }
+            return -1;
+        }
+
+        private static String decode(byte[] line, int start, int end) {
+            return new String(line, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] toBytes(String str) {
+            return str.getBytes(StandardCharsets.UTF_8);
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -1130,79 +1284,56 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         return AbiUtils.createId(mAbi.getName(), mPackageName);
     }
 
+    private static class TestBatch {
+        public BatchRunConfiguration config;
+        public List<TestIdentifier> tests;
+    }
+
     /**
-     * Generates tescase trie from dEQP testcase paths. Used to define which testcases to execute.
+     * Creates a TestBatch from all remaining tests or null if not tests remaining.
+     *
+     * Selects the same batch as selectRunBatch(mRemainingTests, null) but uses the pending
+     * instance index, so that the cost is proportional to the size of the batch instead of the
+     * number of remaining tests.
      */
-    private static String generateTestCaseTrieFromPaths(Collection<String> tests) {
-        String result = "{";
-        boolean first = true;
-
-        // Add testcases to results
-        for (Iterator<String> iter = tests.iterator(); iter.hasNext();) {
-            String test = iter.next();
-            String[] components = test.split("\\.");
-
-            if (components.length == 1) {
-                if (!first) {
-                    result = result + ",";
-                }
-                first = false;
-
-                result += components[0];
-                iter.remove();
-            }
+    private TestBatch selectRunBatch() {
+        if (mRemainingTests.isEmpty()) {
+            return null;
         }
 
-        if (!tests.isEmpty()) {
-            HashMap<String, ArrayList<String> > testGroups = new HashMap<>();
-
-            // Collect all sub testgroups
-            for (String test : tests) {
-                String[] components = test.split("\\.");
-                ArrayList<String> testGroup = testGroups.get(components[0]);
+        // the leading test is the first remaining test
+        final TestIdentifier leadingTest = mRemainingTests.iterator().next();
 
-                if (testGroup == null) {
-                    testGroup = new ArrayList<String>();
-                    testGroups.put(components[0], testGroup);
-                }
-
-                testGroup.add(test.substring(components[0].length()+1));
+        BatchRunConfiguration leadingTestConfig = null;
+        for (BatchRunConfiguration runConfig : getTestRunConfigs(leadingTest)) {
+            if (mInstanceListerner.isPendingTestInstance(leadingTest, runConfig)) {
+                leadingTestConfig = runConfig;
+                break;
             }
+        }
 
-            for (String testGroup : testGroups.keySet()) {
-                if (!first) {
-                    result = result + ",";
-                }
-
-                first = false;
-                result = result + testGroup
-                        + generateTestCaseTrieFromPaths(testGroups.get(testGroup));
-            }
+        // test pending <=> test has a pending config
+        if (leadingTestConfig == null) {
+            throw new AssertionError("search postcondition failed");
         }
 
-        return result + "}";
-    }
+        final int leadingInstability = getTestInstabilityRating(leadingTest);
+        final int batchSizeLimit = getBatchSizeLimitForInstability(leadingInstability);
 
-    /**
-     * Generates testcase trie from TestIdentifiers.
-     */
-    private static String generateTestCaseTrie(Collection<TestIdentifier> tests) {
-        ArrayList<String> testPaths = new ArrayList<String>();
+        final TestBatch runBatch = new TestBatch();
+        runBatch.config = leadingTestConfig;
+        runBatch.tests = new ArrayList<>();
 
-        for (TestIdentifier test : tests) {
-            testPaths.add(test.getClassName() + "." + test.getTestName());
+        // pack along compatible instances in the same stability category in test list order.
+        // No remaining test precedes the leading test, so it is the first one selected.
+        final BitSet compatible = getPendingInstances(leadingTestConfig, leadingInstability);
+        for (int position = compatible.nextSetBit(mTestPositions.get(leadingTest));
+                position >= 0 && runBatch.tests.size() < batchSizeLimit;
+                position = compatible.nextSetBit(position + 1)) {
+            runBatch.tests.add(mTestsByPosition.get(position));
         }
 
-        return generateTestCaseTrieFromPaths(testPaths);
-    }
-
-    private static class TestBatch {
-        public BatchRunConfiguration config;
-        public List<TestIdentifier> tests;
-    }
-
-    private TestBatch selectRunBatch() {
-        return selectRunBatch(mRemainingTests, null);
+        return runBatch;
     }
 
     /**
@@ -1308,11 +1439,60 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     }
 
     private void recordTestInstability(TestIdentifier testId) {
-        mTestInstabilityRatings.put(testId, getTestInstabilityRating(testId) + 1);
+        setTestInstabilityRating(testId, getTestInstabilityRating(testId) + 1);
     }
 
     private void clearTestInstability(TestIdentifier testId) {
-        mTestInstabilityRatings.put(testId, 0);
+        setTestInstabilityRating(testId, 0);
+    }
+
+    private void setTestInstabilityRating(TestIdentifier testId, int rating) {
+        final int previousRating = getTestInstabilityRating(testId);
+        final Integer position = mTestPositions.get(testId);
+
+        // move pending instances to the new stability category
+        if (position != null && rating != previousRating) {
+            for (BatchRunConfiguration runConfig : getTestRunConfigs(testId)) {
+                final BitSet previousInstances = getPendingInstances(runConfig, previousRating);
+                if (previousInstances.get(position)) {
+                    previousInstances.clear(position);
+                    getPendingInstances(runConfig, rating).set(position);
+                }
+            }
+        }
+        mTestInstabilityRatings.put(testId, rating);
+    }
+
+    /**
+     * Returns the positions of the tests with a pending instance of the given run configuration
+     * and the given instability rating.
+     */
+    private BitSet getPendingInstances(BatchRunConfiguration runConfig, int instabilityRating) {
+        Map<Integer, BitSet> configInstances = mPendingInstances.get(runConfig);
+        if (configInstances == null) {
+            configInstances = new HashMap<>();
+            mPendingInstances.put(runConfig, configInstances);
+        }
+        BitSet instances = configInstances.get(instabilityRating);
+        if (instances == null) {
+            instances = new BitSet(mTestsByPosition.size());
+            configInstances.put(instabilityRating, instances);
+        }
+        return instances;
+    }
+
+    /**
+     * Updates the pending instance index when an instance is executed or becomes pending again.
+     */
+    private void setPendingInstance(TestIdentifier testId, BatchRunConfiguration runConfig,
+            boolean pending) {
+        final BitSet instances =
+                getPendingInstances(runConfig, getTestInstabilityRating(testId));
+        final int position = mTestPositions.get(testId);
+        if (instances.get(position) != pending) {
+            instances.set(position, pending);
+            mNumRemainingInstances += pending ? 1 : -1;
+        }
     }
 
     /**
@@ -1477,11 +1657,13 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
         checkInterrupted(); // throws if interrupted
 
-        final String testCases = generateTestCaseTrie(batch.tests);
+        final StringBuilder testCases = new StringBuilder();
+        mTestCaseTrie.appendTo(testCases, batch.tests);
+        testCases.append('\n');
 
         mDevice.executeShellCommand("rm " + CASE_LIST_FILE_NAME);
         mDevice.executeShellCommand("rm " + LOG_FILE_NAME);
-        mDevice.pushString(testCases + "\n", CASE_LIST_FILE_NAME);
+        mDevice.pushString(testCases.toString(), CASE_LIST_FILE_NAME);
 
         final String instrumentationName =
                 "com.drawelements.deqp/com.drawelements.deqp.testercore.DeqpInstrumentation";
@@ -1632,18 +1814,8 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     }
 
     private int getNumRemainingInstances() {
-        int retVal = 0;
-        for (TestIdentifier testId : mRemainingTests) {
-            // If case is in current working set, sum only not yet executed instances.
-            // If case is not in current working set, sum all instances (since they are not yet
-            // executed).
-            if (mInstanceListerner.mPendingResults.containsKey(testId)) {
-                retVal += mInstanceListerner.mPendingResults.get(testId).remainingConfigs.size();
-            } else {
-                retVal += mTestInstances.get(testId).size();
-            }
-        }
-        return retVal;
+        // Kept up to date by setPendingInstance
+        return mNumRemainingInstances;
     }
 
     /**
@@ -1677,6 +1849,8 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             listener.testEnded(test, emptyMap);
         }
         mRemainingTests.clear();
+        mPendingInstances.clear();
+        mNumRemainingInstances = 0;
     }
 
     /**
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix tree of dEQP test case paths, used to write the case list of a batch.
+ * <p/>
+ * The tree is built once for all test cases of a package. The case list of any subset of those
+ * cases is then generated in time proportional to the subset, in the dEQP case list format, for
+ * example {@code {dEQP-GLES3{info{vendor,renderer}}}}.
+ * <p/>
+ * Not thread safe.
+ */
+class TestCaseTrie {
+
+    private static class Node {
+        final String mName;
+        final Node mParent;
+        final Map<String, Node> mChildren = new HashMap<>();
+        // Selection state of the case list being generated
+        boolean mCaseSelected = false;
+        boolean mGroupSelected = false;
+        final List<Node> mSelectedCases = new ArrayList<>();
+        final List<Node> mSelectedGroups = new ArrayList<>();
+
+        Node(String name, Node parent) {
+            mName = name;
+            mParent = parent;
+        }
+    }
+
+    private final Node mRoot = new Node(null, null);
+    private final Map<TestIdentifier, Node> mCases = new HashMap<>();
+
+    /**
+     * Creates a trie of the given test cases.
+     */
+    TestCaseTrie(Collection<TestIdentifier> tests) {
+        for (TestIdentifier test : tests) {
+            getCase(test);
+        }
+    }
+
+    /**
+     * Generates the case list of the given test cases. Cases are listed in the given order,
+     * before the groups of the same level.
+     */
+    String generate(Collection<TestIdentifier> tests) {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, tests);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the case list of the given test cases to a {@link StringBuilder}.
+     */
+    void appendTo(StringBuilder sb, Collection<TestIdentifier> tests) {
+        for (TestIdentifier test : tests) {
+            select(getCase(test));
+        }
+        write(mRoot, sb);
+    }
+
+    private Node getCase(TestIdentifier test) {
+        Node node = mCases.get(test);
+        if (node == null) {
+            node = getChild(getGroup(test.getClassName()), test.getTestName());
+            mCases.put(test, node);
+        }
+        return node;
+    }
+
+    private Node getGroup(String path) {
+        Node node = mRoot;
+        int start = 0;
+        int end;
+        while ((end = path.indexOf('.', start)) != -1) {
+            node = getChild(node, path.substring(start, end));
+            start = end + 1;
+        }
+        return getChild(node, path.substring(start));
+    }
+
+    private static Node getChild(Node node, String name) {
+        Node child = node.mChildren.get(name);
+        if (child == null) {
+            child = new Node(name, node);
+            node.mChildren.put(name, child);
+        }
+        return child;
+    }
+
+    private static void select(Node node) {
+        if (node.mCaseSelected) {
+            return;
+        }
+        node.mCaseSelected = true;
+        node.mParent.mSelectedCases.add(node);
+        // Mark the enclosing groups, stopping at the first one that is already marked
+        for (Node group = node.mParent; group.mParent != null && !group.mGroupSelected;
+                group = group.mParent) {
+            group.mGroupSelected = true;
+            group.mParent.mSelectedGroups.add(group);
+        }
+    }
+
+    /**
+     * Writes the selected part of the subtree and clears its selection.
+     */
+    private static void write(Node node, StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Node child : node.mSelectedCases) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(child.mName);
+            child.mCaseSelected = false;
+        }
+        for (Node child : node.mSelectedGroups) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(child.mName);
+            write(child, sb);
+            child.mGroupSelected = false;
+        }
+        node.mSelectedCases.clear();
+        node.mSelectedGroups.clear();
+        sb.append('}');
+    }
+}
@@ -17,22 +17,16 @@
 package com.android.cts.tradefed.testtype;
 
 import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.FileDigester;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.targetprep.ITargetPreparer;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.InstrumentationTest;
-import com.android.tradefed.util.StreamUtil;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -40,6 +34,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Container for CTS test info.
@@ -56,6 +51,8 @@ class TestPackageDef implements ITestPackageDef {
     public static final String JUNIT_DEVICE_TEST = "jUnitDeviceTest";
     public static final String TESTNG_DEVICE_TEST = "testNGDeviceTest";
 
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
     private String mAppPackageName = null;
     private String mAppNameSpace = null;
     private String mName = null;
@@ -64,7 +61,8 @@ class TestPackageDef implements ITestPackageDef {
     private String mJarPath = null;
     private String mRunTimeArgs = null;
     private String mTestPackageName = null;
-    private String mDigest = null;
+    // Digest of the test file, calculated in the background
+    private Future<byte[]> mDigest = null;
     private IAbi mAbi = null;
     private List<ITargetPreparer> mPreparers = null;
 
@@ -244,7 +242,7 @@ class TestPackageDef implements ITestPackageDef {
             hostTest.setJarFileName(mJarPath);
             hostTest.setTests(mTests);
             hostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = startDigest(testCaseDir, mJarPath);
             return hostTest;
         } else if (VM_HOST_TEST.equals(mTestType)) {
             CLog.d("Creating vm host test for %s", mName);
@@ -253,7 +251,7 @@ class TestPackageDef implements ITestPackageDef {
             vmHostTest.setJarFileName(mJarPath);
             vmHostTest.setTests(mTests);
             vmHostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = startDigest(testCaseDir, mJarPath);
             return vmHostTest;
         } else if (DEQP_TEST.equals(mTestType)) {
             DeqpTestRunner deqpTest =
@@ -277,7 +275,7 @@ class TestPackageDef implements ITestPackageDef {
             jUnitDeviceTest.addRunTimeArgs(mRunTimeArgs);
             jUnitDeviceTest.setTests(mTests);
             jUnitDeviceTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = startDigest(testCaseDir, mJarPath);
             return jUnitDeviceTest;
         } else if (TESTNG_DEVICE_TEST.equals(mTestType)){
             CLog.d("Creating TestNG device test %s", mName);
@@ -287,7 +285,7 @@ class TestPackageDef implements ITestPackageDef {
             testNGDeviceTest.addRunTimeArgs(mRunTimeArgs);
             testNGDeviceTest.setTests(mTests);
             testNGDeviceTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = startDigest(testCaseDir, mJarPath);
             return testNGDeviceTest;
         }
         else {
@@ -321,7 +319,7 @@ class TestPackageDef implements ITestPackageDef {
         instrTest.setReRunUsingTestFile(true);
         // mName means 'apk file name' for instrumentation tests
         instrTest.addInstallApk(String.format("%s.apk", mName), mAppNameSpace);
-        mDigest = generateDigest(testCaseDir, String.format("%s.apk", mName));
+        mDigest = startDigest(testCaseDir, String.format("%s.apk", mName));
         return instrTest;
     }
 
@@ -387,7 +385,7 @@ class TestPackageDef implements ITestPackageDef {
      */
     @Override
     public String getDigest() {
-        return mDigest;
+        return mDigest == null ? null : toDigestString(mDigest);
     }
 
     /**
@@ -400,51 +398,29 @@ class TestPackageDef implements ITestPackageDef {
      * @return a hex {@link String} of the digest
      */
     String generateDigest(File fileDir, String fileName) {
-        final String algorithm = "SHA-1";
-        InputStream fileStream = null;
-        DigestInputStream d = null;
-        try {
-            fileStream = getFileStream(fileDir, fileName);
-            MessageDigest md = MessageDigest.getInstance(algorithm);
-            d = new DigestInputStream(fileStream, md);
-            byte[] buffer = new byte[8196];
-            while (d.read(buffer) != -1) {
-            }
-            return toHexString(md.digest());
-        } catch (NoSuchAlgorithmException e) {
-            return algorithm + " not found";
-        } catch (IOException e) {
-            CLog.e(e);
-        } finally {
-            StreamUtil.close(d);
-            StreamUtil.close(fileStream);
-        }
-        return "failed to generate digest";
+        return toDigestString(startDigest(fileDir, fileName));
     }
 
     /**
-     * Retrieve an input stream for given file
-     * <p/>
-     * Exposed so unit tests can mock.
+     * Start generating a sha1sum digest for a file on the shared {@link FileDigester}, so that
+     * the files of many packages are read in parallel.
      */
-    InputStream getFileStream(File fileDir, String fileName) throws FileNotFoundException {
-        InputStream fileStream;
-        fileStream = new BufferedInputStream(new FileInputStream(new File(fileDir, fileName)));
-        return fileStream;
+    private static Future<byte[]> startDigest(File fileDir, String fileName) {
+        return FileDigester.getInstance().submit(new File(fileDir, fileName), DIGEST_ALGORITHM);
     }
 
     /**
-     * Convert the given byte array into a lowercase hex string.
-     *
-     * @param arr The array to convert.
-     * @return The hex encoded string.
+     * Wait for a digest and convert it into a lowercase hex string.
      */
-    private String toHexString(byte[] arr) {
-        StringBuilder buf = new StringBuilder(arr.length * 2);
-        for (byte b : arr) {
-            buf.append(String.format("%02x", b & 0xFF));
+    private static String toDigestString(Future<byte[]> digest) {
+        try {
+            return FileDigester.toHexString(FileDigester.getDigest(digest));
+        } catch (NoSuchAlgorithmException e) {
+            return DIGEST_ALGORITHM + " not found";
+        } catch (IOException e) {
+            CLog.e(e);
         }
-        return buf.toString();
+        return "failed to generate digest";
     }
 
     @Override
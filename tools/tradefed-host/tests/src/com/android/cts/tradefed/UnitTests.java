@@ -24,9 +24,11 @@ import com.android.cts.tradefed.result.TestTest;
 import com.android.cts.tradefed.result.TestLogTest;
 import com.android.cts.tradefed.testtype.Abi;
 import com.android.cts.tradefed.testtype.CtsTestTest;
+import com.android.cts.tradefed.testtype.DeqpInstrumentationParserTest;
 import com.android.cts.tradefed.testtype.DeqpTestRunnerTest;
 import com.android.cts.tradefed.testtype.GeeTestTest;
 import com.android.cts.tradefed.testtype.JarHostTestTest;
+import com.android.cts.tradefed.testtype.TestCaseTrieTest;
 import com.android.cts.tradefed.testtype.TestFilterTest;
 import com.android.cts.tradefed.testtype.TestPackageDefTest;
 import com.android.cts.tradefed.testtype.TestPackageXmlParserTest;
@@ -61,9 +63,11 @@ public class UnitTests extends TestSuite {
 
         // testtype package
         addTestSuite(CtsTestTest.class);
+        addTestSuite(DeqpInstrumentationParserTest.class);
         addTestSuite(DeqpTestRunnerTest.class);
         addTestSuite(GeeTestTest.class);
         addTestSuite(JarHostTestTest.class);
+        addTestSuite(TestCaseTrieTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestPackageDefTest.class);
         addTestSuite(TestPackageXmlParserTest.class);
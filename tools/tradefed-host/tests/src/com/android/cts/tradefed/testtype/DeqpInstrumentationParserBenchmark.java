@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.UnitTests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Measures the throughput of {@link DeqpTestRunner.InstrumentationParser} replaying dEQP
+ * instrumentation output, in the chunk size adb delivers it in.
+ *
+ * <p>Not part of {@link UnitTests}; run with
+ * {@code java com.android.cts.tradefed.testtype.DeqpInstrumentationParserBenchmark [log]}, where
+ * log is a captured {@code am instrument} output. Without it, a synthetic output of a few
+ * megabytes with large test logs is used.
+ */
+public class DeqpInstrumentationParserBenchmark {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 10;
+    private static final int SYNTHETIC_CASES = 2000;
+    private static final int SYNTHETIC_LOG_LINES = 100;
+
+    private static class CountingListener
+            implements DeqpTestRunner.IInstrumentationStatusListener {
+        long mStatuses = 0;
+        long mValueChars = 0;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean handleStatus(Map<String, String> values) {
+            ++mStatuses;
+            for (String value : values.values()) {
+                mValueChars += value.length();
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] output = args.length > 0
+                ? Files.readAllBytes(new File(args[0]).toPath())
+                : generateOutput();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse(output);
+        }
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        CountingListener listener = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            listener = parse(output);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+        double mean = total / (double) ITERATIONS;
+        System.out.printf("%d bytes, %d status blocks: mean %.2f ms, best %.2f ms, %.1f MB/s%n",
+                output.length, listener.mStatuses, mean / 1e6, best / 1e6,
+                output.length / (mean / 1e9) / (1024 * 1024));
+    }
+
+    private static CountingListener parse(byte[] output) {
+        CountingListener listener = new CountingListener();
+        DeqpTestRunner.InstrumentationParser parser =
+                new DeqpTestRunner.InstrumentationParser(listener);
+        for (int offset = 0; offset < output.length; offset += CHUNK_SIZE) {
+            parser.addOutput(output, offset, Math.min(CHUNK_SIZE, output.length - offset));
+        }
+        parser.flush();
+        return listener;
+    }
+
+    private static byte[] generateOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < SYNTHETIC_CASES; i++) {
+            String path = "dEQP-GLES3.functional.group" + (i / 100) + ".case" + (i % 100);
+            sb.setLength(0);
+            sb.append("INSTRUMENTATION_STATUS: dEQP-EventType=BeginTestCase\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-BeginTestCase-TestCasePath=")
+                    .append(path).append("\r\n")
+                    .append("INSTRUMENTATION_STATUS_CODE: 0\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-EventType=TestLogData\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-TestLogData-Log=<TestCaseResult ")
+                    .append("CasePath=\"").append(path).append("\">\r\n");
+            for (int line = 0; line < SYNTHETIC_LOG_LINES; line++) {
+                sb.append("<Text>Iteration ").append(line)
+                        .append(": rendered image compared against reference, ")
+                        .append("threshold 0.05</Text>\r\n");
+            }
+            sb.append("</TestCaseResult>\r\n")
+                    .append("INSTRUMENTATION_STATUS_CODE: 0\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-EventType=TestCaseResult\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-TestCaseResult-Code=Pass\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-TestCaseResult-Details=Pass\r\n")
+                    .append("INSTRUMENTATION_STATUS_CODE: 0\r\n")
+                    .append("INSTRUMENTATION_STATUS: dEQP-EventType=EndTestCase\r\n")
+                    .append("INSTRUMENTATION_STATUS_CODE: 0\r\n");
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        out.write("INSTRUMENTATION_CODE: 0\r\n".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link DeqpTestRunner.InstrumentationParser}.
+ */
+public class DeqpInstrumentationParserTest extends TestCase {
+
+    private static final String OUTPUT = "INSTRUMENTATION_STATUS: dEQP-EventType=BeginTestCase\r\n"
+            + "INSTRUMENTATION_STATUS: dEQP-BeginTestCase-TestCasePath=dEQP-GLES3.info.vendor\r\n"
+            + "INSTRUMENTATION_STATUS_CODE: 0\r\n"
+            + "INSTRUMENTATION_STATUS: dEQP-EventType=TestLogData\r\n"
+            + "INSTRUMENTATION_STATUS: dEQP-TestLogData-Log=<Result \u00e4=\"1\">\r\n"
+            + "  <Text>a\nb</Text>  \r\n"
+            + "</Result>\r\n"
+            + "INSTRUMENTATION_STATUS_CODE: 0\r\n"
+            + "INSTRUMENTATION_STATUS: dEQP-EventType=EndTestCase\r\n"
+            + "INSTRUMENTATION_STATUS_CODE: 0\r\n"
+            + "INSTRUMENTATION_CODE: -1\r\n";
+
+    private static class RecordingListener
+            implements DeqpTestRunner.IInstrumentationStatusListener {
+        final List<Map<String, String>> mStatuses = new ArrayList<>();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean handleStatus(Map<String, String> values) {
+            mStatuses.add(new HashMap<>(values));
+            return true;
+        }
+    }
+
+    public void testParse() {
+        RecordingListener listener = new RecordingListener();
+        DeqpTestRunner.InstrumentationParser parser =
+                new DeqpTestRunner.InstrumentationParser(listener);
+        byte[] output = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+        assertStatuses(listener.mStatuses);
+        assertTrue(parser.wasSuccessful());
+        assertEquals(-1, parser.getResultCode());
+    }
+
+    public void testParseSplitOutput() {
+        // Every possible split point, including inside \r\n and inside multi-byte characters
+        byte[] output = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= output.length; split++) {
+            RecordingListener listener = new RecordingListener();
+            DeqpTestRunner.InstrumentationParser parser =
+                    new DeqpTestRunner.InstrumentationParser(listener);
+            parser.addOutput(output, 0, split);
+            parser.addOutput(output, split, output.length - split);
+            parser.flush();
+            assertStatuses(listener.mStatuses);
+            assertTrue(parser.wasSuccessful());
+        }
+    }
+
+    public void testParseByteByByte() {
+        RecordingListener listener = new RecordingListener();
+        DeqpTestRunner.InstrumentationParser parser =
+                new DeqpTestRunner.InstrumentationParser(listener);
+        byte[] output = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < output.length; i++) {
+            parser.addOutput(output, i, 1);
+        }
+        parser.flush();
+        assertStatuses(listener.mStatuses);
+    }
+
+    public void testParseMissingValue() {
+        RecordingListener listener = new RecordingListener();
+        DeqpTestRunner.InstrumentationParser parser =
+                new DeqpTestRunner.InstrumentationParser(listener);
+        byte[] output = ("INSTRUMENTATION_STATUS: dEQP-EventType\r\n"
+                + "INSTRUMENTATION_CODE: -1\r\n").getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+        assertFalse(parser.wasSuccessful());
+    }
+
+    public void testParseUnterminatedOutput() {
+        RecordingListener listener = new RecordingListener();
+        DeqpTestRunner.InstrumentationParser parser =
+                new DeqpTestRunner.InstrumentationParser(listener);
+        byte[] output = ("INSTRUMENTATION_STATUS: dEQP-EventType=BeginTestCase\r\n"
+                + "INSTRUMENTATION_STATUS: dEQP-BeginTestCase-TestCasePath=dEQP-GLES3.info.ven")
+                .getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+        assertEquals(1, listener.mStatuses.size());
+        assertEquals("dEQP-GLES3.info.ven",
+                listener.mStatuses.get(0).get("dEQP-BeginTestCase-TestCasePath"));
+        assertFalse("Expected no exit code", parser.wasSuccessful());
+    }
+
+    private static void assertStatuses(List<Map<String, String>> statuses) {
+        // The last status is the empty block after the final status code
+        assertEquals(4, statuses.size());
+        assertEquals("BeginTestCase", statuses.get(0).get("dEQP-EventType"));
+        assertEquals("dEQP-GLES3.info.vendor",
+                statuses.get(0).get("dEQP-BeginTestCase-TestCasePath"));
+        assertEquals("TestLogData", statuses.get(1).get("dEQP-EventType"));
+        // Lines are trimmed and joined without separators, lone \n are kept
+        assertEquals("<Result \u00e4=\"1\"><Text>a\nb</Text></Result>",
+                statuses.get(1).get("dEQP-TestLogData-Log"));
+        assertEquals("EndTestCase", statuses.get(2).get("dEQP-EventType"));
+        assertTrue(statuses.get(3).isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.UnitTests;
+import com.android.cts.tradefed.build.StubCtsBuildHelper;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ITestInvocationListener;
+
+import org.easymock.EasyMock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the batch selection and pending instance bookkeeping of {@link DeqpTestRunner} on a
+ * synthetic test list of dEQP size.
+ *
+ * <p>All instances use portrait rotations on a device with only landscape features, so every
+ * batch is selected and completed on the host without running anything on the device.
+ *
+ * <p>Not part of {@link UnitTests}; run with
+ * {@code java com.android.cts.tradefed.testtype.DeqpTestRunnerBenchmark [tests]}.
+ */
+public class DeqpTestRunnerBenchmark {
+
+    private static final String NAME = "dEQP-EGL";
+    private static final int DEFAULT_TESTS = 300000;
+    private static final int TESTS_PER_GROUP = 250;
+    private static final String[] ROTATIONS = {"90", "270"};
+
+    public static void main(String[] args) throws Exception {
+        int tests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TESTS;
+        // Warm up so class loading and JIT do not skew the measurement
+        run(tests / 100);
+        long start = System.nanoTime();
+        run(tests);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        System.out.printf("%d tests, %d instances: %d ms%n", tests, tests * ROTATIONS.length,
+                elapsed);
+    }
+
+    private static void run(int numTests) throws Exception {
+        List<Map<String, String>> instanceArgs = new ArrayList<>();
+        for (String rotation : ROTATIONS) {
+            Map<String, String> args = new HashMap<>();
+            args.put("glconfig", "rgba8888d24s8");
+            args.put("rotation", rotation);
+            args.put("surfacetype", "window");
+            instanceArgs.add(args);
+        }
+
+        Collection<TestIdentifier> tests = new ArrayList<>(numTests);
+        Map<TestIdentifier, List<Map<String, String>>> instances = new HashMap<>();
+        for (int i = 0; i < numTests; i++) {
+            TestIdentifier test = new TestIdentifier(
+                    NAME + ".functional.group" + (i / TESTS_PER_GROUP),
+                    "case" + (i % TESTS_PER_GROUP));
+            tests.add(test);
+            instances.put(test, instanceArgs);
+        }
+
+        ITestDevice mockDevice = EasyMock.createNiceMock(ITestDevice.class);
+        ITestInvocationListener mockListener =
+                EasyMock.createNiceMock(ITestInvocationListener.class);
+        EasyMock.expect(mockDevice.executeShellCommand("pm list features"))
+                .andReturn("feature:" + DeqpTestRunner.FEATURE_LANDSCAPE).anyTimes();
+        EasyMock.replay(mockDevice, mockListener);
+
+        DeqpTestRunner deqpTest = new DeqpTestRunner(NAME, NAME, tests, instances);
+        deqpTest.setAbi(UnitTests.ABI);
+        deqpTest.setDevice(mockDevice);
+        deqpTest.setBuildHelper(new StubCtsBuildHelper());
+        deqpTest.run(mockListener);
+    }
+}
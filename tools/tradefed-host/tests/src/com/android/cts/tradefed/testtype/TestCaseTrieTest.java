@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link TestCaseTrie}.
+ */
+public class TestCaseTrieTest extends TestCase {
+
+    private static final TestIdentifier VENDOR =
+            new TestIdentifier("dEQP-GLES3.info", "vendor");
+    private static final TestIdentifier RENDERER =
+            new TestIdentifier("dEQP-GLES3.info", "renderer");
+    private static final TestIdentifier CLEAR =
+            new TestIdentifier("dEQP-GLES3.functional.color_clear", "single_rgb");
+    private static final TestIdentifier DEPTH =
+            new TestIdentifier("dEQP-GLES3.functional.depth", "write");
+    private static final TestIdentifier MIXED =
+            new TestIdentifier("dEQP-GLES3", "case");
+
+    private TestCaseTrie mTrie;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTrie = new TestCaseTrie(Arrays.asList(VENDOR, RENDERER, CLEAR, DEPTH, MIXED));
+    }
+
+    public void testGenerate() {
+        assertEquals("{dEQP-GLES3{info{vendor,renderer}}}",
+                mTrie.generate(Arrays.asList(VENDOR, RENDERER)));
+        assertEquals("{dEQP-GLES3{info{renderer}}}",
+                mTrie.generate(Collections.singletonList(RENDERER)));
+        assertEquals("{dEQP-GLES3{case,functional{depth{write},color_clear{single_rgb}},"
+                + "info{vendor}}}", mTrie.generate(Arrays.asList(DEPTH, VENDOR, CLEAR, MIXED)));
+        assertEquals("{}", mTrie.generate(Collections.<TestIdentifier>emptyList()));
+    }
+
+    public void testGenerateDuplicate() {
+        assertEquals("{dEQP-GLES3{info{vendor}}}", mTrie.generate(Arrays.asList(VENDOR, VENDOR)));
+    }
+
+    public void testGenerateUnknown() {
+        TestIdentifier unknown = new TestIdentifier("dEQP-GLES3.info", "version");
+        assertEquals("{dEQP-GLES3{info{version,vendor}}}",
+                mTrie.generate(Arrays.asList(unknown, VENDOR)));
+    }
+
+    public void testGenerateLarge() {
+        List<TestIdentifier> tests = new ArrayList<>();
+        StringBuilder expected = new StringBuilder("{dEQP-GLES3{large{");
+        for (int i = 0; i < 1000; i++) {
+            tests.add(new TestIdentifier("dEQP-GLES3.large", "case" + i));
+            if (i > 0) {
+                expected.append(',');
+            }
+            expected.append("case").append(i);
+        }
+        expected.append("}}}");
+        TestCaseTrie trie = new TestCaseTrie(tests);
+        StringBuilder sb = new StringBuilder();
+        trie.appendTo(sb, tests);
+        assertEquals(expected.toString(), sb.toString());
+        assertEquals("{dEQP-GLES3{large{case999}}}",
+                trie.generate(tests.subList(999, 1000)));
+    }
+}
@@ -15,9 +15,9 @@
  */
 package com.android.cts.tradefed.testtype;
 
-import java.io.ByteArrayInputStream;
+import com.android.tradefed.util.FileUtil;
+
 import java.io.File;
-import java.io.InputStream;
 
 import junit.framework.TestCase;
 
@@ -30,17 +30,25 @@ public class TestPackageDefTest extends TestCase {
      * Regression test for {@link TestPackageDef#generateDigest(File, String)} that ensures expected
      * digest is generated for fixed data.
      */
-    public void testGenerateDigest() {
-        TestPackageDef def = new TestPackageDef() {
-          @Override
-          InputStream getFileStream(File dir, String fileName) {
-              return new ByteArrayInputStream("test data for digest".getBytes());
-          }
-        };
-        String digest = def.generateDigest(new File("unused"), "alsounused");
-        assertNotNull(digest);
-        assertEquals("58c222b5f5f81b4b58891ec59924b9b2f530452e", digest);
+    public void testGenerateDigest() throws Exception {
+        File dir = FileUtil.createTempDir("digest");
+        try {
+            FileUtil.writeToFile("test data for digest", new File(dir, "test.apk"));
+            TestPackageDef def = new TestPackageDef();
+            String digest = def.generateDigest(dir, "test.apk");
+            assertNotNull(digest);
+            assertEquals("58c222b5f5f81b4b58891ec59924b9b2f530452e", digest);
+            // A second digest of the unchanged file is the same
+            assertEquals(digest, def.generateDigest(dir, "test.apk"));
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
 
+    public void testGenerateDigestMissingFile() {
+        TestPackageDef def = new TestPackageDef();
+        assertEquals("failed to generate digest",
+                def.generateDigest(new File("unused"), "alsounused"));
     }
 
 }
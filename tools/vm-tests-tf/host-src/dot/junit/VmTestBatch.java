@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import com.android.tradefed.device.CollectingOutputReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.AbiFormatter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the vm-tests of a test class in one VM on the device with DxBatchMain,
+ * and hands out the results of the tests as they run.
+ * <p>
+ * The first test of a class is run on its own, and the batch is only run when
+ * a second test of the class is, so that running a single test, e.g. when it
+ * is filtered or retried, does not run the whole class. Only the results of
+ * the class currently running on each device and ABI are kept, and they are
+ * dropped when the test run of the class ends, see {@link #clear}, so that a
+ * later run, e.g. a retry, runs its own batch.
+ * <p>
+ * A test only counts as passed in a batch if the VM printed nothing but the
+ * results of the tests, as a test run on its own also fails if the runtime
+ * prints something, e.g. when the verifier rejects a class. All other tests
+ * are run again on their own, so that they are checked, and their failures
+ * reported, just as if the batch had not run.
+ * <p>
+ * This class is compiled with the generated host side JUnit tests, and not
+ * with the rest of the vm-tests sources, as it uses tradefed.
+ */
+public class VmTestBatch {
+
+    private static final String RESULT_PREFIX = "VMTEST ";
+
+    // DxBatchMain prints a result at least every 6 minutes
+    private static final long MAX_TIME_TO_OUTPUT_MINUTES = 7;
+
+    // the batch of the class running on each device and ABI
+    private static final Map<String, VmTestBatch> sBatches =
+            new HashMap<String, VmTestBatch>();
+
+    private final String batchCmd;
+
+    // the results which were not handed out yet, or null if the batch has
+    // not been run
+    private Map<String, String> results;
+
+    private VmTestBatch(String batchCmd) {
+        this.batchCmd = batchCmd;
+    }
+
+    /**
+     * Returns what a test printed when it was run in its batch, which is
+     * empty as it passed, or null if it did not pass in the batch, in which
+     * case the test should be run on its own. That is the case for the first
+     * test of a class, for a test which failed or did not finish, e.g. because
+     * the VM crashed, and for all tests of a batch whose VM printed something
+     * else than the results.
+     * <p>
+     * The result of a test is only returned once, so that a test which is
+     * run again is run on its own.
+     *
+     * @param batchCmd the command running DxBatchMain, with an |#ABI#|
+     *        placeholder for the bitness
+     */
+    public static String getOutput(ITestDevice device, String bitness,
+            String batchCmd, String test) throws DeviceNotAvailableException {
+        String key = device.getSerialNumber() + " " + bitness;
+        VmTestBatch batch;
+        synchronized (sBatches) {
+            batch = sBatches.get(key);
+            if (batch == null || !batch.batchCmd.equals(batchCmd)) {
+                // the tests of a class run one after another, so the results
+                // left from the previous class are of tests which are not run
+                sBatches.put(key, new VmTestBatch(batchCmd));
+                return null;
+            }
+        }
+        synchronized (batch) {
+            if (batch.results == null) {
+                CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+                device.executeShellCommand(AbiFormatter.formatCmdForAbi(batchCmd, bitness),
+                        receiver, MAX_TIME_TO_OUTPUT_MINUTES, TimeUnit.MINUTES, 0);
+                batch.results = parseResults(receiver.getOutput());
+            }
+            return batch.results.remove(test);
+        }
+    }
+
+    /**
+     * Drops the results of the batch of a class on a device and ABI, which
+     * were not handed out yet. Called when the test run of the class ends.
+     */
+    public static void clear(ITestDevice device, String bitness, String batchCmd) {
+        String key = device.getSerialNumber() + " " + bitness;
+        synchronized (sBatches) {
+            VmTestBatch batch = sBatches.get(key);
+            if (batch != null && batch.batchCmd.equals(batchCmd)) {
+                sBatches.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Parses the output of DxBatchMain into the empty output of each test
+     * which passed. No test passes if the VM printed anything else than the
+     * results, as what the runtime prints cannot be told apart by test.
+     */
+    static Map<String, String> parseResults(String output) {
+        Map<String, String> results = new HashMap<String, String>();
+        for (String line : output.split("\n")) {
+            // adb may end lines with \r\n
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (line.length() == 0) {
+                continue;
+            }
+            if (!line.startsWith(RESULT_PREFIX)) {
+                results.clear();
+                return results;
+            }
+            String[] parts = line.substring(RESULT_PREFIX.length()).split(" ", 3);
+            if (parts[0].equals("PASS") && parts.length == 2) {
+                results.put(parts[1], "");
+            }
+            // tests which failed or timed out are run again on their own
+        }
+        return results;
+    }
+}
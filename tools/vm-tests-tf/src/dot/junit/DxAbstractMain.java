@@ -48,7 +48,9 @@ public class DxAbstractMain {
      */
     public static Class<?> load(String className, Class<?> expectedErrorClass) {
         try {
-            Class<?> c = Class.forName(className);
+            // DxBatchMain runs each test with a class loader of its own
+            Class<?> c = Class.forName(className, true,
+                    Thread.currentThread().getContextClassLoader());
             checkError(expectedErrorClass, null, false);
             return c;
         } catch (Throwable t) {
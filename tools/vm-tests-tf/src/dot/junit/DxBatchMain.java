@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Runs the Main_ classes of many tests in one VM, instead of starting a VM for
+ * every test.
+ * <p>
+ * Usage: DxBatchMain BATCH_FILE [TIMEOUT_SECONDS]
+ * <p>
+ * Each line of the batch file holds the name of a test, its Main_ class and
+ * the class path of the test, separated by spaces. Every test is loaded by a
+ * class loader of its own and runs on the main thread, as it does when its
+ * Main_ class is run on its own, with System.out and System.err captured. A
+ * test passes if it neither throws nor prints anything. One line is printed
+ * for every test:
+ * <pre>
+ * VMTEST PASS testN1
+ * VMTEST FAIL testN2 output of the test, with \ and line breaks escaped
+ * VMTEST TIMEOUT testN3
+ * </pre>
+ * As a test cannot be stopped, the VM exits after a timeout, and tests after
+ * it are not run.
+ * <p>
+ * Only what the tests print through System.out and System.err is captured.
+ * What the runtime itself prints, e.g. verifier messages, goes to the output
+ * of the VM, next to the result lines, and is checked by the caller.
+ */
+public class DxBatchMain {
+
+    public static final String RESULT_PREFIX = "VMTEST ";
+
+    private static final int DEFAULT_TIMEOUT_SECONDS = 6 * 60;
+
+    private DxBatchMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: DxBatchMain BATCH_FILE [TIMEOUT_SECONDS]");
+            System.exit(1);
+        }
+        long timeoutMillis = 1000L * (args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_TIMEOUT_SECONDS);
+
+        PrintStream out = System.out;
+        Timer timer = new Timer("DxBatchMain timeout", true);
+        BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 3) {
+                    continue;
+                }
+                TimerTask timeout = createTimeout(out, parts[0]);
+                timer.schedule(timeout, timeoutMillis);
+                String output = runTest(parts[1], parts[2]);
+                timeout.cancel();
+                if (output.length() == 0) {
+                    out.println(RESULT_PREFIX + "PASS " + parts[0]);
+                } else {
+                    out.println(RESULT_PREFIX + "FAIL " + parts[0] + " " + escape(output));
+                }
+                out.flush();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns a task which reports that the given test did not finish in time,
+     * and exits the VM, as the test cannot be stopped.
+     */
+    private static TimerTask createTimeout(final PrintStream out, final String test) {
+        return new TimerTask() {
+            @Override
+            public void run() {
+                out.println(RESULT_PREFIX + "TIMEOUT " + test);
+                out.flush();
+                Runtime.getRuntime().halt(1);
+            }
+        };
+    }
+
+    /**
+     * Runs a test on the current thread, and returns what it printed,
+     * including the exception it threw.
+     */
+    private static String runTest(String mainClass, String classPath) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(output, true);
+        System.setOut(capture);
+        System.setErr(capture);
+        try {
+            ClassLoader loader = createClassLoader(classPath);
+            // DxAbstractMain loads the classes under test with this loader
+            thread.setContextClassLoader(loader);
+            Class.forName(mainClass, true, loader).getMethod("main", String[].class)
+                    .invoke(null, (Object) new String[0]);
+        } catch (Throwable t) {
+            if (t instanceof InvocationTargetException) {
+                t = t.getCause();
+            }
+            capture.print("Exception in thread \"main\" ");
+            t.printStackTrace(capture);
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+            System.setOut(out);
+            System.setErr(err);
+        }
+        capture.flush();
+        return output.toString();
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static ClassLoader createClassLoader(String classPath) throws Exception {
+        ClassLoader parent = DxBatchMain.class.getClassLoader();
+        Class<?> pathClassLoader;
+        try {
+            pathClassLoader = Class.forName("dalvik.system.PathClassLoader");
+        } catch (ClassNotFoundException e) {
+            // not on Android, e.g. when debugging tests on the host
+            String[] paths = classPath.split(File.pathSeparator);
+            URL[] urls = new URL[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                urls[i] = new File(paths[i]).toURI().toURL();
+            }
+            return new URLClassLoader(urls, parent);
+        }
+        return (ClassLoader) pathClassLoader.getConstructor(String.class, ClassLoader.class)
+                .newInstance(classPath, parent);
+    }
+}
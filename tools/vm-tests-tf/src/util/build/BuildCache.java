@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the inputs each {@link BuildStep} was last built from, so that
+ * steps whose inputs did not change since are not built again.
+ * <p>
+ * The key of a step is a hash of its {@link BuildStep#getCacheKey()}, which
+ * names the versions of the tools it runs, of the class files of the step
+ * itself, and of its input file. When the
+ * input file is the output of a child step, the key of the child is used
+ * instead of the content of the file, as such intermediate files are often
+ * deleted once the parent has been built. A step is up to date if its output
+ * file exists and was built from the same key.
+ * <p>
+ * The keys are kept in a properties file mapping the path of each output file
+ * to its key. As the outputs of earlier builds are kept, those which are no
+ * longer built, such as the jars of deleted tests, are deleted by
+ * {@link #deleteStaleOutputs()}.
+ */
+class BuildCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // bump to rebuild every step when the outputs change in a way the class
+    // files of the steps do not show, e.g. a change to how keys are computed
+    private static final int BUILD_CACHE_VERSION = 1;
+
+    private static final Map<Class<?>, String> toolVersions =
+            new ConcurrentHashMap<Class<?>, String>();
+
+    private static final Map<Class<?>, String> classVersions =
+            new ConcurrentHashMap<Class<?>, String>();
+
+    private final File file;
+
+    private final Properties keys = new Properties();
+
+    // the outputs of the steps of this build
+    private final Set<String> outputs = new HashSet<String>();
+
+    private int upToDate;
+    private int rebuilt;
+    private int notCacheable;
+
+    BuildCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the keys saved by the last build, if there was one.
+     */
+    void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            keys.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    void save() throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("failed to create directory: " + parent.getAbsolutePath());
+        }
+        // replace the old file only once the new one is complete
+        File tempFile = new File(parent, file.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            keys.store(out, "vm-tests build cache");
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Computes the key of a step, and remembers its output file as one of the
+     * outputs of this build.
+     *
+     * @param childKeys the keys of the children of the step, by output file
+     * @return the key, or null if the step cannot be cached
+     */
+    String computeKey(BuildStep step, Map<File, String> childKeys) throws IOException {
+        outputs.add(step.outputFile.getPath());
+        String cacheKey = step.getCacheKey();
+        if (cacheKey == null || step.inputFile == null) {
+            return null;
+        }
+        for (BuildStep child : step.getChildren()) {
+            if (childKeys.get(child.outputFile.fileName) == null) {
+                return null;
+            }
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(cacheKey.getBytes(StandardCharsets.UTF_8));
+        digest.update(("v" + BUILD_CACHE_VERSION).getBytes(StandardCharsets.UTF_8));
+        // the build steps themselves are tools too, but only their own class
+        // files are hashed, as the jar they are loaded from also holds all of
+        // the tests
+        for (Class<?> c = step.getClass(); c != Object.class; c = c.getSuperclass()) {
+            digest.update(getClassVersion(c).getBytes(StandardCharsets.UTF_8));
+        }
+        File input = step.inputFile.fileName;
+        String childKey = childKeys.get(input);
+        if (childKey != null) {
+            digest.update(childKey.getBytes(StandardCharsets.UTF_8));
+        } else if (input.isFile()) {
+            update(digest, input);
+        } else {
+            return null;
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns whether the output of a step exists and was built from the given
+     * key.
+     */
+    boolean isUpToDate(BuildStep step, String key) {
+        return key != null && key.equals(keys.getProperty(step.outputFile.getPath()))
+                && step.outputFile.fileName.exists();
+    }
+
+    /**
+     * Records that a step was built from the given key.
+     */
+    void built(BuildStep step, String key) {
+        if (key == null) {
+            notCacheable++;
+        } else {
+            rebuilt++;
+            keys.setProperty(step.outputFile.getPath(), key);
+        }
+    }
+
+    /**
+     * Records that a step was not built, because it or all of the steps
+     * which need its output are up to date.
+     */
+    void skipped(BuildStep step) {
+        upToDate++;
+    }
+
+    /**
+     * Forgets the key of a step which failed, as its output may be incomplete.
+     */
+    void remove(BuildStep step) {
+        keys.remove(step.outputFile.getPath());
+    }
+
+    /**
+     * Deletes the outputs of earlier builds which are not outputs of any step
+     * of this build.
+     */
+    void deleteStaleOutputs() {
+        for (String output : keys.stringPropertyNames()) {
+            if (!outputs.contains(output)) {
+                new File(output).delete();
+                keys.remove(output);
+            }
+        }
+    }
+
+    String getReport() {
+        int total = upToDate + rebuilt + notCacheable;
+        return String.format("build cache: %d of %d steps up to date (%d%%), %d rebuilt, "
+                + "%d not cacheable", upToDate, total,
+                total == 0 ? 0 : upToDate * 100 / total, rebuilt, notCacheable);
+    }
+
+    /**
+     * Returns a hash of the jar or class file the given class was loaded from,
+     * or the version of the JDK for classes of the JDK.
+     */
+    static String getToolVersion(Class<?> tool) {
+        String version = toolVersions.get(tool);
+        if (version == null) {
+            try {
+                version = computeToolVersion(tool);
+            } catch (IOException e) {
+                throw new RuntimeException("failed to read the code of " + tool.getName(), e);
+            }
+            toolVersions.put(tool, version);
+        }
+        return version;
+    }
+
+    /**
+     * Returns a hash of the class file of the given class, wherever it was
+     * loaded from.
+     */
+    private static String getClassVersion(Class<?> c) throws IOException {
+        String version = classVersions.get(c);
+        if (version == null) {
+            String className = c.getName();
+            InputStream in = c.getResourceAsStream(
+                    className.substring(className.lastIndexOf('.') + 1) + ".class");
+            if (in == null) {
+                version = className;
+            } else {
+                MessageDigest digest = newDigest();
+                try {
+                    update(digest, in);
+                } finally {
+                    in.close();
+                }
+                version = toHex(digest.digest());
+            }
+            classVersions.put(c, version);
+        }
+        return version;
+    }
+
+    private static String computeToolVersion(Class<?> tool) throws IOException {
+        CodeSource codeSource = tool.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return "java " + System.getProperty("java.version");
+        }
+        File location;
+        try {
+            location = new File(codeSource.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            location = null;
+        }
+        if (location == null || !location.isFile()) {
+            // loaded from a directory, so only the class itself can be hashed
+            return getClassVersion(tool);
+        }
+        MessageDigest digest = newDigest();
+        update(digest, location);
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            update(digest, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void update(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
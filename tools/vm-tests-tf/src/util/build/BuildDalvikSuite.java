@@ -16,8 +16,6 @@
 
 package util.build;
 
-import com.android.dex.util.FileUtils;
-
 import dot.junit.AllTests;
 import util.build.BuildStep.BuildFile;
 
@@ -28,7 +26,6 @@ import junit.textui.TestRunner;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -36,17 +33,12 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Main class to generate data from the test suite to later run from a shell
@@ -77,8 +69,23 @@ public class BuildDalvikSuite {
 
     private static String restrictTo = null; // e.g. restrict to "opcodes.add_double"
 
+    // the number of build steps run at the same time, e.g. -Dvmtests.build.threads=1
+    private static final int BUILD_THREADS = Math.max(1, Integer.getInteger(
+            "vmtests.build.threads", Runtime.getRuntime().availableProcessors()));
+
+    // the file the BuildCache is kept in, e.g. -Dvmtests.build.cache=out/buildcache.properties;
+    // without it, every step is built
+    private static final String BUILD_CACHE_FILE = System.getProperty("vmtests.build.cache");
+
     private static final String TARGET_JAR_ROOT_PATH = "/data/local/tmp/vm-tests";
 
+    private static final String TARGET_CORE_JAR_PATH = TARGET_JAR_ROOT_PATH
+            + "/dot/junit/dexcore.jar";
+
+    // the host side sources which are compiled with the generated host side junit tests,
+    // relative to the parent of the java-src-folder
+    private static final String HOST_SRC_FOLDER = "host-src";
+
     private int testClassCnt = 0;
     private int testMethodsCnt = 0;
     private boolean useJack;
@@ -93,10 +100,6 @@ public class BuildDalvikSuite {
     private LinkedHashMap<String, List<String>> map = new LinkedHashMap<String,
     List<String>>();
 
-    private class MethodData {
-        String methodBody, constraint, title;
-    }
-
     /**
      * @param args
      *            args 0 must be the project root folder (where src, lib etc.
@@ -203,6 +206,10 @@ public class BuildDalvikSuite {
     private String curJunitName = null;
     private String curJunitFileData = "";
 
+    // the tests of the current test class, for running them all in one VM with DxBatchMain
+    private String curBatchFileName = null;
+    private String curBatchFileData = "";
+
     private SourceBuildStep hostJunitBuildStep;
 
     private void flushHostJunitFile() {
@@ -217,6 +224,10 @@ public class BuildDalvikSuite {
 
             curJunitFileName = null;
             curJunitFileData = "";
+
+            writeToFileMkdir(new File(curBatchFileName), curBatchFileData);
+            curBatchFileName = null;
+            curBatchFileData = "";
         }
     }
 
@@ -228,31 +239,52 @@ public class BuildDalvikSuite {
         // prepare current testcase-file
         curJunitFileName = HOSTJUNIT_SRC_OUTPUT_FOLDER + "/" + pName.replaceAll("\\.","/") + "/" +
         sourceName + ".java";
+        String batchFile = pName.replaceAll("\\.","/") + "/" + classOnlyName + ".batch";
+        curBatchFileName = OUTPUT_FOLDER + "/" + batchFile;
+        String batchCmd = getDalvikvmCommand(TARGET_CORE_JAR_PATH, "dot.junit.DxBatchMain " +
+                TARGET_JAR_ROOT_PATH + "/" + batchFile);
         curJunitFileData = getWarningMessage() +
         "package " + pName + ";\n" +
         "import java.io.IOException;\n" +
         "import java.util.concurrent.TimeUnit;\n\n" +
         "import com.android.tradefed.device.CollectingOutputReceiver;\n" +
+        "import com.android.tradefed.device.DeviceNotAvailableException;\n" +
+        "import com.android.tradefed.result.ITestInvocationListener;\n" +
         "import com.android.tradefed.testtype.IAbi;\n" +
         "import com.android.tradefed.testtype.IAbiReceiver;\n" +
         "import com.android.tradefed.testtype.DeviceTestCase;\n" +
         "import com.android.tradefed.util.AbiFormatter;\n" +
+        "import dot.junit.VmTestBatch;\n" +
         "\n" +
-        "public class " + sourceName + " extends DeviceTestCase implements IAbiReceiver {\n";
+        "public class " + sourceName + " extends DeviceTestCase implements IAbiReceiver {\n" +
+        "\n" +
+        "private static final String BATCH_CMD = \"" + batchCmd + "\";\n";
     }
 
-    private String getShellExecJavaLine(String classpath, String mainclass) {
-      String cmd = String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
+    private String getDalvikvmCommand(String classpath, String mainclass) {
+      return String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
               "-Djava.io.tmpdir=%s -classpath %s %s", TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
               classpath, mainclass);
+    }
+
+    private String getShellExecJavaLine(String classpath, String mainclass, String method) {
+      String cmd = getDalvikvmCommand(classpath, mainclass);
       StringBuilder code = new StringBuilder();
       code.append("    String cmd = AbiFormatter.formatCmdForAbi(\"")
           .append(cmd)
           .append("\", mAbi.getBitness());\n")
-          .append("    CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
-          .append("    getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);\n")
+          .append("    String output = VmTestBatch.getOutput(getDevice(), mAbi.getBitness(), ")
+          .append("BATCH_CMD, \"").append(method).append("\");\n")
+          .append("    if (output == null) {\n")
+          .append("        // The test did not pass in the batch of its class, as it is the\n")
+          .append("        // first test of the class to run, or it failed or did not finish,\n")
+          .append("        // or the VM printed something else than the results.\n")
+          .append("        CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
+          .append("        getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);\n")
+          .append("        output = receiver.getOutput();\n")
+          .append("    }\n")
           .append("    // A sucessful adb shell command returns an empty string.\n")
-          .append("    assertEquals(cmd, \"\", receiver.getOutput());");
+          .append("    assertEquals(cmd, \"\", output);");
       return code.toString();
     }
 
@@ -260,15 +292,14 @@ public class BuildDalvikSuite {
         return "//Autogenerated code by " + this.getClass().getName() + "; do not edit.\n";
     }
 
-    private void addCTSHostMethod(String pName, String method, MethodData md,
+    private void addCTSHostMethod(String pName, String method, TestSourceIndex.TestMethod md,
             Set<String> dependentTestClassNames) {
         curJunitFileData += "public void " + method + "() throws Exception {\n";
-        final String targetCoreJarPath = String.format("%s/dot/junit/dexcore.jar",
-                TARGET_JAR_ROOT_PATH);
 
         String mainsJar = String.format("%s/%s", TARGET_JAR_ROOT_PATH, TARGET_MAIN_FILE);
 
-        String cp = String.format("%s:%s", targetCoreJarPath, mainsJar);
+        // DxBatchMain loads the tests with dexcore.jar on the class path of the VM
+        String cp = mainsJar;
         for (String depFqcn : dependentTestClassNames) {
             String sourceName = depFqcn.replaceAll("\\.", "/") + ".jar";
             String targetName= String.format("%s/%s", TARGET_JAR_ROOT_PATH,
@@ -280,7 +311,9 @@ public class BuildDalvikSuite {
 
         //"dot.junit.opcodes.add_double_2addr.Main_testN2";
         String mainclass = pName + ".Main_" + method;
-        curJunitFileData += getShellExecJavaLine(cp, mainclass);
+        curBatchFileData += method + " " + mainclass + " " + cp + "\n";
+        curJunitFileData += getShellExecJavaLine(TARGET_CORE_JAR_PATH + ":" + cp, mainclass,
+                method);
         curJunitFileData += "\n}\n\n";
     }
 
@@ -293,6 +326,10 @@ public class BuildDalvikSuite {
         SourceBuildStep srcBuildStep;
         hostJunitBuildStep = new JavacBuildStep(
             HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+        File hostSrcFolder = new File(new File(JAVASRC_FOLDER).getAbsoluteFile().getParentFile(),
+                HOST_SRC_FOLDER);
+        hostJunitBuildStep.addSourceFile(
+                new File(hostSrcFolder, "dot/junit/VmTestBatch.java").getAbsolutePath());
 
         String mainsJar = OUTPUT_FOLDER + File.separator + TARGET_MAIN_FILE;
         if (useJack) {
@@ -311,12 +348,24 @@ public class BuildDalvikSuite {
             String instPrefix = "new " + classOnlyName + "()";
 
             openCTSHostFileFor(pName, classOnlyName);
+            TestSourceIndex sourceIndex = TestSourceIndex.read(JAVASRC_FOLDER, pName,
+                    classOnlyName);
 
             curJunitFileData += "\n" +
                     "protected IAbi mAbi;\n" +
                     "@Override\n" +
                     "public void setAbi(IAbi abi) {\n" +
                     "    mAbi = abi;\n" +
+                    "}\n\n" +
+                    "@Override\n" +
+                    "public void run(ITestInvocationListener listener)\n" +
+                    "        throws DeviceNotAvailableException {\n" +
+                    "    try {\n" +
+                    "        super.run(listener);\n" +
+                    "    } finally {\n" +
+                    "        // Results left in the batch must not be handed to a later run\n" +
+                    "        VmTestBatch.clear(getDevice(), mAbi.getBitness(), BATCH_CMD);\n" +
+                    "    }\n" +
                     "}\n\n";
 
             List<String> methods = entry.getValue();
@@ -341,11 +390,10 @@ public class BuildDalvikSuite {
                 // new dxc.junit.opcodes.aaload.Test_aaload().testN1();
                 // }
                 // }
-                MethodData md = parseTestMethod(pName, classOnlyName, method);
-                String methodContent = md.methodBody;
+                TestSourceIndex.TestMethod md = sourceIndex.getMethod(method);
+                String methodContent = md.body;
 
-                Set<String> dependentTestClassNames = parseTestClassName(pName,
-                        classOnlyName, methodContent);
+                Set<String> dependentTestClassNames = md.dependencies;
 
                 addCTSHostMethod(pName, method, md, dependentTestClassNames);
 
@@ -459,9 +507,13 @@ public class BuildDalvikSuite {
               new BuildStep.BuildFile(new File(CLASSES_OUTPUT_FOLDER)),
               new BuildStep.BuildFile(new File(mainsJar)),
               false);
+          dexBuildStep.addChild(srcBuildStep);
 
           targets.add(dexBuildStep);
+        } else {
+          targets.add(srcBuildStep);
         }
+        targets.add(hostJunitBuildStep);
 
         // write latest HOSTJUNIT generated file.
         flushHostJunitFile();
@@ -470,22 +522,27 @@ public class BuildDalvikSuite {
         scriptDataDir.mkdirs();
         writeToFile(new File(scriptDataDir, "scriptdata"), datafileContent);
 
-        if (!hostJunitBuildStep.build()) {
-            System.out.println("main javac cts-host-hostjunit-classes build step failed");
-            System.exit(1);
+        System.out.println("building " + targets.size() + " targets with " + BUILD_THREADS
+                + " threads");
+        BuildCache cache = null;
+        if (BUILD_CACHE_FILE != null) {
+            cache = new BuildCache(new File(BUILD_CACHE_FILE));
+            cache.load();
         }
-
-        if (!srcBuildStep.build()) {
-            System.out.println("main src dalvik-cts-buildutil build step failed");
-            System.exit(1);
+        BuildStepExecutor executor = new BuildStepExecutor(BUILD_THREADS, cache);
+        boolean success = executor.build(targets);
+        if (cache != null) {
+            if (success) {
+                cache.deleteStaleOutputs();
+            }
+            cache.save();
+            System.out.println(cache.getReport());
         }
-
-        for (BuildStep buildStep : targets) {
-            if (!buildStep.build()) {
-                System.out.println("building failed. buildStep: " +
-                        buildStep.getClass().getName() + ", " + buildStep);
-                System.exit(1);
+        if (!success) {
+            for (String failure : executor.getFailures()) {
+                System.out.println("building failed. buildStep: " + failure);
             }
+            System.exit(1);
         }
     }
 
@@ -634,183 +691,6 @@ public class BuildDalvikSuite {
 
     }
 
-    /**
-     * @param pName
-     * @param classOnlyName
-     * @param methodSource
-     * @return testclass names
-     */
-    private Set<String> parseTestClassName(String pName, String classOnlyName,
-            String methodSource) {
-        Set<String> entries = new HashSet<String>();
-        String opcodeName = classOnlyName.substring(5);
-
-        Scanner scanner = new Scanner(methodSource);
-
-        String[] patterns = new String[] {"new\\s(T_" + opcodeName + "\\w*)",
-                "(T_" + opcodeName + "\\w*)", "new\\s(T\\w*)"};
-
-        String token = null;
-        for (String pattern : patterns) {
-            token = scanner.findWithinHorizon(pattern, methodSource.length());
-            if (token != null) {
-                break;
-            }
-        }
-
-        if (token == null) {
-            System.err.println("warning: failed to find dependent test class name: " + pName +
-                    ", " + classOnlyName + " in methodSource:\n" + methodSource);
-            return entries;
-        }
-
-        MatchResult result = scanner.match();
-
-        entries.add((pName + ".d." + result.group(1)).trim());
-
-        // search additional @uses directives
-        Pattern p = Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
-        Matcher m = p.matcher(methodSource);
-        while (m.find()) {
-            String res = m.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " load(\"...\" " and add as dependency
-        Pattern loadPattern = Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadMatcher = loadPattern.matcher(methodSource);
-        while (loadMatcher.find()) {
-            String res = loadMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " loadAndRun(\"...\" " and add as dependency
-        Pattern loadAndRunPattern = Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadAndRunMatcher = loadAndRunPattern.matcher(methodSource);
-        while (loadAndRunMatcher.find()) {
-            String res = loadAndRunMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // lines with the form @uses
-        // dot.junit.opcodes.add_double.jm.T_add_double_2
-        // one dependency per one @uses
-        // TODO
-
-        return entries;
-    }
-
-    private MethodData parseTestMethod(String pname, String classOnlyName,
-            String method) {
-
-        String path = pname.replaceAll("\\.", "/");
-        String absPath = JAVASRC_FOLDER + "/" + path + "/" + classOnlyName + ".java";
-        File f = new File(absPath);
-
-        Scanner scanner;
-        try {
-            scanner = new Scanner(f);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("error while reading to file: " + e.getClass().getName() +
-                    ", msg:" + e.getMessage());
-        }
-
-        String methodPattern = "public\\s+void\\s+" + method + "[^\\{]+\\{";
-
-        String token = scanner.findWithinHorizon(methodPattern, (int) f.length());
-        if (token == null) {
-            throw new RuntimeException("cannot find method source of 'public void " + method +
-                    "' in file '" + absPath + "'");
-        }
-
-        MatchResult result = scanner.match();
-        result.start();
-        result.end();
-
-        StringBuilder builder = new StringBuilder();
-        //builder.append(token);
-
-        try {
-            FileReader reader = new FileReader(f);
-            reader.skip(result.end());
-
-            char currentChar;
-            int blocks = 1;
-            while ((currentChar = (char) reader.read()) != -1 && blocks > 0) {
-                switch (currentChar) {
-                    case '}': {
-                        blocks--;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    case '{': {
-                        blocks++;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    default: {
-                        builder.append(currentChar);
-                        break;
-                    }
-                }
-            }
-            if (reader != null) {
-                reader.close();
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("failed to parse", e);
-        }
-
-        // find the @title/@constraint in javadoc comment for this method
-        // using platform's default charset
-        String all = new String(FileUtils.readFile(f));
-        // System.out.println("grepping javadoc found for method " + method +
-        // " in " + pname + "," + classOnlyName);
-        String commentPattern = "/\\*\\*([^{]*)\\*/\\s*" + methodPattern;
-        Pattern p = Pattern.compile(commentPattern, Pattern.DOTALL);
-        Matcher m = p.matcher(all);
-        String title = null, constraint = null;
-        if (m.find()) {
-            String res = m.group(1);
-            // System.out.println("res: " + res);
-            // now grep @title and @constraint
-            Matcher titleM = Pattern.compile("@title (.*)", Pattern.DOTALL)
-            .matcher(res);
-            if (titleM.find()) {
-                title = titleM.group(1).replaceAll("\\n     \\*", "");
-                title = title.replaceAll("\\n", " ");
-                title = title.trim();
-                // System.out.println("title: " + title);
-            } else {
-                System.err.println("warning: no @title found for method " + method + " in " + pname +
-                        "," + classOnlyName);
-            }
-            // constraint can be one line only
-            Matcher constraintM = Pattern.compile("@constraint (.*)").matcher(
-                    res);
-            if (constraintM.find()) {
-                constraint = constraintM.group(1);
-                constraint = constraint.trim();
-                // System.out.println("constraint: " + constraint);
-            } else if (method.contains("VFE")) {
-                System.err
-                .println("warning: no @constraint for for a VFE method:" + method + " in " +
-                        pname + "," + classOnlyName);
-            }
-        } else {
-            System.err.println("warning: no javadoc found for method " + method + " in " + pname +
-                    "," + classOnlyName);
-        }
-        MethodData md = new MethodData();
-        md.methodBody = builder.toString();
-        md.constraint = constraint;
-        md.title = title;
-        if (scanner != null) {
-            scanner.close();
-        }
-        return md;
-    }
-
     private void writeToFileMkdir(File file, String content) {
         File parent = file.getParentFile();
         if (!parent.exists() && !parent.mkdirs()) {
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -80,10 +81,14 @@ abstract class BuildStep implements Comparable<BuildStep> {
 
     private Set<BuildStep> children;
 
+    // set by BuildStepExecutor once the step has been built, so that
+    // building a parent does not build its children again
+    private volatile boolean built;
+
     boolean build() {
         if (children != null) {
             for (BuildStep child : children) {
-                if (!child.build()) {
+                if (!child.built && !child.build()) {
                     return false;
                 }
             }
@@ -101,6 +106,32 @@ abstract class BuildStep implements Comparable<BuildStep> {
     @Override
     public abstract int hashCode();
 
+    /**
+     * Returns how this step turns its input file into its output file,
+     * including the versions of the tools it runs, for {@link BuildCache}.
+     * Returns null if the output does not only depend on the input file, so
+     * that the step is always built.
+     */
+    String getCacheKey() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + outputFile.getPath();
+    }
+
+    Set<BuildStep> getChildren() {
+        if (children == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(children);
+    }
+
+    void setBuilt() {
+        built = true;
+    }
+
     public void addChild(BuildStep child) {
         if (children == null) {
             children = new HashSet<BuildStep>();
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds {@link BuildStep}s and their children on a fixed number of threads.
+ * <p>
+ * The steps form a graph in which every step depends on its children. Equal
+ * steps reachable from several targets are built only once, after the children
+ * of all of them. A step is started
+ * as soon as all of its children have been built, and ready steps are started
+ * in the order of their output files, so a build with one thread always runs
+ * the same steps in the same order.
+ * <p>
+ * Once a step fails no further steps are started, but the steps which are
+ * already running are allowed to finish, and all of their failures are
+ * reported by {@link #getFailures()}.
+ * <p>
+ * With a {@link BuildCache}, steps which are up to date are not built, and
+ * neither are their children unless another step which is built needs them.
+ */
+class BuildStepExecutor {
+
+    private final int threads;
+
+    private final BuildCache cache;
+
+    private final List<String> failures = new ArrayList<String>();
+
+    private static class Node implements Comparable<Node> {
+        final BuildStep step;
+        // all steps equal to step, which are marked as built together
+        final List<BuildStep> instances = new ArrayList<BuildStep>();
+        final List<Node> parents = new ArrayList<Node>();
+        final List<Node> children = new ArrayList<Node>();
+        final int index;
+        boolean target;
+        int pendingChildren;
+        String key;
+        boolean skip;
+        String error;
+
+        Node(BuildStep step, int index) {
+            this.step = step;
+            this.index = index;
+        }
+
+        public int compareTo(Node o) {
+            int result = step.compareTo(o.step);
+            return result != 0 ? result : index - o.index;
+        }
+    }
+
+    /**
+     * @param cache the cache to skip steps with, or null to build every step
+     */
+    BuildStepExecutor(int threads, BuildCache cache) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.cache = cache;
+    }
+
+    /**
+     * Builds the given steps and all of their children.
+     *
+     * @return true if every step was built
+     */
+    boolean build(Collection<? extends BuildStep> targets) {
+        failures.clear();
+        Map<BuildStep, Node> nodes = new HashMap<BuildStep, Node>();
+        List<Node> targetNodes = new ArrayList<Node>();
+        for (BuildStep target : targets) {
+            Node node = addNode(target, nodes);
+            node.target = true;
+            targetNodes.add(node);
+        }
+        // children before their parents
+        List<Node> order = new ArrayList<Node>();
+        Set<Node> visited = new HashSet<Node>();
+        for (Node node : targetNodes) {
+            addToOrder(node, visited, order);
+        }
+        if (cache != null) {
+            try {
+                checkCache(order);
+            } catch (IOException e) {
+                failures.add("failed to read the inputs of the build: " + e);
+                return false;
+            }
+        }
+
+        PriorityQueue<Node> ready = new PriorityQueue<Node>();
+        for (Node node : nodes.values()) {
+            if (node.pendingChildren == 0) {
+                ready.add(node);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Node> completionService =
+                    new ExecutorCompletionService<Node>(executor);
+            int running = 0;
+            int built = 0;
+            while (true) {
+                while (failures.isEmpty() && running < threads && !ready.isEmpty()) {
+                    Node node = ready.poll();
+                    if (node.skip) {
+                        built++;
+                        cache.skipped(node.step);
+                        complete(node, ready);
+                    } else {
+                        completionService.submit(new BuildTask(node));
+                        running++;
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                Node node = completionService.take().get();
+                running--;
+                if (node.error != null) {
+                    failures.add(node.step + ": " + node.error);
+                    if (cache != null) {
+                        cache.remove(node.step);
+                    }
+                    continue;
+                }
+                built++;
+                if (cache != null) {
+                    cache.built(node.step, node.key);
+                }
+                complete(node, ready);
+            }
+
+            if (failures.isEmpty() && built < nodes.size()) {
+                for (Node node : nodes.values()) {
+                    if (node.pendingChildren > 0) {
+                        failures.add(node.step + ": dependency cycle");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add("interrupted while building");
+        } catch (ExecutionException e) {
+            // BuildTask catches everything thrown by a step
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns a description of every step which failed in the last call to
+     * {@link #build(Collection)}.
+     */
+    List<String> getFailures() {
+        return failures;
+    }
+
+    private Node addNode(BuildStep step, Map<BuildStep, Node> nodes) {
+        Node node = nodes.get(step);
+        if (node == null) {
+            node = new Node(step, nodes.size());
+            nodes.put(step, node);
+        } else {
+            for (BuildStep instance : node.instances) {
+                if (instance == step) {
+                    return node;
+                }
+            }
+        }
+        node.instances.add(step);
+        // equal steps may have been given different children, so the node
+        // depends on the children of every instance
+        for (BuildStep child : step.getChildren()) {
+            Node childNode = addNode(child, nodes);
+            if (!node.children.contains(childNode)) {
+                childNode.parents.add(node);
+                node.children.add(childNode);
+                node.pendingChildren++;
+            }
+        }
+        return node;
+    }
+
+    private static void addToOrder(Node node, Set<Node> visited, List<Node> order) {
+        if (!visited.add(node)) {
+            return;
+        }
+        for (Node child : node.children) {
+            addToOrder(child, visited, order);
+        }
+        order.add(node);
+    }
+
+    /**
+     * Computes the cache keys of all steps, and decides which ones to skip.
+     */
+    private void checkCache(List<Node> order) throws IOException {
+        for (Node node : order) {
+            Map<File, String> childKeys = new HashMap<File, String>();
+            for (Node child : node.children) {
+                childKeys.put(child.step.outputFile.fileName, child.key);
+            }
+            node.key = cache.computeKey(node.step, childKeys);
+        }
+
+        // A step which is not up to date is built, and so are those of its
+        // children which are not up to date either. The outputs of skipped
+        // children which are not up to date are not needed.
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Node node = order.get(i);
+            boolean needed = node.target;
+            for (Node parent : node.parents) {
+                if (!parent.skip) {
+                    needed = true;
+                }
+            }
+            node.skip = !needed || cache.isUpToDate(node.step, node.key);
+        }
+    }
+
+    private void complete(Node node, PriorityQueue<Node> ready) {
+        for (BuildStep instance : node.instances) {
+            instance.setBuilt();
+        }
+        for (Node parent : node.parents) {
+            if (--parent.pendingChildren == 0) {
+                ready.add(parent);
+            }
+        }
+    }
+
+    private static class BuildTask implements Callable<Node> {
+
+        private final Node node;
+
+        BuildTask(Node node) {
+            this.node = node;
+        }
+
+        public Node call() {
+            try {
+                if (!node.step.build()) {
+                    node.error = "build step failed";
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+                node.error = t.toString();
+            }
+            return node;
+        }
+    }
+}
@@ -155,6 +155,11 @@ class DasmBuildStep extends BuildStep {
         }
     }
 
+    @Override
+    String getCacheKey() {
+        return "dasm " + generate_linenum + " " + BuildCache.getToolVersion(DAsm.class);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (super.equals(obj)) {
@@ -21,6 +21,10 @@ import java.io.IOException;
 
 public class DxBuildStep extends BuildStep {
 
+    // dx keeps the state of a run in static fields, so only one dx can run
+    // at a time, even when the other steps are built in parallel
+    private static final Object DX_LOCK = new Object();
+
     private final boolean deleteInputFileAfterBuild;
 
     DxBuildStep(BuildFile inputFile, BuildFile outputFile,
@@ -42,7 +46,9 @@ public class DxBuildStep extends BuildStep {
 
             int result = 0;
             try {
-                result = Main.run(args);
+                synchronized (DX_LOCK) {
+                    result = Main.run(args);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 return false;
@@ -63,6 +69,11 @@ public class DxBuildStep extends BuildStep {
         return false;
     }
 
+    @Override
+    String getCacheKey() {
+        return "dx " + BuildCache.getToolVersion(Main.class);
+    }
+
     @Override
     public int hashCode() {
         return inputFile.hashCode() ^ outputFile.hashCode();
@@ -42,14 +42,14 @@ public class JackDexBuildStep extends BuildStep {
             }
 
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!outDir.mkdirs() && !outDir.isDirectory()) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
             }
 
             File tmpOutDir = new File(outDir, outputFile.fileName.getName() + ".dexTmp");
-            if (!tmpOutDir.exists() && !tmpOutDir.mkdirs()) {
+            if (!tmpOutDir.mkdirs() && !tmpOutDir.isDirectory()) {
                 System.err.println("failed to create temp dir: "
                         + tmpOutDir.getAbsolutePath());
                 return false;
@@ -20,6 +20,7 @@ import sun.tools.jar.Main;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 
 public class JarBuildStep extends BuildStep {
@@ -37,48 +38,73 @@ public class JarBuildStep extends BuildStep {
     @Override
     boolean build() {
         if (super.build()) {
-            File tempFile = new File(inputFile.folder, destFileName);
+            // The input is copied into a directory of its own, as the steps
+            // building the jars of other files in the same folder may be
+            // running at the same time and use the same destFileName.
+            File jarRoot = inputFile.folder;
+            File tempDir = null;
             try {
-                if (!inputFile.fileName.equals(tempFile)) {
+                if (!inputFile.fileName.equals(new File(jarRoot, destFileName))) {
+                    tempDir = Files.createTempDirectory(jarRoot.toPath(),
+                            outputFile.fileName.getName()).toFile();
+                    File tempFile = new File(tempDir, destFileName);
+                    tempFile.getParentFile().mkdirs();
                     copyFile(inputFile.fileName, tempFile);
-                } else {
-                    tempFile = null;
+                    jarRoot = tempDir;
                 }
             } catch (IOException e) {
                 System.err.println("io exception:"+e.getMessage());
                 e.printStackTrace();
+                delete(tempDir);
                 return false;
             }
 
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!outDir.mkdirs() && !outDir.isDirectory()) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
+                delete(tempDir);
                 return false;
             }
             String[] arguments = new String[] {
                     "-cMf", outputFile.fileName.getAbsolutePath(), "-C",
-                    inputFile.folder.getAbsolutePath(), destFileName};
+                    jarRoot.getAbsolutePath(), destFileName};
             Main main = new Main(System.out, System.err, "jar");
             boolean success = main.run(arguments);
+            delete(tempDir);
 
             if (success) {
-                if (tempFile != null) {
-                    tempFile.delete();
-                }
                 if (deleteInputFileAfterBuild) {
                     inputFile.fileName.delete();
                 }
             } else {
                 System.err.println("exception in JarBuildStep while calling jar with args:" +
                         " \"-cMf\", "+outputFile.fileName.getAbsolutePath()+", \"-C\"," + 
-                        inputFile.folder.getAbsolutePath()+", "+ destFileName);
+                        jarRoot.getAbsolutePath()+", "+ destFileName);
             }
             return success;
         }
         return false;
     }
 
+    @Override
+    String getCacheKey() {
+        return "jar " + destFileName + " " + BuildCache.getToolVersion(Main.class);
+    }
+
+    private static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
     @Override
     public int hashCode() {
         return inputFile.hashCode() ^ outputFile.hashCode()
@@ -32,7 +32,7 @@ public class JillBuildStep extends BuildStep {
             try {
 
                 File outDir = outputFile.fileName.getParentFile();
-                if (!outDir.exists() && !outDir.mkdirs()) {
+                if (!outDir.mkdirs() && !outDir.isDirectory()) {
                     System.err.println("failed to create output dir: "
                             + outDir.getAbsolutePath());
                     return false;
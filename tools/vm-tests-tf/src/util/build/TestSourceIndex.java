@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The test methods of one JUnit test class, read from its source file.
+ * <p>
+ * The source file is read once, and all test methods are found in a single
+ * pass over it, together with their bodies, the @title and @constraint of
+ * their javadoc comments and the test classes they depend on.
+ */
+class TestSourceIndex {
+
+    private static final Pattern TEST_METHOD_PATTERN =
+            Pattern.compile("public\\s+void\\s+(test\\w*)[^\\{]+\\{");
+
+    private static final Pattern TITLE_PATTERN = Pattern.compile("@title (.*)", Pattern.DOTALL);
+
+    // constraint can be one line only
+    private static final Pattern CONSTRAINT_PATTERN = Pattern.compile("@constraint (.*)");
+
+    private static final Pattern USES_PATTERN =
+            Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
+
+    private static final Pattern LOAD_PATTERN = Pattern.compile("load\\(\"([^\"]*)\"");
+
+    private static final Pattern LOAD_AND_RUN_PATTERN =
+            Pattern.compile("loadAndRun\\(\"([^\"]*)\"");
+
+    static class TestMethod {
+        // the source after the opening brace, up to and including the closing brace
+        String body;
+        String title;
+        String constraint;
+        // fully qualified names of the test classes used by the method
+        Set<String> dependencies;
+    }
+
+    private final String pName;
+    private final String classOnlyName;
+    private final File sourceFile;
+    private final Map<String, TestMethod> methods = new HashMap<String, TestMethod>();
+
+    // e.g. T_add_double for Test_add_double
+    private final Pattern[] dependencyPatterns;
+
+    private TestSourceIndex(File sourceFile, String pName, String classOnlyName) {
+        this.sourceFile = sourceFile;
+        this.pName = pName;
+        this.classOnlyName = classOnlyName;
+        String opcodeName = Pattern.quote(classOnlyName.substring(5));
+        dependencyPatterns = new Pattern[] {
+                Pattern.compile("new\\s(T_" + opcodeName + "\\w*)"),
+                Pattern.compile("(T_" + opcodeName + "\\w*)"),
+                Pattern.compile("new\\s(T\\w*)")};
+    }
+
+    /**
+     * Reads the test methods of a test class.
+     *
+     * @param sourceFolder the folder containing the sources of all packages
+     */
+    static TestSourceIndex read(String sourceFolder, String pName, String classOnlyName) {
+        File sourceFile = new File(sourceFolder + "/" + pName.replace('.', '/') + "/"
+                + classOnlyName + ".java");
+        TestSourceIndex index = new TestSourceIndex(sourceFile, pName, classOnlyName);
+        try {
+            index.parse(readFile(sourceFile));
+        } catch (IOException e) {
+            throw new RuntimeException("error while reading file: " + e.getClass().getName() +
+                    ", msg:" + e.getMessage());
+        }
+        return index;
+    }
+
+    TestMethod getMethod(String method) {
+        TestMethod testMethod = methods.get(method);
+        if (testMethod == null) {
+            throw new RuntimeException("cannot find method source of 'public void " + method +
+                    "' in file '" + sourceFile.getPath() + "'");
+        }
+        return testMethod;
+    }
+
+    // like the other sources of the build, test sources use the platform's default charset
+    private static String readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return Charset.defaultCharset().decode(buffer).toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void parse(String source) {
+        Matcher m = TEST_METHOD_PATTERN.matcher(source);
+        int position = 0;
+        while (position < source.length() && m.find(position)) {
+            String name = m.group(1);
+            int bodyStart = m.end();
+            int bodyEnd = findBodyEnd(source, bodyStart);
+            if (!methods.containsKey(name)) {
+                TestMethod testMethod = new TestMethod();
+                testMethod.body = source.substring(bodyStart, bodyEnd);
+                parseComment(source, m.start(), name, testMethod);
+                testMethod.dependencies = parseDependencies(testMethod.body);
+                methods.put(name, testMethod);
+            }
+            position = bodyEnd;
+        }
+    }
+
+    /**
+     * Returns the position after the brace closing the block which starts at
+     * the given position. Braces in comments and literals are counted too.
+     */
+    private static int findBodyEnd(String source, int start) {
+        int blocks = 1;
+        int i = start;
+        while (i < source.length() && blocks > 0) {
+            char c = source.charAt(i++);
+            if (c == '{') {
+                blocks++;
+            } else if (c == '}') {
+                blocks--;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Finds the @title and @constraint of the javadoc comment right before the
+     * method declared at the given position. The comment starts at the first
+     * "/**" after the last opening brace before the method.
+     */
+    private void parseComment(String source, int declarationStart, String method,
+            TestMethod testMethod) {
+        int commentEnd = declarationStart;
+        while (commentEnd > 0 && isWhitespace(source.charAt(commentEnd - 1))) {
+            commentEnd--;
+        }
+        commentEnd -= 2;
+        String comment = null;
+        if (commentEnd >= 0 && source.startsWith("*/", commentEnd)) {
+            int commentStart = source.indexOf("/**", source.lastIndexOf('{', commentEnd) + 1);
+            if (commentStart != -1 && commentStart + 3 <= commentEnd) {
+                comment = source.substring(commentStart + 3, commentEnd);
+            }
+        }
+        if (comment == null) {
+            System.err.println("warning: no javadoc found for method " + method + " in " + pName +
+                    "," + classOnlyName);
+            return;
+        }
+
+        Matcher titleM = TITLE_PATTERN.matcher(comment);
+        if (titleM.find()) {
+            String title = titleM.group(1).replaceAll("\\n     \\*", "");
+            title = title.replaceAll("\\n", " ");
+            testMethod.title = title.trim();
+        } else {
+            System.err.println("warning: no @title found for method " + method + " in " + pName +
+                    "," + classOnlyName);
+        }
+        Matcher constraintM = CONSTRAINT_PATTERN.matcher(comment);
+        if (constraintM.find()) {
+            testMethod.constraint = constraintM.group(1).trim();
+        } else if (method.contains("VFE")) {
+            System.err.println("warning: no @constraint for for a VFE method:" + method + " in " +
+                    pName + "," + classOnlyName);
+        }
+    }
+
+    // the characters matched by \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns the test classes used by a test method: the first T_ class it
+     * creates, the classes named in @uses comments and the classes it loads.
+     */
+    private Set<String> parseDependencies(String methodSource) {
+        Set<String> entries = new HashSet<String>();
+
+        Matcher m = null;
+        for (Pattern pattern : dependencyPatterns) {
+            m = pattern.matcher(methodSource);
+            if (m.find()) {
+                break;
+            }
+            m = null;
+        }
+        if (m == null) {
+            System.err.println("warning: failed to find dependent test class name: " + pName +
+                    ", " + classOnlyName + " in methodSource:\n" + methodSource);
+            return entries;
+        }
+        entries.add((pName + ".d." + m.group(1)).trim());
+
+        addAll(entries, USES_PATTERN.matcher(methodSource));
+        addAll(entries, LOAD_PATTERN.matcher(methodSource));
+        addAll(entries, LOAD_AND_RUN_PATTERN.matcher(methodSource));
+        return entries;
+    }
+
+    private static void addAll(Set<String> entries, Matcher m) {
+        while (m.find()) {
+            entries.add(m.group(1).trim());
+        }
+    }
+}